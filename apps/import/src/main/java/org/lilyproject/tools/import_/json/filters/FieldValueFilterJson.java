@@ -15,7 +15,11 @@
  */
 package org.lilyproject.tools.import_.json.filters;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.ObjectNode;
 import org.lilyproject.repository.api.CompareOp;
 import org.lilyproject.repository.api.LRepository;
@@ -51,27 +55,41 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
 
         String field = JsonUtil.getString(node, "field", null);
         JsonNode fieldValue = node.get("fieldValue");
+        JsonNode fieldValues = node.get("fieldValues");
 
-        // field and fieldValue should be specified both, or not at all, for deserialization to work
-        if ((field != null || fieldValue != null) && (field == null || fieldValue == null)) {
+        // field and fieldValue (or fieldValues) should be specified both, or not at all, for deserialization to work
+        if ((field != null || fieldValue != null || fieldValues != null)
+                && (field == null || (fieldValue == null && fieldValues == null))) {
             throw new RuntimeException("FieldValueFilter deserialization: both field and fieldValue must be specified.");
         }
 
-        if (field != null && fieldValue != null) {
-            QName fieldQName = QNameConverter.fromJson(field, namespaces);
-            filter.setField(fieldQName);
-            ValueType valueType = repository.getTypeManager().getFieldTypeByName(fieldQName).getValueType();
-            Object value = RecordReader.INSTANCE.readValue(
-                    new RecordReader.ValueHandle(fieldValue, "fieldValue", valueType),
-                    new RecordReader.ReadContext(repository, new NamespacesImpl(), defaultLinkTransformer));
-            filter.setFieldValue(value);
-        }
-
         String compareOp = JsonUtil.getString(node, "compareOp", null);
         if (compareOp != null) {
             filter.setCompareOp(CompareOp.valueOf(compareOp));
         }
 
+        if (field != null) {
+            QName fieldQName = QNameConverter.fromJson(field, namespaces);
+            filter.setField(fieldQName);
+            ValueType valueType = getComparedValueType(filter, fieldValues != null, repository);
+            RecordReader.ReadContext readContext = new RecordReader.ReadContext(repository, new NamespacesImpl(),
+                    defaultLinkTransformer);
+            if (fieldValue != null) {
+                filter.setFieldValue(RecordReader.INSTANCE.readValue(
+                        new RecordReader.ValueHandle(fieldValue, "fieldValue", valueType), readContext));
+            }
+            if (fieldValues != null) {
+                if (!fieldValues.isArray()) {
+                    throw new JsonFormatException("FieldValueFilter: fieldValues should be an array.");
+                }
+                List<Object> values = new ArrayList<Object>(fieldValues.size());
+                for (int i = 0; i < fieldValues.size(); i++) {
+                    values.add(RecordReader.INSTANCE.readValue(
+                            new RecordReader.ValueHandle(fieldValues.get(i), "fieldValues", valueType), readContext));
+                }
+                filter.setFieldValues(values);
+            }
+        }
 
         filter.setFilterIfMissing(JsonUtil.getBoolean(node, "filterIfMissing", filter.getFilterIfMissing()));
 
@@ -84,20 +102,28 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
             throws RepositoryException, InterruptedException {
         ObjectNode node = JsonFormat.OBJECT_MAPPER.createObjectNode();
 
-        // field and fieldValue should be specified both, or not at all, for serialization to work
-        if ((filter.getField() != null || filter.getFieldValue() != null) &&
-                (filter.getField() == null || filter.getFieldValue() == null)) {
+        // field and fieldValue (or fieldValues) should be specified both, or not at all, for serialization to work
+        boolean hasValue = filter.getFieldValue() != null || filter.getFieldValues() != null;
+        if ((filter.getField() != null || hasValue) && (filter.getField() == null || !hasValue)) {
             throw new RuntimeException("Both field and fieldValue must be specified.");
         }
 
-        if (filter.getField() != null && filter.getFieldValue() != null) {
+        if (filter.getField() != null) {
             node.put("field", QNameConverter.toJson(filter.getField(), namespaces));
 
-            ValueType valueType = repository.getTypeManager().getFieldTypeByName(filter.getField()).getValueType();
-            JsonNode valueAsJson = RecordWriter.INSTANCE.valueToJson(filter.getFieldValue(), valueType,
-                    new WriteOptions(), namespaces, repository);
-
-            node.put("fieldValue", valueAsJson);
+            ValueType valueType = getComparedValueType(filter, filter.getFieldValues() != null, repository);
+            if (filter.getFieldValue() != null) {
+                JsonNode valueAsJson = RecordWriter.INSTANCE.valueToJson(filter.getFieldValue(), valueType,
+                        new WriteOptions(), namespaces, repository);
+                node.put("fieldValue", valueAsJson);
+            }
+            if (filter.getFieldValues() != null) {
+                ArrayNode valuesNode = node.putArray("fieldValues");
+                for (Object value : filter.getFieldValues()) {
+                    valuesNode.add(RecordWriter.INSTANCE.valueToJson(value, valueType, new WriteOptions(), namespaces,
+                            repository));
+                }
+            }
             node.putObject("value");
         }
 
@@ -109,4 +135,18 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
 
         return node;
     }
+
+    /**
+     * Range comparisons and value lists compare with the individual values of a multi-value or hierarchical
+     * field, other comparisons with the complete field value.
+     */
+    private ValueType getComparedValueType(FieldValueFilter filter, boolean multipleValues, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        ValueType valueType = repository.getTypeManager().getFieldTypeByName(filter.getField()).getValueType();
+        CompareOp compareOp = filter.getCompareOp();
+        if (multipleValues || (compareOp != null && compareOp != CompareOp.EQUAL && compareOp != CompareOp.NOT_EQUAL)) {
+            return valueType.getDeepestValueType();
+        }
+        return valueType;
+    }
 }
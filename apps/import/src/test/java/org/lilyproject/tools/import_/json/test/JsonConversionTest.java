@@ -32,6 +32,7 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.lilyproject.bytes.api.ByteArray;
+import org.lilyproject.repository.api.CompareOp;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
@@ -294,6 +295,28 @@ public class JsonConversionTest {
         }
     }
 
+    @Test
+    public void testScanFieldValueFilter_RangeAndValues() throws Exception {
+        // A range comparison on a multi-value field takes one of its values
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(new QName("ns", "stringListField"), CompareOp.GREATER, "foo"));
+        FieldValueFilter filter = (FieldValueFilter) scanFromBytes(scanToBytes(scan)).getRecordFilter();
+        assertEquals(CompareOp.GREATER, filter.getCompareOp());
+        assertEquals("foo", filter.getFieldValue());
+
+        FieldValueFilter valuesFilter = new FieldValueFilter();
+        valuesFilter.setField(new QName("ns", "longField"));
+        valuesFilter.setFieldValues(Lists.<Object>newArrayList(1L, 2L, 3L));
+        scan.setRecordFilter(valuesFilter);
+        byte[] data = scanToBytes(scan);
+        filter = (FieldValueFilter) scanFromBytes(data).getRecordFilter();
+        assertNull(filter.getFieldValue());
+        assertEquals(Lists.<Object>newArrayList(1L, 2L, 3L), filter.getFieldValues());
+
+        JsonNode node = new ObjectMapper().readTree(data);
+        assertEquals(3, node.get("recordFilter").get("fieldValues").size());
+    }
+
     @Test
     public void testScanRecordVariantFilter() throws Exception {
         IdGenerator idGenerator = new IdGeneratorImpl();
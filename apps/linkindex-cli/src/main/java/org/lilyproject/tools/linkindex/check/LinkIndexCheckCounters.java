@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.tools.linkindex.check;
+
+/**
+ * Counters of the link index check job.
+ */
+public enum LinkIndexCheckCounters {
+
+    /**
+     * Number of records which have been checked.
+     */
+    RECORDS,
+
+    /**
+     * Number of records for which the link index differs from the links of the record.
+     */
+    INCONSISTENT_RECORDS,
+
+    /**
+     * Number of links (per vtag) which are missing from the forward index.
+     */
+    MISSING_LINKS,
+
+    /**
+     * Number of links (per vtag) which are in the forward index, but missing from the backward index.
+     */
+    MISSING_BACKWARD_LINKS,
+
+    /**
+     * Number of links (per vtag) in the forward index which the record does not have.
+     */
+    STALE_LINKS,
+
+    /**
+     * Number of link index entries (forward and backward) written for a rebuild.
+     */
+    REBUILT_ENTRIES
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.tools.linkindex.check;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.lilyproject.client.LilyClient;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.linkindex.FieldedLink;
+import org.lilyproject.linkindex.LinkIndex;
+import org.lilyproject.linkindex.LinkIndexChecker;
+import org.lilyproject.mapreduce.IdRecordMapper;
+import org.lilyproject.mapreduce.IdRecordWritable;
+import org.lilyproject.mapreduce.LilyMapReduceUtil;
+import org.lilyproject.mapreduce.RecordIdWritable;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.util.Pair;
+import org.lilyproject.util.exception.ExceptionUtil;
+import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.VTaggedRecord;
+
+/**
+ * Checks the link index entries of each record, and depending on the mode, repairs them or writes the puts
+ * for rebuilding the link index.
+ */
+public class LinkIndexCheckMapper extends IdRecordMapper<ImmutableBytesWritable, Put> {
+
+    /**
+     * Config key for the {@link Mode} of the job.
+     */
+    public static final String MODE = "lilyproject.linkindexcheck.mode";
+
+    /**
+     * Config key for the name of the repository table whose records are checked.
+     */
+    public static final String TABLE_NAME = "lilyproject.linkindexcheck.table";
+
+    /**
+     * Named output to which the puts for the forward link index are written, in rebuild mode.
+     */
+    static final String FORWARD_LINKS_OUTPUT = "linksforward";
+
+    /**
+     * Named output to which the puts for the backward link index are written, in rebuild mode.
+     */
+    static final String BACKWARD_LINKS_OUTPUT = "linksbackward";
+
+    public enum Mode {
+        /**
+         * Only report the differences, through the job counters and the task logs.
+         */
+        REPORT,
+
+        /**
+         * Repair the differences by adding and removing entries in the link index.
+         */
+        REPAIR,
+
+        /**
+         * Write the link index entries of all records, to be turned into HFiles.
+         */
+        REBUILD
+    }
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private Mode mode;
+    private String tableName;
+    private LilyClient lilyClient;
+    private LRepository repository;
+    private LTable table;
+    private LinkIndex linkIndex;
+    private LinkIndexChecker checker;
+    private MultipleOutputs<ImmutableBytesWritable, Put> multipleOutputs;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        mode = Mode.valueOf(conf.get(MODE, Mode.REPORT.name()));
+        tableName = conf.get(TABLE_NAME);
+
+        lilyClient = LilyMapReduceUtil.getLilyClient(conf);
+        try {
+            repository = lilyClient.getRepository(conf.get(LilyMapReduceUtil.REPOSITORY_NAME));
+            table = repository.getTable(tableName);
+            linkIndex = new LinkIndex(new IndexManager(conf, new HBaseTableFactoryImpl(conf)), lilyClient);
+        } catch (Exception e) {
+            ExceptionUtil.handleInterrupt(e);
+            throw new IOException("Error setting up link index check", e);
+        }
+        checker = new LinkIndexChecker(linkIndex, repository);
+
+        if (mode == Mode.REBUILD) {
+            multipleOutputs = new MultipleOutputs<ImmutableBytesWritable, Put>(context);
+        }
+    }
+
+    @Override
+    protected void map(RecordIdWritable key, IdRecordWritable value, Context context)
+            throws IOException, InterruptedException {
+        IdRecord record = value.getRecord();
+        AbsoluteRecordId absoluteId = repository.getIdGenerator().newAbsoluteRecordId(tableName, record.getId());
+        try {
+            VTaggedRecord vtRecord = new VTaggedRecord(record, null, table, repository);
+            if (mode == Mode.REBUILD) {
+                writeLinkPuts(absoluteId, checker.extractLinks(vtRecord), context);
+            } else {
+                LinkIndexChecker.Result result = checker.check(absoluteId, vtRecord, mode == Mode.REPAIR);
+                report(absoluteId, result, context);
+            }
+        } catch (Exception e) {
+            ExceptionUtil.handleInterrupt(e);
+            throw new IOException("Error checking the link index for record " + absoluteId, e);
+        }
+        context.getCounter(LinkIndexCheckCounters.RECORDS).increment(1L);
+    }
+
+    private void report(AbsoluteRecordId absoluteId, LinkIndexChecker.Result result, Context context) {
+        if (result.isConsistent()) {
+            return;
+        }
+
+        context.getCounter(LinkIndexCheckCounters.INCONSISTENT_RECORDS).increment(1L);
+        context.getCounter(LinkIndexCheckCounters.MISSING_LINKS).increment(result.getMissingLinks().size());
+        context.getCounter(LinkIndexCheckCounters.MISSING_BACKWARD_LINKS)
+                .increment(result.getMissingBackwardLinks().size());
+        context.getCounter(LinkIndexCheckCounters.STALE_LINKS).increment(result.getStaleLinks().size());
+
+        log.info(String.format("Record %1$s: %2$d missing links %3$s, %4$d missing backward links %5$s, " +
+                "%6$d stale links %7$s%8$s", absoluteId, result.getMissingLinks().size(), result.getMissingLinks(),
+                result.getMissingBackwardLinks().size(), result.getMissingBackwardLinks(),
+                result.getStaleLinks().size(), result.getStaleLinks(), mode == Mode.REPAIR ? " (repaired)" : ""));
+    }
+
+    private void writeLinkPuts(AbsoluteRecordId absoluteId, Set<Pair<FieldedLink, SchemaId>> links, Context context)
+            throws Exception {
+        Map<SchemaId, Set<FieldedLink>> linksByVTag = Maps.newHashMap();
+        for (Pair<FieldedLink, SchemaId> link : links) {
+            Set<FieldedLink> vtagLinks = linksByVTag.get(link.getV2());
+            if (vtagLinks == null) {
+                vtagLinks = new HashSet<FieldedLink>();
+                linksByVTag.put(link.getV2(), vtagLinks);
+            }
+            vtagLinks.add(link.getV1());
+        }
+
+        for (Map.Entry<SchemaId, Set<FieldedLink>> entry : linksByVTag.entrySet()) {
+            Pair<List<Put>, List<Put>> puts = linkIndex.createLinkPuts(absoluteId, entry.getKey(), entry.getValue());
+            for (Put put : puts.getV1()) {
+                multipleOutputs.write(FORWARD_LINKS_OUTPUT, new ImmutableBytesWritable(put.getRow()), put,
+                        FORWARD_LINKS_OUTPUT + "/part");
+            }
+            for (Put put : puts.getV2()) {
+                multipleOutputs.write(BACKWARD_LINKS_OUTPUT, new ImmutableBytesWritable(put.getRow()), put,
+                        BACKWARD_LINKS_OUTPUT + "/part");
+            }
+            context.getCounter(LinkIndexCheckCounters.REBUILT_ENTRIES)
+                    .increment(puts.getV1().size() + puts.getV2().size());
+        }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (multipleOutputs != null) {
+            multipleOutputs.close();
+        }
+        Closer.close(lilyClient);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.tools.linkindex.check;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.lilyproject.cli.BaseZkCliTool;
+import org.lilyproject.client.LilyClient;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.linkindex.LinkIndex;
+import org.lilyproject.linkindex.LinkIndexHFiles;
+import org.lilyproject.mapreduce.LilyMapReduceUtil;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.tools.linkindex.check.LinkIndexCheckMapper.Mode;
+import org.lilyproject.util.Version;
+import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
+import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * MapReduce job which checks the link index against the links of the records in a repository table.
+ *
+ * <p>For each record, the links are extracted for all its vtags, as the
+ * {@link org.lilyproject.linkindex.LinkIndexUpdater} does, and compared with the forward and backward link
+ * index. Depending on the mode, the differences are only reported, or are repaired with batched additions and
+ * removals. This is a lot faster than re-processing all records through the link index updater.
+ *
+ * <p>In rebuild mode, the link index entries of all records are written as HFiles and bulk loaded into the link
+ * index tables, without comparing. Entries already in these tables are kept, so for a clean rebuild, the tables
+ * should be truncated first.
+ */
+public class LinkIndexCheckTool extends BaseZkCliTool implements Tool {
+    private Option modeOption;
+    private Option repositoryOption;
+    private Option tableOption;
+
+    private Configuration conf = new Configuration();
+
+    @Override
+    protected String getCmdName() {
+        return "lily-check-linkindex";
+    }
+
+    @Override
+    protected String getVersion() {
+        return Version.readVersion("org.lilyproject", "lily-linkindex-cli");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int status = ToolRunner.run(new Configuration(), new LinkIndexCheckTool(), args);
+        System.exit(status);
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        start(args);
+        return 0;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    @SuppressWarnings("static-access")
+    public List<Option> getOptions() {
+        List<Option> options = super.getOptions();
+
+        modeOption = OptionBuilder
+                .withArgName("mode")
+                .hasArg()
+                .withDescription("What to do: 'report' (default) only reports the differences, 'repair' repairs" +
+                        " them, 'rebuild' writes the link index entries of all records as HFiles and loads them")
+                .withLongOpt("mode")
+                .create("m");
+        options.add(modeOption);
+
+        repositoryOption = OptionBuilder
+                .withArgName("name")
+                .hasArg()
+                .withDescription("Repository name (defaults to default repository)")
+                .withLongOpt("repository")
+                .create("r");
+        options.add(repositoryOption);
+
+        tableOption = OptionBuilder
+                .withArgName("name")
+                .hasArg()
+                .withDescription("Repository table whose records are checked (defaults to record)")
+                .withLongOpt("table")
+                .create("t");
+        options.add(tableOption);
+
+        return options;
+    }
+
+    @Override
+    public int run(CommandLine cmd) throws Exception {
+        int result = super.run(cmd);
+        if (result != 0) {
+            return result;
+        }
+
+        Mode mode = Mode.REPORT;
+        if (cmd.hasOption(modeOption.getOpt())) {
+            try {
+                mode = Mode.valueOf(cmd.getOptionValue(modeOption.getOpt()).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid mode: " + cmd.getOptionValue(modeOption.getOpt()));
+                return 1;
+            }
+        }
+        String tableName = cmd.getOptionValue(tableOption.getOpt(), Table.RECORD.name);
+
+        conf.set("hbase.zookeeper.quorum", zkConnectionString);
+        conf.set(LinkIndexCheckMapper.MODE, mode.name());
+        conf.set(LinkIndexCheckMapper.TABLE_NAME, tableName);
+
+        Job job = new Job(conf);
+        job.setJarByClass(LinkIndexCheckTool.class);
+        job.setJobName(String.format("%s: %s %s", getCmdName(), mode.name().toLowerCase(), tableName));
+        job.setMapperClass(LinkIndexCheckMapper.class);
+        job.setNumReduceTasks(0);
+        job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+        job.setMapOutputValueClass(Put.class);
+
+        Path tmpDir = new Path("/tmp/lily-linkindex-" + UUID.randomUUID());
+        if (mode == Mode.REBUILD) {
+            // The puts are only written to the named outputs
+            LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
+            SequenceFileOutputFormat.setOutputPath(job, tmpDir);
+            MultipleOutputs.addNamedOutput(job, LinkIndexCheckMapper.FORWARD_LINKS_OUTPUT,
+                    SequenceFileOutputFormat.class, ImmutableBytesWritable.class, Put.class);
+            MultipleOutputs.addNamedOutput(job, LinkIndexCheckMapper.BACKWARD_LINKS_OUTPUT,
+                    SequenceFileOutputFormat.class, ImmutableBytesWritable.class, Put.class);
+        } else {
+            job.setOutputFormatClass(NullOutputFormat.class);
+        }
+
+        LilyClient lilyClient = new LilyClient(zkConnectionString, 30000);
+        try {
+            LRepository repository = cmd.hasOption(repositoryOption.getOpt()) ?
+                    lilyClient.getRepository(cmd.getOptionValue(repositoryOption.getOpt())) :
+                    lilyClient.getDefaultRepository();
+            LilyMapReduceUtil.initMapperJob(new RecordScan(), true, zkConnectionString, repository, job,
+                    Collections.singletonList(tableName));
+
+            // Makes sure the link index tables exist
+            new LinkIndex(new IndexManager(conf, new HBaseTableFactoryImpl(conf)), lilyClient);
+        } finally {
+            Closer.close(lilyClient);
+        }
+
+        if (!job.waitForCompletion(true)) {
+            System.err.println("Link index check job failed");
+            return 1;
+        }
+
+        if (mode == Mode.REBUILD) {
+            // Same order as in the LinkIndex: forward links first, then backward links
+            result = loadLinkIndexHFiles(tmpDir, LinkIndexCheckMapper.FORWARD_LINKS_OUTPUT,
+                    LinkIndex.FORWARD_INDEX_NAME);
+            if (result == 0) {
+                result = loadLinkIndexHFiles(tmpDir, LinkIndexCheckMapper.BACKWARD_LINKS_OUTPUT,
+                        LinkIndex.BACKWARD_INDEX_NAME);
+            }
+            FileSystem.get(conf).delete(tmpDir, true);
+        }
+
+        return result;
+    }
+
+    /**
+     * Converts the puts written by the check job for one link index table to HFiles, and loads them.
+     */
+    private int loadLinkIndexHFiles(Path outputDir, String namedOutput, String indexTableName) throws Exception {
+        Path hfileDir = LinkIndexHFiles.writeHFiles(conf, String.format("%s: %s HFiles", getCmdName(), indexTableName),
+                LinkIndexCheckTool.class, outputDir, namedOutput, indexTableName);
+        if (hfileDir == null) {
+            // no links at all
+            return 0;
+        }
+        return LinkIndexHFiles.loadHFiles(conf, hfileDir, indexTableName);
+    }
+}
@@ -30,6 +30,8 @@ public abstract class AbstractTestAction implements TestAction {
     protected String source;
     protected String destination;
     protected int failureCount = 0;
+    /** Nanoseconds by which the current operation of an open-loop test started later than scheduled. */
+    private long startDelay = -1;
     private String name;
     protected JsonNode actionNode;
     protected TestActionContext testActionContext;
@@ -67,6 +69,22 @@ public abstract class AbstractTestAction implements TestAction {
         return failureCount;
     }
 
+    @Override
+    public int run(long scheduledStart) {
+        failureCount = 0;
+        startDelay = Math.max(0, System.nanoTime() - scheduledStart);
+        try {
+            runAction();
+        } finally {
+            // the action did not report the operation as a whole
+            if (startDelay >= 0) {
+                reportStartDelay();
+            }
+            startDelay = -1;
+        }
+        return failureCount;
+    }
+
     abstract protected void runAction();
 
     protected void report(boolean success, double duration) {
@@ -85,6 +103,22 @@ public abstract class AbstractTestAction implements TestAction {
         if (testActionContext.metrics != null) {
             testActionContext.metrics.increment(metricname, actionType, duration / 1e6d);
         }
+        // In an open-loop test, the time the operation waited to start is part of its response time. It is
+        // reported as a separate metric of the operation as a whole, so that the other metrics, from which the
+        // ops/sec are computed, keep measuring the time the operation itself took.
+        if (subactionName == null && startDelay >= 0) {
+            if (testActionContext.metrics != null) {
+                testActionContext.metrics.increment(name + ".response", (duration + startDelay) / 1e6d);
+            }
+            reportStartDelay();
+        }
+    }
+
+    private void reportStartDelay() {
+        if (testActionContext.metrics != null) {
+            testActionContext.metrics.increment("Start delay", startDelay / 1e6d);
+        }
+        startDelay = -1;
     }
 
     protected void reportError(String message, Throwable throwable) {
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.tools.tester;
+
+import java.util.Random;
+
+/**
+ * The moments at which one worker starts its operations in an open-loop test, independent of how long
+ * the operations take.
+ *
+ * <p>The rate increases linearly from 0 to the target rate during the ramp-up, and then stays at the
+ * target rate. The moments are calculated by inverting the expected number of operations as a function
+ * of time, which for uniform arrivals is done at each whole number of operations, and for poisson
+ * arrivals at the moments of a poisson process with rate 1.
+ *
+ * <p>Not thread safe, each worker has its own schedule.
+ */
+public class OpenLoopSchedule {
+    public enum Arrivals {UNIFORM, POISSON}
+
+    private final long start;
+    /** Target rate, in operations per nanosecond. */
+    private final double rate;
+    private final long rampUpNanos;
+    private final long durationNanos;
+    private final Arrivals arrivals;
+    private final Random random = new Random();
+    /** The expected number of operations at the moment of the last operation. */
+    private double count;
+
+    /**
+     * @param start the System.nanoTime() at which the test starts
+     * @param rate the target rate of this worker, in operations per second
+     * @param offset a number between 0 and 1, used to spread the operations of the workers in case of
+     *               uniform arrivals
+     */
+    public OpenLoopSchedule(long start, double rate, Arrivals arrivals, long rampUpNanos, long durationNanos,
+            double offset) {
+        this.start = start;
+        this.rate = rate / 1e9d;
+        this.arrivals = arrivals;
+        this.rampUpNanos = rampUpNanos;
+        this.durationNanos = durationNanos;
+        this.count = arrivals == Arrivals.UNIFORM ? offset - 1 : 0;
+    }
+
+    /**
+     * Returns the System.nanoTime() at which to start the next operation, or -1 if the test is over.
+     */
+    public long next() {
+        if (arrivals == Arrivals.POISSON) {
+            // exponentially distributed interval
+            count += -Math.log(1 - random.nextDouble());
+        } else {
+            count += 1;
+        }
+
+        long time = getTime(count);
+        return time >= durationNanos ? -1 : start + time;
+    }
+
+    /**
+     * Returns the time, relative to the start of the test, at which the expected number of operations
+     * reaches the given count.
+     */
+    private long getTime(double count) {
+        double rampUpCount = rate * rampUpNanos / 2d;
+        if (count < rampUpCount) {
+            return (long)Math.sqrt(2d * rampUpNanos * count / rate);
+        } else {
+            return rampUpNanos + (long)((count - rampUpCount) / rate);
+        }
+    }
+}
@@ -20,6 +20,15 @@ import org.lilyproject.repository.api.RecordId;
 public interface TestAction {
 
     int run();
+
+    /**
+     * Runs the action once, as an operation of an open-loop test. Besides the times of the operation and of its
+     * sub actions, its response time is reported, measured from the moment it was scheduled to start rather than
+     * from when it actually started.
+     *
+     * @param scheduledStart the System.nanoTime() at which the operation was scheduled to start
+     */
+    int run(long scheduledStart);
     TestActionContext getContext();
 
     ActionResult linkFieldAction(TestFieldType testFieldType, RecordId recordId);
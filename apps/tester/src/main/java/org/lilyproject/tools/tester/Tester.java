@@ -25,6 +25,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
@@ -64,13 +67,20 @@ public class Tester extends BaseRepositoryTestTool {
     private String failuresFileName;
     private PrintStream errorStream;
     private long startTime;
-    private int failureCount = 0;
+    private AtomicInteger failureCount = new AtomicInteger();
     private Option iterationsOption;
     private int nrOfIterations;
     private TestActionFactory testActionFactory = new TestActionFactory();
     private List<TestAction> workersTestActions[] = null;
     private List<JsonNode> recordSpacesConfig = new ArrayList<JsonNode>();
     private List<RecordSpaces> workersRecordSpaces = null;
+    /** The ratio of each scenario action, in open-loop mode. */
+    private List<Integer> actionRatios = new ArrayList<Integer>();
+    private boolean openLoop;
+    private int openLoopRate;
+    private OpenLoopSchedule.Arrivals openLoopArrivals;
+    private int rampUpTime;
+    private int steadyStateTime;
 
     private Map<QName, TestRecordType> recordTypes = new HashMap<QName, TestRecordType>();
     private Map<QName, TestFieldType> fieldTypes = new HashMap<QName, TestFieldType>();
@@ -156,7 +166,11 @@ public class Tester extends BaseRepositoryTestTool {
             System.out.println("Running tests...");
             System.out.println("Tail the output files if you wonder what is happening.");
             nrOfIterations = OptionUtil.getIntOption(cmd, iterationsOption, 1000);
-            test();
+            if (openLoop) {
+                testOpenLoop();
+            } else {
+                test();
+            }
         } finally {
             closeStreams();
         }
@@ -244,6 +258,13 @@ public class Tester extends BaseRepositoryTestTool {
                     System.out.println("Error: stopConditions property should be an object. Skipping.");
                     jp.skipChildren();
                 }
+            } else if (fieldName.equals("openLoop")) {
+                if (current == JsonToken.START_OBJECT) {
+                    readOpenLoop((ObjectNode) jp.readValueAsTree());
+                } else {
+                    System.out.println("Error: openLoop property should be an object. Skipping.");
+                    jp.skipChildren();
+                }
             }
         }
     }
@@ -325,6 +346,7 @@ public class Tester extends BaseRepositoryTestTool {
             TestAction testAction = testActionFactory.getTestAction(actionNode, testActionContext);
             workersTestActions[i].add(testAction);
         }
+        actionRatios.add(JsonUtil.getInt(actionNode, "ratio", 1));
     }
 
     private void readStopConditions(JsonNode stopConditions) {
@@ -332,6 +354,16 @@ public class Tester extends BaseRepositoryTestTool {
         maximumFailures = JsonUtil.getInt(stopConditions, "maximumFailures");
     }
 
+    private void readOpenLoop(JsonNode openLoopNode) {
+        openLoop = true;
+        openLoopRate = JsonUtil.getInt(openLoopNode, "rate");
+        openLoopArrivals = openLoopNode.has("arrivals") ?
+                JsonUtil.getEnum(openLoopNode, "arrivals", OpenLoopSchedule.Arrivals.class) :
+                OpenLoopSchedule.Arrivals.POISSON;
+        rampUpTime = JsonUtil.getInt(openLoopNode, "rampUpTime", 0);
+        steadyStateTime = JsonUtil.getInt(openLoopNode, "steadyStateTime");
+    }
+
     private void createSchema(JsonNode configNode) throws IOException, RepositoryException, ImportConflictException,
             ImportException, JsonFormatException, NoServersException, InterruptedException, KeeperException {
 
@@ -401,6 +433,46 @@ public class Tester extends BaseRepositoryTestTool {
         }
     }
 
+    private void testOpenLoop() throws InterruptedException {
+        int totalRatio = 0;
+        for (int ratio : actionRatios) {
+            totalRatio += ratio;
+        }
+        if (totalRatio <= 0) {
+            System.out.println("Error: the scenario should contain actions with a positive ratio.");
+            return;
+        }
+
+        System.out.println("Running open loop at " + openLoopRate + " ops/sec, ramp-up " + rampUpTime
+                + " minutes, steady state " + steadyStateTime + " minutes.");
+
+        startTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        long rampUpNanos = TimeUnit.MINUTES.toNanos(rampUpTime);
+        long durationNanos = rampUpNanos + TimeUnit.MINUTES.toNanos(steadyStateTime);
+
+        HashSet<Thread> threads = new HashSet<Thread>(workers);
+        for (int i = 0; i < workers; i++) {
+            OpenLoopSchedule schedule = new OpenLoopSchedule(start, ((double)openLoopRate) / workers,
+                    openLoopArrivals, rampUpNanos, durationNanos, ((double)i) / workers);
+            threads.add(new OpenLoopWorkerThread(workersTestActions[i], schedule, totalRatio));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        if (rampUpTime > 0) {
+            // Report the steady state separately
+            TimeUnit.NANOSECONDS.sleep(start + rampUpNanos - System.nanoTime());
+            metrics.restart();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
     private class WorkerThread extends Thread {
         private final List<TestAction> testActions;
 
@@ -422,12 +494,60 @@ public class Tester extends BaseRepositoryTestTool {
 
     }
 
-    private synchronized void incFailureCount(int amount) {
-        failureCount = failureCount + amount;
+    /**
+     * Runs the scenario actions at the moments given by a schedule, picking the actions at random according
+     * to their ratio.
+     */
+    private class OpenLoopWorkerThread extends Thread {
+        private final List<TestAction> testActions;
+        private final OpenLoopSchedule schedule;
+        private final Random random = new Random();
+        private final int totalRatio;
+
+        OpenLoopWorkerThread(List<TestAction> testActions, OpenLoopSchedule schedule, int totalRatio) {
+            this.testActions = testActions;
+            this.schedule = schedule;
+            this.totalRatio = totalRatio;
+        }
+
+        @Override
+        public void run() {
+            long scheduledStart;
+            while ((scheduledStart = schedule.next()) != -1) {
+                long wait = scheduledStart - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                incFailureCount(pickTestAction().run(scheduledStart));
+                if (checkStopConditions()) {
+                    return;
+                }
+            }
+        }
+
+        private TestAction pickTestAction() {
+            int pick = random.nextInt(totalRatio);
+            for (int i = 0; i < testActions.size(); i++) {
+                pick -= actionRatios.get(i);
+                if (pick < 0) {
+                    return testActions.get(i);
+                }
+            }
+            return testActions.get(testActions.size() - 1);
+        }
+    }
+
+    private void incFailureCount(int amount) {
+        failureCount.addAndGet(amount);
     }
 
-    private synchronized int getFailureCount() {
-        return failureCount;
+    private int getFailureCount() {
+        return failureCount.get();
     }
 
     private boolean checkStopConditions() {
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.tools.tester;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OpenLoopScheduleTest {
+    private static final long START = 1000;
+    /** Tolerance on the arrival times, for the rounding to whole nanoseconds. */
+    private static final long TOLERANCE = 1000;
+
+    @Test
+    public void testConstantRate() {
+        // 10 ops/sec during 1.05 seconds: one operation each 100 ms
+        List<Long> times = getArrivals(new OpenLoopSchedule(START, 10, OpenLoopSchedule.Arrivals.UNIFORM, 0,
+                TimeUnit.MILLISECONDS.toNanos(1050), 0));
+
+        assertEquals(11, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertArrival(START + TimeUnit.MILLISECONDS.toNanos(100 * i), times.get(i));
+        }
+    }
+
+    @Test
+    public void testConstantRateOffset() {
+        // The offset spreads the operations of the workers: with 0.5, they are half an interval later
+        List<Long> times = getArrivals(new OpenLoopSchedule(START, 10, OpenLoopSchedule.Arrivals.UNIFORM, 0,
+                TimeUnit.MILLISECONDS.toNanos(1000), 0.5));
+
+        assertEquals(10, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertArrival(START + TimeUnit.MILLISECONDS.toNanos(50 + 100 * i), times.get(i));
+        }
+    }
+
+    @Test
+    public void testRampedRate() {
+        // The rate grows from 0 to 10 ops/sec during 2 seconds, hence 10 operations during the ramp-up, the
+        // n-th one at the moment t for which 10 * t^2 / (2 * 2) = n. After that, 10 ops/sec.
+        List<Long> times = getArrivals(new OpenLoopSchedule(START, 10, OpenLoopSchedule.Arrivals.UNIFORM,
+                TimeUnit.SECONDS.toNanos(2), TimeUnit.MILLISECONDS.toNanos(3950), 0));
+
+        assertEquals(30, times.size());
+        for (int n = 0; n <= 10; n++) {
+            assertArrival(START + (long)(Math.sqrt(0.4d * n) * 1e9d), times.get(n));
+        }
+        for (int n = 11; n < 30; n++) {
+            assertArrival(START + TimeUnit.MILLISECONDS.toNanos(2000 + 100 * (n - 10)), times.get(n));
+        }
+    }
+
+    @Test
+    public void testPoissonConstantRate() {
+        // 1000 ops/sec during 100 seconds: on average 100000 operations, with a standard deviation of 316
+        List<Long> times = getArrivals(new OpenLoopSchedule(START, 1000, OpenLoopSchedule.Arrivals.POISSON, 0,
+                TimeUnit.SECONDS.toNanos(100), 0));
+
+        assertEquals(100000, times.size(), 2000);
+        // About as many operations in each half
+        assertEquals(50000, countBefore(times, START + TimeUnit.SECONDS.toNanos(50)), 1500);
+    }
+
+    @Test
+    public void testPoissonRampedRate() {
+        // Ramp-up to 1000 ops/sec during 100 seconds, followed by 50 seconds at the full rate: on average
+        // 50000 operations during the ramp-up, of which a quarter during the first half of it
+        List<Long> times = getArrivals(new OpenLoopSchedule(START, 1000, OpenLoopSchedule.Arrivals.POISSON,
+                TimeUnit.SECONDS.toNanos(100), TimeUnit.SECONDS.toNanos(150), 0));
+
+        assertEquals(12500, countBefore(times, START + TimeUnit.SECONDS.toNanos(50)), 1000);
+        assertEquals(50000, countBefore(times, START + TimeUnit.SECONDS.toNanos(100)), 1500);
+        assertEquals(100000, times.size(), 2000);
+    }
+
+    /**
+     * Returns all arrival times of the schedule, checking that they are in order and within the test.
+     */
+    private List<Long> getArrivals(OpenLoopSchedule schedule) {
+        List<Long> times = new ArrayList<Long>();
+        long time;
+        long previous = START;
+        while ((time = schedule.next()) != -1) {
+            assertTrue(time >= previous);
+            times.add(time);
+            previous = time;
+        }
+        return times;
+    }
+
+    private void assertArrival(long expected, long actual) {
+        assertTrue("expected arrival at " + expected + " but was " + actual, Math.abs(expected - actual) <= TOLERANCE);
+    }
+
+    private int countBefore(List<Long> times, long time) {
+        int count = 0;
+        for (long t : times) {
+            if (t < time) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -15,15 +15,30 @@
  */
 package org.lilyproject.repository.bulk;
 
+import java.io.File;
 import java.util.List;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.cli.BaseZkCliTool;
+import org.lilyproject.cli.OptionUtil;
+import org.lilyproject.client.LilyClient;
+import org.lilyproject.repository.api.TableCreateDescriptor;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.TableManager;
 import org.lilyproject.util.Version;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
+import org.lilyproject.util.io.Closer;
 
 /**
  * Extension point that provides argument parsing for bulk importing.
@@ -32,9 +47,13 @@ public abstract class AbstractBulkImportCliTool extends BaseZkCliTool {
 
     private Option pythonMapperPathArg;
     private Option pythonSymbolArg;
+    private Option mappingConfigArg;
     private Option repositoryArg;
     private Option outputTableArg;
     private Option disableBulkOption;
+    private Option linkIndexOption;
+    private Option regionsOption;
+    private Option samplesOption;
 
     /**
      * Path to the Python mapping script.
@@ -46,6 +65,11 @@ public abstract class AbstractBulkImportCliTool extends BaseZkCliTool {
      */
     protected String pythonSymbol;
 
+    /**
+     * Path to the JSON configuration of a {@link DelimitedLineMapper}, used instead of a Python mapper.
+     */
+    protected String mappingConfigPath;
+
     /**
      * Input path for the bulk import process.
      */
@@ -63,6 +87,22 @@ public abstract class AbstractBulkImportCliTool extends BaseZkCliTool {
 
     protected boolean bulkMode;
 
+    /**
+     * Whether the link index entries of the imported records should be written as part of the import.
+     */
+    protected boolean linkIndex;
+
+    /**
+     * Number of regions to pre-split the output table in, based on a sample of the input. 0 if no sampling
+     * should be done.
+     */
+    protected int regions;
+
+    /**
+     * Number of input lines to sample for computing the split keys.
+     */
+    protected int samples;
+
     @SuppressWarnings("static-access")
     public AbstractBulkImportCliTool() {
 
@@ -78,6 +118,14 @@ public abstract class AbstractBulkImportCliTool extends BaseZkCliTool {
                 .hasArg()
                 .create('s');
 
+        mappingConfigArg = OptionBuilder
+                .withArgName("file")
+                .hasArg()
+                .withDescription("JSON configuration for mapping delimited (CSV, TSV, ...) input, as an alternative"
+                        + " to a Python mapper")
+                .withLongOpt("mapping")
+                .create();
+
         repositoryArg = OptionBuilder
                 .withDescription("Repository name (defaults to default repository)")
                 .withLongOpt("repository")
@@ -94,6 +142,27 @@ public abstract class AbstractBulkImportCliTool extends BaseZkCliTool {
                 .withDescription("disable bulk mode")
                 .withLongOpt("no_bulk")
                 .create('n');
+
+        linkIndexOption = OptionBuilder
+                .withDescription("also write the link index entries of the imported records (only in bulk mode)")
+                .withLongOpt("linkindex")
+                .create('l');
+
+        regionsOption = OptionBuilder
+                .withArgName("count")
+                .hasArg()
+                .withDescription("Sample the input and create the output table with this number of regions, split"
+                        + " such that the records are evenly spread. If the table already exists, only report how the"
+                        + " records will be spread over its regions.")
+                .withLongOpt("regions")
+                .create();
+
+        samplesOption = OptionBuilder
+                .withArgName("count")
+                .hasArg()
+                .withDescription("Number of input lines to sample when using --regions (default 10000)")
+                .withLongOpt("samples")
+                .create();
     }
 
 
@@ -107,9 +176,13 @@ public abstract class AbstractBulkImportCliTool extends BaseZkCliTool {
         List<Option> options = super.getOptions();
         options.add(pythonMapperPathArg);
         options.add(pythonSymbolArg);
+        options.add(mappingConfigArg);
         options.add(repositoryArg);
         options.add(outputTableArg);
         options.add(disableBulkOption);
+        options.add(linkIndexOption);
+        options.add(regionsOption);
+        options.add(samplesOption);
         return options;
     }
 
@@ -127,18 +200,24 @@ public abstract class AbstractBulkImportCliTool extends BaseZkCliTool {
 
         inputPath = cmd.getArgs()[0];
 
-        if (!cmd.hasOption(pythonMapperPathArg.getOpt())) {
-            System.err.println("No python mapper file supplied");
-            return 1;
-        } else {
-            pythonMapperPath = cmd.getOptionValue(pythonMapperPathArg.getOpt());
-        }
+        mappingConfigPath = OptionUtil.getStringOption(cmd, mappingConfigArg, null);
+        if (mappingConfigPath == null) {
+            if (!cmd.hasOption(pythonMapperPathArg.getOpt())) {
+                System.err.println("No python mapper file supplied");
+                return 1;
+            } else {
+                pythonMapperPath = cmd.getOptionValue(pythonMapperPathArg.getOpt());
+            }
 
-        if (!cmd.hasOption(pythonSymbolArg.getOpt())) {
-            System.err.println("No mapper symbol supplied");
+            if (!cmd.hasOption(pythonSymbolArg.getOpt())) {
+                System.err.println("No mapper symbol supplied");
+                return 1;
+            } else {
+                pythonSymbol = cmd.getOptionValue(pythonSymbolArg.getOpt());
+            }
+        } else if (cmd.hasOption(pythonMapperPathArg.getOpt())) {
+            System.err.println("A python mapper and a mapping configuration can not be used together");
             return 1;
-        } else {
-            pythonSymbol = cmd.getOptionValue(pythonSymbolArg.getOpt());
         }
 
         if (cmd.hasOption(outputTableArg.getOpt())) {
@@ -152,8 +231,85 @@ public abstract class AbstractBulkImportCliTool extends BaseZkCliTool {
         outputRepository = outputRepository == null ? RepoAndTableUtil.DEFAULT_REPOSITORY : outputRepository;
 
         bulkMode = !cmd.hasOption(disableBulkOption.getOpt());
+        linkIndex = cmd.hasOption(linkIndexOption.getOpt());
+        regions = OptionUtil.getIntOption(cmd, regionsOption, 0);
+        samples = OptionUtil.getIntOption(cmd, samplesOption, 10000);
 
         return 0;
     }
 
+    /**
+     * Returns the mapper code: the Python code, or the JSON mapping configuration.
+     */
+    protected String readMapperCode() throws Exception {
+        String path = mappingConfigPath != null ? mappingConfigPath : pythonMapperPath;
+        return Files.toString(new File(path), Charsets.UTF_8);
+    }
+
+    /**
+     * Creates the line mapper: a {@link DelimitedLineMapper} if a mapping configuration is given, otherwise
+     * a {@link JythonLineMapper}.
+     */
+    protected LineMapper createLineMapper() throws Exception {
+        return LineMapperFactory.createLineMapper(readMapperCode(), mappingConfigPath != null ? null : pythonSymbol);
+    }
+
+    /**
+     * If requested with --regions, samples the input and creates the output table pre-split according to the
+     * sampled record ids, so that the writes are spread over the regions right from the start of the import.
+     * When the output table already exists, its splits are left untouched, but the expected spread of the
+     * records over the existing regions is reported.
+     */
+    protected void prepareOutputTable(LineMapper lineMapper, FileSystem fs) throws Exception {
+        if (regions <= 0) {
+            return;
+        }
+
+        RecordIdSampler sampler;
+        LilyClient lilyClient = new LilyClient(zkConnectionString, 30000);
+        try {
+            LRepository repository = lilyClient.getRepository(outputRepository);
+            sampler = new RecordIdSampler(lineMapper, repository.getTypeManager());
+            sampler.sample(fs, new Path(inputPath), samples);
+            System.out.printf("Sampled %d lines producing %d records\n", sampler.getSampledLines(),
+                    sampler.getSampledRowKeys().size());
+            if (sampler.getSampledRowKeys().isEmpty()) {
+                return;
+            }
+
+            TableManager tableManager = repository.getTableManager();
+            if (!tableManager.tableExists(outputTable)) {
+                byte[][] splitKeys = sampler.computeSplitKeys(regions);
+                System.out.printf("Creating table %s with %d regions\n", outputTable, splitKeys.length + 1);
+                tableManager.createTable(new TableCreateDescriptor(outputTable, splitKeys));
+                return;
+            }
+        } finally {
+            Closer.close(lilyClient);
+        }
+
+        Configuration hbaseConf = HBaseConfiguration.create();
+        hbaseConf.set("hbase.zookeeper.quorum", zkConnectionString);
+        HTable table = new HTable(hbaseConf, RepoAndTableUtil.getHBaseTableName(outputRepository, outputTable));
+        byte[][] startKeys;
+        try {
+            startKeys = table.getStartKeys();
+        } finally {
+            table.close();
+        }
+        int[] distribution = sampler.getRegionDistribution(startKeys);
+        int total = sampler.getSampledRowKeys().size();
+        int max = 0;
+        System.out.printf("Table %s already exists, expected spread of the records over its %d regions:\n",
+                outputTable, startKeys.length);
+        for (int i = 0; i < startKeys.length; i++) {
+            System.out.printf("  %s: %.1f%%\n", Bytes.toStringBinary(startKeys[i]), distribution[i] * 100f / total);
+            max = Math.max(max, distribution[i]);
+        }
+        if (startKeys.length < regions || max > 2f * total / startKeys.length) {
+            System.out.println("WARNING: the records will not be evenly spread over the regions of the table,"
+                    + " consider creating the table with split keys suited for this import.");
+        }
+    }
+
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.concurrent.WaitPolicy;
+
+/**
+ * Writes batches of Puts to HBase in background threads, so that building Puts can continue while
+ * earlier batches are being written.
+ * <p>
+ * The number of pending batches is bounded: when it is reached, {@link #submit(Batch)} blocks until a batch has
+ * been written. This keeps memory usage in check when Puts are built faster than they can be written.
+ * <p>
+ * The puts of each table in a batch are sorted on row key before writing, so that the puts for a
+ * region are sent together. The tables of a batch are written in the order in which they were added.
+ */
+public class BatchFlusher implements Closeable {
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private ThreadPoolExecutor executor;
+    private AtomicInteger pendingBatches = new AtomicInteger();
+    private AtomicLong putsWritten = new AtomicLong();
+    private AtomicLong bytesWritten = new AtomicLong();
+    private AtomicLong putsFailed = new AtomicLong();
+
+    /**
+     * @param numThreads        number of threads writing to HBase
+     * @param maxPendingBatches maximum number of batches waiting to be written
+     */
+    public BatchFlusher(int numThreads, int maxPendingBatches) {
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 10, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxPendingBatches), new CustomThreadFactory("bulk-import-flusher"));
+        executor.setRejectedExecutionHandler(new WaitPolicy());
+    }
+
+    /**
+     * Submit a batch for writing, blocks if the maximum number of pending batches is reached.
+     */
+    public void submit(final Batch batch) {
+        pendingBatches.incrementAndGet();
+        try {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(batch);
+                    } finally {
+                        pendingBatches.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingBatches.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void write(Batch batch) {
+        for (TableWrite tableWrite : batch.tableWrites) {
+            try {
+                long heapSize = 0;
+                for (Put put : tableWrite.puts) {
+                    heapSize += put.heapSize();
+                }
+                Collections.sort(tableWrite.puts);
+                tableWrite.table.put(tableWrite.puts);
+                putsWritten.addAndGet(tableWrite.puts.size());
+                bytesWritten.addAndGet(heapSize);
+            } catch (Exception e) {
+                log.error("Error writing batch of " + tableWrite.puts.size() + " puts to table "
+                        + Bytes.toString(tableWrite.table.getTableName()), e);
+                putsFailed.addAndGet(tableWrite.puts.size());
+                // Don't write the next tables of this batch: they are expected to depend on this one
+                // (e.g. records should not be written if their link index entries failed)
+                for (TableWrite skipped : batch.tableWrites.subList(batch.tableWrites.indexOf(tableWrite) + 1,
+                        batch.tableWrites.size())) {
+                    putsFailed.addAndGet(skipped.puts.size());
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Number of batches submitted but not yet written.
+     */
+    public int getPendingBatches() {
+        return pendingBatches.get();
+    }
+
+    public long getPutsWritten() {
+        return putsWritten.get();
+    }
+
+    /**
+     * Approximate number of bytes written, based on the heap size of the written Puts.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getPutsFailed() {
+        return putsFailed.get();
+    }
+
+    /**
+     * Waits until all submitted batches are written.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        boolean successfulFinish;
+        try {
+            successfulFinish = executor.awaitTermination(10, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        if (!successfulFinish) {
+            throw new RuntimeException("Bulk import flusher did not end successfully.");
+        }
+    }
+
+    /**
+     * A set of puts to be written to one or more tables.
+     */
+    public static class Batch {
+        private List<TableWrite> tableWrites = new ArrayList<TableWrite>(3);
+
+        /**
+         * Add puts to be written to the given table. Does nothing if the list of puts is empty. The list
+         * should not be modified anymore after adding it.
+         */
+        public void add(HTableInterface table, List<Put> puts) {
+            if (!puts.isEmpty()) {
+                tableWrites.add(new TableWrite(table, puts));
+            }
+        }
+
+        public boolean isEmpty() {
+            return tableWrites.isEmpty();
+        }
+    }
+
+    private static class TableWrite {
+        private HTableInterface table;
+        private List<Put> puts;
+
+        TableWrite(HTableInterface table, List<Put> puts) {
+            this.table = table;
+            this.puts = puts;
+        }
+    }
+
+}
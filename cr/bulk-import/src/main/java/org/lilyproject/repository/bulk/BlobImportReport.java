@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.util.ByteArrayKey;
+
+/**
+ * Keeps track of the blobs written during a bulk import, and of the blobs referenced by the imported records.
+ * <p>
+ * Since blobs written in bulk mode are not incubated, a blob which is written but not referenced by any record
+ * will never be cleaned up. Such blobs are reported as unreferenced blobs. Referenced blobs which were not written
+ * through this import (e.g. blobs that were uploaded beforehand) are counted separately.
+ * <p>
+ * This class is thread-safe, so a single report can be shared by several {@link BulkIngester}s.
+ */
+public class BlobImportReport {
+
+    private final AtomicLong blobsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong blobsReferenced = new AtomicLong();
+    private final AtomicLong externalBlobsReferenced = new AtomicLong();
+    private final ConcurrentMap<ByteArrayKey, Blob> unreferencedBlobs = new ConcurrentHashMap<ByteArrayKey, Blob>();
+
+    /**
+     * Register a blob of which the content has been written to the blob store.
+     */
+    public void blobWritten(Blob blob) {
+        blobsWritten.incrementAndGet();
+        bytesWritten.addAndGet(blob.getSize() != null ? blob.getSize() : 0);
+        unreferencedBlobs.put(new ByteArrayKey(blob.getValue()), blob);
+    }
+
+    /**
+     * Register the blobs referenced by a record which has been written.
+     */
+    public void blobsReferenced(Set<BlobReference> blobReferences) {
+        for (BlobReference blobReference : blobReferences) {
+            blobsReferenced.incrementAndGet();
+            byte[] blobKey = blobReference.getBlob().getValue();
+            if (blobKey == null || unreferencedBlobs.remove(new ByteArrayKey(blobKey)) == null) {
+                externalBlobsReferenced.incrementAndGet();
+            }
+        }
+    }
+
+    public long getBlobsWritten() {
+        return blobsWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Number of blob references in the written records. A blob used in several records or fields is counted
+     * once for each use.
+     */
+    public long getBlobsReferenced() {
+        return blobsReferenced.get();
+    }
+
+    /**
+     * Number of blob references in the written records to blobs which were not written through this report.
+     */
+    public long getExternalBlobsReferenced() {
+        return externalBlobsReferenced.get();
+    }
+
+    /**
+     * The blobs which have been written but which are not (yet) referenced by any written record. This is only
+     * meaningful once all records have been written.
+     */
+    public Collection<Blob> getUnreferencedBlobs() {
+        return unreferencedBlobs.values();
+    }
+
+    public void print(PrintStream out) {
+        out.printf("Blobs written: %d (%d bytes)\n", getBlobsWritten(), getBytesWritten());
+        out.printf("Blob references in records: %d, of which %d to blobs not written by this import\n",
+                getBlobsReferenced(), getExternalBlobsReferenced());
+        Collection<Blob> unreferenced = getUnreferencedBlobs();
+        out.printf("Unreferenced blobs: %d\n", unreferenced.size());
+        for (Blob blob : unreferenced) {
+            out.printf("  %s (%s, %d bytes)\n", Bytes.toStringBinary(blob.getValue()), blob.getName(), blob.getSize());
+        }
+    }
+
+}
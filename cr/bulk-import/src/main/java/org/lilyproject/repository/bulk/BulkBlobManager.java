@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Set;
+
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobAccess;
+import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.repository.api.BlobManager;
+import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.BlobStoreAccessFactory;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.BlobManagerImpl;
+import org.lilyproject.repository.impl.BlobStoreAccessRegistry;
+
+/**
+ * BlobManager for bulk imports, which writes blobs straight to the configured blob stores.
+ * <p>
+ * Blobs are not registered in the blob incubator: records written in bulk mode are put directly into
+ * HBase, so there is no point in time where the blobs could be reserved for them. As a consequence, blobs
+ * which are written but never end up in a record are not cleaned up automatically. These are reported
+ * by the {@link BlobImportReport}.
+ * <p>
+ * Blobs are read from the blob stores in the same way as by the regular blob manager.
+ */
+class BulkBlobManager implements BlobManager {
+
+    private BlobStoreAccessRegistry registry;
+
+    BulkBlobManager(BlobStoreAccessFactory blobStoreAccessFactory) {
+        registry = new BlobStoreAccessRegistry(this);
+        registry.setBlobStoreAccessFactory(blobStoreAccessFactory);
+    }
+
+    @Override
+    public void incubateBlob(byte[] blobKey) throws IOException {
+        // no incubation in bulk mode
+    }
+
+    @Override
+    public Set<BlobReference> reserveBlobs(Set<BlobReference> blobs) throws IOException {
+        // Blobs are not incubated, so they don't need to be reserved either
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void handleBlobReferences(RecordId recordId, Set<BlobReference> referencedBlobs,
+                                     Set<BlobReference> unReferencedBlobs) {
+        // no op
+    }
+
+    @Override
+    public OutputStream getOutputStream(Blob blob) throws BlobException {
+        return registry.getOutputStream(blob);
+    }
+
+    @Override
+    public BlobAccess getBlobAccess(Record record, QName fieldName, FieldType fieldType, int... indexes)
+            throws BlobException {
+        Blob blob = BlobManagerImpl.getBlobFromRecord(record, fieldName, fieldType, indexes);
+        return registry.getBlobAccess(blob);
+    }
+
+    @Override
+    public void register(BlobStoreAccess blobStoreAccess) {
+        registry.register(blobStoreAccess);
+    }
+
+    @Override
+    public void delete(byte[] blobKey) throws BlobException {
+        registry.delete(blobKey);
+    }
+
+}
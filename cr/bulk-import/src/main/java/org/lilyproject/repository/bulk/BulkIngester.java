@@ -17,6 +17,7 @@ package org.lilyproject.repository.bulk;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
@@ -24,21 +25,26 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.zookeeper.KeeperException;
 import org.lilyproject.client.LilyClient;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.linkindex.FieldedLink;
+import org.lilyproject.linkindex.LinkCollector;
+import org.lilyproject.linkindex.LinkIndex;
+import org.lilyproject.linkindex.LinkIndexException;
+import org.lilyproject.linkindex.RecordLinkExtractor;
+import org.lilyproject.repository.api.AbsoluteRecordId;
 import org.lilyproject.repository.api.Blob;
-import org.lilyproject.repository.api.BlobAccess;
-import org.lilyproject.repository.api.BlobException;
-import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.BlobReference;
-import org.lilyproject.repository.api.BlobStoreAccess;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordFactory;
@@ -46,6 +52,7 @@ import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.impl.HBaseRepository;
 import org.lilyproject.repository.impl.HBaseRepository.FieldValueWriter;
@@ -55,13 +62,16 @@ import org.lilyproject.repository.impl.RecordFactoryImpl;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repository.model.api.RepositoryModel;
 import org.lilyproject.repository.model.impl.RepositoryModelImpl;
+import org.lilyproject.util.Pair;
 import org.lilyproject.util.exception.ExceptionUtil;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
+import org.lilyproject.util.hbase.LocalHTable;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.Type;
+import org.lilyproject.util.repo.VersionTag;
 import org.lilyproject.util.zookeeper.ZkUtil;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
 import org.python.google.common.collect.Lists;
@@ -74,6 +84,11 @@ public class BulkIngester implements Closeable {
 
     public static final int PUT_BUFFER_SIZE = 1000;
 
+    /**
+     * Default size in bytes of the buffered Puts at which they are flushed, same as the HBase client default.
+     */
+    public static final long DEFAULT_WRITE_BUFFER_SIZE = 2 * 1024 * 1024;
+
     /**
      * Bulk mode is default. If not in bulk mode, the bulk ingester merely delegates all operations to lily client.
      */
@@ -86,6 +101,25 @@ public class BulkIngester implements Closeable {
     private HTableInterface recordTable;
     private FieldTypes fieldTypes;
     private List<Put> putBuffer = Lists.newArrayListWithCapacity(PUT_BUFFER_SIZE);
+    private long putBufferHeapSize;
+    private long writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+    private BatchFlusher batchFlusher;
+
+    /**
+     * Only set when the link index should be updated as part of the bulk import.
+     */
+    private LinkIndex linkIndex;
+    /**
+     * Used to open the link index tables when the first links are written. When the ingester only builds
+     * Puts (e.g. via MapReduce), the tables are never opened.
+     */
+    private Configuration linksTableConf;
+    private HTableInterface forwardLinksTable;
+    private HTableInterface backwardLinksTable;
+    private List<Put> forwardLinksPutBuffer = Lists.newArrayList();
+    private List<Put> backwardLinksPutBuffer = Lists.newArrayList();
+
+    private BlobImportReport blobImportReport = new BlobImportReport();
 
     public boolean isBulkMode() {
         return bulkMode;
@@ -112,6 +146,22 @@ public class BulkIngester implements Closeable {
      */
     public static BulkIngester newBulkIngester(String zkConnString, int timeout, String repositoryName, String tableName,
                                                boolean bulkMode) {
+        return newBulkIngester(zkConnString, timeout, repositoryName, tableName, bulkMode, false);
+    }
+
+    /**
+     * Factory method for creation of a {@code BulkIngester} that operates on a non-default repository table, and
+     * that optionally also writes the link index entries of the imported records.
+     *
+     * @param zkConnString connection string for ZooKeeper
+     * @param timeout      ZooKeeper session timeout
+     * @param tableName    name of the repository table to write to
+     * @param linkIndex    if true, the forward and backward link index entries of records written in bulk mode are
+     *                     written as well. When not in bulk mode, the link index is maintained by the normal
+     *                     secondary processing and this parameter is ignored.
+     */
+    public static BulkIngester newBulkIngester(String zkConnString, int timeout, String repositoryName, String tableName,
+                                               boolean bulkMode, boolean linkIndex) {
         try {
             ZooKeeperItf zk = ZkUtil.connect(zkConnString, timeout);
 
@@ -122,15 +172,23 @@ public class BulkIngester implements Closeable {
             Configuration conf = HBaseConfiguration.create();
             conf.set("hbase.zookeeper.quorum", zkConnString);
             HBaseTableFactory hbaseTableFactory = new HBaseTableFactoryImpl(conf);
-            HBaseRepository hbaseRepository = createHBaseRepository(repositoryName, tableName, zk, conf, hbaseTableFactory);
+            HBaseRepository hbaseRepository = createHBaseRepository(repositoryName, tableName, zk, conf, hbaseTableFactory,
+                    new BulkBlobManager(LilyClient.getBlobStoreAccessFactory(zk, conf)));
 
-            return new BulkIngester(
+            BulkIngester bulkIngester = new BulkIngester(
                     lilyClient,
                     hbaseRepository,
                     LilyHBaseSchema.getRecordTable(hbaseTableFactory, hbaseRepository.getRepositoryName(),
                             hbaseRepository.getTableName()),
                     bulkMode);
 
+            if (bulkMode && linkIndex) {
+                // Instantiating the LinkIndex makes sure the index tables exist
+                bulkIngester.setLinkIndex(new LinkIndex(new IndexManager(conf, hbaseTableFactory), lilyClient), conf);
+            }
+
+            return bulkIngester;
+
         } catch (Exception e) {
             ExceptionUtil.handleInterrupt(e);
             throw new RuntimeException(e);
@@ -138,7 +196,8 @@ public class BulkIngester implements Closeable {
     }
 
     private static HBaseRepository createHBaseRepository(String repositoryName, String tableName, ZooKeeperItf zk,
-                                                         Configuration conf, HBaseTableFactory hbaseTableFactory)
+                                                         Configuration conf, HBaseTableFactory hbaseTableFactory,
+                                                         BulkBlobManager blobManager)
             throws KeeperException, InterruptedException, IOException, RepositoryException {
         RepositoryModel repositoryModel = new RepositoryModelImpl(zk);
         IdGenerator idGenerator = new IdGeneratorImpl();
@@ -146,7 +205,7 @@ public class BulkIngester implements Closeable {
         RecordFactory recordFactory = new RecordFactoryImpl();
 
         RepositoryManager repositoryManager = new HBaseRepositoryManager(typeManager, idGenerator,
-                recordFactory, hbaseTableFactory, new BlobsNotSupportedBlobManager(), conf, repositoryModel);
+                recordFactory, hbaseTableFactory, blobManager, conf, repositoryModel);
         HBaseRepository hbaseRepository;
         if (tableName != null) {
             hbaseRepository = (HBaseRepository) repositoryManager.getRepository(repositoryName).getTable(tableName);
@@ -166,6 +225,70 @@ public class BulkIngester implements Closeable {
         this.bulkMode = bulkMode;
     }
 
+    /**
+     * For ingesters which don't write to a repository, such as the one used while sampling the input, see
+     * {@link RecordIdSampler}. Such ingesters override the methods which write.
+     */
+    BulkIngester(RecordFactory recordFactory) {
+        this.recordFactory = recordFactory;
+    }
+
+    void setLinkIndex(LinkIndex linkIndex, Configuration linksTableConf) {
+        this.linkIndex = linkIndex;
+        this.linksTableConf = linksTableConf;
+    }
+
+    void setLinkIndex(LinkIndex linkIndex, HTableInterface forwardLinksTable, HTableInterface backwardLinksTable) {
+        this.linkIndex = linkIndex;
+        this.forwardLinksTable = forwardLinksTable;
+        this.backwardLinksTable = backwardLinksTable;
+    }
+
+    private void openLinksTables() throws IOException {
+        if (forwardLinksTable == null) {
+            forwardLinksTable = new LocalHTable(linksTableConf, LinkIndex.FORWARD_INDEX_NAME);
+            backwardLinksTable = new LocalHTable(linksTableConf, LinkIndex.BACKWARD_INDEX_NAME);
+        }
+    }
+
+    /**
+     * Indicates if link index entries are produced for the records written by this ingester.
+     */
+    public boolean isLinkIndexEnabled() {
+        return linkIndex != null;
+    }
+
+    /**
+     * Set the size in bytes of the buffered Puts (including link index Puts) at which the buffer is flushed.
+     * Independent of this size, the buffer is flushed when it contains {@link #PUT_BUFFER_SIZE} records.
+     */
+    public void setWriteBufferSize(long writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    /**
+     * Set a flusher to write the buffered Puts in the background. When set, {@link #flush()} hands the buffered
+     * Puts over to the flusher instead of writing them itself. The flusher is not closed by this ingester.
+     */
+    public void setBatchFlusher(BatchFlusher batchFlusher) {
+        this.batchFlusher = batchFlusher;
+    }
+
+    /**
+     * Set the report in which the blobs written and referenced by this ingester are registered. This allows
+     * sharing one report between several ingesters.
+     */
+    public void setBlobImportReport(BlobImportReport blobImportReport) {
+        this.blobImportReport = blobImportReport;
+    }
+
+    /**
+     * Get the report of the blobs written and referenced by this ingester. Blobs are only tracked in bulk mode.
+     */
+    public BlobImportReport getBlobImportReport() {
+        return blobImportReport;
+    }
+
     /**
      * Factory method for creation of Records, with the same semantics as
      * {@link Repository#newRecord()}.
@@ -185,13 +308,24 @@ public class BulkIngester implements Closeable {
         return hbaseRepo.getIdGenerator();
     }
 
+    /**
+     * Same as {@link Repository#getTypeManager()}.
+     *
+     * @return The TypeManager of the underlying repository
+     */
+    public TypeManager getTypeManager() {
+        return hbaseRepo.getTypeManager();
+    }
+
     /**
      * When in bulk mode, write a single record directly to HBase, circumventing any indexing or other secondary actions
      * that are performed when using the standard Lily API.
      * <p>
      * <b>WARNING:</b>This method is not thread-safe.
      * <p>
-     * Puts are first written to a buffer, which is flushed when it reaches {@link BulkIngester#PUT_BUFFER_SIZE}.
+     * Puts are first written to a buffer, which is flushed when it reaches {@link BulkIngester#PUT_BUFFER_SIZE}
+     * records or the configured write buffer size in bytes. If the link index is enabled, the link index entries
+     * of the record are buffered and flushed together with the record puts.
      *
      * When not in bulk mode, this merely delegates to createOrUpdate on the Lily HBase repository.
      *
@@ -199,8 +333,16 @@ public class BulkIngester implements Closeable {
      */
     public void write(Record record) throws InterruptedException, RepositoryException, IOException {
         if (bulkMode) {
-            putBuffer.add(buildPut(record));
-            if (putBuffer.size() == PUT_BUFFER_SIZE) {
+            Put put = buildPut(record);
+            putBuffer.add(put);
+            putBufferHeapSize += put.heapSize();
+            if (linkIndex != null) {
+                openLinksTables();
+                Pair<List<Put>, List<Put>> linkPuts = buildLinkIndexPuts(record);
+                addToBuffer(linkPuts.getV1(), forwardLinksPutBuffer);
+                addToBuffer(linkPuts.getV2(), backwardLinksPutBuffer);
+            }
+            if (putBuffer.size() >= PUT_BUFFER_SIZE || putBufferHeapSize >= writeBufferSize) {
                 flush();
             }
         } else {
@@ -209,11 +351,103 @@ public class BulkIngester implements Closeable {
     }
 
     /**
-     * Flush buffered Puts to the Lily record table.
+     * Write the content of a blob, and return the Blob which can be used as value of a blob field.
+     * <p>
+     * When in bulk mode, the blob is written directly to the blob store selected by the configured blob
+     * size limits, without going through the blob incubator. Blobs which are written but not used in any record
+     * are reported in the {@link BlobImportReport}.
+     * <p>
+     * When not in bulk mode, this delegates to the Lily repository.
+     *
+     * @param data      content of the blob
+     * @param mediaType media type of the blob
+     * @param name      name of the blob, can be null
+     * @return the Blob to be used as field value
+     */
+    public Blob writeBlob(byte[] data, String mediaType, String name) throws InterruptedException,
+            RepositoryException, IOException {
+        Blob blob = new Blob(mediaType, (long) data.length, name);
+        OutputStream os = getBlobTable().getOutputStream(blob);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+        if (bulkMode) {
+            blobImportReport.blobWritten(blob);
+        }
+        return blob;
+    }
+
+    /**
+     * Same as {@link #writeBlob(byte[], String, String)}, but reads the content of the blob from the given stream.
+     * The stream is not closed by this method.
+     *
+     * @param size size of the blob, used for selecting the blob store to write it to
+     */
+    public Blob writeBlob(InputStream data, long size, String mediaType, String name) throws InterruptedException,
+            RepositoryException, IOException {
+        Blob blob = new Blob(mediaType, size, name);
+        OutputStream os = getBlobTable().getOutputStream(blob);
+        try {
+            ByteStreams.copy(data, os);
+        } finally {
+            os.close();
+        }
+        if (bulkMode) {
+            blobImportReport.blobWritten(blob);
+        }
+        return blob;
+    }
+
+    private LTable getBlobTable() throws InterruptedException, RepositoryException {
+        if (bulkMode) {
+            return hbaseRepo;
+        } else {
+            return lilyClient.getRepository(hbaseRepo.getRepositoryName()).getTable(hbaseRepo.getTableName());
+        }
+    }
+
+    private void addToBuffer(List<Put> puts, List<Put> buffer) {
+        for (Put put : puts) {
+            buffer.add(put);
+            putBufferHeapSize += put.heapSize();
+        }
+    }
+
+    /**
+     * Flush buffered Puts to the Lily record table. If a {@link BatchFlusher} is set, the Puts are handed over
+     * to it, and this method only blocks if the flusher has too many pending batches.
      * <p>
      * This method is not thread-safe.
      */
     public void flush() throws IOException {
+        putBufferHeapSize = 0;
+
+        if (batchFlusher != null) {
+            BatchFlusher.Batch batch = new BatchFlusher.Batch();
+            batch.add(forwardLinksTable, forwardLinksPutBuffer);
+            batch.add(backwardLinksTable, backwardLinksPutBuffer);
+            batch.add(recordTable, putBuffer);
+            if (!batch.isEmpty()) {
+                batchFlusher.submit(batch);
+                forwardLinksPutBuffer = Lists.newArrayList();
+                backwardLinksPutBuffer = Lists.newArrayList();
+                putBuffer = Lists.newArrayListWithCapacity(PUT_BUFFER_SIZE);
+            }
+            return;
+        }
+
+        // Same order as in the LinkIndex: forward links first, then backward links, and the records last,
+        // so that records never become visible before their links.
+        if (!forwardLinksPutBuffer.isEmpty()) {
+            forwardLinksTable.put(Lists.newArrayList(forwardLinksPutBuffer));
+            forwardLinksPutBuffer.clear();
+        }
+        if (!backwardLinksPutBuffer.isEmpty()) {
+            backwardLinksTable.put(Lists.newArrayList(backwardLinksPutBuffer));
+            backwardLinksPutBuffer.clear();
+        }
         if (!putBuffer.isEmpty()) {
             recordTable.put(Lists.newArrayList(putBuffer));
             putBuffer.clear();
@@ -235,12 +469,64 @@ public class BulkIngester implements Closeable {
         if (record.getId() == null) {
             record.setId(getIdGenerator().newRecordId());
         }
-        Put put = hbaseRepo.buildPut(record, 1L, fieldTypes, recordEvent, Sets.<BlobReference>newHashSet(),
+        Set<BlobReference> referencedBlobs = Sets.newHashSet();
+        Put put = hbaseRepo.buildPut(record, 1L, fieldTypes, recordEvent, referencedBlobs,
                 Sets.<BlobReference>newHashSet(), 1L);
+        // Blobs are written directly to the blob store, there is no incubator to remove them from
+        blobImportReport.blobsReferenced(referencedBlobs);
         put.add(LilyHBaseSchema.RecordCf.DATA.bytes, LilyHBaseSchema.RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
         return put;
     }
 
+    /**
+     * Build the {@code Put}s that add the links of a new record to the link index. This should only be called
+     * after {@link #buildPut(Record)}, which assigns a record id if needed.
+     * <p>
+     * The links are indexed for the 'last' vtag and for each vtag field present on the record. Since the
+     * record is new, it is assumed there are no existing link index entries for it.
+     *
+     * @param record The record of which to index the links
+     * @return pair of the puts for the forward link index (v1) and the backward link index (v2)
+     */
+    public Pair<List<Put>, List<Put>> buildLinkIndexPuts(Record record) throws InterruptedException,
+            RepositoryException {
+        if (linkIndex == null) {
+            throw new IllegalStateException("Link index is not enabled on this BulkIngester");
+        }
+
+        LinkCollector collector = new LinkCollector(getIdGenerator());
+        RecordLinkExtractor.extract(record, collector, hbaseRepo);
+        Set<FieldedLink> links = collector.getLinks();
+
+        List<Put> forwardPuts = Lists.newArrayList();
+        List<Put> backwardPuts = Lists.newArrayList();
+        if (links.isEmpty()) {
+            return Pair.create(forwardPuts, backwardPuts);
+        }
+
+        Set<SchemaId> vtags = Sets.newHashSet();
+        vtags.add(fieldTypes.getFieldType(VersionTag.LAST).getId());
+        for (QName fieldName : record.getFields().keySet()) {
+            FieldType fieldType = fieldTypes.getFieldType(fieldName);
+            if (VersionTag.isVersionTag(fieldType)) {
+                vtags.add(fieldType.getId());
+            }
+        }
+
+        AbsoluteRecordId absoluteId = getIdGenerator().newAbsoluteRecordId(hbaseRepo.getTableName(), record.getId());
+        try {
+            for (SchemaId vtag : vtags) {
+                Pair<List<Put>, List<Put>> puts = linkIndex.createLinkPuts(absoluteId, vtag, links);
+                forwardPuts.addAll(puts.getV1());
+                backwardPuts.addAll(puts.getV2());
+            }
+        } catch (LinkIndexException e) {
+            throw new RepositoryException(e);
+        }
+
+        return Pair.create(forwardPuts, backwardPuts);
+    }
+
     /**
      * Build a {@code Put} to update a record. No metadata updates are performed, and any existing metadata on the
      * fields will be overwritten.
@@ -275,6 +561,10 @@ public class BulkIngester implements Closeable {
     @Override
     public void close() throws IOException {
         flush();
+        if (forwardLinksTable != null) {
+            forwardLinksTable.close();
+            backwardLinksTable.close();
+        }
         lilyClient.close();
     }
 
@@ -289,55 +579,4 @@ public class BulkIngester implements Closeable {
         return lilyClient;
     }
 
-
-    /**
-     * BlobManager that ensures that blobs aren't supported in bulk import.
-     * <p>
-     * In the future, it may be interesting to support blobs, but at the moment it seems as this
-     * would likely lead to poor import performance.
-     */
-    private static class BlobsNotSupportedBlobManager implements BlobManager {
-
-        private static final String NOT_SUPPORTED_MESSAGE = "Blobs are not supported for bulk imports";
-
-        @Override
-        public void incubateBlob(byte[] blobKey) throws IOException {
-            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
-        }
-
-        @Override
-        public Set<BlobReference> reserveBlobs(Set<BlobReference> blobs) throws IOException {
-            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
-        }
-
-        @Override
-        public void handleBlobReferences(RecordId recordId, Set<BlobReference> referencedBlobs,
-                                         Set<BlobReference> unReferencedBlobs) {
-            // no op
-        }
-
-        @Override
-        public OutputStream getOutputStream(Blob blob) throws BlobException {
-            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
-        }
-
-        @Override
-        public BlobAccess getBlobAccess(Record record, QName fieldName, FieldType fieldType, int... indexes)
-                throws BlobException {
-            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
-        }
-
-        @Override
-        public void register(BlobStoreAccess blobStoreAccess) {
-            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
-        }
-
-        @Override
-        public void delete(byte[] blobKey) throws BlobException {
-            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
-        }
-
-
-    }
-
 }
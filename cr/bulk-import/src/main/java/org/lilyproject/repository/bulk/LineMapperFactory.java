@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import org.lilyproject.repository.bulk.delimited.DelimitedLineMapper;
+import org.lilyproject.repository.bulk.jython.JythonLineMapper;
+
+/**
+ * Creates the {@link LineMapper} for a bulk import, both for the import tools and for the MapReduce mapper.
+ */
+public class LineMapperFactory {
+
+    private LineMapperFactory() {
+    }
+
+    /**
+     * @param mapperCode   the Jython code of the mapper, or the JSON configuration of a delimited line mapper
+     * @param pythonSymbol name of the Jython mapping function, null if the mapper code is a delimited line mapping
+     *                     configuration
+     */
+    public static LineMapper createLineMapper(String mapperCode, String pythonSymbol) throws Exception {
+        if (pythonSymbol == null) {
+            return new DelimitedLineMapper(mapperCode);
+        } else {
+            return new JythonLineMapper(mapperCode, pythonSymbol);
+        }
+    }
+}
@@ -18,9 +18,12 @@ package org.lilyproject.repository.bulk;
 import java.io.IOException;
 
 
+import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.TypeManager;
 
 /**
  * Context object that is provided to {@link LineMapper}s when doing line mapping. Contains base functionality needed to
@@ -79,6 +82,29 @@ public class LineMappingContext {
         return QName.fromString(qualifiedName);
     }
     
+    /**
+     * Write the content of a blob, the returned blob can be used as value for a blob field.
+     * 
+     * @param data content of the blob
+     * @param mediaType media type of the blob
+     * @param name name of the blob, can be null
+     * @return the blob to be used as field value
+     * @see BulkIngester#writeBlob(byte[], String, String)
+     */
+    public Blob writeBlob(byte[] data, String mediaType, String name) throws IOException, InterruptedException,
+            RepositoryException {
+        return bulkIngester.writeBlob(data, mediaType, name);
+    }
+
+    /**
+     * Get the type manager, e.g. to look up the value types of the fields to be set.
+     *
+     * @return the type manager of the repository being imported into
+     */
+    public TypeManager getTypeManager() {
+        return bulkIngester.getTypeManager();
+    }
+
     /**
      * Get the underlying BulkIngester used for importing data.
      * 
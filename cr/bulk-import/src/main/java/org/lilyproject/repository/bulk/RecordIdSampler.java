@@ -0,0 +1,272 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+/**
+ * Samples the input of a bulk import to find out how the imported records will be distributed over the
+ * record table, and computes split keys which spread them evenly over a given number of regions.
+ * <p>
+ * The sampled lines are mapped with the same {@link LineMapper} as used for the import, but nothing is written:
+ * the mapper gets a context whose bulk ingester only collects the ids of the created records. Records without id
+ * get a UUID id, as they would when written by the {@link BulkIngester}. Blobs are not written either. The methods
+ * of the ingester which build Puts need the repository, and can't be used while sampling.
+ */
+public class RecordIdSampler {
+
+    private final LineMapper lineMapper;
+    private final TypeManager typeManager;
+    private final IdGenerator idGenerator = new IdGeneratorImpl();
+    private final List<byte[]> rowKeys = Lists.newArrayList();
+    private final LineMappingContext context;
+    private int sampledLines;
+
+    /**
+     * @param typeManager made available to the line mapper through {@link LineMappingContext#getTypeManager()}
+     */
+    public RecordIdSampler(LineMapper lineMapper, TypeManager typeManager) {
+        this.lineMapper = lineMapper;
+        this.typeManager = typeManager;
+        SamplingIngester samplingIngester = new SamplingIngester();
+        this.context = new LineMappingContext(samplingIngester, samplingIngester);
+    }
+
+    /**
+     * Samples lines spread evenly over the given file, or over the files in the given directory. Rather than
+     * reading the complete input, this seeks to evenly spaced offsets and reads the first complete line at
+     * each of them.
+     *
+     * @param numLines the number of lines to sample
+     */
+    public void sample(FileSystem fs, Path path, int numLines) throws IOException {
+        List<FileStatus> files = Lists.newArrayList();
+        long totalSize = 0;
+        for (FileStatus status : fs.isFile(path) ? new FileStatus[]{fs.getFileStatus(path)} : fs.listStatus(path)) {
+            String name = status.getPath().getName();
+            if (!status.isDir() && status.getLen() > 0 && !name.startsWith("_") && !name.startsWith(".")) {
+                files.add(status);
+                totalSize += status.getLen();
+            }
+        }
+
+        for (FileStatus file : files) {
+            int fileLines = (int)Math.max(1, Math.round((double)numLines * file.getLen() / totalSize));
+            sampleFile(fs, file, fileLines);
+        }
+    }
+
+    private void sampleFile(FileSystem fs, FileStatus file, int numLines) throws IOException {
+        FSDataInputStream in = fs.open(file.getPath());
+        ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+        try {
+            for (int i = 0; i < numLines; i++) {
+                long offset = file.getLen() * i / numLines;
+                if (offset < in.getPos()) {
+                    // The previous line extended past this offset, skip it to avoid sampling a line twice
+                    continue;
+                }
+                if (offset > 0) {
+                    // Skip the rest of the line in which the offset falls. Starting one byte before the offset
+                    // avoids skipping a complete line when the offset is at the start of one.
+                    in.seek(offset - 1);
+                    if (readLine(in, lineBuffer) == null) {
+                        break;
+                    }
+                }
+                String line = readLine(in, lineBuffer);
+                if (line == null) {
+                    break;
+                }
+                sampleLine(line);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the line at the current position of the stream. Lines end with '\n', '\r' or "\r\n", like in
+     * Hadoop's text input format. The stream is read without buffering, so that its position is at the start
+     * of the next line afterwards.
+     *
+     * @return the line, null if the end of the stream was reached
+     */
+    private static String readLine(FSDataInputStream in, ByteArrayOutputStream lineBuffer) throws IOException {
+        lineBuffer.reset();
+        int b = in.read();
+        if (b == -1) {
+            return null;
+        }
+        while (b != -1 && b != '\n' && b != '\r') {
+            lineBuffer.write(b);
+            b = in.read();
+        }
+        if (b == '\r') {
+            long position = in.getPos();
+            if (in.read() != '\n') {
+                in.seek(position);
+            }
+        }
+        return new String(lineBuffer.toByteArray(), Charsets.UTF_8);
+    }
+
+    /**
+     * Maps a single line and collects the row keys of the records it produces.
+     */
+    public void sampleLine(String line) {
+        lineMapper.mapLine(line, context);
+        sampledLines++;
+    }
+
+    public int getSampledLines() {
+        return sampledLines;
+    }
+
+    /**
+     * The sampled row keys, sorted.
+     */
+    public List<byte[]> getSampledRowKeys() {
+        List<byte[]> sorted = new ArrayList<byte[]>(rowKeys);
+        Collections.sort(sorted, Bytes.BYTES_COMPARATOR);
+        return sorted;
+    }
+
+    /**
+     * Computes split keys for the given number of regions, such that each region gets about the same number of
+     * sampled records. Fewer split keys are returned if the sample does not contain enough distinct row keys.
+     */
+    public byte[][] computeSplitKeys(int numRegions) {
+        List<byte[]> sorted = getSampledRowKeys();
+        List<byte[]> splitKeys = Lists.newArrayList();
+        if (sorted.isEmpty()) {
+            return new byte[0][];
+        }
+        // A split key equal to the lowest sampled key, or to the previous split key, would give an empty region
+        byte[] previous = sorted.get(0);
+        for (int i = 1; i < numRegions; i++) {
+            byte[] splitKey = sorted.get((int)((long)sorted.size() * i / numRegions));
+            if (Bytes.compareTo(previous, splitKey) < 0) {
+                splitKeys.add(splitKey);
+                previous = splitKey;
+            }
+        }
+        return splitKeys.toArray(new byte[splitKeys.size()][]);
+    }
+
+    /**
+     * Counts the sampled records per region, for regions with the given start keys (as returned by
+     * {@code HTable.getStartKeys()}, the first region has an empty start key).
+     */
+    public int[] getRegionDistribution(byte[][] startKeys) {
+        int[] counts = new int[startKeys.length];
+        for (byte[] rowKey : rowKeys) {
+            int region = 0;
+            for (int i = 1; i < startKeys.length; i++) {
+                if (Bytes.compareTo(rowKey, startKeys[i]) >= 0) {
+                    region = i;
+                } else {
+                    break;
+                }
+            }
+            counts[region]++;
+        }
+        return counts;
+    }
+
+    private void collect(Record record) {
+        RecordId recordId = record.getId() != null ? record.getId() : idGenerator.newRecordId();
+        rowKeys.add(recordId.toBytes());
+    }
+
+    /**
+     * Bulk ingester, and record writer, which collects the ids of the records rather than writing them.
+     */
+    private class SamplingIngester extends BulkIngester implements RecordWriter {
+        private long numRecords;
+
+        SamplingIngester() {
+            super(new RecordFactoryImpl());
+        }
+
+        @Override
+        public IdGenerator getIdGenerator() {
+            return idGenerator;
+        }
+
+        @Override
+        public TypeManager getTypeManager() {
+            return typeManager;
+        }
+
+        @Override
+        public void write(Record record) {
+            collect(record);
+            numRecords++;
+        }
+
+        @Override
+        public Blob writeBlob(byte[] data, String mediaType, String name) {
+            return new Blob(mediaType, (long)data.length, name);
+        }
+
+        @Override
+        public Blob writeBlob(InputStream data, long size, String mediaType, String name) {
+            return new Blob(mediaType, size, name);
+        }
+
+        @Override
+        public void flush() {
+            // nothing is buffered
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+
+        @Override
+        public long getNumRecords() {
+            return numRecords;
+        }
+
+        @Override
+        public long getNumWriteFailures() {
+            return 0;
+        }
+    }
+
+}
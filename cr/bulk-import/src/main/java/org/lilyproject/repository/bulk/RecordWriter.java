@@ -42,6 +42,11 @@ public interface RecordWriter {
      * @return total count of records written
      */
     long getNumRecords();
-    
+
+    /**
+     * Get the number of records which failed to be written. Writers which report failures by throwing an
+     * exception always return 0.
+     */
+    long getNumWriteFailures();
 
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk.delimited;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.codehaus.jackson.JsonNode;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.bulk.LineMapper;
+import org.lilyproject.repository.bulk.LineMappingContext;
+import org.lilyproject.util.json.JsonFormat;
+import org.lilyproject.util.json.JsonFormatException;
+import org.lilyproject.util.json.JsonUtil;
+
+/**
+ * Maps delimited text lines (CSV, TSV, ...) to records based on a declarative configuration, without involving
+ * a scripting language.
+ * <p>
+ * Each line results in one record. The configuration is a JSON document such as:
+ *
+ * <pre>
+ * {
+ *   separator: ",",
+ *   quote: "\"",
+ *   commentPrefix: "#",
+ *   recordType: "{org.lilyproject}Person",
+ *   id: { column: 0 },
+ *   fields: [
+ *     { column: 1, name: "{org.lilyproject}Name" },
+ *     { column: 2, name: "{org.lilyproject}Age" },
+ *     { column: 3, name: "{org.lilyproject}Tags", listSeparator: "|" }
+ *   ]
+ * }
+ * </pre>
+ *
+ * Only recordType and fields are required. The separator defaults to a comma, and there is no quote character
+ * by default. Columns are counted from 0. If no id column is configured, the records get a UUID record id,
+ * otherwise the value of the id column is used as USER record id. Empty columns are not set on the record.
+ * Empty lines, and lines starting with the optional comment prefix, are skipped.
+ * <p>
+ * The column values are converted to the {@link org.lilyproject.repository.api.ValueType} of the field, which is
+ * looked up from the repository schema for the first line. Supported are the STRING, INTEGER, LONG, DOUBLE,
+ * DECIMAL, BOOLEAN, DATE, DATETIME, URI and LINK value types, and LISTs of those, for which the list separator
+ * needs to be configured.
+ */
+public class DelimitedLineMapper implements LineMapper {
+
+    private final char separator;
+    private final Character quote;
+    private final String commentPrefix;
+    private final QName recordType;
+    private final int idColumn;
+    private final List<FieldMapping> fieldMappings = Lists.newArrayList();
+    private volatile boolean resolved;
+
+    public DelimitedLineMapper(String jsonConfig) throws IOException, JsonFormatException {
+        this(JsonFormat.deserializeNonStd(jsonConfig));
+    }
+
+    public DelimitedLineMapper(JsonNode config) throws JsonFormatException {
+        separator = getChar(config, "separator", ',');
+        String quoteString = JsonUtil.getString(config, "quote", null);
+        quote = quoteString != null ? getChar(config, "quote", '"') : null;
+        commentPrefix = JsonUtil.getString(config, "commentPrefix", null);
+        recordType = QName.fromString(JsonUtil.getString(config, "recordType"));
+        JsonNode idNode = config.get("id");
+        idColumn = idNode != null ? JsonUtil.getInt(idNode, "column") : -1;
+
+        for (JsonNode fieldNode : JsonUtil.getArray(config, "fields")) {
+            String listSeparator = JsonUtil.getString(fieldNode, "listSeparator", null);
+            fieldMappings.add(new FieldMapping(JsonUtil.getInt(fieldNode, "column"),
+                    QName.fromString(JsonUtil.getString(fieldNode, "name")), listSeparator));
+        }
+        if (fieldMappings.isEmpty()) {
+            throw new JsonFormatException("At least one field mapping is required");
+        }
+    }
+
+    private static char getChar(JsonNode node, String prop, char defaultValue) throws JsonFormatException {
+        String value = JsonUtil.getString(node, prop, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.length() != 1) {
+            throw new JsonFormatException("Property " + prop + " should be a single character, got: " + value);
+        }
+        return value.charAt(0);
+    }
+
+    @Override
+    public void mapLine(String inputLine, LineMappingContext context) {
+        if (inputLine.isEmpty() || (commentPrefix != null && inputLine.startsWith(commentPrefix))) {
+            return;
+        }
+
+        if (!resolved) {
+            resolve(context.getTypeManager());
+        }
+
+        List<String> columns = split(inputLine);
+
+        Record record = context.newRecord();
+        record.setRecordType(recordType);
+        if (idColumn != -1) {
+            String id = getColumn(columns, idColumn, inputLine);
+            if (id.isEmpty()) {
+                throw new IllegalArgumentException("Empty id column in line: " + inputLine);
+            }
+            RecordId recordId = context.newRecordId(id);
+            record.setId(recordId);
+        }
+
+        for (FieldMapping fieldMapping : fieldMappings) {
+            String value = getColumn(columns, fieldMapping.getColumn(), inputLine);
+            if (value.isEmpty()) {
+                continue;
+            }
+            try {
+                record.setField(fieldMapping.getFieldName(), fieldMapping.convert(value, context));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid value in column " + fieldMapping.getColumn() + " for field "
+                        + fieldMapping.getFieldName() + ": '" + value + "' in line: " + inputLine, e);
+            }
+        }
+
+        try {
+            context.writeRecord(record);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private synchronized void resolve(TypeManager typeManager) {
+        if (resolved) {
+            return;
+        }
+        try {
+            for (FieldMapping fieldMapping : fieldMappings) {
+                fieldMapping.resolve(typeManager);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Error resolving the value types of the mapped fields", e);
+        }
+        resolved = true;
+    }
+
+    private String getColumn(List<String> columns, int column, String inputLine) {
+        if (column >= columns.size()) {
+            throw new IllegalArgumentException("Line has no column " + column + ": " + inputLine);
+        }
+        return columns.get(column);
+    }
+
+    /**
+     * Splits a line into its columns. When a quote character is configured, separators within quotes are not
+     * treated as separators, and a doubled quote character within quotes stands for a single quote character.
+     */
+    List<String> split(String line) {
+        List<String> columns = Lists.newArrayListWithCapacity(fieldMappings.size() + 1);
+        if (quote == null) {
+            int start = 0;
+            int end;
+            while ((end = line.indexOf(separator, start)) != -1) {
+                columns.add(line.substring(start, end));
+                start = end + 1;
+            }
+            columns.add(line.substring(start));
+            return columns;
+        }
+
+        char quoteChar = quote;
+        StringBuilder column = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == quoteChar) {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == quoteChar) {
+                        column.append(quoteChar);
+                        i++;
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    column.append(c);
+                }
+            } else if (c == quoteChar) {
+                inQuotes = true;
+            } else if (c == separator) {
+                columns.add(column.toString());
+                column.setLength(0);
+            } else {
+                column.append(c);
+            }
+        }
+        columns.add(column.toString());
+        return columns;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk.delimited;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.lilyproject.repository.api.Link;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.bulk.LineMappingContext;
+
+/**
+ * Mapping of a column to a field, which converts the column value to the value type of the field.
+ */
+class FieldMapping {
+
+    private final int column;
+    private final QName fieldName;
+    private final Splitter listSplitter;
+    private Conversion conversion;
+
+    /**
+     * The value types which can be converted from text, named after their base name.
+     */
+    private enum Conversion { STRING, INTEGER, LONG, DOUBLE, DECIMAL, BOOLEAN, DATE, DATETIME, URI, LINK }
+
+    FieldMapping(int column, QName fieldName, String listSeparator) {
+        this.column = column;
+        this.fieldName = fieldName;
+        this.listSplitter = listSeparator != null ? Splitter.on(listSeparator).omitEmptyStrings() : null;
+    }
+
+    int getColumn() {
+        return column;
+    }
+
+    QName getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Looks up the value type of the field, and checks that it can be converted from text.
+     */
+    void resolve(TypeManager typeManager) throws RepositoryException, InterruptedException {
+        ValueType valueType = typeManager.getFieldTypeByName(fieldName).getValueType();
+        if (valueType.getBaseName().equals("LIST")) {
+            if (listSplitter == null) {
+                throw new IllegalArgumentException("Field " + fieldName + " is a LIST field, a listSeparator should"
+                        + " be configured for it");
+            }
+            valueType = valueType.getNestedValueType();
+        } else if (listSplitter != null) {
+            throw new IllegalArgumentException("A listSeparator is configured for field " + fieldName
+                    + ", but it is not a LIST field");
+        }
+
+        try {
+            conversion = Conversion.valueOf(valueType.getBaseName());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Field " + fieldName + " has value type " + valueType.getName()
+                    + ", which can not be mapped from text");
+        }
+    }
+
+    Object convert(String value, LineMappingContext context) {
+        if (listSplitter == null) {
+            return convertSingle(value, context);
+        }
+        List<Object> values = Lists.newArrayList();
+        for (String item : listSplitter.split(value)) {
+            values.add(convertSingle(item, context));
+        }
+        return values;
+    }
+
+    private Object convertSingle(String value, LineMappingContext context) {
+        switch (conversion) {
+            case STRING:
+                return value;
+            case INTEGER:
+                return Integer.valueOf(value.trim());
+            case LONG:
+                return Long.valueOf(value.trim());
+            case DOUBLE:
+                return Double.valueOf(value.trim());
+            case DECIMAL:
+                return new BigDecimal(value.trim());
+            case BOOLEAN:
+                return parseBoolean(value.trim());
+            case DATE:
+                return new LocalDate(value.trim());
+            case DATETIME:
+                return new DateTime(value.trim());
+            case URI:
+                return java.net.URI.create(value.trim());
+            case LINK:
+                // Links refer to records by their USER id, typically records of the same import
+                return new Link(context.newRecordId(value.trim()));
+            default:
+                throw new IllegalStateException("Unexpected conversion: " + conversion);
+        }
+    }
+
+    private static Boolean parseBoolean(String value) {
+        if (value.equalsIgnoreCase("true")) {
+            return Boolean.TRUE;
+        } else if (value.equalsIgnoreCase("false")) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException("Not a boolean value: " + value);
+    }
+
+}
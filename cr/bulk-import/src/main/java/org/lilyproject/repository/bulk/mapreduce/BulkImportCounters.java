@@ -38,5 +38,26 @@ public enum BulkImportCounters {
     /**
      * Number of input lines that resulted in multiple output records.
      */
-    INPUT_LINES_WITH_MULTIPLE_OUTPUT_RECORDS
+    INPUT_LINES_WITH_MULTIPLE_OUTPUT_RECORDS,
+
+    /**
+     * Total number of link index entries (forward and backward) that have been written.
+     */
+    OUTPUT_LINK_INDEX_ENTRIES,
+
+    /**
+     * Number of blobs written directly to the blob stores.
+     */
+    BLOBS_WRITTEN,
+
+    /**
+     * Total size of the blobs written directly to the blob stores.
+     */
+    BLOB_BYTES_WRITTEN,
+
+    /**
+     * Number of written blobs that are not referenced by any written record. These are not cleaned up
+     * automatically.
+     */
+    UNREFERENCED_BLOBS
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk.mapreduce;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.bulk.BlobImportReport;
+import org.lilyproject.repository.bulk.BulkIngester;
+import org.lilyproject.repository.bulk.LineMapper;
+import org.lilyproject.repository.bulk.LineMapperFactory;
+import org.lilyproject.repository.bulk.LineMappingContext;
+
+/**
+ * Text line MapReduce mapper that sends input lines to a user-defined mapping function implemented in Python, or,
+ * when a {@link #MAPPING_CONFIG} is configured, to a
+ * {@link org.lilyproject.repository.bulk.delimited.DelimitedLineMapper}.
+ */
+public class BulkImportMapper extends Mapper<LongWritable, Text, ImmutableBytesWritable, Put> {
+
+    /**
+     * Config key for the mapper symbol name.
+     */
+    public static final String MAPPER_SYMBOL_NAME = "lilyproject.jython.mapper.symbol";
+
+    /**
+     * Config key for the mapper Jython code.
+     */
+    public static final String MAPPER_CODE = "lilyproject.jython.mapper.code";
+
+    /**
+     * Config key for the JSON configuration of the delimited line mapper. When set, the Jython mapper code is
+     * not used.
+     */
+    public static final String MAPPING_CONFIG = "lilyproject.bulk.mapping.config";
+
+    /**
+     * Config key for Lily ZooKeeper connection string.
+     */
+    public static final String LILY_ZK_STRING = "lilyproject.zookeeper.connection";
+
+    /**
+     * Config key for the name of the repository table to write to.
+     */
+    public static final String TABLE_NAME = "lilyproject.tablename";
+
+    /**
+     * Config key for the name of the repository to write to.
+     */
+    public static final String REPOSITORY_NAME = "lilyproject.repositoryname";
+
+    /**
+     * Config key to configure bulk mode.
+     */
+    public static final String BULK_MODE = "lilyproject.bulk";
+
+    /**
+     * Config key to enable writing of link index entries.
+     */
+    public static final String LINK_INDEX = "lilyproject.bulk.linkindex";
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private LineMapper lineMapper;
+    private BulkIngester bulkIngester;
+    private LineMappingContext lineMappingContext;
+    private MapReduceRecordWriter recordWriter;
+    private MultipleOutputs<ImmutableBytesWritable, Put> multipleOutputs;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        try {
+            String mappingConfig = conf.get(MAPPING_CONFIG);
+            if (mappingConfig != null) {
+                lineMapper = LineMapperFactory.createLineMapper(mappingConfig, null);
+            } else {
+                lineMapper = LineMapperFactory.createLineMapper(conf.get(MAPPER_CODE), conf.get(MAPPER_SYMBOL_NAME));
+            }
+        } catch (Exception e) {
+            throw new IOException("Error creating line mapper", e);
+        }
+        bulkIngester = BulkIngester.newBulkIngester(conf.get(LILY_ZK_STRING), 30000, conf.get(REPOSITORY_NAME),
+                conf.get(TABLE_NAME), Boolean.valueOf(conf.get(BULK_MODE)), conf.getBoolean(LINK_INDEX, false));
+        recordWriter = new MapReduceRecordWriter(bulkIngester);
+        if (bulkIngester.isLinkIndexEnabled()) {
+            multipleOutputs = new MultipleOutputs<ImmutableBytesWritable, Put>(context);
+            recordWriter.setMultipleOutputs(multipleOutputs);
+        }
+        lineMappingContext = new LineMappingContext(bulkIngester, recordWriter);
+    }
+
+    @Override
+    protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+        long preRecordsWritten = recordWriter.getNumRecords();
+        long preLinkIndexEntriesWritten = recordWriter.getNumLinkIndexEntries();
+        recordWriter.setContext(context);
+        lineMapper.mapLine(value.toString(), lineMappingContext);
+        long numWritten = recordWriter.getNumRecords() - preRecordsWritten;
+        updateCounters(context, numWritten, recordWriter.getNumLinkIndexEntries() - preLinkIndexEntriesWritten);
+    }
+
+    private void updateCounters(Context context, long numWritten, long numLinkIndexEntriesWritten) {
+        if (numLinkIndexEntriesWritten > 0) {
+            context.getCounter(BulkImportCounters.OUTPUT_LINK_INDEX_ENTRIES).increment(numLinkIndexEntriesWritten);
+        }
+        if (numWritten > 0) {
+            if (numWritten == 1) {
+                context.getCounter(BulkImportCounters.INPUT_LINES_WITH_ONE_OUTPUT_RECORD).increment(1L);
+            } else {
+                context.getCounter(BulkImportCounters.INPUT_LINES_WITH_MULTIPLE_OUTPUT_RECORDS).increment(1L);
+            }
+            context.getCounter(BulkImportCounters.OUTPUT_LILY_RECORDS).increment(numWritten);
+        } else {
+            context.getCounter(BulkImportCounters.INPUT_LINES_WITH_NO_OUTPUT).increment(1L);
+        }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (multipleOutputs != null) {
+            multipleOutputs.close();
+        }
+        bulkIngester.close();
+        reportBlobs(context, bulkIngester.getBlobImportReport());
+    }
+
+    private void reportBlobs(Context context, BlobImportReport blobImportReport) {
+        context.getCounter(BulkImportCounters.BLOBS_WRITTEN).increment(blobImportReport.getBlobsWritten());
+        context.getCounter(BulkImportCounters.BLOB_BYTES_WRITTEN).increment(blobImportReport.getBytesWritten());
+        for (Blob blob : blobImportReport.getUnreferencedBlobs()) {
+            context.getCounter(BulkImportCounters.UNREFERENCED_BLOBS).increment(1L);
+            log.warn("Blob written but not referenced by any record: " + Bytes.toStringBinary(blob.getValue()));
+        }
+    }
+
+}
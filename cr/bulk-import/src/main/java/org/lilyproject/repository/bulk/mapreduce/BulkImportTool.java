@@ -15,11 +15,8 @@
  */
 package org.lilyproject.repository.bulk.mapreduce;
 
-import java.io.File;
-import java.net.URI;
 import java.util.UUID;
 
-import com.google.common.base.Charsets;
 import org.apache.commons.cli.CommandLine;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -29,21 +26,40 @@ import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat;
-import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.lilyproject.linkindex.LinkIndex;
+import org.lilyproject.linkindex.LinkIndexHFiles;
 import org.lilyproject.repository.bulk.AbstractBulkImportCliTool;
-import org.python.google.common.io.Files;
+import org.lilyproject.util.io.Closer;
 
 /**
  * MapReduce-based import tool that makes use of Jython-based text line mapping.
+ * <p>
+ * When the link index is enabled, the mappers additionally write the forward and backward link index puts
+ * to named outputs. These are turned into HFiles for the link index tables by a follow-up job per index, and
+ * are loaded before the record HFiles, so that records never become visible before their links.
  */
 public class BulkImportTool extends AbstractBulkImportCliTool implements Tool {
 
     private static final String HFILE_PATH = "lilyproject.bulkimport.hfilepath";
+    private static final String FORWARD_LINKS_HFILE_PATH = "lilyproject.bulkimport.hfilepath.linksforward";
+    private static final String BACKWARD_LINKS_HFILE_PATH = "lilyproject.bulkimport.hfilepath.linksbackward";
+
+    /**
+     * Named output to which the puts for the forward link index are written.
+     */
+    static final String FORWARD_LINKS_OUTPUT = "linksforward";
+
+    /**
+     * Named output to which the puts for the backward link index are written.
+     */
+    static final String BACKWARD_LINKS_OUTPUT = "linksbackward";
 
     private Configuration conf = new Configuration();
 
@@ -70,6 +86,9 @@ public class BulkImportTool extends AbstractBulkImportCliTool implements Tool {
     }
 
     private String formatJobName() {
+        if (mappingConfigPath != null) {
+            return String.format("%s: %s %s", getCmdName(), mappingConfigPath, inputPath);
+        }
         return String.format("%s: %s %s %s", getCmdName(), pythonMapperPath, pythonSymbol, inputPath);
     }
 
@@ -82,19 +101,24 @@ public class BulkImportTool extends AbstractBulkImportCliTool implements Tool {
         }
 
         conf.set("hbase.zookeeper.quorum", zkConnectionString);
-        conf.set(LilyJythonMapper.LILY_ZK_STRING, zkConnectionString);
-        conf.set(LilyJythonMapper.MAPPER_CODE, Files.toString(new File(pythonMapperPath), Charsets.UTF_8));
-        conf.set(LilyJythonMapper.MAPPER_SYMBOL_NAME, pythonSymbol);
-        conf.set(LilyJythonMapper.REPOSITORY_NAME, outputRepository);
-        conf.set(LilyJythonMapper.TABLE_NAME, outputTable);
-        conf.set(LilyJythonMapper.BULK_MODE, Boolean.toString(bulkMode));
+        conf.set(BulkImportMapper.LILY_ZK_STRING, zkConnectionString);
+        if (mappingConfigPath == null) {
+            conf.set(BulkImportMapper.MAPPER_CODE, readMapperCode());
+            conf.set(BulkImportMapper.MAPPER_SYMBOL_NAME, pythonSymbol);
+        } else {
+            conf.set(BulkImportMapper.MAPPING_CONFIG, readMapperCode());
+        }
+        conf.set(BulkImportMapper.REPOSITORY_NAME, outputRepository);
+        conf.set(BulkImportMapper.TABLE_NAME, outputTable);
+        conf.set(BulkImportMapper.BULK_MODE, Boolean.toString(bulkMode));
+        conf.setBoolean(BulkImportMapper.LINK_INDEX, bulkMode && linkIndex);
 
         Job job = new Job(conf);
 
         Path tmpDir = new Path("/tmp/lily-" + UUID.randomUUID());
 
         job.setJarByClass(BulkImportTool.class);
-        job.setMapperClass(LilyJythonMapper.class);
+        job.setMapperClass(BulkImportMapper.class);
         job.setInputFormatClass(TextInputFormat.class);
         job.setOutputFormatClass(HFileOutputFormat.class);
         job.setMapOutputKeyClass(ImmutableBytesWritable.class);
@@ -106,15 +130,64 @@ public class BulkImportTool extends AbstractBulkImportCliTool implements Tool {
         HFileOutputFormat.setOutputPath(job, tmpDir);
         conf.set(HFILE_PATH, tmpDir.toUri().toString());
 
+        if (bulkMode && linkIndex) {
+            MultipleOutputs.addNamedOutput(job, FORWARD_LINKS_OUTPUT, SequenceFileOutputFormat.class,
+                    ImmutableBytesWritable.class, Put.class);
+            MultipleOutputs.addNamedOutput(job, BACKWARD_LINKS_OUTPUT, SequenceFileOutputFormat.class,
+                    ImmutableBytesWritable.class, Put.class);
+        }
+
+        // The job gets one reducer per region of the record table, so pre-splitting the table also
+        // spreads the work over the reducers
+        prepareOutputTable(createLineMapper(), FileSystem.get(conf));
         HTable recordTable = new HTable(conf, outputTable);
-        HFileOutputFormat.configureIncrementalLoad(job, recordTable);
+        try {
+            HFileOutputFormat.configureIncrementalLoad(job, recordTable);
+        } finally {
+            Closer.close(recordTable);
+        }
 
         if (!job.waitForCompletion(true)) {
             throw new RuntimeException("Job failed");
         }
+
+        if (bulkMode && linkIndex) {
+            String forwardLinksPath = writeLinkIndexHFiles(tmpDir, FORWARD_LINKS_OUTPUT, LinkIndex.FORWARD_INDEX_NAME);
+            if (forwardLinksPath != null) {
+                conf.set(FORWARD_LINKS_HFILE_PATH, forwardLinksPath);
+            }
+            String backwardLinksPath =
+                    writeLinkIndexHFiles(tmpDir, BACKWARD_LINKS_OUTPUT, LinkIndex.BACKWARD_INDEX_NAME);
+            if (backwardLinksPath != null) {
+                conf.set(BACKWARD_LINKS_HFILE_PATH, backwardLinksPath);
+            }
+        }
+
         return 0;
     }
 
+    static String getLinksOutputBasePath(String namedOutput) {
+        return namedOutput + "/part";
+    }
+
+    /**
+     * Converts the link index puts written by the import job to HFiles for the given index table. The puts are
+     * removed from the import output dir, as it is bulk loaded as a whole into the record table.
+     *
+     * @return the path where the HFiles were written, null if none of the imported records has links
+     */
+    private String writeLinkIndexHFiles(Path importOutputDir, String namedOutput, String indexTableName)
+            throws Exception {
+        Path hfileDir = LinkIndexHFiles.writeHFiles(conf,
+                String.format("%s: %s HFiles for %s", getCmdName(), indexTableName, inputPath),
+                BulkImportTool.class, importOutputDir, namedOutput, indexTableName);
+        return hfileDir != null ? hfileDir.toUri().toString() : null;
+    }
+
+    private static int loadHFiles(Configuration conf, String hfilePath, String tableName) throws Exception {
+        return LinkIndexHFiles.loadHFiles(conf, new Path(hfilePath), tableName);
+    }
+
     public static void main(String[] args) throws Exception {
         Configuration conf = new Configuration();
         int status = ToolRunner.run(conf, new BulkImportTool(), args);
@@ -122,9 +195,22 @@ public class BulkImportTool extends AbstractBulkImportCliTool implements Tool {
             System.exit(status);
         }
         SchemaMetrics.configureGlobally(conf);
-        status = ToolRunner.run(new LoadIncrementalHFiles(conf),
-                new String[]{conf.get(HFILE_PATH), conf.get(LilyJythonMapper.TABLE_NAME)});
-        FileSystem.get(conf).delete(new Path(new URI(conf.get(HFILE_PATH))), true);
+
+        // Same order as in the LinkIndex: forward links first, then backward links, and the records last
+        if (conf.get(FORWARD_LINKS_HFILE_PATH) != null) {
+            status = loadHFiles(conf, conf.get(FORWARD_LINKS_HFILE_PATH), LinkIndex.FORWARD_INDEX_NAME);
+            if (status != 0) {
+                System.exit(status);
+            }
+        }
+        if (conf.get(BACKWARD_LINKS_HFILE_PATH) != null) {
+            status = loadHFiles(conf, conf.get(BACKWARD_LINKS_HFILE_PATH), LinkIndex.BACKWARD_INDEX_NAME);
+            if (status != 0) {
+                System.exit(status);
+            }
+        }
+
+        status = loadHFiles(conf, conf.get(HFILE_PATH), conf.get(BulkImportMapper.TABLE_NAME));
         System.exit(status);
     }
 
@@ -18,22 +18,31 @@ package org.lilyproject.repository.bulk.mapreduce;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.bulk.BulkIngester;
 import org.lilyproject.repository.bulk.RecordWriter;
+import org.lilyproject.util.Pair;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * RecordWriter for use within a MapReduce context where HFiles are being written directly.
+ * <p>
+ * When the link index is enabled on the {@link BulkIngester}, the link index puts are written to the
+ * {@link BulkImportTool#FORWARD_LINKS_OUTPUT} and {@link BulkImportTool#BACKWARD_LINKS_OUTPUT} named outputs,
+ * from which they are turned into HFiles in a second step.
  */
 public class MapReduceRecordWriter implements RecordWriter {
 
     private long recordsWritten;
+    private long linkIndexEntriesWritten;
     private ImmutableBytesWritable rowKey = new ImmutableBytesWritable();
     private BulkIngester bulkIngester;
     private Mapper<?, ?, ImmutableBytesWritable, Put>.Context context;
+    private MultipleOutputs<ImmutableBytesWritable, Put> multipleOutputs;
 
     public MapReduceRecordWriter(BulkIngester bulkIngester) {
         this.bulkIngester = bulkIngester;
@@ -43,18 +52,33 @@ public class MapReduceRecordWriter implements RecordWriter {
         this.context = context;
     }
 
+    /**
+     * Set the named outputs to write link index puts to. Required when the link index is enabled.
+     */
+    public void setMultipleOutputs(MultipleOutputs<ImmutableBytesWritable, Put> multipleOutputs) {
+        this.multipleOutputs = multipleOutputs;
+    }
+
     @Override
     public void write(Record record) throws IOException, InterruptedException {
         if (bulkIngester.isBulkMode()) {
             Put put;
+            Pair<List<Put>, List<Put>> linkPuts = null;
             try {
                 put = bulkIngester.buildPut(record);
+                if (bulkIngester.isLinkIndexEnabled()) {
+                    linkPuts = bulkIngester.buildLinkIndexPuts(record);
+                }
                 recordsWritten++;
             } catch (RepositoryException e) {
                 throw new RuntimeException(e);
             }
             rowKey.set(record.getId().toBytes());
             context.write(rowKey, put);
+            if (linkPuts != null) {
+                writeLinkPuts(BulkImportTool.FORWARD_LINKS_OUTPUT, linkPuts.getV1());
+                writeLinkPuts(BulkImportTool.BACKWARD_LINKS_OUTPUT, linkPuts.getV2());
+            }
         } else {
             try {
                 bulkIngester.write(record);
@@ -65,6 +89,14 @@ public class MapReduceRecordWriter implements RecordWriter {
         }
     }
 
+    private void writeLinkPuts(String namedOutput, List<Put> puts) throws IOException, InterruptedException {
+        for (Put put : puts) {
+            multipleOutputs.write(namedOutput, new ImmutableBytesWritable(put.getRow()), put,
+                    BulkImportTool.getLinksOutputBasePath(namedOutput));
+            linkIndexEntriesWritten++;
+        }
+    }
+
     @Override
     public void close() {
         // No-op
@@ -75,4 +107,17 @@ public class MapReduceRecordWriter implements RecordWriter {
         return recordsWritten;
     }
 
+    @Override
+    public long getNumWriteFailures() {
+        // failures are thrown, which fails the task
+        return 0;
+    }
+
+    /**
+     * Get the number of link index entries (forward and backward) written to this writer.
+     */
+    public long getNumLinkIndexEntries() {
+        return linkIndexEntriesWritten;
+    }
+
 }
@@ -16,25 +16,23 @@
 package org.lilyproject.repository.bulk.serial;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.List;
 
-import com.google.common.base.Charsets;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.lilyproject.repository.bulk.AbstractBulkImportCliTool;
 import org.lilyproject.repository.bulk.BulkIngester;
 import org.lilyproject.repository.bulk.LineMapper;
 import org.lilyproject.repository.bulk.LineMappingContext;
 import org.lilyproject.repository.bulk.RecordWriter;
-import org.lilyproject.repository.bulk.jython.JythonLineMapper;
 import org.python.core.PyException;
-import org.python.google.common.io.Files;
 
 /**
  * A bulk import tool similar to {@link org.lilyproject.repository.bulk.mapreduce.BulkImportTool} that works without
@@ -45,8 +43,16 @@ public class BulkImportTool extends AbstractBulkImportCliTool {
     private final Log log = LogFactory.getLog(BulkImportTool.class);
 
     private Option dryRunOption;
+    private Option threadsOption;
+    private Option queueSizeOption;
+    private Option flushThreadsOption;
+    private Option writeBufferOption;
 
     private boolean dryRun;
+    private int numThreads;
+    private int queueSize;
+    private int numFlushThreads;
+    private long writeBufferSize;
 
     @SuppressWarnings("static-access")
     @Override
@@ -55,8 +61,39 @@ public class BulkImportTool extends AbstractBulkImportCliTool {
                 OptionBuilder.withDescription("Only print out the created records without writing them to Lily").withLongOpt(
                         "dryrun").create('d');
 
+        threadsOption = OptionBuilder
+                .withDescription("Number of threads building records (default 10)")
+                .withLongOpt("threads")
+                .hasArg()
+                .create();
+
+        queueSizeOption = OptionBuilder
+                .withDescription("Maximum number of records waiting to be written (default "
+                        + ThreadedRecordWriter.DEFAULT_QUEUE_SIZE + ")")
+                .withLongOpt("queuesize")
+                .hasArg()
+                .create();
+
+        flushThreadsOption = OptionBuilder
+                .withDescription("Number of threads writing to HBase in bulk mode (default "
+                        + ThreadedRecordWriter.DEFAULT_FLUSH_THREADS + ")")
+                .withLongOpt("flushthreads")
+                .hasArg()
+                .create();
+
+        writeBufferOption = OptionBuilder
+                .withDescription("Size in KB of buffered puts after which they are written to HBase (default "
+                        + BulkIngester.DEFAULT_WRITE_BUFFER_SIZE / 1024 + ")")
+                .withLongOpt("writebuffer")
+                .hasArg()
+                .create();
+
         List<Option> options = super.getOptions();
         options.add(dryRunOption);
+        options.add(threadsOption);
+        options.add(queueSizeOption);
+        options.add(flushThreadsOption);
+        options.add(writeBufferOption);
         return options;
     }
 
@@ -68,6 +105,13 @@ public class BulkImportTool extends AbstractBulkImportCliTool {
         }
 
         dryRun = cmd.hasOption(dryRunOption.getOpt());
+        numThreads = Integer.parseInt(cmd.getOptionValue(threadsOption.getLongOpt(), "10"));
+        queueSize = Integer.parseInt(cmd.getOptionValue(queueSizeOption.getLongOpt(),
+                String.valueOf(ThreadedRecordWriter.DEFAULT_QUEUE_SIZE)));
+        numFlushThreads = Integer.parseInt(cmd.getOptionValue(flushThreadsOption.getLongOpt(),
+                String.valueOf(ThreadedRecordWriter.DEFAULT_FLUSH_THREADS)));
+        writeBufferSize = Long.parseLong(cmd.getOptionValue(writeBufferOption.getLongOpt(),
+                String.valueOf(BulkIngester.DEFAULT_WRITE_BUFFER_SIZE / 1024))) * 1024;
         return 0;
     }
 
@@ -78,22 +122,32 @@ public class BulkImportTool extends AbstractBulkImportCliTool {
 
     @Override
     public int run(CommandLine cmd) throws Exception {
+        LineMapper lineMapper = createLineMapper();
+        if (!dryRun) {
+            prepareOutputTable(lineMapper, FileSystem.getLocal(new Configuration()));
+        }
+
         BulkIngester bulkIngester =
                 BulkIngester.newBulkIngester(zkConnectionString, 30000, outputRepository, outputTable, bulkMode);
 
         BufferedReader bufferedReader = new BufferedReader(new FileReader(inputPath));
         RecordWriter recordWriter;
+        ProgressReporter progressReporter = null;
         if (dryRun) {
             recordWriter = new DebugRecordWriter(System.out);
         } else {
-            recordWriter = new ThreadedRecordWriter(zkConnectionString, 10, outputRepository, outputTable, bulkMode);
+            ThreadedRecordWriter threadedRecordWriter = new ThreadedRecordWriter(zkConnectionString, numThreads,
+                    outputRepository, outputTable, bulkMode, linkIndex, queueSize, numFlushThreads, writeBufferSize);
+            // Blobs are written by the mapping context, records by the writer threads: share the blob report
+            threadedRecordWriter.setBlobImportReport(bulkIngester.getBlobImportReport());
+            recordWriter = threadedRecordWriter;
+            progressReporter = new ProgressReporter(threadedRecordWriter);
+            progressReporter.start();
         }
         long start = System.currentTimeMillis();
         int numLines = 0;
 
         try {
-            LineMapper lineMapper = new JythonLineMapper(Files.toString(new File(pythonMapperPath), Charsets.UTF_8),
-                    pythonSymbol);
             LineMappingContext mappingContext = new LineMappingContext(bulkIngester, recordWriter);
             String line;
             while ((line = bufferedReader.readLine()) != null) {
@@ -107,16 +161,64 @@ public class BulkImportTool extends AbstractBulkImportCliTool {
         } finally {
             bufferedReader.close();
             recordWriter.close();
+            if (progressReporter != null) {
+                progressReporter.interrupt();
+            }
         }
         float duration = (System.currentTimeMillis() - start) / 1000f;
         if (!dryRun) {
             System.out.printf("Imported %d lines as %d records in %.2f seconds\n", numLines, recordWriter.getNumRecords(),
                     duration);
+            if (bulkMode && bulkIngester.getBlobImportReport().getBlobsWritten() > 0) {
+                bulkIngester.getBlobImportReport().print(System.out);
+            }
+            long failures = recordWriter.getNumWriteFailures();
+            if (failures > 0) {
+                System.out.printf("%d records or puts failed to be written, see the log for details\n", failures);
+                return 1;
+            }
         }
 
         return 0;
     }
 
+    /**
+     * Periodically prints the import throughput and the state of the write queues, which tells whether
+     * the import is bound by building the records or by writing them.
+     */
+    private static class ProgressReporter extends Thread {
+        private static final long INTERVAL = 10000;
+
+        private final ThreadedRecordWriter recordWriter;
+
+        ProgressReporter(ThreadedRecordWriter recordWriter) {
+            super("bulk-import-progress");
+            setDaemon(true);
+            this.recordWriter = recordWriter;
+        }
+
+        @Override
+        public void run() {
+            long previousRecords = 0;
+            long previousBytes = 0;
+            while (!isInterrupted()) {
+                try {
+                    Thread.sleep(INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long records = recordWriter.getNumRecords();
+                long bytes = recordWriter.getBytesWritten();
+                System.out.printf("%d records, %.0f records/s, %.2f MB/s, %d queued records, %d pending flushes,"
+                        + " %d failures\n", records, (records - previousRecords) * 1000f / INTERVAL,
+                        (bytes - previousBytes) * 1000f / INTERVAL / (1024 * 1024), recordWriter.getQueueDepth(),
+                        recordWriter.getPendingFlushes(), recordWriter.getNumWriteFailures());
+                previousRecords = records;
+                previousBytes = bytes;
+            }
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         new BulkImportTool().start(args);
     }
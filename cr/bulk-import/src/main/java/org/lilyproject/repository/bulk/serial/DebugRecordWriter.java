@@ -52,4 +52,9 @@ public class DebugRecordWriter implements RecordWriter {
         return numRecords;
     }
 
+    @Override
+    public long getNumWriteFailures() {
+        return 0;
+    }
+
 }
@@ -27,6 +27,8 @@ import com.google.common.collect.Lists;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.bulk.BatchFlusher;
+import org.lilyproject.repository.bulk.BlobImportReport;
 import org.lilyproject.repository.bulk.BulkIngester;
 import org.lilyproject.repository.bulk.RecordWriter;
 import org.lilyproject.util.concurrent.WaitPolicy;
@@ -34,35 +36,78 @@ import org.lilyproject.util.exception.ExceptionUtil;
 
 /**
  * Import writer for bulk imports where the import runs as a single (multi-threaded) process writing directly to Lily.
+ * <p>
+ * Records are handed over to the writer threads through a bounded queue: when it is full, {@link #write(Record)}
+ * blocks. In bulk mode, the writer threads only build the Puts, the buffered Puts are written to HBase by a
+ * separate set of flush threads, see {@link BatchFlusher}.
  */
 public class ThreadedRecordWriter implements RecordWriter {
 
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    public static final int DEFAULT_FLUSH_THREADS = 4;
+
     private Log log = LogFactory.getLog(getClass());
 
     private String lilyZk;
     private String repositoryName;
     private String tableName;
     private boolean bulkMode;
+    private boolean linkIndex;
     private ThreadPoolExecutor executor;
     private AtomicLong recordsWritten = new AtomicLong();
     private AtomicLong writeFailures = new AtomicLong();
     private ThreadLocal<BulkIngester> threadLocalBulkIngesters;
     private List<BulkIngester> bulkIngesters;
+    private BlobImportReport blobImportReport;
+    private BatchFlusher batchFlusher;
+    private long writeBufferSize;
 
 
     public ThreadedRecordWriter(String lilyZk, int numThreads, String repositoryName, String tableName, boolean bulkMode) {
+        this(lilyZk, numThreads, repositoryName, tableName, bulkMode, false);
+    }
+
+    public ThreadedRecordWriter(String lilyZk, int numThreads, String repositoryName, String tableName, boolean bulkMode,
+                                boolean linkIndex) {
+        this(lilyZk, numThreads, repositoryName, tableName, bulkMode, linkIndex, DEFAULT_QUEUE_SIZE,
+                DEFAULT_FLUSH_THREADS, BulkIngester.DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * @param numThreads      number of threads building Puts (or writing through the Lily API when not in bulk
+     *                        mode)
+     * @param queueSize       maximum number of records waiting to be handled by the writer threads
+     * @param numFlushThreads number of threads writing the Puts to HBase, only used in bulk mode
+     * @param writeBufferSize size in bytes at which the buffered Puts of a writer thread are flushed
+     */
+    public ThreadedRecordWriter(String lilyZk, int numThreads, String repositoryName, String tableName, boolean bulkMode,
+                                boolean linkIndex, int queueSize, int numFlushThreads, long writeBufferSize) {
         this.lilyZk = lilyZk;
         this.repositoryName = repositoryName;
         this.tableName = tableName;
         this.bulkMode = bulkMode;
+        this.linkIndex = linkIndex;
+        this.writeBufferSize = writeBufferSize;
+        if (bulkMode) {
+            // Allow each flush thread to have a batch in progress and one waiting
+            batchFlusher = new BatchFlusher(numFlushThreads, numFlushThreads * 2);
+        }
         executor = new ThreadPoolExecutor(numThreads, numThreads, 10, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<Runnable>(5));
+                new ArrayBlockingQueue<Runnable>(queueSize));
         executor.setRejectedExecutionHandler(new WaitPolicy());
         threadLocalBulkIngesters = new ThreadLocal<BulkIngester>();
         bulkIngesters = Collections.synchronizedList(Lists.<BulkIngester>newArrayList());
     }
 
 
+    /**
+     * Set the report in which the blobs referenced by the written records are registered. Should be called
+     * before any record is written.
+     */
+    public void setBlobImportReport(BlobImportReport blobImportReport) {
+        this.blobImportReport = blobImportReport;
+    }
+
     @Override
     public void write(final Record record) throws IOException, InterruptedException {
         executor.submit(new Runnable() {
@@ -70,7 +115,15 @@ public class ThreadedRecordWriter implements RecordWriter {
             public void run() {
 
                 if (threadLocalBulkIngesters.get() == null) {
-                    BulkIngester bulkIngester = BulkIngester.newBulkIngester(lilyZk, 30000, repositoryName, tableName, bulkMode);
+                    BulkIngester bulkIngester = BulkIngester.newBulkIngester(lilyZk, 30000, repositoryName, tableName, bulkMode,
+                            linkIndex);
+                    if (blobImportReport != null) {
+                        bulkIngester.setBlobImportReport(blobImportReport);
+                    }
+                    bulkIngester.setWriteBufferSize(writeBufferSize);
+                    if (batchFlusher != null) {
+                        bulkIngester.setBatchFlusher(batchFlusher);
+                    }
                     bulkIngesters.add(bulkIngester);
                     threadLocalBulkIngesters.set(bulkIngester);
                 }
@@ -102,6 +155,17 @@ public class ThreadedRecordWriter implements RecordWriter {
         if (!successfulFinish) {
             throw new RuntimeException("JSON import executor did not end successfully.");
         }
+        if (batchFlusher != null) {
+            // Hand over the remaining buffered puts, and wait for them to be written before closing the ingesters
+            for (BulkIngester bulkIngester : bulkIngesters) {
+                try {
+                    bulkIngester.flush();
+                } catch (IOException e) {
+                    log.error("Error flushing bulk ingester", e);
+                }
+            }
+            batchFlusher.close();
+        }
         for (BulkIngester bulkIngester : bulkIngesters) {
             try {
                 bulkIngester.close();
@@ -111,9 +175,35 @@ public class ThreadedRecordWriter implements RecordWriter {
         }
     }
 
+    /**
+     * Number of records waiting to be handled by the writer threads.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Number of batches of Puts waiting to be written to HBase.
+     */
+    public int getPendingFlushes() {
+        return batchFlusher != null ? batchFlusher.getPendingBatches() : 0;
+    }
 
+    /**
+     * Approximate number of bytes written to HBase, 0 when not in bulk mode.
+     */
+    public long getBytesWritten() {
+        return batchFlusher != null ? batchFlusher.getBytesWritten() : 0;
+    }
+
+
+    /**
+     * Number of records which failed to be written. In bulk mode, this includes the Puts which failed to be
+     * written by the flush threads, including link index Puts.
+     */
+    @Override
     public long getNumWriteFailures() {
-        return writeFailures.longValue();
+        return writeFailures.longValue() + (batchFlusher != null ? batchFlusher.getPutsFailed() : 0);
     }
 
     @Override
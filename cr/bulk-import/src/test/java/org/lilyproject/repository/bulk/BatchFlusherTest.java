@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class BatchFlusherTest {
+
+    @Test
+    public void testWrite_SortedAndInOrder() throws IOException {
+        HTableInterface tableA = mock(HTableInterface.class);
+        HTableInterface tableB = mock(HTableInterface.class);
+
+        Put put1 = new Put(Bytes.toBytes("1"));
+        Put put2 = new Put(Bytes.toBytes("2"));
+        List<Put> putsA = Lists.newArrayList(put2, put1);
+        List<Put> putsB = Lists.newArrayList(new Put(Bytes.toBytes("3")));
+
+        BatchFlusher flusher = new BatchFlusher(2, 2);
+        BatchFlusher.Batch batch = new BatchFlusher.Batch();
+        batch.add(tableA, putsA);
+        batch.add(tableB, putsB);
+        batch.add(tableB, Lists.<Put>newArrayList());
+        flusher.submit(batch);
+        flusher.close();
+
+        InOrder inOrder = inOrder(tableA, tableB);
+        inOrder.verify(tableA).put(Lists.newArrayList(put1, put2));
+        inOrder.verify(tableB).put(putsB);
+        assertEquals(3, flusher.getPutsWritten());
+        assertEquals(0, flusher.getPutsFailed());
+        assertEquals(0, flusher.getPendingBatches());
+    }
+
+    @Test
+    public void testWrite_FailureSkipsRemainingTables() throws IOException {
+        HTableInterface tableA = mock(HTableInterface.class);
+        HTableInterface tableB = mock(HTableInterface.class);
+        when(tableA.getTableName()).thenReturn(Bytes.toBytes("tableA"));
+        doThrow(new IOException("test")).when(tableA).put(anyListOf(Put.class));
+
+        BatchFlusher flusher = new BatchFlusher(1, 1);
+        BatchFlusher.Batch batch = new BatchFlusher.Batch();
+        batch.add(tableA, Lists.newArrayList(new Put(Bytes.toBytes("1"))));
+        batch.add(tableB, Lists.newArrayList(new Put(Bytes.toBytes("2")), new Put(Bytes.toBytes("3"))));
+        flusher.submit(batch);
+        flusher.close();
+
+        verify(tableB, never()).put(anyListOf(Put.class));
+        assertEquals(0, flusher.getPutsWritten());
+        assertEquals(3, flusher.getPutsFailed());
+    }
+
+}
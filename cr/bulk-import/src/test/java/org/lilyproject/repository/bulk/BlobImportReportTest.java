@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.RecordId;
+
+public class BlobImportReportTest {
+
+    @Test
+    public void testUnreferencedBlobs() {
+        BlobImportReport report = new BlobImportReport();
+
+        Blob blob1 = new Blob(new byte[]{1, 2, 3}, "text/plain", 10L, "blob1");
+        Blob blob2 = new Blob(new byte[]{4, 5, 6}, "text/plain", 20L, "blob2");
+        report.blobWritten(blob1);
+        report.blobWritten(blob2);
+
+        // Same key, but a different Blob instance, as would be the case for a blob read back from a record
+        Blob referencedBlob = new Blob(new byte[]{1, 2, 3}, "text/plain", 10L, "blob1");
+        report.blobsReferenced(Collections.singleton(
+                new BlobReference(referencedBlob, mock(RecordId.class), mock(FieldType.class))));
+
+        assertEquals(2, report.getBlobsWritten());
+        assertEquals(30, report.getBytesWritten());
+        assertEquals(1, report.getBlobsReferenced());
+        assertEquals(0, report.getExternalBlobsReferenced());
+        assertEquals(Lists.newArrayList(blob2), Lists.newArrayList(report.getUnreferencedBlobs()));
+    }
+
+    @Test
+    public void testExternalBlobReference() {
+        BlobImportReport report = new BlobImportReport();
+
+        Blob externalBlob = new Blob(new byte[]{7, 8, 9}, "text/plain", 10L, "external");
+        report.blobsReferenced(Collections.singleton(
+                new BlobReference(externalBlob, mock(RecordId.class), mock(FieldType.class))));
+
+        assertEquals(0, report.getBlobsWritten());
+        assertEquals(1, report.getBlobsReferenced());
+        assertEquals(1, report.getExternalBlobsReferenced());
+        assertEquals(0, report.getUnreferencedBlobs().size());
+    }
+
+}
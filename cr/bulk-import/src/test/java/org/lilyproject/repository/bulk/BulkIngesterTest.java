@@ -16,6 +16,8 @@
 package org.lilyproject.repository.bulk;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -31,6 +33,7 @@ import org.apache.hadoop.hbase.client.Put;
 import org.junit.Before;
 import org.junit.Test;
 import org.lilyproject.client.LilyClient;
+import org.lilyproject.linkindex.LinkIndex;
 import org.lilyproject.repository.api.BlobReference;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdGenerator;
@@ -39,8 +42,10 @@ import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.impl.HBaseRepository;
+import org.lilyproject.util.Pair;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.Type;
+import org.mockito.InOrder;
 
 public class BulkIngesterTest {
 
@@ -110,4 +115,30 @@ public class BulkIngesterTest {
 
     }
 
+    @Test
+    public void testIngest_WithLinkIndex() throws InterruptedException, RepositoryException, IOException {
+        HTableInterface forwardLinksTable = mock(HTableInterface.class);
+        HTableInterface backwardLinksTable = mock(HTableInterface.class);
+        bulkIngester.setLinkIndex(mock(LinkIndex.class), forwardLinksTable, backwardLinksTable);
+
+        Record record = mock(Record.class);
+        RecordId recordId = mock(RecordId.class);
+        when(record.getId()).thenReturn(recordId);
+        Put expectedPut = mock(Put.class);
+        Put forwardPut = mock(Put.class);
+        Put backwardPut = mock(Put.class);
+
+        configurePutCreation(record, expectedPut);
+        doReturn(Pair.create(Lists.newArrayList(forwardPut), Lists.newArrayList(backwardPut)))
+                .when(bulkIngester).buildLinkIndexPuts(record);
+
+        bulkIngester.write(record);
+        bulkIngester.flush();
+
+        InOrder inOrder = inOrder(forwardLinksTable, backwardLinksTable, recordTable);
+        inOrder.verify(forwardLinksTable).put(Lists.newArrayList(forwardPut));
+        inOrder.verify(backwardLinksTable).put(Lists.newArrayList(backwardPut));
+        inOrder.verify(recordTable).put(Lists.newArrayList(expectedPut));
+    }
+
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.bulk.delimited.DelimitedLineMapper;
+import org.lilyproject.repository.bulk.jython.JythonLineMapper;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+/**
+ * Compares the throughput of the Jython line mapper with the delimited line mapper, for an equivalent mapping
+ * of CSV lines. Only the mapping itself is measured: the records are not written.
+ *
+ * <p>Run with the number of lines to map as optional argument.</p>
+ */
+public class LineMapperBenchmark {
+
+    private static final String NS = "org.lilyproject.bench";
+
+    private static final String PYTHON_MAPPER = ""
+            + "from org.lilyproject.repository.api import QName\n"
+            + "from java.lang import Long\n"
+            + "def mapLine(line, ctx):\n"
+            + "    id, name, city, count = line.split(',')\n"
+            + "    rec = ctx.newRecord()\n"
+            + "    rec.setRecordType(ctx.qn('{" + NS + "}Person'))\n"
+            + "    rec.setId(ctx.newRecordId(id))\n"
+            + "    rec.setField(ctx.qn('{" + NS + "}name'), name)\n"
+            + "    rec.setField(ctx.qn('{" + NS + "}city'), city)\n"
+            + "    rec.setField(ctx.qn('{" + NS + "}count'), Long.valueOf(count))\n"
+            + "    ctx.writeRecord(rec)\n";
+
+    private static final String DELIMITED_MAPPING = ""
+            + "{recordType: \"{" + NS + "}Person\", id: {column: 0}, fields: ["
+            + "{column: 1, name: \"{" + NS + "}name\"},"
+            + "{column: 2, name: \"{" + NS + "}city\"},"
+            + "{column: 3, name: \"{" + NS + "}count\"}]}";
+
+    public static void main(String[] args) throws Exception {
+        int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        String[] lines = new String[1000];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "person" + i + ",name" + i + ",city" + (i % 50) + "," + (i * 7);
+        }
+
+        BenchmarkContext context = new BenchmarkContext();
+        LineMapper jythonMapper = new JythonLineMapper(PYTHON_MAPPER, "mapLine");
+        LineMapper delimitedMapper = new DelimitedLineMapper(DELIMITED_MAPPING);
+
+        // Warm up both, so that the JIT has had its chance
+        run(jythonMapper, lines, numLines / 10, context);
+        run(delimitedMapper, lines, numLines / 10, context);
+
+        report("jython", run(jythonMapper, lines, numLines, context), numLines, context.records);
+        report("delimited", run(delimitedMapper, lines, numLines, context), numLines, context.records);
+    }
+
+    private static long run(LineMapper lineMapper, String[] lines, int numLines, BenchmarkContext context) {
+        context.records = 0;
+        long before = System.nanoTime();
+        for (int i = 0; i < numLines; i++) {
+            lineMapper.mapLine(lines[i % lines.length], context);
+        }
+        return System.nanoTime() - before;
+    }
+
+    /**
+     * @param records the number of records produced, which shows that both mappers did the same work
+     */
+    private static void report(String name, long nanos, int numLines, long records) {
+        System.out.printf("%-10s %8d lines (%8d records) in %6d ms: %10.0f lines/s, %6.2f us/line\n", name,
+                numLines, records, nanos / 1000000, numLines / (nanos / 1e9), nanos / 1000d / numLines);
+    }
+
+    /**
+     * Mapping context that creates real records, but discards them instead of writing them.
+     */
+    private static class BenchmarkContext extends LineMappingContext {
+        private final RecordFactoryImpl recordFactory = new RecordFactoryImpl();
+        private final IdGenerator idGenerator = new IdGeneratorImpl();
+        private final TypeManager typeManager = mock(TypeManager.class);
+        private long records;
+
+        BenchmarkContext() throws Exception {
+            super(null, null);
+            addFieldType("name", "STRING");
+            addFieldType("city", "STRING");
+            addFieldType("count", "LONG");
+        }
+
+        private void addFieldType(String name, String baseName) throws Exception {
+            ValueType valueType = mock(ValueType.class);
+            when(valueType.getBaseName()).thenReturn(baseName);
+            FieldType fieldType = mock(FieldType.class);
+            when(fieldType.getValueType()).thenReturn(valueType);
+            when(typeManager.getFieldTypeByName(new QName(NS, name))).thenReturn(fieldType);
+        }
+
+        @Override
+        public Record newRecord() {
+            return recordFactory.newRecord();
+        }
+
+        @Override
+        public RecordId newRecordId(String userProvidedId) {
+            return idGenerator.newRecordId(userProvidedId);
+        }
+
+        @Override
+        public TypeManager getTypeManager() {
+            return typeManager;
+        }
+
+        @Override
+        public void writeRecord(Record record) {
+            records++;
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+public class RecordIdSamplerTest {
+
+    private RecordIdSampler sampler;
+    private TypeManager typeManager;
+
+    @Before
+    public void setUp() {
+        typeManager = mock(TypeManager.class);
+        sampler = new RecordIdSampler(new LineMapper() {
+            @Override
+            public void mapLine(String inputLine, LineMappingContext context) {
+                Record record = context.newRecord();
+                record.setId(context.newRecordId(inputLine));
+                try {
+                    context.writeRecord(record);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, typeManager);
+    }
+
+    @Test
+    public void testComputeSplitKeys() {
+        for (int i = 0; i < 100; i++) {
+            sampler.sampleLine(String.format("id%03d", i));
+        }
+
+        byte[][] splitKeys = sampler.computeSplitKeys(4);
+
+        assertEquals(3, splitKeys.length);
+        assertArrayEquals(userIdBytes("id025"), splitKeys[0]);
+        assertArrayEquals(userIdBytes("id050"), splitKeys[1]);
+        assertArrayEquals(userIdBytes("id075"), splitKeys[2]);
+
+        byte[][] startKeys = new byte[][]{new byte[0], splitKeys[0], splitKeys[1], splitKeys[2]};
+        int[] distribution = sampler.getRegionDistribution(startKeys);
+        assertArrayEquals(new int[]{25, 25, 25, 25}, distribution);
+    }
+
+    @Test
+    public void testComputeSplitKeys_FewDistinctKeys() {
+        for (int i = 0; i < 10; i++) {
+            sampler.sampleLine("a");
+            sampler.sampleLine("b");
+        }
+
+        byte[][] splitKeys = sampler.computeSplitKeys(10);
+
+        assertEquals(1, splitKeys.length);
+        assertEquals(Bytes.toStringBinary(userIdBytes("b")), Bytes.toStringBinary(splitKeys[0]));
+    }
+
+    @Test
+    public void testSample_LineEndings() throws Exception {
+        assertSampledIds("\n");
+        assertSampledIds("\r\n");
+        assertSampledIds("\r");
+    }
+
+    private void assertSampledIds(String lineEnd) throws IOException {
+        setUp();
+        File file = File.createTempFile("recordidsampler", ".txt");
+        try {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 20; i++) {
+                content.append(String.format("id%03d", i)).append(lineEnd);
+            }
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                os.write(content.toString().getBytes(Charsets.UTF_8));
+            } finally {
+                os.close();
+            }
+
+            sampler.sample(FileSystem.getLocal(new Configuration()), new Path(file.getAbsolutePath()), 20);
+
+            // Each line is sampled once, without line end characters
+            List<byte[]> rowKeys = sampler.getSampledRowKeys();
+            assertEquals(20, rowKeys.size());
+            for (int i = 0; i < 20; i++) {
+                assertEquals(Bytes.toStringBinary(userIdBytes(String.format("id%03d", i))),
+                        Bytes.toStringBinary(rowKeys.get(i)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSample_BulkIngesterAndTypeManager() throws Exception {
+        final TypeManager[] typeManagers = new TypeManager[1];
+        RecordIdSampler sampler = new RecordIdSampler(new LineMapper() {
+            @Override
+            public void mapLine(String inputLine, LineMappingContext context) {
+                typeManagers[0] = context.getTypeManager();
+                BulkIngester bulkIngester = context.getBulkIngester();
+                Record record = bulkIngester.newRecord();
+                record.setId(bulkIngester.getIdGenerator().newRecordId(inputLine));
+                try {
+                    bulkIngester.writeBlob(new byte[10], "text/plain", "blob");
+                    bulkIngester.write(record);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, typeManager);
+
+        sampler.sampleLine("a");
+
+        assertSame(typeManager, typeManagers[0]);
+        assertEquals(1, sampler.getSampledRowKeys().size());
+        assertArrayEquals(userIdBytes("a"), sampler.getSampledRowKeys().get(0));
+    }
+
+    private byte[] userIdBytes(String userId) {
+        return new IdGeneratorImpl().newRecordId(userId).toBytes();
+    }
+
+}
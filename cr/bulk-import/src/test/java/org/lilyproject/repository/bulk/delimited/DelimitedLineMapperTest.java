@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk.delimited;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.bulk.LineMappingContext;
+
+public class DelimitedLineMapperTest {
+
+    private static final String NS = "{org.lilyproject}";
+
+    private LineMappingContext mappingContext;
+    private TypeManager typeManager;
+    private Record record;
+    private RecordId recordId;
+
+    @Before
+    public void setUp() throws Exception {
+        mappingContext = mock(LineMappingContext.class);
+        typeManager = mock(TypeManager.class);
+        record = mock(Record.class);
+        recordId = mock(RecordId.class);
+        when(mappingContext.newRecord()).thenReturn(record);
+        when(mappingContext.newRecordId("id1")).thenReturn(recordId);
+        when(mappingContext.getTypeManager()).thenReturn(typeManager);
+
+        addFieldType("Name", valueType("STRING"));
+        addFieldType("Age", valueType("INTEGER"));
+        addFieldType("Active", valueType("BOOLEAN"));
+        ValueType listType = valueType("LIST");
+        ValueType stringType = valueType("STRING");
+        when(listType.getNestedValueType()).thenReturn(stringType);
+        addFieldType("Tags", listType);
+    }
+
+    private ValueType valueType(String baseName) {
+        ValueType valueType = mock(ValueType.class);
+        when(valueType.getBaseName()).thenReturn(baseName);
+        when(valueType.getName()).thenReturn(baseName);
+        return valueType;
+    }
+
+    private void addFieldType(String name, ValueType valueType) throws Exception {
+        FieldType fieldType = mock(FieldType.class);
+        when(fieldType.getValueType()).thenReturn(valueType);
+        when(typeManager.getFieldTypeByName(QName.fromString(NS + name))).thenReturn(fieldType);
+    }
+
+    private DelimitedLineMapper createMapper(String separatorConfig) throws Exception {
+        return new DelimitedLineMapper("{" + separatorConfig
+                + " recordType: \"" + NS + "Person\", id: {column: 0}, commentPrefix: \"#\", fields: ["
+                + "{column: 1, name: \"" + NS + "Name\"},"
+                + "{column: 2, name: \"" + NS + "Age\"},"
+                + "{column: 3, name: \"" + NS + "Active\"},"
+                + "{column: 4, name: \"" + NS + "Tags\", listSeparator: \"|\"}]}");
+    }
+
+    @Test
+    public void testMap_Csv() throws Exception {
+        createMapper("").mapLine("id1,John,42,true,a|b", mappingContext);
+
+        verify(record).setRecordType(QName.fromString(NS + "Person"));
+        verify(record).setId(recordId);
+        verify(record).setField(QName.fromString(NS + "Name"), "John");
+        verify(record).setField(QName.fromString(NS + "Age"), 42);
+        verify(record).setField(QName.fromString(NS + "Active"), Boolean.TRUE);
+        verify(record).setField(QName.fromString(NS + "Tags"), Arrays.asList("a", "b"));
+        verify(mappingContext).writeRecord(record);
+    }
+
+    @Test
+    public void testMap_TsvWithEmptyColumns() throws Exception {
+        createMapper("separator: \"\\t\",").mapLine("id1\tJohn\t\t\t", mappingContext);
+
+        verify(record).setField(QName.fromString(NS + "Name"), "John");
+        verify(record, never()).setField(QName.fromString(NS + "Age"), 42);
+        verify(mappingContext).writeRecord(record);
+    }
+
+    @Test
+    public void testMap_CommentAndEmptyLines() throws Exception {
+        DelimitedLineMapper mapper = createMapper("");
+        mapper.mapLine("", mappingContext);
+        mapper.mapLine("#id,name,age,active,tags", mappingContext);
+
+        verify(mappingContext, never()).writeRecord(any(Record.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMap_InvalidValue() throws Exception {
+        createMapper("").mapLine("id1,John,notanumber,true,a", mappingContext);
+    }
+
+    @Test
+    public void testSplit_Quoted() throws Exception {
+        DelimitedLineMapper mapper = createMapper("quote: \"\\\"\",");
+
+        assertEquals(Arrays.asList("id1", "Doe, John", "say \"hi\"", ""),
+                mapper.split("id1,\"Doe, John\",\"say \"\"hi\"\"\","));
+    }
+
+}
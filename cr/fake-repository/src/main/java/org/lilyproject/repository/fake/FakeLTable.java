@@ -39,6 +39,8 @@ import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.MutationCondition;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordAggregation;
+import org.lilyproject.repository.api.RecordAggregationResult;
 import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordExistsException;
@@ -358,6 +360,12 @@ public class FakeLTable implements Repository {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public RecordAggregationResult aggregate(RecordScan recordScan, RecordAggregation aggregation)
+            throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public RecordBuilder recordBuilder() throws RecordException, InterruptedException {
         return new RecordBuilderImpl(this, repository.getIdGenerator());
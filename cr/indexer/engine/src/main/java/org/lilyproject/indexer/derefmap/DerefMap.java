@@ -16,6 +16,7 @@
 package org.lilyproject.indexer.derefmap;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
@@ -62,6 +63,15 @@ public interface DerefMap {
     DependantRecordIdsIterator findDependantsOf(AbsoluteRecordId parentRecordId,
             Set<SchemaId> fields, SchemaId vtag) throws IOException;
 
+    /**
+     * Batch variant of {@link #findDependantsOf(AbsoluteRecordId, java.util.Set,
+     * org.lilyproject.repository.api.SchemaId)}, which finds the dependants of all the given records at once.
+     *
+     * @return an iterator for each of the given records, mapped on the record
+     */
+    Map<AbsoluteRecordId, DependantRecordIdsIterator> findDependantsOf(Collection<AbsoluteRecordId> parentRecordIds,
+            Set<SchemaId> fields, SchemaId vtag) throws IOException;
+
     /**
      * Same as {@link #findDependantsOf(org.lilyproject.repository.api.RecordId, java.util.Set,
      * org.lilyproject.repository.api.SchemaId)} but with a single field in stead of a set of fields.
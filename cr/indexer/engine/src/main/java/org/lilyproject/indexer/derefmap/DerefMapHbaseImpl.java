@@ -16,12 +16,19 @@
 package org.lilyproject.indexer.derefmap;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.hbaseindex.Index;
@@ -36,7 +43,6 @@ import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.util.hbase.HBaseTableFactory;
-import org.lilyproject.util.io.Closer;
 
 /**
  *
@@ -45,6 +51,10 @@ public class DerefMapHbaseImpl implements DerefMap {
 
     private static final byte[] DEPENDENCIES_KEY = Bytes.toBytes("dependencies");
 
+    private static final byte[] DEPENDENCIES_HASH_KEY = Bytes.toBytes("hash");
+
+    private static final byte[] ENTRY_HASHES_KEY = Bytes.toBytes("entryhashes");
+
     private static final byte[] FIELDS_KEY = Bytes.toBytes("fields");
 
     private static final byte[] DUMMY_IDENTIFIER = new byte[]{0};
@@ -131,39 +141,131 @@ public class DerefMapHbaseImpl implements DerefMap {
                                    Map<DependencyEntry, Set<SchemaId>> newDependantEntries)
             throws IOException {
 
-        final Set<DependencyEntry> existingEntries = findDependencies(parentRecordId, parentVtagId);
+        final IndexEntry fwdKey = createForwardKey(parentRecordId, parentVtagId);
+
+        // Most of the time a record is reindexed, its dependencies did not change: this is detected by comparing
+        // the hash stored in the forward entry, reading only that hash.
+        final Map<DependencyEntry, Long> newEntryHashes = new HashMap<DependencyEntry, Long>();
+        for (Map.Entry<DependencyEntry, Set<SchemaId>> entry : newDependantEntries.entrySet()) {
+            newEntryHashes.put(entry.getKey(), hashDependency(entry.getKey(), entry.getValue()));
+        }
+        final byte[] newHash = sumHashes(newEntryHashes.values());
+
+        final byte[][] existingHash = forwardDerefIndex.getEntryData(fwdKey, DEPENDENCIES_HASH_KEY);
+        if (existingHash != null && Bytes.equals(newHash, existingHash[0])) {
+            return;
+        }
+
+        final byte[][] existingData = forwardDerefIndex.getEntryData(fwdKey, DEPENDENCIES_KEY, ENTRY_HASHES_KEY);
+        final Set<DependencyEntry> existingEntries = existingData != null && existingData[0] != null ?
+                this.serializationUtil.deserializeDependenciesForward(existingData[0]) :
+                new HashSet<DependencyEntry>();
+        // entries written before the hashes per dependency were introduced don't have them: then all backward
+        // entries are written again
+        final Set<Long> existingEntryHashes = existingData != null && existingData[1] != null ?
+                deserializeHashes(existingData[1]) : null;
 
         // Figure out what changed
         final Set<DependencyEntry> removedDependencies =
                 figureOutRemovedDependencies(newDependantEntries.keySet(), existingEntries);
-        final Collection<DependencyEntry> addedDependencies =
-                figureOutAddedDependencies(newDependantEntries.keySet(), existingEntries);
 
         // IMPORTANT implementation note: the order in which changes are applied is not arbitrary. It is such that if
         // the process would fail in between, there will never be left any state in the backward index which would not
         // be found via the forward index.
 
         // delete removed from bwd index
-        for (DependencyEntry removed : removedDependencies) {
-            final IndexEntry backwardEntry =
-                    createBackwardEntry(removed.getDependency(), parentRecordId, parentVtagId, null,
-                            removed.getMoreDimensionedVariants());
-            backwardDerefIndex.removeEntry(backwardEntry);
+        if (!removedDependencies.isEmpty()) {
+            final List<IndexEntry> backwardEntries = new ArrayList<IndexEntry>(removedDependencies.size());
+            for (DependencyEntry removed : removedDependencies) {
+                backwardEntries.add(createBackwardEntry(removed.getDependency(), parentRecordId, parentVtagId, null,
+                        removed.getMoreDimensionedVariants()));
+            }
+            backwardDerefIndex.removeEntries(backwardEntries);
         }
 
         // update fwd index (added and removed at the same time, it is a single row)
-        final IndexEntry fwdEntry =
-                createForwardEntry(parentRecordId, parentVtagId, newDependantEntries.keySet());
+        final IndexEntry fwdEntry = createForwardEntry(parentRecordId, parentVtagId, newDependantEntries.keySet(),
+                newHash, serializeHashes(newEntryHashes.values()));
         forwardDerefIndex.addEntry(fwdEntry);
 
-        // add added to bwd idx
-        for (DependencyEntry added : addedDependencies) {
-            final Set<SchemaId> fields = newDependantEntries.get(added);
-            final IndexEntry backwardEntry =
-                    createBackwardEntry(added.getDependency(), parentRecordId, parentVtagId, fields,
-                            added.getMoreDimensionedVariants());
-            backwardDerefIndex.addEntry(backwardEntry);
+        // add the new dependencies to the bwd idx, and write again the existing ones of which the fields used
+        // changed (these are stored in the bwd entries): these are the ones of which the hash is not known yet.
+        final List<IndexEntry> backwardEntries = new ArrayList<IndexEntry>();
+        for (Map.Entry<DependencyEntry, Set<SchemaId>> added : newDependantEntries.entrySet()) {
+            if (existingEntryHashes == null || !existingEntryHashes.contains(newEntryHashes.get(added.getKey()))) {
+                backwardEntries.add(createBackwardEntry(added.getKey().getDependency(), parentRecordId, parentVtagId,
+                        added.getValue(), added.getKey().getMoreDimensionedVariants()));
+            }
+        }
+        if (!backwardEntries.isEmpty()) {
+            backwardDerefIndex.addEntries(backwardEntries);
+        }
+    }
+
+    /**
+     * Computes a hash of the dependencies, including the fields used of each of them. It does not depend on the
+     * iteration order of the map or of the sets in it.
+     */
+    static byte[] hashDependencies(Map<DependencyEntry, Set<SchemaId>> dependencies) {
+        final List<Long> hashes = new ArrayList<Long>(dependencies.size());
+        for (Map.Entry<DependencyEntry, Set<SchemaId>> entry : dependencies.entrySet()) {
+            hashes.add(hashDependency(entry.getKey(), entry.getValue()));
+        }
+        return sumHashes(hashes);
+    }
+
+    /**
+     * Computes a hash of a single dependency and the fields used of it.
+     */
+    static long hashDependency(DependencyEntry dependencyEntry, Set<SchemaId> fields) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        final byte[] dependency = dependencyEntry.getDependency().toBytes();
+        hasher.putInt(dependency.length).putBytes(dependency);
+
+        for (String variant : new TreeSet<String>(dependencyEntry.getMoreDimensionedVariants())) {
+            final byte[] variantBytes = Bytes.toBytes(variant);
+            hasher.putInt(variantBytes.length).putBytes(variantBytes);
+        }
+
+        hasher.putInt(-1);
+
+        if (fields != null) {
+            final SortedSet<byte[]> sortedFields = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+            for (SchemaId field : fields) {
+                sortedFields.add(field.getBytes());
+            }
+            for (byte[] field : sortedFields) {
+                hasher.putInt(field.length).putBytes(field);
+            }
+        }
+
+        return hasher.hash().asLong();
+    }
+
+    private static byte[] sumHashes(Collection<Long> hashes) {
+        // summing makes the result independent of the order of the entries
+        long hash = hashes.size();
+        for (long entryHash : hashes) {
+            hash += entryHash;
         }
+        return Bytes.toBytes(hash);
+    }
+
+    private static byte[] serializeHashes(Collection<Long> hashes) {
+        final byte[] result = new byte[hashes.size() * Bytes.SIZEOF_LONG];
+        int offset = 0;
+        for (long hash : hashes) {
+            offset = Bytes.putLong(result, offset, hash);
+        }
+        return result;
+    }
+
+    private static Set<Long> deserializeHashes(byte[] serialized) {
+        final Set<Long> result = new HashSet<Long>();
+        for (int offset = 0; offset + Bytes.SIZEOF_LONG <= serialized.length; offset += Bytes.SIZEOF_LONG) {
+            result.add(Bytes.toLong(serialized, offset));
+        }
+        return result;
     }
 
     private Set<DependencyEntry> figureOutRemovedDependencies(Collection<DependencyEntry> newDependencies,
@@ -179,21 +281,7 @@ public class DerefMapHbaseImpl implements DerefMap {
         return removed;
     }
 
-    private Collection<DependencyEntry> figureOutAddedDependencies(Set<DependencyEntry> newDependencyEntries,
-                                                                   Set<DependencyEntry> existingDependencies) {
-        final Set<DependencyEntry> added = new HashSet<DependencyEntry>();
-
-        // add all new
-        added.addAll(newDependencyEntries);
-
-        // remove all existing
-        added.removeAll(existingDependencies);
-
-        return added;
-    }
-
-    private IndexEntry createForwardEntry(AbsoluteRecordId parentRecordId, SchemaId parentVtagId,
-                                          Collection<DependencyEntry> newDependencies) throws IOException {
+    private IndexEntry createForwardKey(AbsoluteRecordId parentRecordId, SchemaId parentVtagId) {
         final IndexEntry fwdEntry = new IndexEntry(forwardDerefIndex.getDefinition());
         fwdEntry.addField("dependant_recordid", parentRecordId.toBytes());
         fwdEntry.addField("dependant_vtag", parentVtagId.getBytes());
@@ -201,8 +289,19 @@ public class DerefMapHbaseImpl implements DerefMap {
         // we do not really use the identifier... all we are interested in is in the data of the entry
         fwdEntry.setIdentifier(DUMMY_IDENTIFIER);
 
+        return fwdEntry;
+    }
+
+    private IndexEntry createForwardEntry(AbsoluteRecordId parentRecordId, SchemaId parentVtagId,
+                                          Collection<DependencyEntry> newDependencies, byte[] hash,
+                                          byte[] entryHashes)
+            throws IOException {
+        final IndexEntry fwdEntry = createForwardKey(parentRecordId, parentVtagId);
+
         // the data contains the dependencies of the dependant (master record ids and vtags)
         fwdEntry.addData(DEPENDENCIES_KEY, this.serializationUtil.serializeDependenciesForward(newDependencies));
+        fwdEntry.addData(DEPENDENCIES_HASH_KEY, hash);
+        fwdEntry.addData(ENTRY_HASHES_KEY, entryHashes);
 
         return fwdEntry;
     }
@@ -240,36 +339,42 @@ public class DerefMapHbaseImpl implements DerefMap {
      * @return the record ids and vtags on which the given record depends
      */
     Set<DependencyEntry> findDependencies(AbsoluteRecordId parentRecordId, SchemaId vtag) throws IOException {
-        final Query query = new Query();
-        query.addEqualsCondition("dependant_recordid", parentRecordId.toBytes());
-        query.addEqualsCondition("dependant_vtag", vtag.getBytes());
+        final byte[][] data = forwardDerefIndex.getEntryData(createForwardKey(parentRecordId, vtag), DEPENDENCIES_KEY);
+        return data != null ? this.serializationUtil.deserializeDependenciesForward(data[0]) :
+                new HashSet<DependencyEntry>();
+    }
 
-        final Set<DependencyEntry> result;
+    @Override
+    public DependantRecordIdsIterator findDependantsOf(AbsoluteRecordId parentRecordId, Set<SchemaId> fields,
+                                                       SchemaId vtag) throws IOException {
 
-        final QueryResult queryResult = forwardDerefIndex.performQuery(query);
-        if (queryResult.next() != null) {
-            final byte[] serializedEntries = queryResult.getData(DEPENDENCIES_KEY);
-            result = this.serializationUtil.deserializeDependenciesForward(serializedEntries);
+        return new DependantRecordIdsIteratorImpl(
+                backwardDerefIndex.performQuery(createDependantsQuery(parentRecordId, fields, vtag)),
+                this.serializationUtil);
+    }
 
-            if (queryResult.next() != null) {
-                throw new IllegalStateException(
-                        "Expected only a single matching entry in " + forwardDerefIndex.getDefinition().getName());
-            }
+    @Override
+    public Map<AbsoluteRecordId, DependantRecordIdsIterator> findDependantsOf(
+            Collection<AbsoluteRecordId> parentRecordIds, Set<SchemaId> fields, SchemaId vtag) throws IOException {
 
-        } else {
-            result = new HashSet<DependencyEntry>();
+        final List<AbsoluteRecordId> parentRecordIdList = new ArrayList<AbsoluteRecordId>(parentRecordIds);
+        final List<Query> queries = new ArrayList<Query>(parentRecordIdList.size());
+        for (AbsoluteRecordId parentRecordId : parentRecordIdList) {
+            queries.add(createDependantsQuery(parentRecordId, fields, vtag));
         }
 
-        // Not closed in finally block: avoid HBase contact when there could be connection problems.
-        Closer.close(queryResult);
+        final List<QueryResult> queryResults = backwardDerefIndex.performQueries(queries);
 
+        final Map<AbsoluteRecordId, DependantRecordIdsIterator> result =
+                new HashMap<AbsoluteRecordId, DependantRecordIdsIterator>();
+        for (int i = 0; i < parentRecordIdList.size(); i++) {
+            result.put(parentRecordIdList.get(i),
+                    new DependantRecordIdsIteratorImpl(queryResults.get(i), this.serializationUtil));
+        }
         return result;
     }
 
-    @Override
-    public DependantRecordIdsIterator findDependantsOf(AbsoluteRecordId parentRecordId, Set<SchemaId> fields,
-                                                       SchemaId vtag) throws IOException {
-
+    private Query createDependantsQuery(AbsoluteRecordId parentRecordId, Set<SchemaId> fields, SchemaId vtag) {
         final RecordId master = parentRecordId.getRecordId().getMaster();
 
         final Query query = new Query();
@@ -280,7 +385,7 @@ public class DerefMapHbaseImpl implements DerefMap {
 
         query.setIndexFilter(new DerefMapIndexFilter(parentRecordId.getRecordId().getVariantProperties(), fields));
 
-        return new DependantRecordIdsIteratorImpl(backwardDerefIndex.performQuery(query), this.serializationUtil);
+        return query;
     }
 
     @Override
@@ -33,6 +33,7 @@ import org.apache.solr.common.SolrInputDocument;
 import org.lilyproject.indexer.derefmap.DependencyEntry;
 import org.lilyproject.indexer.derefmap.DerefMapUtil;
 import org.lilyproject.indexer.model.indexerconf.Dep;
+import org.lilyproject.indexer.model.indexerconf.DerefCache;
 import org.lilyproject.indexer.model.indexerconf.FieldTemplatePart;
 import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
 import org.lilyproject.indexer.model.indexerconf.IndexUpdateBuilder;
@@ -65,6 +66,7 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
     private final TypeManager typeManager;
     private final ValueEvaluator valueEvaluator;
     private final NameTemplateResolver nameTemplateResolver;
+    private final DerefCache derefCache;
 
     private final SolrInputDocument solrDoc = new SolrInputDocument();
     private boolean emptyDocument = true;
@@ -80,6 +82,17 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
 
     public SolrDocumentBuilder(LRepository repository, IndexRecordFilter indexRecordFilter, SystemFields systemFields,
                                ValueEvaluator valueEvaluator, String table, IdRecord record, String key, SchemaId vtag, long version) {
+        this(repository, indexRecordFilter, systemFields, valueEvaluator, table, record, key, vtag, version,
+                new DerefCache(repository));
+    }
+
+    /**
+     * @param derefCache cache for the records reached by follows, which can be shared by the document builders
+     *                   of the different vtags of the same record
+     */
+    public SolrDocumentBuilder(LRepository repository, IndexRecordFilter indexRecordFilter, SystemFields systemFields,
+                               ValueEvaluator valueEvaluator, String table, IdRecord record, String key, SchemaId vtag,
+                               long version, DerefCache derefCache) {
         this.repository = repository;
         this.indexRecordFilter = indexRecordFilter;
         this.systemFields = systemFields;
@@ -90,6 +103,7 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
         this.key = key;
         this.vtag = vtag;
         this.version = version;
+        this.derefCache = derefCache;
 
         this.nameTemplateResolver = new FieldNameTemplateResolver();
 
@@ -257,4 +271,9 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
         return table;
     }
 
+    @Override
+    public DerefCache getDerefCache() {
+        return derefCache;
+    }
+
 }
@@ -15,13 +15,16 @@
  */
 package org.lilyproject.indexer.derefmap;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -553,6 +556,106 @@ public class DerefMapBasicTest {
         return result;
     }
 
+    @Test
+    public void unchangedAndChangedFields() throws Exception {
+        String idPrefix = newIdPrefix();
+
+        final SchemaId dummyVtag = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId field1 = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId field2 = ids.getSchemaId(UUID.randomUUID());
+        final RecordId dependant = ids.newRecordId(idPrefix + "dependant");
+        final RecordId dependency = ids.newRecordId(idPrefix + "dependency");
+
+        final HashMap<DependencyEntry, Set<SchemaId>> dependencies = new HashMap<DependencyEntry, Set<SchemaId>>();
+        dependencies.put(new DependencyEntry(absId(dependency)), Sets.newHashSet(field1));
+        derefMap.updateDependants(absId(dependant), dummyVtag, dependencies);
+
+        // updating with the same dependencies changes nothing
+        derefMap.updateDependants(absId(dependant), dummyVtag, dependencies);
+        assertEquals(1, derefMap.findDependencies(absId(dependant), dummyVtag).size());
+        assertTrue(derefMap.findDependantsOf(absId(dependency), field1, dummyVtag).hasNext());
+        assertFalse(derefMap.findDependantsOf(absId(dependency), field2, dummyVtag).hasNext());
+
+        // the same dependency, but via another field
+        dependencies.put(new DependencyEntry(absId(dependency)), Sets.newHashSet(field2));
+        derefMap.updateDependants(absId(dependant), dummyVtag, dependencies);
+        assertEquals(1, derefMap.findDependencies(absId(dependant), dummyVtag).size());
+        assertFalse(derefMap.findDependantsOf(absId(dependency), field1, dummyVtag).hasNext());
+        assertTrue(derefMap.findDependantsOf(absId(dependency), field2, dummyVtag).hasNext());
+    }
+
+    @Test
+    public void oneOfMultipleDependenciesChanged() throws Exception {
+        String idPrefix = newIdPrefix();
+
+        final SchemaId dummyVtag = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId field1 = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId field2 = ids.getSchemaId(UUID.randomUUID());
+        final RecordId dependant = ids.newRecordId(idPrefix + "dependant");
+        final RecordId dependency1 = ids.newRecordId(idPrefix + "dependency1");
+        final RecordId dependency2 = ids.newRecordId(idPrefix + "dependency2");
+        final RecordId dependency3 = ids.newRecordId(idPrefix + "dependency3");
+
+        final HashMap<DependencyEntry, Set<SchemaId>> dependencies = new HashMap<DependencyEntry, Set<SchemaId>>();
+        dependencies.put(new DependencyEntry(absId(dependency1)), Sets.newHashSet(field1));
+        dependencies.put(new DependencyEntry(absId(dependency2)), Sets.newHashSet(field1));
+        derefMap.updateDependants(absId(dependant), dummyVtag, dependencies);
+
+        // the fields used of one dependency change, another one is added
+        dependencies.put(new DependencyEntry(absId(dependency2)), Sets.newHashSet(field2));
+        dependencies.put(new DependencyEntry(absId(dependency3)), Sets.newHashSet(field2));
+        derefMap.updateDependants(absId(dependant), dummyVtag, dependencies);
+
+        assertEquals(3, derefMap.findDependencies(absId(dependant), dummyVtag).size());
+        assertTrue(derefMap.findDependantsOf(absId(dependency1), field1, dummyVtag).hasNext());
+        assertFalse(derefMap.findDependantsOf(absId(dependency1), field2, dummyVtag).hasNext());
+        assertFalse(derefMap.findDependantsOf(absId(dependency2), field1, dummyVtag).hasNext());
+        assertTrue(derefMap.findDependantsOf(absId(dependency2), field2, dummyVtag).hasNext());
+        assertTrue(derefMap.findDependantsOf(absId(dependency3), field2, dummyVtag).hasNext());
+
+        // one dependency removed
+        dependencies.remove(new DependencyEntry(absId(dependency1)));
+        derefMap.updateDependants(absId(dependant), dummyVtag, dependencies);
+        assertEquals(2, derefMap.findDependencies(absId(dependant), dummyVtag).size());
+        assertFalse(derefMap.findDependantsOf(absId(dependency1), field1, dummyVtag).hasNext());
+        assertTrue(derefMap.findDependantsOf(absId(dependency2), field2, dummyVtag).hasNext());
+    }
+
+    @Test
+    public void hashDependencies() throws Exception {
+        String idPrefix = newIdPrefix();
+
+        final SchemaId field1 = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId field2 = ids.getSchemaId(UUID.randomUUID());
+        final DependencyEntry entry1 = new DependencyEntry(absId(ids.newRecordId(idPrefix + "dep1")));
+        final DependencyEntry entry2 = new DependencyEntry(absId(ids.newRecordId(idPrefix + "dep2")),
+                ImmutableSet.of("a", "b"));
+
+        final Map<DependencyEntry, Set<SchemaId>> dependencies = new LinkedHashMap<DependencyEntry, Set<SchemaId>>();
+        dependencies.put(entry1, Sets.newLinkedHashSet(Arrays.asList(field1, field2)));
+        dependencies.put(entry2, Collections.<SchemaId>emptySet());
+
+        final Map<DependencyEntry, Set<SchemaId>> reordered = new LinkedHashMap<DependencyEntry, Set<SchemaId>>();
+        reordered.put(entry2, Collections.<SchemaId>emptySet());
+        reordered.put(entry1, Sets.newLinkedHashSet(Arrays.asList(field2, field1)));
+
+        assertArrayEquals(DerefMapHbaseImpl.hashDependencies(dependencies),
+                DerefMapHbaseImpl.hashDependencies(reordered));
+
+        // only the hash of the changed dependency differs
+        assertFalse(DerefMapHbaseImpl.hashDependency(entry1, dependencies.get(entry1))
+                == DerefMapHbaseImpl.hashDependency(entry1, Collections.singleton(field1)));
+        assertEquals(DerefMapHbaseImpl.hashDependency(entry2, dependencies.get(entry2)),
+                DerefMapHbaseImpl.hashDependency(entry2, reordered.get(entry2)));
+
+        reordered.put(entry1, Collections.singleton(field1));
+        assertFalse(Arrays.equals(DerefMapHbaseImpl.hashDependencies(dependencies),
+                DerefMapHbaseImpl.hashDependencies(reordered)));
+
+        assertFalse(Arrays.equals(DerefMapHbaseImpl.hashDependencies(dependencies),
+                DerefMapHbaseImpl.hashDependencies(Collections.singletonMap(entry1, dependencies.get(entry1)))));
+    }
+
     private Map<String, String> map(String... keyOrValue) {
         Map<String, String> map = Maps.newHashMap();
         for (int i = 0; i < keyOrValue.length; i += 2) {
@@ -38,6 +38,7 @@ import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
 import org.lilyproject.indexer.engine.SolrDocumentBuilder;
 import org.lilyproject.indexer.engine.ValueEvaluator;
 import org.lilyproject.indexer.model.api.LResultToSolrMapper;
+import org.lilyproject.indexer.model.indexerconf.DerefCache;
 import org.lilyproject.indexer.model.indexerconf.DynamicFieldNameTemplateResolver;
 import org.lilyproject.indexer.model.indexerconf.DynamicIndexField;
 import org.lilyproject.indexer.model.indexerconf.IndexCase;
@@ -667,6 +668,8 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
     private void index(LTable table, VTaggedRecord vtRecord, Set<SchemaId> vtagsToIndex, SolrUpdateWriter solrUpdateWriter) throws Exception {
         IdRecord idRecord = vtRecord.getRecord();
         Map<Long, Set<SchemaId>> vtagsToIndexByVersion = getVtagsByVersion(vtagsToIndex, vtRecord.getVTags());
+        // Records reached by follows are often the same for all index fields and vtags, read them only once
+        DerefCache derefCache = new DerefCache(repository);
         for (Map.Entry<Long, Set<SchemaId>> entry : vtagsToIndexByVersion.entrySet()) {
 
             IdRecord version = null;
@@ -694,7 +697,7 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
                 for (SchemaId vtag : entry.getValue()) {
                     SolrDocumentBuilder solrDocumentBuilder = new SolrDocumentBuilder(repository, lilyIndexerConf.getRecordFilter(),
                             lilyIndexerConf.getSystemFields(), valueEvaluator, table.getTableName(), version,
-                            getIndexId(table.getTableName(), vtRecord.getId(), vtag), vtag, entry.getKey());
+                            getIndexId(table.getTableName(), vtRecord.getId(), vtag), vtag, entry.getKey(), derefCache);
 
                     lilyIndexerConf.getIndexFields().collectIndexUpdate(solrDocumentBuilder);
 
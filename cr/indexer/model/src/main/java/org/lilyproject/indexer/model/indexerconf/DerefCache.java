@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.model.indexerconf;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordNotFoundException;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.VersionNotFoundException;
+import org.lilyproject.util.repo.VersionTag;
+
+/**
+ * Reads the records reached by following links, masters and variants during indexing, and remembers them so
+ * that a record which is dereferenced by several index fields, vtags or follow chains is only read once.
+ *
+ * <p>The linked records of one follow step are read with one multi-get. Records which do not exist, or which
+ * do not have the requested vtag, are returned as null, which is how the follows have always treated them.</p>
+ *
+ * <p>The cache is bounded, and is meant to live for the duration of one indexing run (the indexing of one
+ * record, over all its vtags): it does not notice updates to the records it holds. It is not thread safe.</p>
+ */
+public class DerefCache {
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final LRepository repository;
+
+    /**
+     * The last version of the records, as read from the repository, shared between the vtags.
+     */
+    private final Cache<RecordKey, Optional<Record>> lastRecords;
+
+    /**
+     * The records as they are for a particular vtag.
+     */
+    private final Cache<VTagRecordKey, Optional<Record>> vtagRecords;
+
+    public DerefCache(LRepository repository) {
+        this(repository, DEFAULT_MAX_SIZE);
+    }
+
+    public DerefCache(LRepository repository, int maxSize) {
+        this.repository = repository;
+        this.lastRecords = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+        this.vtagRecords = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    }
+
+    /**
+     * Returns the given record as it is for the given vtag, or null if the record or the vtag does not exist.
+     */
+    public Record getRecord(String table, RecordId recordId, SchemaId vtag)
+            throws RepositoryException, InterruptedException {
+        return getRecords(table, Collections.singletonList(recordId), vtag).get(0);
+    }
+
+    /**
+     * Returns the given records as they are for the given vtag, in the same order as the record ids. Records which
+     * do not exist, or which do not have the vtag, are returned as null.
+     */
+    public List<Record> getRecords(String table, List<RecordId> recordIds, SchemaId vtag)
+            throws RepositoryException, InterruptedException {
+
+        // Collect the records we don't know about yet, so that they can be read all at once
+        Set<RecordId> toRead = new LinkedHashSet<RecordId>();
+        for (RecordId recordId : recordIds) {
+            if (vtagRecords.getIfPresent(new VTagRecordKey(table, recordId, vtag)) == null
+                    && lastRecords.getIfPresent(new RecordKey(table, recordId)) == null) {
+                toRead.add(recordId);
+            }
+        }
+
+        // Keep what we read here as well: with a small cache, the records could otherwise already have been
+        // evicted before we get to them
+        Map<RecordId, Record> readRecords = Maps.newHashMap();
+        if (!toRead.isEmpty()) {
+            LTable lTable = repository.getTable(table);
+            for (Record record : lTable.read(Lists.newArrayList(toRead))) {
+                readRecords.put(record.getId(), record);
+            }
+            for (RecordId recordId : toRead) {
+                lastRecords.put(new RecordKey(table, recordId), Optional.fromNullable(readRecords.get(recordId)));
+            }
+        }
+
+        List<Record> result = Lists.newArrayListWithCapacity(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            VTagRecordKey key = new VTagRecordKey(table, recordId, vtag);
+            Optional<Record> record = vtagRecords.getIfPresent(key);
+            if (record == null) {
+                Record lastRecord;
+                if (readRecords.containsKey(recordId)) {
+                    lastRecord = readRecords.get(recordId);
+                } else {
+                    Optional<Record> cached = lastRecords.getIfPresent(new RecordKey(table, recordId));
+                    lastRecord = cached != null ? cached.orNull() : readLast(table, recordId);
+                }
+                record = Optional.fromNullable(lastRecord != null ? toVTag(table, lastRecord, vtag) : null);
+                vtagRecords.put(key, record);
+            }
+            result.add(record.orNull());
+        }
+
+        return result;
+    }
+
+    private Record readLast(String table, RecordId recordId) throws RepositoryException, InterruptedException {
+        try {
+            return repository.getTable(table).read(recordId);
+        } catch (RecordNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the version of the record which corresponds to the vtag, starting from its last version. This follows
+     * the same rules as {@link org.lilyproject.util.repo.VTaggedRecord#getIdRecord(SchemaId)}.
+     */
+    private Record toVTag(String table, Record lastRecord, SchemaId vtag)
+            throws RepositoryException, InterruptedException {
+
+        QName vtagName = repository.getTypeManager().getFieldTypeById(vtag).getName();
+        long lastVersion = lastRecord.getVersion() == null ? 0 : lastRecord.getVersion();
+
+        long version;
+        if (vtagName.equals(VersionTag.LAST)) {
+            version = lastVersion;
+        } else if (lastRecord.hasField(vtagName)) {
+            version = (Long)lastRecord.getField(vtagName);
+        } else {
+            return null;
+        }
+
+        if (version == 0L) {
+            // The record is shared with the other vtags, so reduce a copy of it
+            Record record = lastRecord.cloneRecord();
+            VersionTag.reduceToNonVersioned(record, null, repository.getTypeManager());
+            return record;
+        } else if (version == lastVersion) {
+            return lastRecord;
+        } else {
+            try {
+                return repository.getTable(table).read(lastRecord.getId(), version);
+            } catch (RecordNotFoundException e) {
+                return null;
+            } catch (VersionNotFoundException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class RecordKey {
+        private final String table;
+        private final RecordId recordId;
+
+        RecordKey(String table, RecordId recordId) {
+            this.table = table;
+            this.recordId = recordId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RecordKey)) {
+                return false;
+            }
+            RecordKey other = (RecordKey)obj;
+            return table.equals(other.table) && recordId.equals(other.recordId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(table, recordId);
+        }
+    }
+
+    private static class VTagRecordKey extends RecordKey {
+        private final SchemaId vtag;
+
+        VTagRecordKey(String table, RecordId recordId, SchemaId vtag) {
+            super(table, recordId);
+            this.vtag = vtag;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof VTagRecordKey && super.equals(obj) && vtag.equals(((VTagRecordKey)obj).vtag);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * super.hashCode() + vtag.hashCode();
+        }
+    }
+}
@@ -16,20 +16,18 @@
 package org.lilyproject.indexer.model.indexerconf;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdGenerator;
-import org.lilyproject.repository.api.LRepository;
-import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.Link;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
-import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RepositoryException;
-import org.lilyproject.repository.api.VersionNotFoundException;
-import org.lilyproject.util.repo.VersionTag;
 
 public class LinkFieldFollow implements Follow {
     private FieldType fieldType;
@@ -65,24 +63,46 @@ public class LinkFieldFollow implements Follow {
         IdGenerator idGenerator = indexUpdateBuilder.getRepository().getIdGenerator();
 
         RecordContext ctx = indexUpdateBuilder.getRecordContext();
-        LRepository repository = indexUpdateBuilder.getRepository();
 
-        // FIXME: it's more efficient to read all records at once
-        // but make sure missing records are also treated (handled here via null linkedRecord in case of RecordNotFoundException
         if (ctx.record != null) {
             List links = IndexerUtils.flatList(ctx.record, fieldType);
+            if (links.isEmpty()) {
+                return;
+            }
+
+            // Resolve the links first, so that the linked records can be read all at once (one multi-get per table)
+            List<RecordId> linkedRecordIds = new ArrayList<RecordId>(links.size());
+            List<String> tableNames = new ArrayList<String>(links.size());
+            Map<String, List<RecordId>> linkedRecordIdsByTable = new HashMap<String, List<RecordId>>();
             for (Link link: (List<Link>)links) {
                 RecordId linkedRecordId = link.resolve(ctx.contextRecord, idGenerator);
-                Record linkedRecord = null;
                 String tableName = link.getTable() != null ? link.getTable() : indexUpdateBuilder.getTable();
-                LTable table = repository.getTable(tableName);
-                try {
-                    linkedRecord = VersionTag.getIdRecord(linkedRecordId, indexUpdateBuilder.getVTag(), table, repository);
-                } catch (RecordNotFoundException rnfe) {
-                    // ok, continue with null value
-                } catch (VersionNotFoundException e) {
-                    // ok, continue with null value
+                linkedRecordIds.add(linkedRecordId);
+                tableNames.add(tableName);
+                List<RecordId> tableRecordIds = linkedRecordIdsByTable.get(tableName);
+                if (tableRecordIds == null) {
+                    tableRecordIds = new ArrayList<RecordId>();
+                    linkedRecordIdsByTable.put(tableName, tableRecordIds);
                 }
+                tableRecordIds.add(linkedRecordId);
+            }
+
+            // Missing records (or records without the vtag) are returned as null, and are followed as null value
+            DerefCache derefCache = indexUpdateBuilder.getDerefCache();
+            Map<String, Map<RecordId, Record>> linkedRecordsByTable = new HashMap<String, Map<RecordId, Record>>();
+            for (Map.Entry<String, List<RecordId>> entry : linkedRecordIdsByTable.entrySet()) {
+                List<Record> records = derefCache.getRecords(entry.getKey(), entry.getValue(),
+                        indexUpdateBuilder.getVTag());
+                Map<RecordId, Record> recordsById = new HashMap<RecordId, Record>();
+                for (int i = 0; i < records.size(); i++) {
+                    recordsById.put(entry.getValue().get(i), records.get(i));
+                }
+                linkedRecordsByTable.put(entry.getKey(), recordsById);
+            }
+
+            for (int i = 0; i < linkedRecordIds.size(); i++) {
+                RecordId linkedRecordId = linkedRecordIds.get(i);
+                Record linkedRecord = linkedRecordsByTable.get(tableNames.get(i)).get(linkedRecordId);
                 indexUpdateBuilder.push(linkedRecord, new Dep(linkedRecordId, Collections.<String>emptySet()));
                 callback.call();
                 indexUpdateBuilder.pop();
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.model.indexerconf;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.util.repo.VersionTag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DerefCacheTest {
+
+    private static final String TABLE = "record";
+    private static final QName LIVE = VersionTag.qname("live");
+
+    private final IdGenerator idGenerator = new IdGeneratorImpl();
+    private LTable table;
+    private SchemaId lastVTag;
+    private SchemaId liveVTag;
+    private DerefCache derefCache;
+
+    @Before
+    public void setUp() throws Exception {
+        LRepository repository = mock(LRepository.class);
+        TypeManager typeManager = mock(TypeManager.class);
+        table = mock(LTable.class);
+        when(repository.getTable(TABLE)).thenReturn(table);
+        when(repository.getTypeManager()).thenReturn(typeManager);
+
+        lastVTag = mockVTag(typeManager, VersionTag.LAST);
+        liveVTag = mockVTag(typeManager, LIVE);
+
+        derefCache = new DerefCache(repository);
+    }
+
+    private SchemaId mockVTag(TypeManager typeManager, QName name) throws Exception {
+        SchemaId vtag = mock(SchemaId.class);
+        FieldType fieldType = mock(FieldType.class);
+        when(fieldType.getName()).thenReturn(name);
+        when(typeManager.getFieldTypeById(vtag)).thenReturn(fieldType);
+        return vtag;
+    }
+
+    private Record mockRecord(RecordId recordId, long version) {
+        Record record = mock(Record.class);
+        when(record.getId()).thenReturn(recordId);
+        when(record.getVersion()).thenReturn(version);
+        return record;
+    }
+
+    @Test
+    public void testGetRecords_MultiGetAndMissingRecords() throws Exception {
+        RecordId id1 = idGenerator.newRecordId("id1");
+        RecordId id2 = idGenerator.newRecordId("id2");
+        RecordId missing = idGenerator.newRecordId("missing");
+        Record record1 = mockRecord(id1, 1L);
+        Record record2 = mockRecord(id2, 3L);
+        when(table.read(anyListOf(RecordId.class))).thenReturn(Arrays.asList(record1, record2));
+
+        List<Record> records = derefCache.getRecords(TABLE, Arrays.asList(id1, missing, id2, id1), lastVTag);
+
+        assertEquals(4, records.size());
+        assertSame(record1, records.get(0));
+        assertNull(records.get(1));
+        assertSame(record2, records.get(2));
+        assertSame(record1, records.get(3));
+        verify(table).read(Arrays.asList(id1, missing, id2));
+
+        // Everything is known now, including the missing record: there should be no further reads
+        assertSame(record2, derefCache.getRecord(TABLE, id2, lastVTag));
+        assertNull(derefCache.getRecord(TABLE, missing, lastVTag));
+        verify(table, times(1)).read(anyListOf(RecordId.class));
+    }
+
+    @Test
+    public void testGetRecords_VTags() throws Exception {
+        RecordId id1 = idGenerator.newRecordId("id1");
+        RecordId id2 = idGenerator.newRecordId("id2");
+        Record record1 = mockRecord(id1, 2L);
+        when(record1.hasField(LIVE)).thenReturn(true);
+        when(record1.getField(LIVE)).thenReturn(1L);
+        Record record1Version1 = mockRecord(id1, 1L);
+        when(table.read(id1, 1L)).thenReturn(record1Version1);
+        // Record 2 does not have the live vtag
+        Record record2 = mockRecord(id2, 1L);
+        when(table.read(anyListOf(RecordId.class))).thenReturn(Arrays.asList(record1, record2));
+
+        List<Record> records = derefCache.getRecords(TABLE, Arrays.asList(id1, id2), liveVTag);
+        assertSame(record1Version1, records.get(0));
+        assertNull(records.get(1));
+
+        // The last versions are shared between the vtags
+        records = derefCache.getRecords(TABLE, Arrays.asList(id1, id2), lastVTag);
+        assertSame(record1, records.get(0));
+        assertSame(record2, records.get(1));
+        verify(table, times(1)).read(anyListOf(RecordId.class));
+        verify(table, times(1)).read(id1, 1L);
+    }
+
+}
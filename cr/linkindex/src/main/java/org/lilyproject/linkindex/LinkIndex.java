@@ -17,12 +17,16 @@ package org.lilyproject.linkindex;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.hbaseindex.Index;
 import org.lilyproject.hbaseindex.IndexDefinition;
@@ -62,6 +66,22 @@ public class LinkIndex {
     private Index forwardIndex;
     private Index backwardIndex;
 
+    /**
+     * Name of the index (and thus the HBase table) containing the forward links.
+     */
+    public static final String FORWARD_INDEX_NAME = "links-forward";
+
+    /**
+     * Name of the index (and thus the HBase table) containing the backward links.
+     */
+    public static final String BACKWARD_INDEX_NAME = "links-backward";
+
+    /**
+     * The source field and vtag are read from the row key, but are still written as data columns, because
+     * older versions read them from there, e.g. while a cluster is upgraded one node at a time. A later
+     * version, of which all predecessors read from the row key, can stop writing them and remove the existing
+     * ones with IndexStorageMigrationTool.
+     */
     private static final byte[] SOURCE_FIELD_KEY = Bytes.toBytes("sf");
     private static final byte[] VTAG_KEY = Bytes.toBytes("vt");
 
@@ -77,7 +97,7 @@ public class LinkIndex {
 
         final int schemaIdByteLength = 16; // see SchemaIdImpl
         {
-            IndexDefinition indexDef = new IndexDefinition("links-forward");
+            IndexDefinition indexDef = new IndexDefinition(FORWARD_INDEX_NAME);
             // For the record ID we use a variable length byte array field of which the first two bytes are fixed length
             // The first byte is actually the record identifier byte.
             // The second byte really is the first byte of the record id. We put this in the fixed length part
@@ -90,7 +110,7 @@ public class LinkIndex {
         }
 
         {
-            IndexDefinition indexDef = new IndexDefinition("links-backward");
+            IndexDefinition indexDef = new IndexDefinition(BACKWARD_INDEX_NAME);
             // Same remark as in the forwardIndex.
             indexDef.addVariableLengthByteField("target", 2);
             indexDef.addByteField("vtag", schemaIdByteLength);
@@ -275,6 +295,146 @@ public class LinkIndex {
         }
     }
 
+    /**
+     * Builds the puts needed to add the given links to the forward and backward index, without
+     * writing them. This is meant for bulk loading the link index for new records (e.g. through HFiles),
+     * it does not take into account any links which might already be stored for the record.
+     *
+     * @return a pair containing the puts for the forward index (v1) and the backward index (v2)
+     */
+    public Pair<List<Put>, List<Put>> createLinkPuts(AbsoluteRecordId sourceRecord, SchemaId vtag, Set<FieldedLink> links)
+            throws LinkIndexException {
+        List<Put> fwdPuts = new ArrayList<Put>(links.size());
+        List<Put> bkwdPuts = new ArrayList<Put>(links.size());
+        try {
+            byte[] sourceAsBytes = sourceRecord.toBytes();
+            for (FieldedLink link : links) {
+                IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
+                fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
+                fwdPuts.add(forwardIndex.createAddEntryPut(fwdEntry));
+
+                IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(), link.getFieldTypeId());
+                bkwdEntry.setIdentifier(sourceAsBytes);
+                bkwdPuts.add(backwardIndex.createAddEntryPut(bkwdEntry));
+            }
+        } catch (IOException e) {
+            throw new LinkIndexException("Error creating link index puts for record '" + sourceRecord + "', vtag '" +
+                    vtag + "'", e);
+        }
+        return Pair.create(fwdPuts, bkwdPuts);
+    }
+
+    /**
+     * Adds the given links of a record to the forward and backward index, each link for the vtag it is
+     * paired with. Links which are already (partially) present in the index are simply written again.
+     *
+     * <p>This is meant for repairing the link index, normally the link index is maintained through
+     * {@link #updateLinks}.
+     */
+    public void addLinks(AbsoluteRecordId sourceRecord, Collection<Pair<FieldedLink, SchemaId>> links)
+            throws LinkIndexException, InterruptedException {
+        if (links.isEmpty()) {
+            return;
+        }
+
+        long before = System.currentTimeMillis();
+        try {
+            byte[] sourceAsBytes = sourceRecord.toBytes();
+            List<IndexEntry> fwdEntries = new ArrayList<IndexEntry>(links.size());
+            List<IndexEntry> bkwdEntries = new ArrayList<IndexEntry>(links.size());
+            for (Pair<FieldedLink, SchemaId> link : links) {
+                IndexEntry fwdEntry = createForwardIndexEntry(link.getV2(), sourceRecord,
+                        link.getV1().getFieldTypeId());
+                fwdEntry.setIdentifier(link.getV1().getAbsoluteRecordId().toBytes());
+                fwdEntries.add(fwdEntry);
+
+                IndexEntry bkwdEntry = createBackwardIndexEntry(link.getV2(), link.getV1().getAbsoluteRecordId(),
+                        link.getV1().getFieldTypeId());
+                bkwdEntry.setIdentifier(sourceAsBytes);
+                bkwdEntries.add(bkwdEntry);
+            }
+            forwardIndex.addEntries(fwdEntries);
+            backwardIndex.addEntries(bkwdEntries);
+        } catch (IOException e) {
+            throw new LinkIndexException("Error adding links for record '" + sourceRecord + "'", e);
+        } finally {
+            metrics.report(Action.REPAIR_LINKS, System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * Removes the given links of a record from the backward and forward index, each link for the vtag it is
+     * paired with. See {@link #addLinks}.
+     */
+    public void removeLinks(AbsoluteRecordId sourceRecord, Collection<Pair<FieldedLink, SchemaId>> links)
+            throws LinkIndexException, InterruptedException {
+        if (links.isEmpty()) {
+            return;
+        }
+
+        long before = System.currentTimeMillis();
+        try {
+            byte[] sourceAsBytes = sourceRecord.toBytes();
+            List<IndexEntry> bkwdEntries = new ArrayList<IndexEntry>(links.size());
+            List<IndexEntry> fwdEntries = new ArrayList<IndexEntry>(links.size());
+            for (Pair<FieldedLink, SchemaId> link : links) {
+                IndexEntry bkwdEntry = createBackwardIndexEntry(link.getV2(), link.getV1().getAbsoluteRecordId(),
+                        link.getV1().getFieldTypeId());
+                bkwdEntry.setIdentifier(sourceAsBytes);
+                bkwdEntries.add(bkwdEntry);
+
+                IndexEntry fwdEntry = createForwardIndexEntry(link.getV2(), sourceRecord,
+                        link.getV1().getFieldTypeId());
+                fwdEntry.setIdentifier(link.getV1().getAbsoluteRecordId().toBytes());
+                fwdEntries.add(fwdEntry);
+            }
+            backwardIndex.removeEntries(bkwdEntries);
+            forwardIndex.removeEntries(fwdEntries);
+        } catch (IOException e) {
+            throw new LinkIndexException("Error removing links for record '" + sourceRecord + "'", e);
+        } finally {
+            metrics.report(Action.REPAIR_LINKS, System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * Returns those of the given links of a record for which the backward index has no entry. The backward
+     * entries are looked up directly on their row key, in one batch.
+     */
+    public Set<Pair<FieldedLink, SchemaId>> getMissingBackwardLinks(AbsoluteRecordId sourceRecord,
+            Collection<Pair<FieldedLink, SchemaId>> links) throws LinkIndexException, InterruptedException {
+        if (links.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        long before = System.currentTimeMillis();
+        try {
+            byte[] sourceAsBytes = sourceRecord.toBytes();
+            List<Pair<FieldedLink, SchemaId>> linkList = new ArrayList<Pair<FieldedLink, SchemaId>>(links);
+            List<IndexEntry> bkwdEntries = new ArrayList<IndexEntry>(linkList.size());
+            for (Pair<FieldedLink, SchemaId> link : linkList) {
+                IndexEntry bkwdEntry = createBackwardIndexEntry(link.getV2(), link.getV1().getAbsoluteRecordId(),
+                        link.getV1().getFieldTypeId());
+                bkwdEntry.setIdentifier(sourceAsBytes);
+                bkwdEntries.add(bkwdEntry);
+            }
+
+            boolean[] exist = backwardIndex.entriesExist(bkwdEntries);
+
+            Set<Pair<FieldedLink, SchemaId>> missing = Sets.newHashSet();
+            for (int i = 0; i < exist.length; i++) {
+                if (!exist[i]) {
+                    missing.add(linkList.get(i));
+                }
+            }
+            return missing;
+        } catch (IOException e) {
+            throw new LinkIndexException("Error checking backward links of record '" + sourceRecord + "'", e);
+        } finally {
+            metrics.report(Action.CHECK_BKWD_LINKS, System.currentTimeMillis() - before);
+        }
+    }
+
     private IndexEntry createBackwardIndexEntry(SchemaId vtag, AbsoluteRecordId target, SchemaId sourceField) {
         IndexEntry entry = new IndexEntry(backwardIndex.getDefinition());
 
@@ -327,22 +487,8 @@ public class LinkIndex {
             throws LinkIndexException, InterruptedException {
         long before = System.currentTimeMillis();
         try {
-            Query query = new Query();
-            query.addEqualsCondition("target", record.toBytes());
-            if (vtag != null) {
-                query.addEqualsCondition("vtag", vtag.getBytes());
-            }
-            if (sourceField != null) {
-                query.addEqualsCondition("sourcefield", sourceField.getBytes());
-            }
-
-            Set<AbsoluteRecordId> result = Sets.newHashSet();
-
-            QueryResult qr = backwardIndex.performQuery(query);
-            byte[] id;
-            while ((id = qr.next()) != null) {
-                result.add(getIdGenerator().absoluteFromBytes(id));
-            }
+            QueryResult qr = backwardIndex.performQuery(createReferrersQuery(record, vtag, sourceField));
+            Set<AbsoluteRecordId> result = readReferrers(qr);
             Closer.close(
                     qr); // Not closed in finally block: avoid HBase contact when there could be connection problems.
 
@@ -355,6 +501,86 @@ public class LinkIndex {
         }
     }
 
+    /**
+     * Batch variant of {@link #getReferrers(RecordId, SchemaId, SchemaId)}, which looks up the referrers of
+     * all the records at once.
+     *
+     * @return the referrers mapped on the records, containing an (empty) entry for each of the records
+     */
+    public Map<RecordId, Set<RecordId>> getReferrers(Collection<RecordId> records, SchemaId vtag,
+            SchemaId sourceField) throws LinkIndexException, InterruptedException {
+        List<AbsoluteRecordId> absoluteRecords = new ArrayList<AbsoluteRecordId>(records.size());
+        for (RecordId record : records) {
+            absoluteRecords.add(getAbsoluteId(record));
+        }
+
+        Map<AbsoluteRecordId, Set<AbsoluteRecordId>> absoluteResult =
+                getAbsoluteReferrers(absoluteRecords, vtag, sourceField);
+
+        Map<RecordId, Set<RecordId>> result = Maps.newHashMapWithExpectedSize(absoluteResult.size());
+        for (Map.Entry<AbsoluteRecordId, Set<AbsoluteRecordId>> entry : absoluteResult.entrySet()) {
+            Set<RecordId> referrers = Sets.newHashSetWithExpectedSize(entry.getValue().size());
+            for (AbsoluteRecordId absoluteReferrer : entry.getValue()) {
+                referrers.add(absoluteReferrer.getRecordId());
+            }
+            result.put(entry.getKey().getRecordId(), referrers);
+        }
+        return result;
+    }
+
+    /**
+     * Batch variant of {@link #getAbsoluteReferrers(AbsoluteRecordId, SchemaId, SchemaId)}, which looks up the
+     * referrers of all the records at once, see {@link Index#performQueries}.
+     *
+     * @return the referrers mapped on the records, containing an (empty) entry for each of the records
+     */
+    public Map<AbsoluteRecordId, Set<AbsoluteRecordId>> getAbsoluteReferrers(Collection<AbsoluteRecordId> records,
+            SchemaId vtag, SchemaId sourceField) throws LinkIndexException, InterruptedException {
+        long before = System.currentTimeMillis();
+        try {
+            List<AbsoluteRecordId> recordList = new ArrayList<AbsoluteRecordId>(records);
+            List<Query> queries = new ArrayList<Query>(recordList.size());
+            for (AbsoluteRecordId record : recordList) {
+                queries.add(createReferrersQuery(record, vtag, sourceField));
+            }
+
+            List<QueryResult> queryResults = backwardIndex.performQueries(queries);
+
+            Map<AbsoluteRecordId, Set<AbsoluteRecordId>> result = Maps.newHashMapWithExpectedSize(recordList.size());
+            for (int i = 0; i < recordList.size(); i++) {
+                result.put(recordList.get(i), readReferrers(queryResults.get(i)));
+            }
+            return result;
+        } catch (IOException e) {
+            throw new LinkIndexException("Error getting referrers for " + records.size() + " records, vtag '"
+                    + vtag + "', field '" + sourceField + "'", e);
+        } finally {
+            metrics.report(Action.GET_REFERRERS_BATCH, System.currentTimeMillis() - before);
+        }
+    }
+
+    private Query createReferrersQuery(AbsoluteRecordId record, SchemaId vtag, SchemaId sourceField) {
+        Query query = new Query();
+        query.addEqualsCondition("target", record.toBytes());
+        if (vtag != null) {
+            query.addEqualsCondition("vtag", vtag.getBytes());
+        }
+        if (sourceField != null) {
+            query.addEqualsCondition("sourcefield", sourceField.getBytes());
+        }
+        return query;
+    }
+
+    private Set<AbsoluteRecordId> readReferrers(QueryResult qr) throws IOException, LinkIndexException,
+            InterruptedException {
+        Set<AbsoluteRecordId> result = Sets.newHashSet();
+        byte[] id;
+        while ((id = qr.next()) != null) {
+            result.add(getIdGenerator().absoluteFromBytes(id));
+        }
+        return result;
+    }
+
     public Set<FieldedLink> getFieldedReferrers(RecordId record, SchemaId vtag)
             throws LinkIndexException, InterruptedException {
         long before = System.currentTimeMillis();
@@ -370,7 +596,7 @@ public class LinkIndex {
             QueryResult qr = backwardIndex.performQuery(query);
             byte[] id;
             while ((id = qr.next()) != null) {
-                SchemaId sourceField = getIdGenerator().getSchemaId(qr.getData(SOURCE_FIELD_KEY));
+                SchemaId sourceField = getSchemaIdField(qr, "sourcefield");
                 result.add(new FieldedLink(getIdGenerator().absoluteFromBytes(id), sourceField));
             }
             Closer.close(
@@ -401,8 +627,8 @@ public class LinkIndex {
             QueryResult qr = forwardIndex.performQuery(query);
             byte[] id;
             while ((id = qr.next()) != null) {
-                SchemaId sourceField = getIdGenerator().getSchemaId(qr.getData(SOURCE_FIELD_KEY));
-                SchemaId vtag = getIdGenerator().getSchemaId(qr.getData(VTAG_KEY));
+                SchemaId sourceField = getSchemaIdField(qr, "sourcefield");
+                SchemaId vtag = getSchemaIdField(qr, "vtag");
                 result.add(
                         new Pair<FieldedLink, SchemaId>(new FieldedLink(getIdGenerator().absoluteFromBytes(id), sourceField), vtag));
             }
@@ -485,7 +711,7 @@ public class LinkIndex {
             QueryResult qr = forwardIndex.performQuery(query);
             byte[] id;
             while ((id = qr.next()) != null) {
-                SchemaId sourceField = getIdGenerator().getSchemaId(qr.getData(SOURCE_FIELD_KEY));
+                SchemaId sourceField = getSchemaIdField(qr, "sourcefield");
                 result.add(new FieldedLink(getIdGenerator().absoluteFromBytes(id), sourceField));
             }
             Closer.close(
@@ -514,6 +740,15 @@ public class LinkIndex {
         return lazyIdGenerator;
     }
 
+    /**
+     * Reads a schema id from the row key of the current result, which also works for entries of which the
+     * data columns have been removed.
+     */
+    private SchemaId getSchemaIdField(QueryResult qr, String fieldName)
+            throws IOException, InterruptedException, LinkIndexException {
+        return getIdGenerator().getSchemaId((byte[])qr.getIndexField(fieldName));
+    }
+
     private AbsoluteRecordId getAbsoluteId(RecordId recordId) throws LinkIndexException, InterruptedException {
         return getIdGenerator().newAbsoluteRecordId(Table.RECORD.name, recordId);
     }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.linkindex;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.RecordNotFoundException;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.VersionNotFoundException;
+import org.lilyproject.util.Pair;
+import org.lilyproject.util.repo.VTaggedRecord;
+
+/**
+ * Compares the links stored in the {@link LinkIndex} for a record with the links extracted from the record
+ * itself, and optionally repairs the differences.
+ *
+ * <p>The expected links are determined in the same way as by the {@link LinkIndexUpdater}: for each vtag of
+ * the record (including the implicit 'last' vtag), the links of the version the vtag points to.
+ *
+ * <p>Only the entries of the checked record are considered: entries of records which no longer exist are not
+ * found this way.
+ */
+public class LinkIndexChecker {
+    private final LinkIndex linkIndex;
+    private final LRepository repository;
+
+    public LinkIndexChecker(LinkIndex linkIndex, LRepository repository) {
+        this.linkIndex = linkIndex;
+        this.repository = repository;
+    }
+
+    /**
+     * Checks the link index entries of the given record.
+     *
+     * @param repair if true, missing links are added and stale links are removed
+     */
+    public Result check(AbsoluteRecordId recordId, VTaggedRecord record, boolean repair)
+            throws LinkIndexException, RepositoryException, InterruptedException {
+        Set<Pair<FieldedLink, SchemaId>> expectedLinks = extractLinks(record);
+        Set<Pair<FieldedLink, SchemaId>> actualLinks = linkIndex.getAllForwardLinks(recordId);
+
+        Set<Pair<FieldedLink, SchemaId>> staleLinks = new HashSet<Pair<FieldedLink, SchemaId>>(actualLinks);
+        staleLinks.removeAll(expectedLinks);
+
+        Set<Pair<FieldedLink, SchemaId>> missingLinks = new HashSet<Pair<FieldedLink, SchemaId>>(expectedLinks);
+        missingLinks.removeAll(actualLinks);
+
+        // Links which are in the forward index can still be missing from the backward index
+        Set<Pair<FieldedLink, SchemaId>> presentLinks = new HashSet<Pair<FieldedLink, SchemaId>>(expectedLinks);
+        presentLinks.retainAll(actualLinks);
+        Set<Pair<FieldedLink, SchemaId>> missingBackwardLinks = presentLinks.isEmpty() ?
+                Collections.<Pair<FieldedLink, SchemaId>>emptySet() :
+                linkIndex.getMissingBackwardLinks(recordId, presentLinks);
+
+        if (repair) {
+            Set<Pair<FieldedLink, SchemaId>> linksToAdd = new HashSet<Pair<FieldedLink, SchemaId>>(missingLinks);
+            linksToAdd.addAll(missingBackwardLinks);
+            linkIndex.addLinks(recordId, linksToAdd);
+            linkIndex.removeLinks(recordId, staleLinks);
+        }
+
+        return new Result(expectedLinks.size(), missingLinks, missingBackwardLinks, staleLinks);
+    }
+
+    /**
+     * Extracts the links of a record for all its vtags, each link paired with the vtag.
+     */
+    public Set<Pair<FieldedLink, SchemaId>> extractLinks(VTaggedRecord record)
+            throws RepositoryException, InterruptedException {
+        Set<Pair<FieldedLink, SchemaId>> links = new HashSet<Pair<FieldedLink, SchemaId>>();
+
+        // Versions can have multiple vtags, extract the links of each version only once
+        for (Map.Entry<Long, Set<SchemaId>> entry : record.getVTagsByVersion().entrySet()) {
+            for (FieldedLink link : extractLinks(record, entry.getKey())) {
+                for (SchemaId vtag : entry.getValue()) {
+                    links.add(Pair.create(link, vtag));
+                }
+            }
+        }
+
+        return links;
+    }
+
+    private Set<FieldedLink> extractLinks(VTaggedRecord record, long version)
+            throws RepositoryException, InterruptedException {
+        IdRecord versionRecord;
+        try {
+            versionRecord = record.getIdRecord(version);
+        } catch (RecordNotFoundException e) {
+            return Collections.emptySet();
+        } catch (VersionNotFoundException e) {
+            // A vtag pointing to a non-existing version, nothing unusual.
+            return Collections.emptySet();
+        }
+
+        LinkCollector collector = new LinkCollector(repository.getIdGenerator());
+        RecordLinkExtractor.extract(versionRecord, collector, repository);
+        return collector.getLinks();
+    }
+
+    /**
+     * The differences found for one record. Each link is paired with its vtag.
+     */
+    public static class Result {
+        private final int expectedCount;
+        private final Set<Pair<FieldedLink, SchemaId>> missingLinks;
+        private final Set<Pair<FieldedLink, SchemaId>> missingBackwardLinks;
+        private final Set<Pair<FieldedLink, SchemaId>> staleLinks;
+
+        Result(int expectedCount, Set<Pair<FieldedLink, SchemaId>> missingLinks,
+               Set<Pair<FieldedLink, SchemaId>> missingBackwardLinks, Set<Pair<FieldedLink, SchemaId>> staleLinks) {
+            this.expectedCount = expectedCount;
+            this.missingLinks = missingLinks;
+            this.missingBackwardLinks = missingBackwardLinks;
+            this.staleLinks = staleLinks;
+        }
+
+        /**
+         * The number of links extracted from the record.
+         */
+        public int getExpectedCount() {
+            return expectedCount;
+        }
+
+        /**
+         * The links of the record which are not in the forward index.
+         */
+        public Set<Pair<FieldedLink, SchemaId>> getMissingLinks() {
+            return missingLinks;
+        }
+
+        /**
+         * The links of the record which are in the forward index, but not in the backward index.
+         */
+        public Set<Pair<FieldedLink, SchemaId>> getMissingBackwardLinks() {
+            return missingBackwardLinks;
+        }
+
+        /**
+         * The links in the forward index which the record does not (or no longer) have.
+         */
+        public Set<Pair<FieldedLink, SchemaId>> getStaleLinks() {
+            return staleLinks;
+        }
+
+        public boolean isConsistent() {
+            return missingLinks.isEmpty() && missingBackwardLinks.isEmpty() && staleLinks.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.linkindex;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.util.ToolRunner;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Bulk loading of link index entries, for MapReduce jobs which write the puts for the link index tables
+ * as SequenceFiles (typically to a named output), rather than writing them to the tables directly.
+ *
+ * <p>The puts for each link index table are converted to HFiles by a follow-up job, after which the HFiles
+ * are loaded into the table. The forward index should be loaded before the backward index, see
+ * {@link LinkIndex}.
+ */
+public class LinkIndexHFiles {
+
+    private LinkIndexHFiles() {
+    }
+
+    /**
+     * Converts the puts written by a job to a named output to HFiles for the given index table. The puts are
+     * deleted once the HFiles are written.
+     *
+     * <p>The HFiles are written next to the output directory of the job rather than inside it, so that the
+     * output directory itself can still be bulk loaded as a whole.
+     *
+     * @param jobName        name of the job converting the puts
+     * @param jarClass       class from the jar of the job
+     * @param outputDir      output directory of the job which wrote the puts
+     * @param namedOutput    named output to which the puts were written, as SequenceFiles of
+     *                       ImmutableBytesWritable/Put pairs
+     * @param indexTableName name of the link index table ({@link LinkIndex#FORWARD_INDEX_NAME} or
+     *                       {@link LinkIndex#BACKWARD_INDEX_NAME})
+     * @return the directory where the HFiles were written, null if there were no puts at all
+     */
+    public static Path writeHFiles(Configuration conf, String jobName, Class<?> jarClass, Path outputDir,
+                                   String namedOutput, String indexTableName) throws Exception {
+        Path putsDir = new Path(outputDir, namedOutput);
+        Path hfileDir = new Path(outputDir.toString() + "-" + namedOutput);
+
+        FileSystem fs = FileSystem.get(conf);
+        if (!fs.exists(putsDir)) {
+            // no links at all
+            return null;
+        }
+
+        Job job = new Job(conf);
+        job.setJarByClass(jarClass);
+        job.setJobName(jobName);
+        job.setMapperClass(Mapper.class);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(HFileOutputFormat.class);
+        job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+        job.setMapOutputValueClass(Put.class);
+        job.setOutputKeyClass(ImmutableBytesWritable.class);
+        job.setOutputValueClass(KeyValue.class);
+        SequenceFileInputFormat.addInputPath(job, putsDir);
+        HFileOutputFormat.setOutputPath(job, hfileDir);
+
+        HTable indexTable = new HTable(conf, indexTableName);
+        try {
+            HFileOutputFormat.configureIncrementalLoad(job, indexTable);
+        } finally {
+            Closer.close(indexTable);
+        }
+
+        if (!job.waitForCompletion(true)) {
+            throw new RuntimeException("Job for writing " + indexTableName + " HFiles failed");
+        }
+
+        fs.delete(putsDir, true);
+
+        return hfileDir;
+    }
+
+    /**
+     * Loads the HFiles in the given directory into a table, and deletes them afterwards.
+     *
+     * @return the exit status of the load, 0 if successful
+     */
+    public static int loadHFiles(Configuration conf, Path hfileDir, String tableName) throws Exception {
+        int status = ToolRunner.run(new LoadIncrementalHFiles(conf), new String[]{hfileDir.toString(), tableName});
+        hfileDir.getFileSystem(conf).delete(hfileDir, true);
+        return status;
+    }
+}
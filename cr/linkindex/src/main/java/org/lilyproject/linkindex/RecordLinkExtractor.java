@@ -54,6 +54,24 @@ public class RecordLinkExtractor {
         }
     }
 
+    /**
+     * Extracts the links from a record of which the fields are only known by name, such as
+     * a record which has been created on the client side but not yet stored.
+     */
+    public static void extract(Record record, LinkCollector collector, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        for (Map.Entry<QName, Object> field : record.getFields().entrySet()) {
+            FieldType fieldType;
+            try {
+                fieldType = repository.getTypeManager().getFieldTypeByName(field.getKey());
+            } catch (FieldTypeNotFoundException e) {
+                // Can not do anything with a field if we cannot load its type
+                continue;
+            }
+            extract(field.getValue(), fieldType, collector, fieldType, record.getId(), repository);
+        }
+    }
+
     /**
      * This is for link extraction from nested records.
      */
@@ -19,7 +19,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -31,6 +33,7 @@ import org.lilyproject.hadooptestfw.TestHelper;
 import org.lilyproject.hbaseindex.IndexManager;
 import org.lilyproject.linkindex.FieldedLink;
 import org.lilyproject.linkindex.LinkIndex;
+import org.lilyproject.linkindex.LinkIndexChecker;
 import org.lilyproject.linkindex.LinkIndexUpdater;
 import org.lilyproject.repository.api.AbsoluteRecordId;
 import org.lilyproject.repository.api.FieldType;
@@ -47,8 +50,10 @@ import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.repotestfw.RepositorySetup;
+import org.lilyproject.util.Pair;
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
 import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.VTaggedRecord;
 import org.lilyproject.util.repo.VersionTag;
 
 public class LinkIndexTest {
@@ -140,6 +145,16 @@ public class LinkIndexTest {
         referrers = linkIndex.getReferrers(ids.newRecordId("id2a"), liveTag);
         assertTrue(referrers.contains(ids.newRecordId("idA")));
         assertEquals(1, referrers.size());
+
+        // Test batch backward link retrieval
+        Map<RecordId, Set<RecordId>> referrersById = linkIndex.getReferrers(Arrays.asList(ids.newRecordId("id1"),
+                ids.newRecordId("id3"), ids.newRecordId("id2a"), ids.newRecordId("unlinked")), liveTag, null);
+        assertEquals(4, referrersById.size());
+        assertEquals(Sets.newHashSet(ids.newRecordId("idA"), ids.newRecordId("idB")),
+                referrersById.get(ids.newRecordId("id1")));
+        assertEquals(Sets.newHashSet(ids.newRecordId("idC")), referrersById.get(ids.newRecordId("id3")));
+        assertEquals(Sets.newHashSet(ids.newRecordId("idA")), referrersById.get(ids.newRecordId("id2a")));
+        assertTrue(referrersById.get(ids.newRecordId("unlinked")).isEmpty());
     }
 
     @Test
@@ -381,6 +396,51 @@ public class LinkIndexTest {
         }
     }
 
+    @Test
+    public void testLinkIndexChecker() throws Exception {
+        FieldType linkFt = typeManager.newFieldType(typeManager.getValueType("LINK"),
+                new QName("ns", "checkedLink"), Scope.NON_VERSIONED);
+        linkFt = typeManager.createFieldType(linkFt);
+        RecordType recordType = typeManager.newRecordType(new QName("ns", "CheckedRecordType"));
+        recordType.addFieldTypeEntry(typeManager.newFieldTypeEntry(linkFt.getId(), false));
+        recordType = typeManager.createRecordType(recordType);
+        SchemaId lastVTag = typeManager.getFieldTypeByName(VersionTag.LAST).getId();
+
+        Record record = repository.newRecord();
+        record.setRecordType(recordType.getName());
+        record.setField(linkFt.getName(), new Link(ids.newRecordId("checked1")));
+        record = repository.create(record);
+        repoSetup.waitForSepProcessing();
+
+        LinkIndexChecker checker =
+                new LinkIndexChecker(linkIndex, repoSetup.getRepositoryManager().getDefaultRepository());
+        AbsoluteRecordId absoluteId = createAbsoluteId(record.getId());
+
+        LinkIndexChecker.Result result = checker.check(absoluteId, createVTaggedRecord(record.getId()), false);
+        assertTrue(result.isConsistent());
+        assertEquals(1, result.getExpectedCount());
+
+        // Let the link index drift: it now has a link to checked2 instead of checked1
+        linkIndex.updateLinks(absoluteId, lastVTag,
+                Collections.singleton(new FieldedLink(createAbsoluteId("checked2"), linkFt.getId())));
+
+        result = checker.check(absoluteId, createVTaggedRecord(record.getId()), true);
+        assertEquals(Collections.singleton(Pair.create(
+                new FieldedLink(createAbsoluteId("checked1"), linkFt.getId()), lastVTag)), result.getMissingLinks());
+        assertEquals(Collections.singleton(Pair.create(
+                new FieldedLink(createAbsoluteId("checked2"), linkFt.getId()), lastVTag)), result.getStaleLinks());
+
+        // Repaired
+        result = checker.check(absoluteId, createVTaggedRecord(record.getId()), false);
+        assertTrue(result.isConsistent());
+        assertEquals(Collections.singleton(record.getId()), linkIndex.getReferrers(ids.newRecordId("checked1"), lastVTag));
+        assertEquals(0, linkIndex.getReferrers(ids.newRecordId("checked2"), lastVTag).size());
+    }
+
+    private VTaggedRecord createVTaggedRecord(RecordId recordId) throws Exception {
+        return new VTaggedRecord(recordId, repository, repoSetup.getRepositoryManager().getDefaultRepository());
+    }
+
     private AbsoluteRecordId createAbsoluteId(String recordIdString) {
         return createAbsoluteId(ids.newRecordId(recordIdString));
     }
@@ -17,8 +17,10 @@ package org.lilyproject.mapreduce;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 
@@ -29,14 +31,25 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ClusterStatus;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.HServerLoad;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HConnectionManager;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
 import org.apache.hadoop.hbase.mapreduce.TableSplit;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.zookeeper.KeeperException;
 import org.codehaus.jackson.JsonNode;
 import org.lilyproject.client.LilyClient;
 import org.lilyproject.repository.api.LRepository;
@@ -59,6 +72,32 @@ public abstract class AbstractLilyScanInputFormat<KEYIN, VALUEIN> extends InputF
 
     public static final String SCAN = "lily.mapreduce.scan";
 
+    /**
+     * Config key for the targeted number of bytes per split. Regions which are larger than this are divided
+     * over multiple splits. By default, or when 0, there is one split per region.
+     */
+    public static final String SPLIT_TARGET_SIZE = "lily.mapreduce.split.targetsize";
+
+    /**
+     * Config key for the maximum number of map tasks of the job that concurrently scan the same region server.
+     * By default, or when 0, there is no maximum.
+     *
+     * <p>The other map tasks wait for their turn when creating their record reader, while keeping their task
+     * slot, see {@link RegionServerSlot}. Their wait can be capped using {@link #MAX_MAPPERS_PER_SERVER_WAIT}.</p>
+     */
+    public static final String MAX_MAPPERS_PER_SERVER = "lily.mapreduce.maxmappersperserver";
+
+    /**
+     * Config key for the maximum time in milliseconds that a map task waits for its turn on a region server,
+     * after which it scans anyway. By default, or when 0, it waits until it gets its turn.
+     */
+    public static final String MAX_MAPPERS_PER_SERVER_WAIT = "lily.mapreduce.maxmappersperserver.wait";
+
+    /**
+     * Upper bound on the number of splits for one region.
+     */
+    private static final int MAX_SPLITS_PER_REGION = 64;
+
     final Log log = LogFactory.getLog(AbstractLilyScanInputFormat.class);
 
     private Configuration conf;
@@ -105,32 +144,21 @@ public abstract class AbstractLilyScanInputFormat<KEYIN, VALUEIN> extends InputF
             RecordScan scan = getScan(repository);
 
             // Determine start and stop row
-            byte[] startRow;
-            if (scan.getRawStartRecordId() != null) {
-                startRow = scan.getRawStartRecordId();
-            } else if (scan.getStartRecordId() != null) {
-                startRow = scan.getStartRecordId().toBytes();
-            } else {
-                startRow = new byte[0];
-            }
-
-            byte[] stopRow;
-            if (scan.getRawStopRecordId() != null) {
-                stopRow = scan.getRawStopRecordId();
-            } else if (scan.getStopRecordId() != null) {
-                stopRow = scan.getStopRecordId().toBytes();
-            } else {
-                stopRow = new byte[0];
-            }
+            byte[] startRow = getStartRow(scan);
+            byte[] stopRow = getStopRow(scan);
 
             //
             hbaseConf = LilyClient.getHBaseConfiguration(zk);
 
+            long targetSize = jobContext.getConfiguration().getLong(SPLIT_TARGET_SIZE, 0);
+            Map<byte[], Long> regionSizes = targetSize > 0 ? getRegionSizes(hbaseConf)
+                    : Collections.<byte[], Long>emptyMap();
+
             for (String tableName : getRepositoryHBaseTableNames(repository.getTableManager(),
                     jobContext.getConfiguration())) {
                 HTable table = new HTable(hbaseConf, tableName);
                 try {
-                    inputSplits.addAll(getSplits(table, startRow, stopRow));
+                    inputSplits.addAll(getSplits(table, startRow, stopRow, regionSizes, targetSize));
                 } finally {
                     Closer.close(table);
                 }
@@ -177,6 +205,25 @@ public abstract class AbstractLilyScanInputFormat<KEYIN, VALUEIN> extends InputF
 
     }
 
+    /**
+     * Returns the size of the store files of each region, by region name.
+     */
+    private Map<byte[], Long> getRegionSizes(Configuration hbaseConf) throws IOException {
+        Map<byte[], Long> regionSizes = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+        HBaseAdmin hbaseAdmin = new HBaseAdmin(hbaseConf);
+        try {
+            ClusterStatus clusterStatus = hbaseAdmin.getClusterStatus();
+            for (ServerName server : clusterStatus.getServers()) {
+                for (HServerLoad.RegionLoad regionLoad : clusterStatus.getLoad(server).getRegionsLoad().values()) {
+                    regionSizes.put(regionLoad.getName(), regionLoad.getStorefileSizeMB() * 1024L * 1024L);
+                }
+            }
+        } finally {
+            Closer.close(hbaseAdmin);
+        }
+        return regionSizes;
+    }
+
     /**
      * License note: this code was copied from HBase's TableInputFormat.
      *
@@ -184,6 +231,18 @@ public abstract class AbstractLilyScanInputFormat<KEYIN, VALUEIN> extends InputF
      * @param stopRow stop row of the scan
      */
     public List<InputSplit> getSplits(HTable table, final byte[] startRow, final byte[] stopRow) throws IOException {
+        return getSplits(table, startRow, stopRow, Collections.<byte[], Long>emptyMap(), 0);
+    }
+
+    /**
+     * Creates the splits for a table. Regions which are larger than the target size are divided over multiple
+     * splits.
+     *
+     * @param regionSizes size in bytes of the regions, by region name
+     * @param targetSize targeted size of a split in bytes, 0 for one split per region
+     */
+    public List<InputSplit> getSplits(HTable table, final byte[] startRow, final byte[] stopRow,
+            Map<byte[], Long> regionSizes, long targetSize) throws IOException {
         if (table == null) {
             throw new IOException("No table was provided.");
         }
@@ -198,8 +257,8 @@ public abstract class AbstractLilyScanInputFormat<KEYIN, VALUEIN> extends InputF
             if ( !includeRegionInSplit(keys.getFirst()[i], keys.getSecond()[i])) {
                 continue;
             }
-            String regionLocation = table.getRegionLocation(keys.getFirst()[i]).
-                    getServerAddress().getHostname();
+            HRegionLocation location = table.getRegionLocation(keys.getFirst()[i]);
+            String regionLocation = location.getHostname();
             // determine if the given start an stop key fall into the region
             if ((startRow.length == 0 || keys.getSecond()[i].length == 0 ||
                     Bytes.compareTo(startRow, keys.getSecond()[i]) < 0) &&
@@ -212,17 +271,140 @@ public abstract class AbstractLilyScanInputFormat<KEYIN, VALUEIN> extends InputF
                         Bytes.compareTo(keys.getSecond()[i], stopRow) <= 0) &&
                         keys.getSecond()[i].length > 0 ?
                         keys.getSecond()[i] : stopRow;
-                InputSplit split = new TableSplit(table.getTableName(),
-                        splitStart, splitStop, regionLocation);
-                splits.add(split);
-                if (log.isDebugEnabled()) {
-                    log.debug("getSplits: split -> " + (count++) + " -> " + split);
+
+                Long regionSize = regionSizes.get(location.getRegionInfo().getRegionName());
+                long size = regionSize != null ? regionSize : 0;
+                int splitCount = 1;
+                if (targetSize > 0 && size > targetSize) {
+                    splitCount = (int)Math.min((size + targetSize - 1) / targetSize, MAX_SPLITS_PER_REGION);
+                }
+
+                byte[][] boundaries = getSplitBoundaries(table, splitStart, splitStop, splitCount);
+                for (int j = 0; j < boundaries.length - 1; j++) {
+                    InputSplit split = new SizedTableSplit(table.getTableName(), boundaries[j], boundaries[j + 1],
+                            regionLocation, location.getHostnamePort(), size / (boundaries.length - 1));
+                    splits.add(split);
+                    if (log.isDebugEnabled()) {
+                        log.debug("getSplits: split -> " + (count++) + " -> " + split);
+                    }
                 }
             }
         }
         return splits;
     }
 
+    /**
+     * Divides the given part of a region in the given number of ranges, and returns the boundaries of these
+     * ranges. The boundaries are estimated by interpolating between the first row and the end of the range, so
+     * the ranges are only about as large as each other when the keys are evenly spread.
+     */
+    static byte[][] getSplitBoundaries(HTable table, byte[] start, byte[] stop, int splitCount)
+            throws IOException {
+        if (splitCount <= 1) {
+            return new byte[][] {start, stop};
+        }
+        return getSplitBoundaries(start, stop, getFirstRow(table, start, stop), splitCount);
+    }
+
+    /**
+     * Interpolates the boundaries of the given number of ranges between the first row of a part of a region and
+     * the end of that part, see {@link #getSplitBoundaries(HTable, byte[], byte[], int)}.
+     *
+     * @param firstRow first row in the range, null if the range contains no rows
+     */
+    static byte[][] getSplitBoundaries(byte[] start, byte[] stop, byte[] firstRow, int splitCount) {
+        byte[][] noSplits = new byte[][] {start, stop};
+        if (splitCount <= 1 || firstRow == null) {
+            return noSplits;
+        }
+
+        byte[] lower = firstRow;
+        // For the last region, interpolate up to the end of the record id type of the first row
+        byte[] upper = stop.length > 0 ? stop : new byte[] {lower[0], (byte)0xFF};
+        if (Bytes.compareTo(lower, upper) >= 0) {
+            return noSplits;
+        }
+
+        byte[][] boundaries = Bytes.split(lower, upper, splitCount - 1);
+        if (boundaries == null) {
+            // The range is too small to be split
+            return noSplits;
+        }
+        boundaries[0] = start;
+        boundaries[boundaries.length - 1] = stop;
+        return boundaries;
+    }
+
+    /**
+     * Returns the first row in the given range of the table, null if there is none.
+     */
+    static byte[] getFirstRow(HTable table, byte[] start, byte[] stop) throws IOException {
+        Scan scan = new Scan(start, stop);
+        scan.setFilter(new FirstKeyOnlyFilter());
+        scan.setCaching(1);
+        ResultScanner scanner = table.getScanner(scan);
+        try {
+            Result result = scanner.next();
+            return result != null ? result.getRow() : null;
+        } finally {
+            Closer.close(scanner);
+        }
+    }
+
+    /**
+     * Takes a slot on the region server of the split when the number of mappers per region server is limited,
+     * see {@link #MAX_MAPPERS_PER_SERVER}. Returns null when there is no limit, or when no slot became free
+     * within the {@link #MAX_MAPPERS_PER_SERVER_WAIT}.
+     */
+    protected RegionServerSlot acquireRegionServerSlot(TableSplit split, TaskAttemptContext taskAttemptContext)
+            throws ZkConnectException, KeeperException, InterruptedException {
+        int maxMappers = taskAttemptContext.getConfiguration().getInt(MAX_MAPPERS_PER_SERVER, 0);
+        if (maxMappers <= 0) {
+            return null;
+        }
+        long maxWait = taskAttemptContext.getConfiguration().getLong(MAX_MAPPERS_PER_SERVER_WAIT, 0);
+        String regionServer = split instanceof SizedTableSplit ?
+                ((SizedTableSplit)split).getRegionServer() : split.getRegionLocation();
+
+        ZooKeeperItf zk = ZkUtil.connect(zkConnectString, 30000);
+        try {
+            RegionServerSlot slot = RegionServerSlot.acquire(zk, taskAttemptContext.getJobID().toString(),
+                    regionServer, maxMappers, maxWait, taskAttemptContext);
+            if (slot == null) {
+                log.warn("No slot became free on region server " + regionServer + " within " + maxWait
+                        + " ms, scanning anyway");
+                Closer.close(zk);
+            }
+            return slot;
+        } catch (KeeperException e) {
+            Closer.close(zk);
+            throw e;
+        } catch (InterruptedException e) {
+            Closer.close(zk);
+            throw e;
+        }
+    }
+
+    protected static byte[] getStartRow(RecordScan scan) {
+        if (scan.getRawStartRecordId() != null) {
+            return scan.getRawStartRecordId();
+        } else if (scan.getStartRecordId() != null) {
+            return scan.getStartRecordId().toBytes();
+        } else {
+            return new byte[0];
+        }
+    }
+
+    protected static byte[] getStopRow(RecordScan scan) {
+        if (scan.getRawStopRecordId() != null) {
+            return scan.getRawStopRecordId();
+        } else if (scan.getStopRecordId() != null) {
+            return scan.getStopRecordId().toBytes();
+        } else {
+            return new byte[0];
+        }
+    }
+
     protected boolean includeRegionInSplit(final byte[] startKey, final byte [] endKey) {
         return true;
     }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.errorhandling.ForeignExceptionDispatcher;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.SnapshotDescription;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.snapshot.RestoreSnapshotHelper;
+import org.apache.hadoop.hbase.snapshot.SnapshotDescriptionUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSTableDescriptors;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.lilyproject.client.LilyClient;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.impl.BaseRepository;
+import org.lilyproject.repository.impl.RecordDecoder;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * A MapReduce InputFormat for Lily which reads the records from HBase table snapshots, rather than
+ * through the region servers. This keeps large batch jobs from competing with the online traffic.
+ *
+ * <p>The snapshots are restored to a directory of their own when setting up the job, see
+ * {@link LilyMapReduceUtil#initSnapshotMapperJob}. The mappers open the regions of this copy themselves and
+ * apply the filters of the {@link RecordScan} and the decoding of the records locally. A connection to Lily
+ * is still needed for the schema. The restored copy is not removed after the job, this is left to the
+ * caller.</p>
+ *
+ * <p>Since the HFiles are read directly, this requires read access to the HBase root directory, and no
+ * authorization is applied.</p>
+ */
+public abstract class AbstractLilySnapshotInputFormat<KEYIN, VALUEIN> extends AbstractLilyScanInputFormat<KEYIN, VALUEIN> {
+
+    /**
+     * Config key for the comma-separated list of snapshots to be read.
+     */
+    public static final String SNAPSHOTS = "lily.mapreduce.snapshots";
+
+    /**
+     * Config key for the directory to which the snapshots are restored, each in a subdirectory named after
+     * the snapshot.
+     */
+    public static final String SNAPSHOT_RESTORE_DIR = "lily.mapreduce.snapshot.restoredir";
+
+    /**
+     * Restores a snapshot to the given restore directory, so that its regions can be opened by the mappers.
+     * Only references to the HFiles of the snapshot are created, not copies.
+     */
+    public static void restoreSnapshot(Configuration hbaseConf, String snapshotName, Path restoreDir)
+            throws IOException {
+        Path rootDir = FSUtils.getRootDir(hbaseConf);
+        FileSystem fs = rootDir.getFileSystem(hbaseConf);
+
+        Path snapshotDir = SnapshotDescriptionUtils.getCompletedSnapshotDir(snapshotName, rootDir);
+        SnapshotDescription snapshot = SnapshotDescriptionUtils.readSnapshotInfo(fs, snapshotDir);
+        HTableDescriptor tableDescriptor = FSTableDescriptors.getTableDescriptor(fs, snapshotDir);
+
+        RestoreSnapshotHelper helper = new RestoreSnapshotHelper(hbaseConf, fs, snapshot, snapshotDir,
+                tableDescriptor, new Path(restoreDir, snapshotName), new ForeignExceptionDispatcher());
+        helper.restoreHdfsRegions();
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext jobContext) throws IOException, InterruptedException {
+        Configuration conf = jobContext.getConfiguration();
+        String[] snapshotNames = conf.getStrings(SNAPSHOTS);
+        if (snapshotNames == null || snapshotNames.length == 0) {
+            throw new IOException("Missing " + SNAPSHOTS + " in job conf.");
+        }
+        Path restoreDir = getRestoreDir(conf);
+        FileSystem fs = restoreDir.getFileSystem(conf);
+
+        LilyClient lilyClient = null;
+        List<InputSplit> inputSplits = Lists.newArrayList();
+        try {
+            // Need connection to Lily to parse RecordScan
+            try {
+                lilyClient = new LilyClient(zkConnectString, 30000);
+            } catch (Exception e) {
+                throw new IOException("Error setting up LilyClient", e);
+            }
+
+            LRepository repository = lilyClient.getRepository(repositoryName);
+            RecordScan scan = getScan(repository);
+            byte[] startRow = getStartRow(scan);
+            byte[] stopRow = getStopRow(scan);
+
+            for (String snapshotName : snapshotNames) {
+                Path tableDir = new Path(restoreDir, snapshotName);
+                for (FileStatus regionDir : fs.listStatus(tableDir, new FSUtils.RegionDirFilter(fs))) {
+                    HRegionInfo regionInfo = HRegion.loadDotRegionInfoFileContent(fs, regionDir.getPath());
+                    SnapshotRegionSplit split = createSplit(snapshotName, regionInfo, startRow, stopRow);
+                    if (split != null) {
+                        inputSplits.add(split);
+                        if (log.isDebugEnabled()) {
+                            log.debug("getSplits: split -> " + split);
+                        }
+                    }
+                }
+            }
+            return inputSplits;
+        } catch (Exception e) {
+            if (e instanceof IOException) {
+                throw (IOException)e;
+            } else if (e instanceof InterruptedException) {
+                throw (InterruptedException)e;
+            }
+            throw new IOException("Error setting up splits", e);
+        } finally {
+            Closer.close(lilyClient);
+        }
+    }
+
+    /**
+     * Returns the split for the part of the region within the scan range, or null if the region lies outside
+     * of the scan range.
+     */
+    private SnapshotRegionSplit createSplit(String snapshotName, HRegionInfo regionInfo, byte[] startRow,
+            byte[] stopRow) {
+        byte[] regionStart = regionInfo.getStartKey();
+        byte[] regionEnd = regionInfo.getEndKey();
+
+        if ((startRow.length == 0 || regionEnd.length == 0 || Bytes.compareTo(startRow, regionEnd) < 0) &&
+                (stopRow.length == 0 || Bytes.compareTo(stopRow, regionStart) > 0)) {
+            byte[] splitStart = startRow.length == 0 || Bytes.compareTo(regionStart, startRow) >= 0 ?
+                    regionStart : startRow;
+            byte[] splitStop = (stopRow.length == 0 || Bytes.compareTo(regionEnd, stopRow) <= 0) &&
+                    regionEnd.length > 0 ? regionEnd : stopRow;
+            return new SnapshotRegionSplit(snapshotName, regionInfo, splitStart, splitStop);
+        }
+        return null;
+    }
+
+    @Override
+    public RecordReader<KEYIN, VALUEIN> createRecordReader(InputSplit inputSplit,
+            TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
+        SnapshotRegionSplit split = (SnapshotRegionSplit)inputSplit;
+        Configuration conf = taskAttemptContext.getConfiguration();
+
+        LilyClient lilyClient;
+        try {
+            lilyClient = new LilyClient(zkConnectString, 30000);
+        } catch (Exception e) {
+            throw new IOException("Error setting up LilyClient", e);
+        }
+
+        ResultScanner scanner = null;
+        try {
+            Path rootDir = FSUtils.getRootDir(conf);
+            FileSystem fs = rootDir.getFileSystem(conf);
+            Path snapshotDir = SnapshotDescriptionUtils.getCompletedSnapshotDir(split.getSnapshotName(), rootDir);
+            HTableDescriptor tableDescriptor = FSTableDescriptors.getTableDescriptor(fs, snapshotDir);
+
+            // The plain table is the one which reads directly from HBase, which gives access to the HBase scan
+            // and the record decoding
+            String tableName = RepoAndTableUtil.extractLilyTableName(repositoryName,
+                    tableDescriptor.getNameAsString());
+            LTable table = lilyClient.getPlainTable(repositoryName, tableName);
+            if (!(table instanceof BaseRepository)) {
+                throw new IOException("Unexpected repository implementation: " + table.getClass().getName());
+            }
+            BaseRepository repository = (BaseRepository)table;
+
+            // Build RecordScan, limited to the current split
+            RecordScan recordScan = getScan(repository);
+            recordScan.setRawStartRecordId(split.getStartRow());
+            recordScan.setRawStopRecordId(split.getStopRow());
+            Scan scan = repository.createHBaseRecordScan(recordScan);
+
+            scanner = new SnapshotRegionResultScanner(conf, new Path(getRestoreDir(conf), split.getSnapshotName()),
+                    tableDescriptor, split.getRegionInfo(), scan);
+            return createRecordReader(lilyClient, scanner, repository.getRecordDecoder());
+        } catch (Exception e) {
+            Closer.close(scanner);
+            Closer.close(lilyClient);
+            if (e instanceof InterruptedException) {
+                throw (InterruptedException)e;
+            }
+            throw new IOException("Error setting up snapshot scanner for " + split, e);
+        }
+    }
+
+    protected abstract RecordReader<KEYIN, VALUEIN> createRecordReader(LilyClient lilyClient,
+            ResultScanner scanner, RecordDecoder recordDecoder);
+
+    private static Path getRestoreDir(Configuration conf) throws IOException {
+        String restoreDir = conf.get(SNAPSHOT_RESTORE_DIR);
+        if (restoreDir == null) {
+            throw new IOException("Missing " + SNAPSHOT_RESTORE_DIR + " in job conf.");
+        }
+        return new Path(restoreDir);
+    }
+}
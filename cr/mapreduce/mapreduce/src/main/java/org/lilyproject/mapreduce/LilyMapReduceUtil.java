@@ -15,10 +15,13 @@
  */
 package org.lilyproject.mapreduce;
 
+import java.io.IOException;
 import java.util.List;
 
 import com.google.common.base.Joiner;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.mapreduce.Job;
 import org.codehaus.jackson.JsonNode;
 import org.lilyproject.client.LilyClient;
@@ -27,7 +30,11 @@ import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.tools.import_.json.RecordScanWriter;
 import org.lilyproject.tools.import_.json.WriteOptions;
 import org.lilyproject.util.exception.ExceptionUtil;
+import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.json.JsonFormat;
+import org.lilyproject.util.zookeeper.ZkConnectException;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
 
 public class LilyMapReduceUtil {
     public static final String ZK_CONNECT_STRING = "lily.mapreduce.zookeeper";
@@ -85,6 +92,57 @@ public class LilyMapReduceUtil {
             job.getConfiguration().set(REPOSITORY_TABLES, Joiner.on(',').join(repositoryTables));
         }
 
+        setScan(scan, repository, job);
+    }
+
+    /**
+     * Set the necessary parameters inside the job configuration for using HBase snapshots of repository tables
+     * as input, see {@link AbstractLilySnapshotInputFormat}.
+     *
+     * <p>The snapshots are restored to subdirectories of the given restore directory, which should not be used
+     * for anything else. It is up to the caller to remove this directory once the job has finished.</p>
+     *
+     * @param snapshotNames names of snapshots of tables of the given repository
+     * @param restoreDir directory on the filesystem of HBase to which the snapshots are restored
+     */
+    public static void initSnapshotMapperJob(RecordScan scan, boolean returnIdRecords, String zooKeeperConnectString,
+            LRepository repository, Job job, List<String> snapshotNames, Path restoreDir)
+            throws IOException, InterruptedException {
+        if (returnIdRecords) {
+            job.setInputFormatClass(LilyIdSnapshotInputFormat.class);
+        } else {
+            job.setInputFormatClass(LilySnapshotInputFormat.class);
+        }
+
+        job.getConfiguration().set(ZK_CONNECT_STRING, zooKeeperConnectString);
+
+        job.getConfiguration().set(REPOSITORY_NAME, repository.getRepositoryName());
+
+        ZooKeeperItf zk = null;
+        try {
+            zk = ZkUtil.connect(zooKeeperConnectString, 30000);
+            Configuration hbaseConf = LilyClient.getHBaseConfiguration(zk);
+
+            restoreDir = restoreDir.getFileSystem(hbaseConf).makeQualified(restoreDir);
+            for (String snapshotName : snapshotNames) {
+                AbstractLilySnapshotInputFormat.restoreSnapshot(hbaseConf, snapshotName, restoreDir);
+            }
+
+            // The mappers need the HBase root directory to find the files referenced by the restored snapshots
+            job.getConfiguration().set(HConstants.HBASE_DIR, hbaseConf.get(HConstants.HBASE_DIR));
+        } catch (ZkConnectException e) {
+            throw new IOException("Error restoring snapshots", e);
+        } finally {
+            Closer.close(zk);
+        }
+
+        job.getConfiguration().set(AbstractLilySnapshotInputFormat.SNAPSHOT_RESTORE_DIR, restoreDir.toString());
+        job.getConfiguration().set(AbstractLilySnapshotInputFormat.SNAPSHOTS, Joiner.on(',').join(snapshotNames));
+
+        setScan(scan, repository, job);
+    }
+
+    private static void setScan(RecordScan scan, LRepository repository, Job job) {
         if (scan != null) {
             try {
                 JsonNode node = RecordScanWriter.INSTANCE.toJson(scan, new WriteOptions(), repository);
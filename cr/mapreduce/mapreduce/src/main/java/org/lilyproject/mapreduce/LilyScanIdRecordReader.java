@@ -32,14 +32,24 @@ import org.lilyproject.util.io.Closer;
 public class LilyScanIdRecordReader extends RecordReader<RecordIdWritable, IdRecordWritable> {
     private LilyClient lilyClient;
     private IdRecordScanner scanner;
+    private RegionServerSlot regionServerSlot;
     private IdRecord currentRecord;
 
     private RecordIdWritable recordId = new RecordIdWritable();
     private IdRecordWritable record = new IdRecordWritable();
 
     public LilyScanIdRecordReader(LilyClient lilyClient, IdRecordScanner scanner) {
+        this(lilyClient, scanner, null);
+    }
+
+    /**
+     * @param regionServerSlot slot held for scanning the region server, released when closing this reader,
+     *                         can be null
+     */
+    public LilyScanIdRecordReader(LilyClient lilyClient, IdRecordScanner scanner, RegionServerSlot regionServerSlot) {
         this.lilyClient = lilyClient;
         this.scanner = scanner;
+        this.regionServerSlot = regionServerSlot;
     }
 
     @Override
@@ -78,5 +88,6 @@ public class LilyScanIdRecordReader extends RecordReader<RecordIdWritable, IdRec
     public void close() throws IOException {
         Closer.close(scanner);
         Closer.close(lilyClient);
+        Closer.close(regionServerSlot);
     }
 }
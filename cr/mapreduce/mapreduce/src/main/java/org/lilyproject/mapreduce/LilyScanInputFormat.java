@@ -63,6 +63,18 @@ public class LilyScanInputFormat extends AbstractLilyScanInputFormat<RecordIdWri
         scan.setRawStartRecordId(split.getStartRow());
         scan.setRawStopRecordId(split.getEndRow());
 
+        // Wait for our turn on the region server before opening the scanner, which would otherwise expire
+        RegionServerSlot regionServerSlot;
+        try {
+            regionServerSlot = acquireRegionServerSlot(split, taskAttemptContext);
+        } catch (Exception e) {
+            Closer.close(lilyClient);
+            if (e instanceof InterruptedException) {
+                throw (InterruptedException)e;
+            }
+            throw new IOException("Error acquiring region server slot", e);
+        }
+
         RecordScanner scanner = null;
         try {
             String hbaseTableName = Bytes.toString(split.getTableName());
@@ -70,9 +82,10 @@ public class LilyScanInputFormat extends AbstractLilyScanInputFormat<RecordIdWri
             scanner = lilyClient.getRepository(repositoryName).getTable(repositoryTableName).getScanner(scan);
         } catch (RepositoryException e) {
             Closer.close(lilyClient);
+            Closer.close(regionServerSlot);
             throw new IOException("Error setting up RecordScanner", e);
         }
 
-        return new LilyScanRecordReader(lilyClient, scanner);
+        return new LilyScanRecordReader(lilyClient, scanner, regionServerSlot);
     }
 }
@@ -32,14 +32,24 @@ import org.lilyproject.util.io.Closer;
 public class LilyScanRecordReader extends RecordReader<RecordIdWritable, RecordWritable> {
     private LilyClient lilyClient;
     private RecordScanner scanner;
+    private RegionServerSlot regionServerSlot;
     private Record currentRecord;
 
     private RecordIdWritable recordId = new RecordIdWritable();
     private RecordWritable record = new RecordWritable();
 
     public LilyScanRecordReader(LilyClient lilyClient, RecordScanner scanner) {
+        this(lilyClient, scanner, null);
+    }
+
+    /**
+     * @param regionServerSlot slot held for scanning the region server, released when closing this reader,
+     *                         can be null
+     */
+    public LilyScanRecordReader(LilyClient lilyClient, RecordScanner scanner, RegionServerSlot regionServerSlot) {
         this.lilyClient = lilyClient;
         this.scanner = scanner;
+        this.regionServerSlot = regionServerSlot;
     }
 
     @Override
@@ -78,5 +88,6 @@ public class LilyScanRecordReader extends RecordReader<RecordIdWritable, RecordW
     public void close() throws IOException {
         Closer.close(scanner);
         Closer.close(lilyClient);
+        Closer.close(regionServerSlot);
     }
 }
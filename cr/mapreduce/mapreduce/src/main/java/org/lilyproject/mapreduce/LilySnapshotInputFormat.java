@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.lilyproject.client.LilyClient;
+import org.lilyproject.repository.impl.HBaseRecordScannerImpl;
+import org.lilyproject.repository.impl.RecordDecoder;
+
+/**
+ * A MapReduce InputFormat for Lily based on HBase table snapshots, see {@link AbstractLilySnapshotInputFormat}.
+ */
+public class LilySnapshotInputFormat extends AbstractLilySnapshotInputFormat<RecordIdWritable, RecordWritable> {
+
+    @Override
+    protected RecordReader<RecordIdWritable, RecordWritable> createRecordReader(LilyClient lilyClient,
+            ResultScanner scanner, RecordDecoder recordDecoder) {
+        return new LilyScanRecordReader(lilyClient, new HBaseRecordScannerImpl(scanner, recordDecoder));
+    }
+}
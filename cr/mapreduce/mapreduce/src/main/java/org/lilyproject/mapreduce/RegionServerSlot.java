@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.Progressable;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+import org.lilyproject.util.zookeeper.ZooKeeperOperation;
+
+/**
+ * One of a limited number of slots to scan a region server, shared by the map tasks of a job. This caps the
+ * number of mappers that concurrently scan the same region server, which would otherwise be the case for the
+ * splits of a large region.
+ *
+ * <p>Slots are ephemeral sequential nodes in ZooKeeper: a task holds a slot when its node is among the
+ * first ones. The slot is released when closed, or when the session of the task ends.</p>
+ *
+ * <p>A task waiting for a slot keeps its task slot of the MapReduce cluster while waiting, so with a low
+ * maximum the waiting tasks can keep the cluster from running tasks of other jobs, or tasks of the same job
+ * scanning other region servers. The wait can be capped, after which the task scans without a slot.</p>
+ */
+public class RegionServerSlot implements Closeable {
+    private static final String SLOTS_PATH = "/lily/mapreduce/slots";
+    private static final long POLL_INTERVAL = 1000;
+    private static final int SEQUENCE_LENGTH = 10;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ZooKeeperItf zk;
+    private final String serverPath;
+    private final String slotPath;
+
+    private RegionServerSlot(ZooKeeperItf zk, String serverPath, String slotPath) {
+        this.zk = zk;
+        this.serverPath = serverPath;
+        this.slotPath = slotPath;
+    }
+
+    /**
+     * Waits until one of the slots of the given region server is free and takes it.
+     *
+     * @param zk ZooKeeper handle, which is closed when the slot is released
+     * @param regionServer the region server, as host and port
+     * @param maxWait maximum time to wait for a slot in milliseconds, 0 to wait until one is free
+     * @param progress reported while waiting, to avoid that the task would time out
+     * @return null if no slot became free within the maximum wait time, the ZooKeeper handle is then not closed
+     */
+    public static RegionServerSlot acquire(final ZooKeeperItf zk, String jobId, String regionServer, int maxSlots,
+            long maxWait, Progressable progress) throws InterruptedException, KeeperException {
+        final String serverPath = SLOTS_PATH + "/" + jobId + "/" + regionServer;
+        // The prefix is unique to this task, so that it can find out if its node was created when the connection
+        // was lost while creating it
+        final String slotPrefix = "slot-" + UUID.randomUUID() + "-";
+        String slotPath = null;
+        while (slotPath == null) {
+            ZkUtil.createPath(zk, serverPath);
+            try {
+                slotPath = zk.retryOperation(new ZooKeeperOperation<String>() {
+                    @Override
+                    public String execute() throws KeeperException, InterruptedException {
+                        for (String slot : zk.getChildren(serverPath, false)) {
+                            if (slot.startsWith(slotPrefix)) {
+                                return serverPath + "/" + slot;
+                            }
+                        }
+                        return zk.create(serverPath + "/" + slotPrefix, null, ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                CreateMode.EPHEMERAL_SEQUENTIAL);
+                    }
+                });
+            } catch (KeeperException.NoNodeException e) {
+                // The server node was removed by a task releasing the last slot in the meantime
+            }
+        }
+        String slotName = slotPath.substring(serverPath.length() + 1);
+
+        long waitUntil = maxWait > 0 ? System.currentTimeMillis() + maxWait : Long.MAX_VALUE;
+        while (true) {
+            List<String> slots = zk.retryOperation(new ZooKeeperOperation<List<String>>() {
+                @Override
+                public List<String> execute() throws KeeperException, InterruptedException {
+                    return zk.getChildren(serverPath, false);
+                }
+            });
+            Collections.sort(slots, SEQUENCE_COMPARATOR);
+            if (slots.indexOf(slotName) < maxSlots) {
+                return new RegionServerSlot(zk, serverPath, slotPath);
+            }
+            if (System.currentTimeMillis() >= waitUntil) {
+                new RegionServerSlot(zk, serverPath, slotPath).release();
+                return null;
+            }
+            progress.progress();
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    /**
+     * Orders the slot nodes by their sequence number, which is the order of creation.
+     */
+    private static final Comparator<String> SEQUENCE_COMPARATOR = new Comparator<String>() {
+        @Override
+        public int compare(String slot1, String slot2) {
+            return slot1.substring(slot1.length() - SEQUENCE_LENGTH).compareTo(
+                    slot2.substring(slot2.length() - SEQUENCE_LENGTH));
+        }
+    };
+
+    @Override
+    public void close() {
+        try {
+            release();
+        } finally {
+            zk.close();
+        }
+    }
+
+    private void release() {
+        try {
+            zk.delete(slotPath, -1);
+            // Remove the nodes of the server and the job once nobody uses them anymore
+            deleteIfEmpty(serverPath);
+            deleteIfEmpty(serverPath.substring(0, serverPath.lastIndexOf('/')));
+        } catch (Exception e) {
+            log.warn("Error releasing region server slot " + slotPath, e);
+        }
+    }
+
+    private void deleteIfEmpty(String path) throws InterruptedException, KeeperException {
+        try {
+            zk.delete(path, -1);
+        } catch (KeeperException.NotEmptyException e) {
+            // still in use
+        } catch (KeeperException.NoNodeException e) {
+            // already removed
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.mapreduce.TableSplit;
+
+/**
+ * A TableSplit which knows the (estimated) number of bytes it covers. MapReduce schedules the largest splits
+ * first, so that these don't end up as stragglers.
+ *
+ * <p>Besides the host name used as location, it also knows the host and port of the region server, since
+ * multiple region servers can run on the same host.</p>
+ */
+public class SizedTableSplit extends TableSplit {
+    private long length;
+    private String regionServer;
+
+    /**
+     * Nullary constructor, for Writable
+     */
+    public SizedTableSplit() {
+    }
+
+    /**
+     * @param regionServer host and port of the region server
+     */
+    public SizedTableSplit(byte[] tableName, byte[] startRow, byte[] endRow, String location, String regionServer,
+            long length) {
+        super(tableName, startRow, endRow, location);
+        this.regionServer = regionServer;
+        this.length = length;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the host and port of the region server.
+     */
+    public String getRegionServer() {
+        return regionServer;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        out.writeLong(length);
+        out.writeUTF(regionServer);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        super.readFields(in);
+        length = in.readLong();
+        regionServer = in.readUTF();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + ", regionServer=" + regionServer + ", length=" + length;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.collect.AbstractIterator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+
+/**
+ * A ResultScanner which reads the rows of a region directly from its files, without a region server.
+ * Used to read the regions of a restored table snapshot, see {@link AbstractLilySnapshotInputFormat}.
+ *
+ * <p>The region is opened in the scope of this scanner, so it must not be in use by a region server, which is
+ * why the snapshot is first restored to a directory of its own. It is opened with a read-only copy of the
+ * table descriptor, so that it never flushes or compacts into the restored files.</p>
+ */
+public class SnapshotRegionResultScanner implements ResultScanner {
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final HRegion region;
+    private final RegionScanner scanner;
+    private final List<KeyValue> values = new ArrayList<KeyValue>();
+    private boolean hasMore = true;
+
+    public SnapshotRegionResultScanner(Configuration conf, Path tableDir, HTableDescriptor tableDescriptor,
+            HRegionInfo regionInfo, Scan scan) throws IOException {
+        // Blocks are read only once, caching them would only evict the useful ones
+        scan.setCacheBlocks(false);
+
+        HTableDescriptor readOnlyDescriptor = new HTableDescriptor(tableDescriptor);
+        readOnlyDescriptor.setReadOnly(true);
+        region = HRegion.openHRegion(tableDir, regionInfo, readOnlyDescriptor, null, conf);
+        try {
+            scanner = region.getScanner(scan);
+        } catch (IOException e) {
+            region.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Result next() throws IOException {
+        while (hasMore) {
+            values.clear();
+            hasMore = scanner.next(values);
+            if (!values.isEmpty()) {
+                return new Result(new ArrayList<KeyValue>(values));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+        List<Result> results = new ArrayList<Result>(nbRows);
+        Result result;
+        while (results.size() < nbRows && (result = next()) != null) {
+            results.add(result);
+        }
+        return results.toArray(new Result[results.size()]);
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+        return new AbstractIterator<Result>() {
+            @Override
+            protected Result computeNext() {
+                try {
+                    Result result = next();
+                    return result != null ? result : endOfData();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        try {
+            scanner.close();
+        } catch (IOException e) {
+            log.error("Error closing region scanner of " + region.getRegionNameAsString(), e);
+        }
+        try {
+            region.close();
+        } catch (IOException e) {
+            log.error("Error closing region " + region.getRegionNameAsString(), e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * An input split covering (part of) one region of a restored table snapshot. Used by
+ * {@link AbstractLilySnapshotInputFormat}.
+ */
+public class SnapshotRegionSplit extends InputSplit implements Writable {
+    private String snapshotName;
+    private HRegionInfo regionInfo;
+    private byte[] startRow;
+    private byte[] stopRow;
+
+    /**
+     * Nullary constructor, for Writable
+     */
+    public SnapshotRegionSplit() {
+        regionInfo = new HRegionInfo();
+    }
+
+    public SnapshotRegionSplit(String snapshotName, HRegionInfo regionInfo, byte[] startRow, byte[] stopRow) {
+        this.snapshotName = snapshotName;
+        this.regionInfo = regionInfo;
+        this.startRow = startRow;
+        this.stopRow = stopRow;
+    }
+
+    public String getSnapshotName() {
+        return snapshotName;
+    }
+
+    public HRegionInfo getRegionInfo() {
+        return regionInfo;
+    }
+
+    public byte[] getStartRow() {
+        return startRow;
+    }
+
+    public byte[] getStopRow() {
+        return stopRow;
+    }
+
+    @Override
+    public long getLength() throws IOException, InterruptedException {
+        // Not known without looking at the store files, same as for TableSplit
+        return 0;
+    }
+
+    @Override
+    public String[] getLocations() throws IOException, InterruptedException {
+        // The store files of a snapshot are spread over the cluster, there is no preferred host
+        return new String[0];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(snapshotName);
+        regionInfo.write(out);
+        Bytes.writeByteArray(out, startRow);
+        Bytes.writeByteArray(out, stopRow);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        snapshotName = in.readUTF();
+        regionInfo = new HRegionInfo();
+        regionInfo.readFields(in);
+        startRow = Bytes.readByteArray(in);
+        stopRow = Bytes.readByteArray(in);
+    }
+
+    @Override
+    public String toString() {
+        return snapshotName + ":" + regionInfo.getRegionNameAsString() + "," + Bytes.toStringBinary(startRow)
+                + "," + Bytes.toStringBinary(stopRow);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.HBaseProxy;
+import org.lilyproject.hadooptestfw.TestHelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AbstractLilyScanInputFormatTest {
+    private static HBaseProxy HBASE_PROXY;
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] FAMILY = Bytes.toBytes("data");
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging();
+        HBASE_PROXY = new HBaseProxy();
+        HBASE_PROXY.start();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        HBASE_PROXY.stop();
+    }
+
+    @Test
+    public void testInterpolation() {
+        byte[] start = new byte[] {1, 0};
+        byte[] stop = new byte[] {2};
+        // the first row is at 0x0120 and the stop row is padded to 0x0200: half way is 0x0190
+        byte[][] boundaries = AbstractLilyScanInputFormat.getSplitBoundaries(start, stop, new byte[] {1, 0x20}, 2);
+
+        assertEquals(3, boundaries.length);
+        assertArrayEquals(start, boundaries[0]);
+        assertArrayEquals(new byte[] {1, (byte)0x90}, boundaries[1]);
+        assertArrayEquals(stop, boundaries[2]);
+    }
+
+    @Test
+    public void testInterpolationEmptyStartAndStop() {
+        // For the last region, the interpolation goes up to the end of the record id type of the first row
+        byte[][] boundaries = AbstractLilyScanInputFormat.getSplitBoundaries(EMPTY, EMPTY, new byte[] {1, 0x10}, 4);
+
+        assertEquals(5, boundaries.length);
+        assertArrayEquals(EMPTY, boundaries[0]);
+        assertArrayEquals(new byte[] {1, 0x4B}, boundaries[1]);
+        assertArrayEquals(new byte[] {1, (byte)0x86}, boundaries[2]);
+        assertArrayEquals(new byte[] {1, (byte)0xC1}, boundaries[3]);
+        assertArrayEquals(EMPTY, boundaries[4]);
+    }
+
+    @Test
+    public void testNoInterpolation() {
+        byte[] start = new byte[] {1, 0x10};
+        byte[] stop = new byte[] {1, 0x11};
+
+        // one split
+        assertBoundaries(start, stop, AbstractLilyScanInputFormat.getSplitBoundaries(start, stop, start, 1));
+        // no rows in the range
+        assertBoundaries(start, stop, AbstractLilyScanInputFormat.getSplitBoundaries(start, stop, null, 4));
+        // range too small to be split
+        assertBoundaries(start, stop, AbstractLilyScanInputFormat.getSplitBoundaries(start, stop, start, 4));
+        // first row at the end of the record id type of the last region
+        assertBoundaries(EMPTY, EMPTY,
+                AbstractLilyScanInputFormat.getSplitBoundaries(EMPTY, EMPTY, new byte[] {1, (byte)0xFF}, 4));
+    }
+
+    @Test
+    public void testSplitBoundariesOfTable() throws Exception {
+        HTable table = createTable("splitBoundaries");
+        try {
+            // an empty table is not split
+            assertNull(AbstractLilyScanInputFormat.getFirstRow(table, EMPTY, EMPTY));
+            assertBoundaries(EMPTY, EMPTY, AbstractLilyScanInputFormat.getSplitBoundaries(table, EMPTY, EMPTY, 4));
+
+            put(table, new byte[] {1, 0x10});
+            put(table, new byte[] {1, 0x20, 5});
+            put(table, new byte[] {1, 0x30});
+
+            // first row for empty start and stop keys, and within a range
+            assertArrayEquals(new byte[] {1, 0x10}, AbstractLilyScanInputFormat.getFirstRow(table, EMPTY, EMPTY));
+            assertArrayEquals(new byte[] {1, 0x20, 5},
+                    AbstractLilyScanInputFormat.getFirstRow(table, new byte[] {1, 0x11}, new byte[] {1, 0x30}));
+            assertNull(AbstractLilyScanInputFormat.getFirstRow(table, new byte[] {1, 0x31}, EMPTY));
+
+            // empty start and stop keys: interpolated from the first row
+            byte[][] boundaries = AbstractLilyScanInputFormat.getSplitBoundaries(table, EMPTY, EMPTY, 4);
+            assertEquals(5, boundaries.length);
+            assertArrayEquals(EMPTY, boundaries[0]);
+            assertArrayEquals(new byte[] {1, 0x4B}, boundaries[1]);
+            assertArrayEquals(EMPTY, boundaries[4]);
+
+            // a range with a single row is not split
+            byte[] start = new byte[] {1, 0x20};
+            byte[] stop = new byte[] {1, 0x20, 6};
+            assertBoundaries(start, stop, AbstractLilyScanInputFormat.getSplitBoundaries(table, start, stop, 4));
+        } finally {
+            table.close();
+        }
+    }
+
+    private void assertBoundaries(byte[] start, byte[] stop, byte[][] boundaries) {
+        assertEquals(2, boundaries.length);
+        assertArrayEquals(start, boundaries[0]);
+        assertArrayEquals(stop, boundaries[1]);
+    }
+
+    private HTable createTable(String name) throws Exception {
+        HBaseAdmin admin = new HBaseAdmin(HBASE_PROXY.getConf());
+        try {
+            HTableDescriptor tableDescr = new HTableDescriptor(name);
+            tableDescr.addFamily(new HColumnDescriptor(FAMILY));
+            admin.createTable(tableDescr);
+        } finally {
+            admin.close();
+        }
+        return new HTable(HBASE_PROXY.getConf(), name);
+    }
+
+    private void put(HTable table, byte[] row) throws Exception {
+        Put put = new Put(row);
+        put.add(FAMILY, Bytes.toBytes("q"), Bytes.toBytes("value"));
+        table.put(put);
+    }
+}
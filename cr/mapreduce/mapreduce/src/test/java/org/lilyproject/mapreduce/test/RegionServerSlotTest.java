@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce.test;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.zookeeper.MiniZooKeeperCluster;
+import org.apache.hadoop.util.Progressable;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.mapreduce.RegionServerSlot;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.net.NetUtils;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RegionServerSlotTest {
+    private static MiniZooKeeperCluster ZK_CLUSTER;
+    private static File ZK_DIR;
+    private static int ZK_CLIENT_PORT;
+    private static ZooKeeperItf ZK;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging("org.lilyproject.mapreduce");
+
+        ZK_DIR = new File(System.getProperty("java.io.tmpdir") + File.separator + "lily.regionserverslottest");
+        ZK_CLIENT_PORT = NetUtils.getFreePort();
+
+        ZK_CLUSTER = new MiniZooKeeperCluster();
+        ZK_CLUSTER.setDefaultClientPort(ZK_CLIENT_PORT);
+        ZK_CLUSTER.startup(ZK_DIR);
+
+        ZK = connect();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        Closer.close(ZK);
+        if (ZK_CLUSTER != null) {
+            ZK_CLUSTER.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxSlots() throws Exception {
+        final CountingProgressable progress = new CountingProgressable();
+
+        // Each task has its own ZooKeeper session, which is closed when the slot is released
+        RegionServerSlot slot1 = RegionServerSlot.acquire(connect(), "job1", "server1", 2, 0, progress);
+        RegionServerSlot slot2 = RegionServerSlot.acquire(connect(), "job1", "server1", 2, 0, progress);
+        assertEquals(0, progress.count.get());
+
+        // The slots of other region servers and other jobs are not limited by these
+        RegionServerSlot.acquire(connect(), "job1", "server2", 2, 0, progress).close();
+        RegionServerSlot.acquire(connect(), "job2", "server1", 2, 0, progress).close();
+        assertEquals(0, progress.count.get());
+
+        // All slots are taken: the third task waits
+        final Variable<RegionServerSlot> slot3 = new Variable<RegionServerSlot>();
+        final Variable<Throwable> throwable = new Variable<Throwable>();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    slot3.value = RegionServerSlot.acquire(connect(), "job1", "server1", 2, 0, progress);
+                } catch (Throwable t) {
+                    throwable.value = t;
+                }
+            }
+        });
+        t.start();
+
+        Thread.sleep(3000);
+        assertNull(slot3.value);
+        assertTrue(t.isAlive());
+        // the waiting task reports progress, so that it doesn't time out
+        assertTrue(progress.count.get() > 0);
+
+        // Releasing a slot lets the third task in
+        slot1.close();
+        t.join(10000);
+        assertFalse(t.isAlive());
+        assertNull(throwable.value);
+        assertNotNull(slot3.value);
+
+        slot2.close();
+        slot3.value.close();
+
+        // Once all slots are released, nothing is left behind for the job
+        assertNull(ZK.exists("/lily/mapreduce/slots/job1", false));
+        assertNull(ZK.exists("/lily/mapreduce/slots/job2", false));
+    }
+
+    @Test
+    public void testMaxWait() throws Exception {
+        CountingProgressable progress = new CountingProgressable();
+        RegionServerSlot slot1 = RegionServerSlot.acquire(connect(), "job3", "server1:60020", 1, 0, progress);
+
+        // No slot becomes free within the maximum wait time
+        ZooKeeperItf zk = connect();
+        long before = System.currentTimeMillis();
+        assertNull(RegionServerSlot.acquire(zk, "job3", "server1:60020", 1, 2000, progress));
+        assertTrue(System.currentTimeMillis() - before >= 2000);
+        zk.close();
+
+        // The node of the waiting task was removed, so it doesn't hold up the next one
+        assertEquals(1, ZK.getChildren("/lily/mapreduce/slots/job3/server1:60020", false).size());
+        slot1.close();
+        RegionServerSlot.acquire(connect(), "job3", "server1:60020", 1, 2000, progress).close();
+        assertNull(ZK.exists("/lily/mapreduce/slots/job3", false));
+    }
+
+    private static ZooKeeperItf connect() throws Exception {
+        return ZkUtil.connect("localhost:" + ZK_CLIENT_PORT, 30000);
+    }
+
+    private static class CountingProgressable implements Progressable {
+        private AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void progress() {
+            count.incrementAndGet();
+        }
+    }
+
+    public static class Variable<T> {
+        public volatile T value;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lilyproject.mapreduce.SizedTableSplit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SizedTableSplitTest {
+    @Test
+    public void testSerializationRoundTrip() throws Exception {
+        SizedTableSplit split1 = new SizedTableSplit(Bytes.toBytes("record"), Bytes.toBytes("c"), Bytes.toBytes("m"),
+                "server1", "server1:60020", 5L * 1024 * 1024 * 1024);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        split1.write(new DataOutputStream(bos));
+
+        SizedTableSplit split2 = new SizedTableSplit();
+        split2.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+
+        assertArrayEquals(Bytes.toBytes("record"), split2.getTableName());
+        assertArrayEquals(Bytes.toBytes("c"), split2.getStartRow());
+        assertArrayEquals(Bytes.toBytes("m"), split2.getEndRow());
+        assertEquals("server1", split2.getRegionLocation());
+        assertEquals("server1:60020", split2.getRegionServer());
+        assertEquals(5L * 1024 * 1024 * 1024, split2.getLength());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lilyproject.mapreduce.SnapshotRegionSplit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SnapshotRegionSplitTest {
+    @Test
+    public void testSerializationRoundTrip() throws Exception {
+        HRegionInfo regionInfo = new HRegionInfo(Bytes.toBytes("record"), Bytes.toBytes("a"), Bytes.toBytes("m"));
+        SnapshotRegionSplit split1 = new SnapshotRegionSplit("snapshot1", regionInfo, Bytes.toBytes("c"),
+                Bytes.toBytes("m"));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        split1.write(new DataOutputStream(bos));
+
+        SnapshotRegionSplit split2 = new SnapshotRegionSplit();
+        split2.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+
+        assertEquals("snapshot1", split2.getSnapshotName());
+        assertEquals(regionInfo, split2.getRegionInfo());
+        assertArrayEquals(Bytes.toBytes("c"), split2.getStartRow());
+        assertArrayEquals(Bytes.toBytes("m"), split2.getStopRow());
+    }
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import com.google.common.collect.Lists;
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HConnectionManager;
@@ -271,6 +272,55 @@ public class MapReduceTest {
             */
         }
 
+        //
+        // Launch a job on a snapshot of the record table of the default repository
+        //
+        {
+            Configuration hbaseConf = HBaseConfiguration.create();
+            hbaseConf.set("hbase.zookeeper.quorum", "localhost");
+            HBaseAdmin hbaseAdmin = new HBaseAdmin(hbaseConf);
+            hbaseAdmin.snapshot("record-snapshot", "record");
+
+            // Records created after taking the snapshot are not seen by the job
+            table.recordBuilder()
+                    .id("snapshot-test")
+                    .recordType(rt1.getName())
+                    .field(ft1.getName(), "foo bar bar")
+                    .create();
+
+            Configuration config = HBaseConfiguration.create();
+
+            config.set("mapred.job.tracker", "localhost:8021");
+            config.set("fs.defaultFS", "hdfs://localhost:8020");
+
+            Job job = new Job(config, "Test1");
+            job.setJarByClass(Test1Mapper.class);
+
+            job.setMapperClass(Test1Mapper.class);
+
+            job.setOutputFormatClass(NullOutputFormat.class);
+
+            job.setNumReduceTasks(0);
+
+            Path restoreDir = new Path("/tmp/lily-mapreduce-test-restore");
+            LilyMapReduceUtil.initSnapshotMapperJob(null, false, "localhost", repository, job,
+                    Lists.newArrayList("record-snapshot"), restoreDir);
+
+            boolean b = job.waitForCompletion(true);
+            if (!b) {
+                throw new IOException("error with job!");
+            }
+
+            // Verify some counters
+            assertEquals("Number of launched map tasks", 5L, getTotalLaunchedMaps(job));
+            assertEquals("Number of input records", 100L, getTotalInputRecords(job));
+
+            restoreDir.getFileSystem(config).delete(restoreDir, true);
+            hbaseAdmin.deleteSnapshot("record-snapshot");
+            table.delete(idGenerator.newRecordId("snapshot-test"));
+            HConnectionManager.deleteConnection(hbaseAdmin.getConfiguration(), true);
+        }
+
         //
         // Launch MapReduce job on the custom repository - over all tables
         //
@@ -54,6 +54,7 @@ import org.lilyproject.client.impl.RemoteSchemaCache;
 import org.lilyproject.client.impl.RetryUtil;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.BlobStoreAccessFactory;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
@@ -330,7 +331,15 @@ public class LilyClient implements Closeable, RepositoryManager {
 
     public static BlobManager getBlobManager(ZooKeeperItf zk, Configuration configuration) throws IOException, InterruptedException {
         HBaseTableFactory hbaseTableFactory = new HBaseTableFactoryImpl(configuration);
+        return new BlobManagerImpl(hbaseTableFactory, getBlobStoreAccessFactory(zk, configuration), true);
+    }
 
+    /**
+     * Creates the blob store access factory corresponding to the blob store configuration published
+     * by the Lily servers in ZooKeeper.
+     */
+    public static BlobStoreAccessFactory getBlobStoreAccessFactory(ZooKeeperItf zk, Configuration configuration)
+            throws IOException, InterruptedException {
         URI dfsUri = getDfsUri(zk);
         FileSystem fs = FileSystem.get(DfsUri.getBaseDfsUri(dfsUri), configuration);
         Path blobRootPath = new Path(DfsUri.getDfsPath(dfsUri));
@@ -341,10 +350,7 @@ public class LilyClient implements Closeable, RepositoryManager {
         List<BlobStoreAccess> blobStoreAccesses =
                 Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess, inlineBlobStoreAccess);
 
-        SizeBasedBlobStoreAccessFactory blobStoreAccessFactory =
-                new SizeBasedBlobStoreAccessFactory(blobStoreAccesses, getBlobStoreAccessConfig(zk));
-
-        return new BlobManagerImpl(hbaseTableFactory, blobStoreAccessFactory, true);
+        return new SizeBasedBlobStoreAccessFactory(blobStoreAccesses, getBlobStoreAccessConfig(zk));
     }
 
     private static BlobStoreAccessConfig getBlobStoreAccessConfig(ZooKeeperItf zk) {
@@ -62,6 +62,10 @@ public class TableConfigBuilder {
                 config.getColumnFamilies().put(familyName, family);
             }
 
+            for (Conf coprocessorConf : table.getChild("coprocessors").getChildren("coprocessor")) {
+                config.getCoprocessors().add(coprocessorConf.getValue());
+            }
+
             result.add(new TableConfigEntry(tableNamePattern, config));
         }
 
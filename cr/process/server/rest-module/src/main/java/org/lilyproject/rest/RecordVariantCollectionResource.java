@@ -19,17 +19,25 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.UriInfo;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ReturnFields;
+import org.lilyproject.repository.api.filter.RecordIdPrefixFilter;
 import org.lilyproject.tools.restresourcegenerator.GenerateRepositoryAndTableResource;
 import org.lilyproject.tools.restresourcegenerator.GenerateRepositoryResource;
 import org.lilyproject.tools.restresourcegenerator.GenerateTableResource;
@@ -42,14 +50,33 @@ import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 @GenerateRepositoryResource
 @GenerateRepositoryAndTableResource
 public class RecordVariantCollectionResource extends BaseRepositoryResource {
+    private static final int MAX_SCAN_CACHING = 1000;
 
+    /**
+     * Lists the variants of the master of the given record.
+     *
+     * <p>By default, all variants are listed by their id only. When <tt>max-results</tt> or <tt>fields</tt> is
+     * specified, the variant records are read in one scan and returned with the requested fields (all fields
+     * if <tt>fields</tt> is not specified). Such a listing is paged: <tt>start-after</tt> is the id of the
+     * last variant of the previous page.</p>
+     */
     @GET
     @Produces("application/json")
-    public EntityList<Record> get(@PathParam("id") String id, @Context UriInfo uriInfo) {
+    public EntityList<Record> get(@PathParam("id") String id,
+            @QueryParam("start-after") String startAfter,
+            @QueryParam("max-results") Long maxResults,
+            @Context UriInfo uriInfo) {
         LRepository repository = getRepository(uriInfo);
         LTable table = getTable(uriInfo);
         RecordId recordId = repository.getIdGenerator().fromString(id);
+        List<QName> fieldQNames = ResourceClassUtil.parseFieldList(uriInfo);
         try {
+            if (maxResults != null || fieldQNames != null) {
+                RecordId startAfterId = startAfter != null ? repository.getIdGenerator().fromString(startAfter) : null;
+                return EntityList.create(scanVariants(table, recordId.getMaster(), startAfterId, maxResults,
+                        fieldQNames), uriInfo);
+            }
+
             Set<RecordId> recordIds = table.getVariants(recordId);
 
             List<Record> records = new ArrayList<Record>();
@@ -64,4 +91,37 @@ public class RecordVariantCollectionResource extends BaseRepositoryResource {
         }
 
     }
+
+    private List<Record> scanVariants(LTable table, RecordId master, RecordId startAfter, Long maxResults,
+            List<QName> fieldQNames) throws RepositoryException, InterruptedException {
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new RecordIdPrefixFilter(master));
+        if (startAfter != null) {
+            // The first row after the given record id: its id followed by a 0 byte
+            byte[] startAfterBytes = startAfter.toBytes();
+            scan.setRawStartRecordId(Arrays.copyOf(startAfterBytes, startAfterBytes.length + 1));
+        }
+        if (fieldQNames != null) {
+            scan.setReturnFields(new ReturnFields(fieldQNames));
+        }
+        if (maxResults != null) {
+            scan.setCaching((int)Math.min(maxResults, MAX_SCAN_CACHING));
+        }
+
+        List<Record> records = new ArrayList<Record>();
+        RecordScanner scanner = table.getScanner(scan);
+        try {
+            Record record;
+            while ((maxResults == null || records.size() < maxResults) && (record = scanner.next()) != null) {
+                // The prefix of a user-defined master id can also be the prefix of other records
+                if (!record.getId().getMaster().equals(master)) {
+                    break;
+                }
+                records.add(record);
+            }
+        } finally {
+            scanner.close();
+        }
+        return records;
+    }
 }
@@ -447,6 +447,23 @@ public class RecordRestTest extends AbstractRestTest {
         assertEquals("USER.hunting.lang=en", resultsNode.get(0).get("id").getTextValue());
         assertEquals("USER.hunting.lang=fr", resultsNode.get(1).get("id").getTextValue());
         assertEquals("USER.hunting.lang=nl", resultsNode.get(2).get("id").getTextValue());
+
+        // Paged listing, which includes the fields of the variants
+        response = get("/record/USER.hunting/variant?max-results=2");
+        assertStatus(HttpStatus.SC_OK, response);
+        resultsNode = (ArrayNode)readJson(response).get("results");
+        assertEquals(2, resultsNode.size());
+        assertEquals("USER.hunting.lang=en", resultsNode.get(0).get("id").getTextValue());
+        assertEquals("USER.hunting.lang=fr", resultsNode.get(1).get("id").getTextValue());
+        assertEquals(1, resultsNode.get(0).get("fields").size());
+
+        response = get("/record/USER.hunting/variant?max-results=2&start-after=USER.hunting.lang=fr"
+                + "&fields=b$title&ns.b=org.lilyproject.resttest&nsprefixes=false");
+        assertStatus(HttpStatus.SC_OK, response);
+        resultsNode = (ArrayNode)readJson(response).get("results");
+        assertEquals(1, resultsNode.size());
+        assertEquals("USER.hunting.lang=nl", resultsNode.get(0).get("id").getTextValue());
+        assertEquals("Jagen", resultsNode.get(0).get("fields").get("{org.lilyproject.resttest}title").getTextValue());
     }
 
     @Test
@@ -21,6 +21,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.lilyproject.repository.model.api.RepositoryDefinition;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
@@ -66,6 +67,7 @@ import org.lilyproject.repository.impl.CoreRepositoryMasterHook;
 import org.lilyproject.repository.impl.SchemaCache;
 import org.lilyproject.repository.impl.SizeBasedBlobStoreAccessFactory;
 import org.lilyproject.repository.impl.RepoTableKey;
+import org.lilyproject.repository.impl.hbase.AggregationEndpoint;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repository.remote.AvroLilyTransceiver;
 import org.lilyproject.repository.remote.RemoteRepositoryManager;
@@ -78,9 +80,12 @@ import org.lilyproject.repository.master.RepositoryMasterHook;
 import org.lilyproject.repository.model.api.RepositoryModel;
 import org.lilyproject.repository.model.impl.RepositoryModelImpl;
 import org.lilyproject.util.LilyInfo;
+import org.lilyproject.util.hbase.ColumnFamilyConfig;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
+import org.lilyproject.util.hbase.TableConfig;
+import org.lilyproject.util.hbase.TableConfigEntry;
 import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.zookeeper.ZkUtil;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
@@ -141,7 +146,11 @@ public class RepositorySetup {
         hadoopConf = hbaseProxy.getConf();
         zk = ZkUtil.connect(hbaseProxy.getZkConnectString(), 10000);
 
-        hbaseTableFactory = new HBaseTableFactoryImpl(hadoopConf);
+        // Enable the aggregations on the record tables, they are opt-in
+        TableConfig recordTableConfig = new TableConfig();
+        recordTableConfig.getCoprocessors().add(AggregationEndpoint.class.getName());
+        hbaseTableFactory = new HBaseTableFactoryImpl(hadoopConf, Collections.singletonList(
+                new TableConfigEntry(Pattern.compile("record|.+__.+"), recordTableConfig)), new ColumnFamilyConfig());
         repositoryModel = new RepositoryModelImpl(zk);
         repositoryMaster = new RepositoryMaster(zk, repositoryModel, new DummyLilyInfo(),
                 Collections.<RepositoryMasterHook>singletonList(new CoreRepositoryMasterHook(hbaseTableFactory, hbaseProxy.getConf())));
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.math.BigDecimal;
+
+/**
+ * Statistics of the values of a numeric field, as computed by
+ * {@link LTable#aggregate(RecordScan, RecordAggregation)}.
+ *
+ * <p>The values are represented as BigDecimal whatever the value type of the field, so that the sum does not
+ * overflow. Double values which are NaN or infinite are not taken into account.</p>
+ */
+public class FieldStatistics {
+    private final long count;
+    private final BigDecimal min;
+    private final BigDecimal max;
+    private final BigDecimal sum;
+
+    public FieldStatistics(long count, BigDecimal min, BigDecimal max, BigDecimal sum) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+    }
+
+    /**
+     * The number of values. For multi-value or hierarchical fields, this is the number of individual values,
+     * not the number of records having the field.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The smallest value, null if there were no values.
+     */
+    public BigDecimal getMin() {
+        return min;
+    }
+
+    /**
+     * The largest value, null if there were no values.
+     */
+    public BigDecimal getMax() {
+        return max;
+    }
+
+    /**
+     * The sum of the values, zero if there were no values.
+     */
+    public BigDecimal getSum() {
+        return sum;
+    }
+}
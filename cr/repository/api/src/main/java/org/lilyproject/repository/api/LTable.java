@@ -537,6 +537,25 @@ public interface LTable {
      */
     IdRecordScanner getScannerWithIds(RecordScan scan) throws RepositoryException, InterruptedException;
 
+    /**
+     * Computes aggregates, such as counts and field statistics, over the records of a scan.
+     *
+     * <p>The same records are considered as the ones {@link #getScanner(RecordScan)} would return for this scan,
+     * but the aggregation runs next to the data: only partial results are sent back, not the records. The
+     * return fields, caching and cache blocks settings of the scan are not used.</p>
+     *
+     * <p>As for scans, this is not index-based: every record in the range of the scan is visited.</p>
+     *
+     * <p>This needs the aggregation coprocessor to be enabled on the record table, which is not the case by
+     * default. Each region of the table is aggregated in one call, which has to finish within the HBase RPC
+     * timeout (hbase.rpc.timeout) of the client: for large regions, the timeout should be raised accordingly.</p>
+     *
+     * @param scan the records to aggregate over
+     * @param aggregation the aggregates to compute
+     */
+    RecordAggregationResult aggregate(RecordScan scan, RecordAggregation aggregation)
+            throws RepositoryException, InterruptedException;
+
     /**
      * Returns a record builder object which can be used to compose a record object and create or update it on the
      * repository.
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Defines the aggregates to compute over the records of a scan.
+ *
+ * <p>The number of records is always counted. Additionally, the records can be counted per record type, and
+ * statistics or an estimate of the number of distinct values can be computed for fields.</p>
+ *
+ * <p>See {@link LTable#aggregate(RecordScan, RecordAggregation)}.</p>
+ */
+public class RecordAggregation {
+    private boolean countByRecordType;
+    private Set<QName> statisticsFields = new LinkedHashSet<QName>();
+    private Set<QName> distinctCountFields = new LinkedHashSet<QName>();
+
+    /**
+     * @see #setCountByRecordType(boolean)
+     */
+    public boolean getCountByRecordType() {
+        return countByRecordType;
+    }
+
+    /**
+     * Sets whether the records should be counted per record type. This is the record type of the non-versioned
+     * scope, which is the record type a record is usually said to have.
+     */
+    public void setCountByRecordType(boolean countByRecordType) {
+        this.countByRecordType = countByRecordType;
+    }
+
+    /**
+     * @see #addStatisticsField(QName)
+     */
+    public Set<QName> getStatisticsFields() {
+        return statisticsFields;
+    }
+
+    /**
+     * Adds a field for which the number of values, the minimum, the maximum and the sum should be computed.
+     *
+     * <p>The field should have a numeric value type (INTEGER, LONG, DOUBLE or DECIMAL), possibly nested in
+     * LIST or PATH, in which case each of the values counts.</p>
+     */
+    public void addStatisticsField(QName field) {
+        statisticsFields.add(field);
+    }
+
+    /**
+     * @see #addDistinctCountField(QName)
+     */
+    public Set<QName> getDistinctCountFields() {
+        return distinctCountFields;
+    }
+
+    /**
+     * Adds a field for which the number of distinct values should be estimated. This works for fields of any
+     * value type, the complete field value counts as one value.
+     *
+     * <p>The estimate is based on a HyperLogLog sketch, its typical error is below 1%.</p>
+     */
+    public void addDistinctCountField(QName field) {
+        distinctCountFields.add(field);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.util.Map;
+
+/**
+ * The result of {@link LTable#aggregate(RecordScan, RecordAggregation)}.
+ */
+public class RecordAggregationResult {
+    private final long count;
+    private final Map<QName, Long> countsByRecordType;
+    private final Map<QName, FieldStatistics> statistics;
+    private final Map<QName, Long> distinctCounts;
+
+    public RecordAggregationResult(long count, Map<QName, Long> countsByRecordType,
+            Map<QName, FieldStatistics> statistics, Map<QName, Long> distinctCounts) {
+        this.count = count;
+        this.countsByRecordType = countsByRecordType;
+        this.statistics = statistics;
+        this.distinctCounts = distinctCounts;
+    }
+
+    /**
+     * The number of records matched by the scan.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The number of records per record type name, null if this was not requested.
+     */
+    public Map<QName, Long> getCountsByRecordType() {
+        return countsByRecordType;
+    }
+
+    /**
+     * The statistics of the given field, null if they were not requested for this field.
+     */
+    public FieldStatistics getStatistics(QName field) {
+        return statistics.get(field);
+    }
+
+    /**
+     * The estimated number of distinct values of the given field, null if this was not requested for this
+     * field.
+     */
+    public Long getDistinctCount(QName field) {
+        return distinctCounts.get(field);
+    }
+}
@@ -15,20 +15,31 @@
  */
 package org.lilyproject.repository.api.filter;
 
+import java.util.List;
+
 import org.lilyproject.repository.api.CompareOp;
 import org.lilyproject.repository.api.QName;
 
 /**
  * Filters based on the value of a record field.
  *
- * <p>Only equals and not-equals comparisons are possible. This is because the comparison happens inside
- * the HBase region servers, on the bytes-encoded field values.</p>
+ * <p>Equals and not-equals comparisons are possible for all value types. The other comparisons are only possible
+ * for fields of type INTEGER, LONG, DOUBLE, DECIMAL, DATE, DATETIME and STRING, or of a LIST or PATH of these.
+ * This is because the comparison happens inside the HBase region servers, which only know how to decode these
+ * value types.</p>
+ *
+ * <p>For the less/greater comparisons, and when comparing with a list of values (see {@link #setFieldValues}),
+ * the given values are of the type of the individual values of the field, e.g. Long for a LIST&lt;LONG&gt; field.
+ * The record passes if one of the values of the field satisfies the comparison. A range can be expressed by
+ * combining two filters in a {@link RecordFilterList}, for multi-value fields the two comparisons can then be
+ * satisfied by different values of the field.</p>
  *
  * <p>For versioned fields, the filtering always happens based on the last version of the field values.</p>
  */
 public class FieldValueFilter implements RecordFilter {
     private QName field;
     private Object fieldValue;
+    private List<Object> fieldValues;
     private CompareOp compareOp = CompareOp.EQUAL;
     private boolean filterIfMissing = true;
 
@@ -46,8 +57,9 @@ public class FieldValueFilter implements RecordFilter {
 
     /**
      * Constructs a filter comparing the specified field with the specified value,
-     * using the specified comparison operator. Only {@link CompareOp#EQUAL} and
-     * {@link CompareOp#NOT_EQUAL} are supported.
+     * using the specified comparison operator. See the class description for
+     * the value types that support other operators than {@link CompareOp#EQUAL}
+     * and {@link CompareOp#NOT_EQUAL}.
      */
     public FieldValueFilter(QName field, CompareOp compareOp, Object fieldValue) {
         this.field = field;
@@ -88,6 +100,24 @@ public class FieldValueFilter implements RecordFilter {
         this.fieldValue = fieldValue;
     }
 
+    /**
+     * @see #setFieldValues(List)
+     */
+    public List<Object> getFieldValues() {
+        return fieldValues;
+    }
+
+    /**
+     * Sets the values the field is compared with, this is an alternative to {@link #setFieldValue(Object)}.
+     *
+     * <p>With {@link CompareOp#EQUAL}, the record passes if the field is equal to one of the values, with
+     * {@link CompareOp#NOT_EQUAL} if it is equal to none of them. Other operators are not supported with
+     * a list of values.
+     */
+    public void setFieldValues(List<Object> fieldValues) {
+        this.fieldValues = fieldValues;
+    }
+
     /**
      * @see #setCompareOp(CompareOp)
      */
@@ -96,8 +126,9 @@ public class FieldValueFilter implements RecordFilter {
     }
 
     /**
-     * Sets the comparison operator, only {@link CompareOp#EQUAL} and
-     * {@link CompareOp#NOT_EQUAL} are supported.
+     * Sets the comparison operator. See the class description for the value
+     * types that support other operators than {@link CompareOp#EQUAL} and
+     * {@link CompareOp#NOT_EQUAL}.
      */
     public void setCompareOp(CompareOp compareOp) {
         this.compareOp = compareOp;
@@ -22,14 +22,9 @@ import org.lilyproject.repository.api.RecordId;
  *
  * <p>It does not make sense to use this with UUID-based record IDs.</p>
  *
- * <p>When using this filter, you should set
- * {@link org.lilyproject.repository.api.RecordScan#setStartRecordId(org.lilyproject.repository.api.RecordId)}
- * to the same RecordId as set here, since any earlier records will be dropped
- * anyway by this filter.</p>
- *
- * <p>The scan will stop as soon as a record ID is encountered which is larger than
- * what can be matched by the prefix. So the scan will not needlessly run to the end
- * of the table.</p>
+ * <p>The scan is limited to the range of record IDs that can be matched by the prefix
+ * (also when this filter is part of a {@link RecordFilterList} which must all pass),
+ * so it will not needlessly read the records before or after them.</p>
  */
 public class RecordIdPrefixFilter implements RecordFilter {
     private RecordId recordId;
@@ -16,6 +16,7 @@
 package org.lilyproject.repository.impl;
 
 import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,15 +30,20 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Sets;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
@@ -55,6 +61,7 @@ import org.lilyproject.repository.api.TypeException;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.util.Logs;
 import org.lilyproject.util.Pair;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.zookeeper.ZkUtil;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
 
@@ -81,6 +88,32 @@ public abstract class AbstractSchemaCache implements SchemaCache {
     protected static final String CACHE_REFRESHENABLED_PATH = "/lily/typemanager/cache/enabled";
     private static final String LILY_NODES_PATH = "/lily/repositoryNodes";
 
+    /**
+     * ZooKeeper node in which the location of a snapshot on a shared file system is published, see
+     * {@link #setSnapshotPath(Path)}.
+     */
+    protected static final String SNAPSHOT_LOCATION_PATH = "/lily/typemanager/cache/snapshot";
+
+    /**
+     * System property pointing to a directory in which the cache keeps a snapshot of the schema, see
+     * {@link #setSnapshotPath(Path)}. This is either a local directory or the URI of a directory on a Hadoop
+     * file system, such as hdfs://namenode/lily/schemacache.
+     */
+    public static final String SNAPSHOT_DIR_PROPERTY = "lily.schemacache.snapshot.dir";
+
+    private Path snapshotPath;
+
+    /**
+     * True if the snapshot location was read from {@link #SNAPSHOT_LOCATION_PATH}: the snapshot is then only
+     * read, it is kept up to date by the caches on which the location is configured.
+     */
+    private boolean publishedSnapshot;
+
+    /**
+     * Used to read the bucket versions in parallel, created on {@link #start()}.
+     */
+    private ThreadPoolExecutor threadPool;
+
     /**
      * Paths we need to watch for existence, since we need to re-initialize after they are recreated.
      * Normally this doesn't happen, but it can happen with the resetLilyState() call of Lily's test
@@ -91,6 +124,44 @@ public abstract class AbstractSchemaCache implements SchemaCache {
 
     public AbstractSchemaCache(ZooKeeperItf zooKeeper) {
         this.zooKeeper = zooKeeper;
+
+        String snapshotDir = System.getProperty(SNAPSHOT_DIR_PROPERTY);
+        if (snapshotDir != null) {
+            // One snapshot per ZooKeeper quorum, since each has its own bucket versions
+            String quorum = zooKeeper.connectString().replaceAll("[^\\w.-]", "_");
+            Path dir = new Path(snapshotDir);
+            if (dir.toUri().getScheme() == null) {
+                dir = new Path(new File(snapshotDir).getAbsoluteFile().toURI());
+            }
+            snapshotPath = new Path(dir, "schema-" + quorum + ".snapshot");
+        }
+    }
+
+    /**
+     * Sets the local file in which a snapshot of the schema is kept, see {@link #setSnapshotPath(Path)}.
+     */
+    public void setSnapshotFile(File snapshotFile) {
+        setSnapshotPath(new Path(snapshotFile.getAbsoluteFile().toURI()));
+    }
+
+    /**
+     * Sets the file in which a snapshot of the schema is kept, either a local file or one on a Hadoop file
+     * system. When the cache starts, or needs to refresh all types, it loads the snapshot and only reads the
+     * type buckets which changed since from the type table, rather than reading all types. This avoids that
+     * many clients starting at the same time all read the complete type table.
+     *
+     * <p>The snapshot is written each time all types have been read. It becomes invalid when an explicit
+     * refresh of all types is triggered, which also happens when cache refreshing is enabled again after
+     * having been disabled.</p>
+     *
+     * <p>When the snapshot is on a shared file system such as HDFS, its location is published in ZooKeeper.
+     * Caches on which no snapshot is set, such as those of the clients in MapReduce tasks, then read the
+     * published snapshot, without writing it.</p>
+     *
+     * <p>Should be called before {@link #start()}.</p>
+     */
+    public void setSnapshotPath(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
     }
 
     /**
@@ -147,10 +218,14 @@ public abstract class AbstractSchemaCache implements SchemaCache {
     }
 
     public void start() throws InterruptedException, KeeperException, RepositoryException {
+        threadPool = new ThreadPoolExecutor(50, 50, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new CustomThreadFactory("schemacache", null, true /* daemon */));
+        threadPool.allowCoreThreadTimeOut(true);
+
         cacheRefresher.start();
 
         ZkUtil.createPath(zooKeeper, CACHE_INVALIDATION_PATH);
-        final ExecutorService threadPool = Executors.newFixedThreadPool(50);
+        publishSnapshotLocation();
         final List<Future> futures = new ArrayList<Future>();
         for (int i = 0; i < 16; i++) {
             final int index = i;
@@ -174,8 +249,6 @@ public abstract class AbstractSchemaCache implements SchemaCache {
                 throw new RuntimeException("failed to start cache", e);
             }
         }
-        threadPool.shutdown();
-        threadPool.awaitTermination(1, TimeUnit.HOURS);
         ZkUtil.createPath(zooKeeper, CACHE_REFRESHENABLED_PATH);
         connectionWatcher = new ConnectionWatcher();
         zooKeeper.addDefaultWatcher(connectionWatcher);
@@ -193,6 +266,9 @@ public abstract class AbstractSchemaCache implements SchemaCache {
         try {
             zooKeeper.removeDefaultWatcher(connectionWatcher);
             cacheRefresher.stop();
+            if (threadPool != null) {
+                threadPool.shutdownNow();
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             log.debug("Interrupted", e);
@@ -281,6 +357,7 @@ public abstract class AbstractSchemaCache implements SchemaCache {
 
         // Set a watch on the parent path, in case everything needs to be
         // refreshed
+        Stat parentStat = null;
         try {
             Stat stat = new Stat();
             ZkUtil.getData(zooKeeper, CACHE_INVALIDATION_PATH, parentWatcher, stat);
@@ -289,6 +366,7 @@ public abstract class AbstractSchemaCache implements SchemaCache {
                 parentVersion = stat.getVersion();
                 bucketVersions.clear();
             }
+            parentStat = stat;
         } catch (KeeperException e) {
             if (Thread.currentThread().isInterrupted()) {
                 if (log.isDebugEnabled()) {
@@ -309,9 +387,9 @@ public abstract class AbstractSchemaCache implements SchemaCache {
                 log.debug("Refreshing all types in the schema cache, no bucket versions known yet");
             }
             // Set a watch again on all buckets
-            final ExecutorService sixteenThreads = Executors.newFixedThreadPool(50);
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
             for (final CacheWatcher watcher : cacheWatchers) {
-                sixteenThreads.submit(new Callable<Void>() {
+                futures.add(threadPool.submit(new Callable<Void>() {
                     @Override
                     public Void call() throws Exception {
                         String bucketId = watcher.getBucket();
@@ -337,16 +415,24 @@ public abstract class AbstractSchemaCache implements SchemaCache {
 
                         return null;
                     }
-                });
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.warn("Failed to read the version of a bucket", e.getCause());
+                }
             }
-            sixteenThreads.shutdown();
-            sixteenThreads.awaitTermination(1, TimeUnit.HOURS);
 
-            // Read all types in one go
-            Pair<List<FieldType>, List<RecordType>> types = getTypeManager().getTypesWithoutCache();
-            fieldTypesCache.refreshFieldTypes(types.getV1());
-            updatedFieldTypes = true;
-            recordTypes.refreshRecordTypes(types.getV2());
+            if (!loadSnapshot(parentStat)) {
+                // Read all types in one go
+                Pair<List<FieldType>, List<RecordType>> types = getTypeManager().getTypesWithoutCache();
+                fieldTypesCache.refreshFieldTypes(types.getV1());
+                updatedFieldTypes = true;
+                recordTypes.refreshRecordTypes(types.getV2());
+                writeSnapshot(parentStat);
+            }
         } else {
             // Only the changed buckets need to be refreshed.
             // Upon a re-connection event it could be that some updates were
@@ -445,6 +531,128 @@ public abstract class AbstractSchemaCache implements SchemaCache {
         updatedFieldTypes = true;
     }
 
+    /**
+     * Loads the types from the snapshot file, if there is a valid one, and refreshes the buckets whose
+     * version differs from the one in the snapshot.
+     *
+     * @param parentStat stat of the cache invalidation node, null if it could not be read
+     * @return false if no snapshot could be loaded
+     */
+    private boolean loadSnapshot(Stat parentStat) throws InterruptedException, RepositoryException {
+        if (parentStat == null) {
+            return false;
+        }
+        if (snapshotPath == null || publishedSnapshot) {
+            readSnapshotLocation();
+        }
+        if (snapshotPath == null) {
+            return false;
+        }
+
+        SchemaSnapshot snapshot;
+        try {
+            FileSystem fs = getFileSystem(snapshotPath);
+            if (!fs.exists(snapshotPath)) {
+                return false;
+            }
+            snapshot = SchemaSnapshot.read(fs, snapshotPath, getTypeManager());
+        } catch (IOException e) {
+            log.warn("Failed to read schema snapshot " + snapshotPath, e);
+            return false;
+        } catch (RepositoryException e) {
+            log.warn("Failed to read schema snapshot " + snapshotPath, e);
+            return false;
+        }
+
+        if (snapshot == null || !snapshot.isValid(parentStat.getCzxid(), parentStat.getVersion())) {
+            if (log.isDebugEnabled()) {
+                log.debug("Schema snapshot " + snapshotPath + " is outdated, ignoring it");
+            }
+            return false;
+        }
+
+        fieldTypesCache.refreshFieldTypes(snapshot.getFieldTypes());
+        updatedFieldTypes = true;
+        recordTypes.refreshRecordTypes(snapshot.getRecordTypes());
+
+        // The bucket versions were read before loading the snapshot, buckets which change from now on
+        // will be refreshed through their watcher
+        Map<String, Integer> snapshotBucketVersions = snapshot.getBucketVersions();
+        List<String> changedBuckets = new ArrayList<String>();
+        for (CacheWatcher watcher : cacheWatchers) {
+            String bucketId = watcher.getBucket();
+            Integer version = bucketVersions.get(bucketId);
+            if (version == null || !version.equals(snapshotBucketVersions.get(bucketId))) {
+                changedBuckets.add(bucketId);
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded schema snapshot " + snapshotPath + ", refreshing buckets " + changedBuckets);
+        }
+        for (String bucketId : changedBuckets) {
+            TypeBucket typeBucket = getTypeManager().getTypeBucketWithoutCache(bucketId);
+            fieldTypesCache.refreshFieldTypeBucket(typeBucket);
+            recordTypes.refreshRecordTypeBucket(typeBucket);
+        }
+
+        if (!changedBuckets.isEmpty()) {
+            writeSnapshot(parentStat);
+        }
+
+        return true;
+    }
+
+    private void writeSnapshot(Stat parentStat) throws InterruptedException {
+        if (snapshotPath == null || publishedSnapshot || parentStat == null) {
+            return;
+        }
+
+        try {
+            SchemaSnapshot snapshot = new SchemaSnapshot(parentStat.getCzxid(), parentStat.getVersion(),
+                    new HashMap<String, Integer>(bucketVersions), fieldTypesCache.getFieldTypes(),
+                    new ArrayList<RecordType>(recordTypes.getRecordTypes()));
+            snapshot.write(getFileSystem(snapshotPath), snapshotPath);
+        } catch (IOException e) {
+            log.warn("Failed to write schema snapshot " + snapshotPath, e);
+        }
+    }
+
+    /**
+     * Publishes the location of the snapshot in ZooKeeper, if it is on a shared file system.
+     */
+    private void publishSnapshotLocation() throws InterruptedException, KeeperException {
+        if (snapshotPath == null || "file".equals(snapshotPath.toUri().getScheme())) {
+            return;
+        }
+
+        byte[] location = snapshotPath.toString().getBytes(Charsets.UTF_8);
+        ZkUtil.createPath(zooKeeper, SNAPSHOT_LOCATION_PATH, location);
+    }
+
+    /**
+     * Reads the location of the snapshot published in ZooKeeper, for caches on which none is set.
+     */
+    private void readSnapshotLocation() throws InterruptedException {
+        try {
+            byte[] location = ZkUtil.getData(zooKeeper, SNAPSHOT_LOCATION_PATH, null, null);
+            if (location != null && location.length > 0) {
+                snapshotPath = new Path(new String(location, Charsets.UTF_8));
+                publishedSnapshot = true;
+            }
+        } catch (KeeperException.NoNodeException e) {
+            // no snapshot published
+        } catch (KeeperException e) {
+            log.warn("Failed to read the schema snapshot location from " + SNAPSHOT_LOCATION_PATH, e);
+        }
+    }
+
+    private FileSystem getFileSystem(Path path) throws IOException {
+        FileSystem fs = path.getFileSystem(new Configuration());
+        // avoid checksum files next to local snapshots
+        return fs instanceof LocalFileSystem ? ((LocalFileSystem)fs).getRawFileSystem() : fs;
+    }
+
     private void watchPathsForExistence() throws InterruptedException {
         for (String path : EXISTENCE_PATHS) {
             try {
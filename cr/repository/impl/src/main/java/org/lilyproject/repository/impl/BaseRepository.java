@@ -24,13 +24,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
@@ -40,6 +44,7 @@ import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
+import org.lilyproject.repository.api.FieldStatistics;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdGenerator;
@@ -49,6 +54,8 @@ import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordAggregation;
+import org.lilyproject.repository.api.RecordAggregationResult;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
@@ -64,7 +71,18 @@ import org.lilyproject.repository.api.TypeException;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.api.filter.RecordFilter;
+import org.lilyproject.repository.api.filter.RecordFilterList;
+import org.lilyproject.repository.api.filter.RecordIdPrefixFilter;
+import org.lilyproject.repository.api.filter.RecordVariantFilter;
 import org.lilyproject.repository.impl.RepositoryMetrics.Action;
+import org.lilyproject.repository.impl.hbase.AggregationEndpoint;
+import org.lilyproject.repository.impl.hbase.AggregationProtocol;
+import org.lilyproject.repository.impl.hbase.AggregationRequest;
+import org.lilyproject.repository.impl.hbase.PartialAggregate;
+import org.lilyproject.repository.impl.hbase.ValueTypeComparator;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repository.impl.id.UserRecordId;
+import org.lilyproject.repository.spi.AuthorizationContextHolder;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.Pair;
@@ -232,6 +250,62 @@ public abstract class BaseRepository implements Repository {
     }
 
     private ResultScanner createHBaseResultScanner(RecordScan scan) throws RepositoryException, InterruptedException {
+        Scan hbaseScan = createHBaseRecordScan(scan);
+
+        ResultScanner hbaseScanner;
+        try {
+            hbaseScanner = recordTable.getScanner(hbaseScan);
+        } catch (IOException e) {
+            throw new RecordException("Error creating scanner", e);
+        }
+        return hbaseScanner;
+    }
+
+    /**
+     * Creates the HBase scan which reads the records of a record scan: the range, the filters and the columns
+     * needed for the requested fields. The resulting rows can be decoded with {@link #getRecordDecoder()}.
+     *
+     * <p>This allows to read records without going through the record table of the region servers, e.g.
+     * from the HFiles of a table snapshot. Note that no authorization is applied in that case.</p>
+     */
+    public Scan createHBaseRecordScan(RecordScan scan) throws RepositoryException, InterruptedException {
+        Scan hbaseScan = createHBaseScan(scan);
+
+        hbaseScan.setCaching(scan.getCaching());
+
+        hbaseScan.setCacheBlocks(scan.getCacheBlocks());
+
+        ReturnFields returnFields = scan.getReturnFields();
+        if (returnFields != null && returnFields.getType() != ReturnFields.Type.ALL) {
+            RecordDecoder.addSystemColumnsToScan(hbaseScan);
+            switch (returnFields.getType()) {
+                case ENUM:
+                    for (QName field : returnFields.getFields()) {
+                        FieldTypeImpl fieldType = (FieldTypeImpl) typeManager.getFieldTypeByName(field);
+                        hbaseScan.addColumn(RecordCf.DATA.bytes, fieldType.getQualifier());
+                    }
+                    break;
+                case NONE:
+                    // nothing to add
+                    break;
+                default:
+                    throw new RuntimeException("Unrecognized ReturnFields type: " + returnFields.getType());
+            }
+        } else {
+            hbaseScan.addFamily(RecordCf.DATA.bytes);
+        }
+
+        return hbaseScan;
+    }
+
+    public RecordDecoder getRecordDecoder() {
+        return recdec;
+    }
+
+    /**
+     * Creates the HBase scan for the range and filters of a record scan.
+     */
+    private Scan createHBaseScan(RecordScan scan) throws RepositoryException, InterruptedException {
         Scan hbaseScan = new Scan();
 
         hbaseScan.setMaxVersions(1);
@@ -262,39 +336,168 @@ public abstract class BaseRepository implements Repository {
 
         hbaseScan.setFilter(filterList);
 
-        hbaseScan.setCaching(scan.getCaching());
+        limitToFilterRange(hbaseScan, scan.getRecordFilter());
 
-        hbaseScan.setCacheBlocks(scan.getCacheBlocks());
+        return hbaseScan;
+    }
 
-        ReturnFields returnFields = scan.getReturnFields();
-        if (returnFields != null && returnFields.getType() != ReturnFields.Type.ALL) {
-            RecordDecoder.addSystemColumnsToScan(hbaseScan);
-            switch (returnFields.getType()) {
-                case ENUM:
-                    for (QName field : returnFields.getFields()) {
-                        FieldTypeImpl fieldType = (FieldTypeImpl) typeManager.getFieldTypeByName(field);
-                        hbaseScan.addColumn(RecordCf.DATA.bytes, fieldType.getQualifier());
-                    }
-                    break;
-                case NONE:
-                    // nothing to add
-                    break;
-                default:
-                    throw new RuntimeException("Unrecognized ReturnFields type: " + returnFields.getType());
+    /**
+     * Narrows the row range of the scan to the rows that can be matched by the record filter, so that the scan
+     * doesn't need to read (and filter out) all rows before and after them. Only record id prefix and variant
+     * filters, either directly or as part of a list which must all pass, imply such a range.
+     */
+    private void limitToFilterRange(Scan hbaseScan, RecordFilter filter) {
+        byte[][] range = getFilterRange(filter);
+        if (range == null) {
+            return;
+        }
+
+        byte[] startRow = hbaseScan.getStartRow();
+        if (Bytes.compareTo(range[0], startRow) > 0) {
+            hbaseScan.setStartRow(range[0]);
+        }
+
+        byte[] stopRow = hbaseScan.getStopRow();
+        if (range[1].length > 0 && (stopRow.length == 0 || Bytes.compareTo(range[1], stopRow) < 0)) {
+            hbaseScan.setStopRow(range[1]);
+        }
+    }
+
+    private byte[][] getFilterRange(RecordFilter filter) {
+        if (filter instanceof RecordVariantFilter) {
+            RecordId master = ((RecordVariantFilter)filter).getMasterRecordId();
+            if (master != null) {
+                return new byte[][] {master.toBytes(), getVariantsStopRow(master)};
+            }
+        } else if (filter instanceof RecordIdPrefixFilter) {
+            RecordId prefix = ((RecordIdPrefixFilter)filter).getRecordId();
+            if (prefix != null) {
+                byte[] prefixBytes = prefix.toBytes();
+                return new byte[][] {prefixBytes, getPrefixStopRow(prefixBytes)};
+            }
+        } else if (filter instanceof RecordFilterList
+                && ((RecordFilterList)filter).getOperator() == RecordFilterList.Operator.MUST_PASS_ALL) {
+            for (RecordFilter subFilter : ((RecordFilterList)filter).getFilters()) {
+                byte[][] range = getFilterRange(subFilter);
+                if (range != null) {
+                    return range;
+                }
             }
-        } else {
-            hbaseScan.addFamily(RecordCf.DATA.bytes);
         }
+        return null;
+    }
 
-        ResultScanner hbaseScanner;
+    /**
+     * Returns the row (exclusive) up to which the master record and its variants are stored. The variants of a
+     * master record directly follow it, but for user-defined ids other records can share the same prefix
+     * (e.g. the variants of "foo" and the record "foobar"), these are not included in the range.
+     */
+    protected static byte[] getVariantsStopRow(RecordId recordId) {
+        RecordId master = recordId.getMaster();
+        byte[] masterBytes = master.toBytes();
+        if (master instanceof UserRecordId) {
+            // The variant properties are separated from a user-defined master id by a 0 byte
+            byte[] stopRow = new byte[masterBytes.length + 1];
+            System.arraycopy(masterBytes, 0, stopRow, 0, masterBytes.length);
+            stopRow[masterBytes.length] = 1;
+            return stopRow;
+        }
+        return getPrefixStopRow(masterBytes);
+    }
+
+    /**
+     * Returns the first row which doesn't start with the given prefix, or an empty array (meaning the end of
+     * the table) if there is no such row.
+     */
+    protected static byte[] getPrefixStopRow(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte)0xFF) {
+                byte[] stopRow = new byte[i + 1];
+                System.arraycopy(prefix, 0, stopRow, 0, i + 1);
+                stopRow[i]++;
+                return stopRow;
+            }
+        }
+        return HConstants.EMPTY_END_ROW;
+    }
+
+    @Override
+    public RecordAggregationResult aggregate(RecordScan scan, RecordAggregation aggregation)
+            throws RepositoryException, InterruptedException {
+        if (AuthorizationContextHolder.getCurrentContext() != null) {
+            // The aggregation runs inside the region, where it would not be subject to the authorization
+            throw new RecordException("Aggregation is not supported for calls with an authorization context");
+        }
+
+        final Scan hbaseScan = createHBaseScan(scan);
+        // Which columns the filters need is not known here
+        hbaseScan.addFamily(RecordCf.DATA.bytes);
+
+        List<QName> statisticsFields = new ArrayList<QName>(aggregation.getStatisticsFields());
+        List<QName> distinctCountFields = new ArrayList<QName>(aggregation.getDistinctCountFields());
+
+        final AggregationRequest request = new AggregationRequest();
+        request.setCountByRecordType(aggregation.getCountByRecordType());
+        for (QName field : statisticsFields) {
+            FieldTypeImpl fieldType = (FieldTypeImpl)typeManager.getFieldTypeByName(field);
+            String baseName = fieldType.getValueType().getDeepestValueType().getBaseName();
+            if (!NUMERIC_VALUE_TYPES.contains(baseName)) {
+                throw new IllegalArgumentException("Statistics are only supported for numeric fields, not for field "
+                        + field + " of value type " + fieldType.getValueType().getName());
+            }
+            request.addStatisticsField(fieldType.getQualifier(), ValueTypeComparator.Type.valueOf(baseName),
+                    fieldType.getValueType().getNestingLevel());
+        }
+        for (QName field : distinctCountFields) {
+            request.addDistinctCountField(((FieldTypeImpl)typeManager.getFieldTypeByName(field)).getQualifier());
+        }
+
+        Map<byte[], PartialAggregate> partialAggregates;
         try {
-            hbaseScanner = recordTable.getScanner(hbaseScan);
-        } catch (IOException e) {
-            throw new RecordException("Error creating scanner", e);
+            partialAggregates = recordTable.coprocessorExec(AggregationProtocol.class, hbaseScan.getStartRow(),
+                    hbaseScan.getStopRow(), new Batch.Call<AggregationProtocol, PartialAggregate>() {
+                @Override
+                public PartialAggregate call(AggregationProtocol aggregationProtocol) throws IOException {
+                    return aggregationProtocol.aggregate(hbaseScan, request);
+                }
+            });
+        } catch (Throwable t) {
+            throw new RecordException("Error aggregating records. Check that the coprocessor "
+                    + AggregationEndpoint.class.getName() + " is enabled on the record table, and that the RPC "
+                    + "timeout allows to scan a complete region.", t);
         }
-        return hbaseScanner;
+
+        PartialAggregate aggregate = new PartialAggregate(request);
+        for (PartialAggregate partialAggregate : partialAggregates.values()) {
+            aggregate.merge(partialAggregate);
+        }
+
+        Map<QName, Long> countsByRecordType = null;
+        if (aggregation.getCountByRecordType()) {
+            countsByRecordType = new HashMap<QName, Long>();
+            for (Map.Entry<byte[], Long> entry : aggregate.getCountsByRecordType().entrySet()) {
+                QName recordType = typeManager.getRecordTypeById(new SchemaIdImpl(entry.getKey()), null).getName();
+                countsByRecordType.put(recordType, entry.getValue());
+            }
+        }
+
+        Map<QName, FieldStatistics> statistics = new HashMap<QName, FieldStatistics>();
+        for (int i = 0; i < statisticsFields.size(); i++) {
+            PartialAggregate.Statistics stats = aggregate.getStatistics(i);
+            statistics.put(statisticsFields.get(i),
+                    new FieldStatistics(stats.getCount(), stats.getMin(), stats.getMax(), stats.getSum()));
+        }
+
+        Map<QName, Long> distinctCounts = new HashMap<QName, Long>();
+        for (int i = 0; i < distinctCountFields.size(); i++) {
+            distinctCounts.put(distinctCountFields.get(i), aggregate.getDistinctCount(i).estimate());
+        }
+
+        return new RecordAggregationResult(aggregate.getCount(), countsByRecordType, statistics, distinctCounts);
     }
 
+    private static final Set<String> NUMERIC_VALUE_TYPES = ImmutableSet.of("INTEGER", "LONG", "DOUBLE", "DECIMAL");
+
     private static final List<HBaseRecordFilterFactory> FILTER_FACTORIES;
     static {
         List<HBaseRecordFilterFactory> filterFactories = new ArrayList<HBaseRecordFilterFactory>();
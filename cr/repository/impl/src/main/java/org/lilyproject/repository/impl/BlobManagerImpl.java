@@ -169,7 +169,10 @@ public class BlobManagerImpl implements BlobManager {
         }
     }
 
-    private Blob getBlobFromRecord(Record record, QName fieldName, FieldType fieldType, int... indexes)
+    /**
+     * Returns the blob stored in a field of a record, for nested blob fields at the given indexes.
+     */
+    public static Blob getBlobFromRecord(Record record, QName fieldName, FieldType fieldType, int... indexes)
             throws BlobNotFoundException {
         Object value = record.getField(fieldName);
         ValueType valueType = fieldType.getValueType();
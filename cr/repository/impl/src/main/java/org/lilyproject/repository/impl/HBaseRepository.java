@@ -43,8 +43,6 @@ import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.filter.Filter;
-import org.apache.hadoop.hbase.filter.FilterList;
-import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -109,6 +107,7 @@ public class HBaseRepository extends BaseRepository {
     private final Log log = LogFactory.getLog(getClass());
 
     private static final Object METADATA_ONLY_UPDATE = new Object();
+    private static final int VARIANTS_SCAN_CACHING = 100;
 
     public HBaseRepository(RepoTableKey ttk, AbstractRepositoryManager repositoryManager, HTableInterface recordTable,
             HTableInterface nonAuthRecordTable, BlobManager blobManager, TableManager tableManager,
@@ -1356,12 +1355,12 @@ public class HBaseRepository extends BaseRepository {
     @Override
     public Set<RecordId> getVariants(RecordId recordId) throws RepositoryException {
         byte[] masterRecordIdBytes = recordId.getMaster().toBytes();
-        FilterList filterList = new FilterList(FilterList.Operator.MUST_PASS_ALL);
-        filterList.addFilter(new PrefixFilter(masterRecordIdBytes));
-        filterList.addFilter(REAL_RECORDS_FILTER);
 
-        Scan scan = new Scan(masterRecordIdBytes, filterList);
+        // The variants directly follow the master record, so the scan range covers exactly these
+        Scan scan = new Scan(masterRecordIdBytes, getVariantsStopRow(recordId));
+        scan.setFilter(REAL_RECORDS_FILTER);
         scan.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+        scan.setCaching(VARIANTS_SCAN_CACHING);
 
         Set<RecordId> recordIds = new HashSet<RecordId>();
 
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypeEntry;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * A copy of the schema as known by a schema cache, stored in a local file or on a Hadoop file system, so that
+ * the cache can start from it rather than reading all types from the type table.
+ *
+ * <p>Together with the types, the snapshot contains the version of the ZooKeeper node of each type bucket
+ * at the time the types were read, so that the buckets which changed since can be refreshed. The snapshot
+ * is only valid as long as the cache invalidation node is not recreated and no explicit refresh of all
+ * types was triggered, which is checked using its creation zxid and version.</p>
+ */
+public class SchemaSnapshot {
+    private static final int FORMAT_VERSION = 1;
+
+    private final long invalidationZxid;
+    private final int invalidationVersion;
+    private final Map<String, Integer> bucketVersions;
+    private final List<FieldType> fieldTypes;
+    private final List<RecordType> recordTypes;
+
+    public SchemaSnapshot(long invalidationZxid, int invalidationVersion, Map<String, Integer> bucketVersions,
+            List<FieldType> fieldTypes, List<RecordType> recordTypes) {
+        this.invalidationZxid = invalidationZxid;
+        this.invalidationVersion = invalidationVersion;
+        this.bucketVersions = bucketVersions;
+        this.fieldTypes = fieldTypes;
+        this.recordTypes = recordTypes;
+    }
+
+    /**
+     * Checks if this snapshot was taken from the current state of the cache invalidation node.
+     */
+    public boolean isValid(long invalidationZxid, int invalidationVersion) {
+        return this.invalidationZxid == invalidationZxid && this.invalidationVersion == invalidationVersion;
+    }
+
+    public Map<String, Integer> getBucketVersions() {
+        return bucketVersions;
+    }
+
+    public List<FieldType> getFieldTypes() {
+        return fieldTypes;
+    }
+
+    public List<RecordType> getRecordTypes() {
+        return recordTypes;
+    }
+
+    /**
+     * Reads a snapshot, returns null if the snapshot is in an unknown format.
+     *
+     * @param typeManager used to instantiate the types
+     */
+    public static SchemaSnapshot read(File file, TypeManager typeManager)
+            throws IOException, RepositoryException, InterruptedException {
+        return read(new FileInputStream(file), typeManager);
+    }
+
+    /**
+     * Reads a snapshot from a Hadoop file system, returns null if the snapshot is in an unknown format.
+     *
+     * @param typeManager used to instantiate the types
+     */
+    public static SchemaSnapshot read(FileSystem fs, Path path, TypeManager typeManager)
+            throws IOException, RepositoryException, InterruptedException {
+        return read(fs.open(path), typeManager);
+    }
+
+    private static SchemaSnapshot read(InputStream in, TypeManager typeManager)
+            throws IOException, RepositoryException, InterruptedException {
+        DataInputStream is = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (is.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            long invalidationZxid = is.readLong();
+            int invalidationVersion = is.readInt();
+
+            int bucketCount = is.readInt();
+            Map<String, Integer> bucketVersions = new HashMap<String, Integer>(bucketCount);
+            for (int i = 0; i < bucketCount; i++) {
+                bucketVersions.put(is.readUTF(), is.readInt());
+            }
+
+            int fieldTypeCount = is.readInt();
+            List<FieldType> fieldTypes = new ArrayList<FieldType>(fieldTypeCount);
+            for (int i = 0; i < fieldTypeCount; i++) {
+                SchemaId id = readSchemaId(is);
+                QName name = readQName(is);
+                String valueType = is.readUTF();
+                Scope scope = Scope.valueOf(is.readUTF());
+                fieldTypes.add(typeManager.newFieldType(id, typeManager.getValueType(valueType), name, scope));
+            }
+
+            int recordTypeCount = is.readInt();
+            List<RecordType> recordTypes = new ArrayList<RecordType>(recordTypeCount);
+            for (int i = 0; i < recordTypeCount; i++) {
+                RecordType recordType = typeManager.newRecordType(readSchemaId(is), readQName(is));
+                recordType.setVersion(is.readLong());
+                int entryCount = is.readInt();
+                for (int j = 0; j < entryCount; j++) {
+                    recordType.addFieldTypeEntry(readSchemaId(is), is.readBoolean());
+                }
+                int supertypeCount = is.readInt();
+                for (int j = 0; j < supertypeCount; j++) {
+                    SchemaId supertypeId = readSchemaId(is);
+                    recordType.addSupertype(supertypeId, is.readBoolean() ? is.readLong() : null);
+                }
+                recordTypes.add(recordType);
+            }
+
+            return new SchemaSnapshot(invalidationZxid, invalidationVersion, bucketVersions, fieldTypes,
+                    recordTypes);
+        } finally {
+            Closer.close(is);
+        }
+    }
+
+    /**
+     * Writes the snapshot. The file is replaced at once, so that processes reading it concurrently
+     * never see a partially written snapshot.
+     */
+    public void write(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        boolean written = false;
+        try {
+            write(new FileOutputStream(tmpFile));
+            written = true;
+        } finally {
+            if (!written) {
+                tmpFile.delete();
+            }
+        }
+
+        if (!tmpFile.renameTo(file)) {
+            // On some platforms, rename does not overwrite existing files
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Could not rename " + tmpFile + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot to a Hadoop file system. The snapshot is written to a temporary file first, so that
+     * processes reading it concurrently never see a partially written snapshot. Since renaming does not replace
+     * an existing file on all file systems, a reader can briefly find no snapshot at all.
+     */
+    public void write(FileSystem fs, Path path) throws IOException {
+        Path tmpPath = new Path(path.getParent(), "." + path.getName() + "." + UUID.randomUUID() + ".tmp");
+        boolean written = false;
+        try {
+            write(fs.create(tmpPath, true));
+            written = true;
+        } finally {
+            if (!written) {
+                fs.delete(tmpPath, false);
+            }
+        }
+
+        if (!fs.rename(tmpPath, path)) {
+            fs.delete(path, false);
+            if (!fs.rename(tmpPath, path)) {
+                fs.delete(tmpPath, false);
+                throw new IOException("Could not rename " + tmpPath + " to " + path);
+            }
+        }
+    }
+
+    private void write(OutputStream out) throws IOException {
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(out));
+        try {
+            os.writeInt(FORMAT_VERSION);
+            os.writeLong(invalidationZxid);
+            os.writeInt(invalidationVersion);
+
+            os.writeInt(bucketVersions.size());
+            for (Map.Entry<String, Integer> entry : bucketVersions.entrySet()) {
+                os.writeUTF(entry.getKey());
+                os.writeInt(entry.getValue());
+            }
+
+            os.writeInt(fieldTypes.size());
+            for (FieldType fieldType : fieldTypes) {
+                writeSchemaId(os, fieldType.getId());
+                writeQName(os, fieldType.getName());
+                os.writeUTF(fieldType.getValueType().getName());
+                os.writeUTF(fieldType.getScope().name());
+            }
+
+            os.writeInt(recordTypes.size());
+            for (RecordType recordType : recordTypes) {
+                writeSchemaId(os, recordType.getId());
+                writeQName(os, recordType.getName());
+                os.writeLong(recordType.getVersion());
+                Collection<FieldTypeEntry> entries = recordType.getFieldTypeEntries();
+                os.writeInt(entries.size());
+                for (FieldTypeEntry entry : entries) {
+                    writeSchemaId(os, entry.getFieldTypeId());
+                    os.writeBoolean(entry.isMandatory());
+                }
+                Map<SchemaId, Long> supertypes = recordType.getSupertypes();
+                os.writeInt(supertypes.size());
+                for (Map.Entry<SchemaId, Long> entry : supertypes.entrySet()) {
+                    writeSchemaId(os, entry.getKey());
+                    os.writeBoolean(entry.getValue() != null);
+                    if (entry.getValue() != null) {
+                        os.writeLong(entry.getValue());
+                    }
+                }
+            }
+            os.close();
+        } finally {
+            Closer.close(os);
+        }
+    }
+
+    private static SchemaId readSchemaId(DataInputStream is) throws IOException {
+        byte[] id = new byte[is.readInt()];
+        is.readFully(id);
+        return new SchemaIdImpl(id);
+    }
+
+    private static void writeSchemaId(DataOutputStream os, SchemaId id) throws IOException {
+        byte[] bytes = id.getBytes();
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    private static QName readQName(DataInputStream is) throws IOException {
+        String namespace = is.readBoolean() ? is.readUTF() : null;
+        return new QName(namespace, is.readUTF());
+    }
+
+    private static void writeQName(DataOutputStream os, QName name) throws IOException {
+        os.writeBoolean(name.getNamespace() != null);
+        if (name.getNamespace() != null) {
+            os.writeUTF(name.getNamespace());
+        }
+        os.writeUTF(name.getName());
+    }
+}
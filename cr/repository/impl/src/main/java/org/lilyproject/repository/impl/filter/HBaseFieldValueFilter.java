@@ -15,6 +15,10 @@
  */
 package org.lilyproject.repository.impl.filter;
 
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
@@ -23,10 +27,12 @@ import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdentityRecordStack;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.filter.FieldValueFilter;
 import org.lilyproject.repository.api.filter.RecordFilter;
 import org.lilyproject.repository.impl.FieldTypeImpl;
 import org.lilyproject.repository.impl.hbase.LilyFieldSingleColumnValueFilter;
+import org.lilyproject.repository.impl.hbase.ValueTypeComparator;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 
@@ -45,24 +51,61 @@ public class HBaseFieldValueFilter implements HBaseRecordFilterFactory {
             throw new IllegalArgumentException("Field name should be specified in FieldValueFilter");
         }
 
-        if (filter.getFieldValue() == null) {
+        List<Object> fieldValues = filter.getFieldValues();
+        if (filter.getFieldValue() == null && (fieldValues == null || fieldValues.isEmpty())) {
             throw new IllegalArgumentException("Field value should be specified in FieldValueFilter");
         }
 
-        CompareOp compareOp = filter.getCompareOp() != null ? filter.getCompareOp() : CompareOp.EQUAL;
-        if (compareOp != CompareOp.EQUAL && compareOp != CompareOp.NOT_EQUAL) {
-            throw new IllegalArgumentException("FieldValueFilter does not support this compare operator: " + compareOp);
+        if (filter.getFieldValue() != null && fieldValues != null) {
+            throw new IllegalArgumentException("Only one of field value and field values should be specified in " +
+                    "FieldValueFilter");
         }
 
+        CompareOp compareOp = filter.getCompareOp() != null ? filter.getCompareOp() : CompareOp.EQUAL;
         FieldType fieldType = repository.getTypeManager().getFieldTypeByName(filter.getField());
-        DataOutput dataOutput = new DataOutputImpl();
-        fieldType.getValueType().write(filter.getFieldValue(), dataOutput, new IdentityRecordStack());
-        byte[] fieldValue = dataOutput.toByteArray();
 
-        LilyFieldSingleColumnValueFilter hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes,
-                ((FieldTypeImpl)fieldType).getQualifier(), HBaseRecordFilterUtil.translateCompareOp(compareOp), fieldValue);
+        LilyFieldSingleColumnValueFilter hbaseFilter;
+        if (fieldValues == null && (compareOp == CompareOp.EQUAL || compareOp == CompareOp.NOT_EQUAL)) {
+            // (In)equality of a single value can be checked on the encoded bytes
+            byte[] fieldValue = encode(fieldType.getValueType(), filter.getFieldValue());
+            hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes,
+                    ((FieldTypeImpl)fieldType).getQualifier(), HBaseRecordFilterUtil.translateCompareOp(compareOp),
+                    fieldValue);
+        } else {
+            if (fieldValues != null && compareOp != CompareOp.EQUAL && compareOp != CompareOp.NOT_EQUAL) {
+                throw new IllegalArgumentException("FieldValueFilter with multiple field values does not support " +
+                        "this compare operator: " + compareOp);
+            }
+
+            ValueType baseValueType = fieldType.getValueType().getDeepestValueType();
+            if (!ValueTypeComparator.supports(baseValueType.getBaseName())) {
+                throw new IllegalArgumentException("FieldValueFilter does not support compare operator " + compareOp +
+                        (fieldValues != null ? " with multiple field values" : "") + " for value type " +
+                        fieldType.getValueType().getName());
+            }
+
+            List<Object> values = fieldValues != null ? fieldValues : Collections.singletonList(filter.getFieldValue());
+            byte[][] encodedValues = new byte[values.size()][];
+            for (int i = 0; i < encodedValues.length; i++) {
+                encodedValues[i] = encode(baseValueType, values.get(i));
+            }
+
+            ValueTypeComparator comparator = new ValueTypeComparator(
+                    ValueTypeComparator.Type.valueOf(baseValueType.getBaseName()),
+                    fieldType.getValueType().getNestingLevel(), HBaseRecordFilterUtil.translateCompareOp(compareOp),
+                    encodedValues);
+            // The comparator evaluates the compare operator itself, and returns 0 for matching values
+            hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes,
+                    ((FieldTypeImpl)fieldType).getQualifier(), CompareFilter.CompareOp.EQUAL, comparator);
+        }
         hbaseFilter.setFilterIfMissing(filter.getFilterIfMissing());
 
         return hbaseFilter;
     }
+
+    private byte[] encode(ValueType valueType, Object value) throws RepositoryException, InterruptedException {
+        DataOutput dataOutput = new DataOutputImpl();
+        valueType.write(value, dataOutput, new IdentityRecordStack());
+        return dataOutput.toByteArray();
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.BaseEndpointCoprocessor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+
+/**
+ * Coprocessor endpoint which computes aggregates over the records in a region, so that only the partial
+ * aggregates need to be sent to the client instead of the records.
+ *
+ * <p>The filters of the scan are evaluated as for a normal scan. Record types and field values are handled
+ * on their encoded form, since the type manager is not available in the region server.</p>
+ *
+ * <p>The endpoint is not loaded by default: it has to be enabled on the record tables, either through the
+ * coprocessors setting of the table configuration (tables.xml) before the tables are created, or by adding it
+ * to the descriptor of existing tables. Like the Lily filters, it requires the Lily repository jars on the
+ * classpath of the region servers.</p>
+ *
+ * <p>Each region is aggregated in a single call, which is subject to the RPC timeout of the client
+ * (hbase.rpc.timeout). The timeout should be large enough to scan a complete region, taking the filters
+ * into account.</p>
+ */
+public class AggregationEndpoint extends BaseEndpointCoprocessor implements AggregationProtocol {
+    @Override
+    public PartialAggregate aggregate(Scan scan, AggregationRequest request) throws IOException {
+        PartialAggregate aggregate = new PartialAggregate(request);
+
+        InternalScanner scanner = ((RegionCoprocessorEnvironment)getEnvironment()).getRegion().getScanner(scan);
+        try {
+            List<KeyValue> row = new ArrayList<KeyValue>();
+            boolean hasMore;
+            do {
+                hasMore = scanner.next(row);
+                if (!row.isEmpty()) {
+                    aggregate.add(row, request);
+                    row.clear();
+                }
+            } while (hasMore);
+        } finally {
+            scanner.close();
+        }
+
+        return aggregate;
+    }
+}
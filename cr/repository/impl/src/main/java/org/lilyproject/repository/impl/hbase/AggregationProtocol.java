@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+
+/**
+ * Coprocessor protocol to compute aggregates over the records of a region, see {@link AggregationEndpoint}.
+ */
+public interface AggregationProtocol extends CoprocessorProtocol {
+    /**
+     * Computes the aggregates over the rows of the region which are selected by the scan, including its filters.
+     */
+    PartialAggregate aggregate(Scan scan, AggregationRequest request) throws IOException;
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The aggregates to compute in a region, see {@link AggregationProtocol}. Fields are identified by their
+ * column qualifier, since the type manager is not available in the region servers.
+ */
+public class AggregationRequest implements Writable {
+    private boolean countByRecordType;
+    private List<StatisticsField> statisticsFields = new ArrayList<StatisticsField>();
+    private List<byte[]> distinctCountFields = new ArrayList<byte[]>();
+
+    public boolean getCountByRecordType() {
+        return countByRecordType;
+    }
+
+    public void setCountByRecordType(boolean countByRecordType) {
+        this.countByRecordType = countByRecordType;
+    }
+
+    public List<StatisticsField> getStatisticsFields() {
+        return statisticsFields;
+    }
+
+    /**
+     * @param nestingLevel the number of List or Path levels around the numeric value type
+     */
+    public void addStatisticsField(byte[] qualifier, ValueTypeComparator.Type type, int nestingLevel) {
+        statisticsFields.add(new StatisticsField(qualifier, type, nestingLevel));
+    }
+
+    public List<byte[]> getDistinctCountFields() {
+        return distinctCountFields;
+    }
+
+    public void addDistinctCountField(byte[] qualifier) {
+        distinctCountFields.add(qualifier);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeBoolean(countByRecordType);
+        out.writeInt(statisticsFields.size());
+        for (StatisticsField field : statisticsFields) {
+            Bytes.writeByteArray(out, field.qualifier);
+            out.writeUTF(field.type.name());
+            out.writeInt(field.nestingLevel);
+        }
+        out.writeInt(distinctCountFields.size());
+        for (byte[] qualifier : distinctCountFields) {
+            Bytes.writeByteArray(out, qualifier);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        countByRecordType = in.readBoolean();
+        int count = in.readInt();
+        statisticsFields = new ArrayList<StatisticsField>(count);
+        for (int i = 0; i < count; i++) {
+            statisticsFields.add(new StatisticsField(Bytes.readByteArray(in),
+                    ValueTypeComparator.Type.valueOf(in.readUTF()), in.readInt()));
+        }
+        count = in.readInt();
+        distinctCountFields = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            distinctCountFields.add(Bytes.readByteArray(in));
+        }
+    }
+
+    public static class StatisticsField {
+        private final byte[] qualifier;
+        private final ValueTypeComparator.Type type;
+        private final int nestingLevel;
+
+        StatisticsField(byte[] qualifier, ValueTypeComparator.Type type, int nestingLevel) {
+            this.qualifier = qualifier;
+            this.type = type;
+            this.nestingLevel = nestingLevel;
+        }
+
+        public byte[] getQualifier() {
+            return qualifier;
+        }
+
+        public ValueTypeComparator.Type getType() {
+            return type;
+        }
+
+        public int getNestingLevel() {
+            return nestingLevel;
+        }
+    }
+}
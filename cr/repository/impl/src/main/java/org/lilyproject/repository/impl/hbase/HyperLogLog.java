@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * A HyperLogLog sketch, to estimate the number of distinct values in a stream of values, using a fixed amount
+ * of memory. Sketches of different parts of the stream can be merged, which gives the same sketch as when all
+ * values would have been added to one of them.
+ *
+ * <p>With the precision used here, a sketch takes 16KB and the typical error of the estimate is 0.8%.</p>
+ */
+public class HyperLogLog implements Writable {
+    private static final int PRECISION = 14;
+    private static final int REGISTER_COUNT = 1 << PRECISION;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private byte[] registers = new byte[REGISTER_COUNT];
+
+    public void add(byte[] value, int offset, int length) {
+        long hash = HASH_FUNCTION.hashBytes(value, offset, length).asLong();
+        int index = (int)(hash >>> (Long.SIZE - PRECISION));
+        // The position of the first 1-bit in the remaining bits, the added 1-bit bounds it for a zero remainder
+        byte rank = (byte)(Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeroRegisters = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeroRegisters++;
+            }
+        }
+
+        double alpha = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+        double estimate = alpha * REGISTER_COUNT * REGISTER_COUNT / sum;
+        if (estimate <= 2.5 * REGISTER_COUNT && zeroRegisters > 0) {
+            // Small cardinalities: linear counting is more accurate
+            estimate = REGISTER_COUNT * Math.log((double)REGISTER_COUNT / zeroRegisters);
+        }
+        return Math.round(estimate);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.write(registers);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        registers = new byte[REGISTER_COUNT];
+        in.readFully(registers);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.impl.FieldFlags;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+/**
+ * The aggregates of part of the records, typically those of one region. The aggregates of the parts are
+ * merged into the overall result.
+ *
+ * <p>The statistics and distinct count sketches are kept in the same order as the fields in the
+ * {@link AggregationRequest}.</p>
+ *
+ * <p>IMPORTANT: This implementation depends on the byte encodings of the value types and of the field flags.
+ * Any changes there have an impact on this implementation.</p>
+ */
+public class PartialAggregate implements Writable {
+    private long count;
+    private Map<byte[], Long> countsByRecordType = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+    private Statistics[] statistics;
+    private HyperLogLog[] distinctCounts;
+
+    /**
+     * Nullary constructor, for Writable
+     */
+    public PartialAggregate() {
+    }
+
+    public PartialAggregate(AggregationRequest request) {
+        statistics = new Statistics[request.getStatisticsFields().size()];
+        for (int i = 0; i < statistics.length; i++) {
+            statistics[i] = new Statistics();
+        }
+        distinctCounts = new HyperLogLog[request.getDistinctCountFields().size()];
+        for (int i = 0; i < distinctCounts.length; i++) {
+            distinctCounts[i] = new HyperLogLog();
+        }
+    }
+
+    /**
+     * Adds one record, given as the latest versions of its columns.
+     */
+    public void add(List<KeyValue> row, AggregationRequest request) {
+        count++;
+
+        List<AggregationRequest.StatisticsField> statisticsFields = request.getStatisticsFields();
+        List<byte[]> distinctCountFields = request.getDistinctCountFields();
+        for (KeyValue kv : row) {
+            if (request.getCountByRecordType() && matchesQualifier(kv, RecordColumn.NON_VERSIONED_RT_ID.bytes)) {
+                byte[] recordTypeId = kv.getValue();
+                Long recordTypeCount = countsByRecordType.get(recordTypeId);
+                countsByRecordType.put(recordTypeId, recordTypeCount == null ? 1L : recordTypeCount + 1);
+                continue;
+            }
+
+            for (int i = 0; i < statisticsFields.size(); i++) {
+                AggregationRequest.StatisticsField field = statisticsFields.get(i);
+                if (matchesQualifier(kv, field.getQualifier())) {
+                    byte[] value = kv.getValue();
+                    int length = getFieldValueLength(value);
+                    if (length >= 0) {
+                        statistics[i].add(new DataInputImpl(value, FieldFlags.SIZE_OF_FIELD_FLAGS, length),
+                                field.getType(), field.getNestingLevel());
+                    }
+                }
+            }
+
+            for (int i = 0; i < distinctCountFields.size(); i++) {
+                if (matchesQualifier(kv, distinctCountFields.get(i))) {
+                    byte[] value = kv.getValue();
+                    int length = getFieldValueLength(value);
+                    if (length >= 0) {
+                        distinctCounts[i].add(value, FieldFlags.SIZE_OF_FIELD_FLAGS, length);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean matchesQualifier(KeyValue kv, byte[] qualifier) {
+        return Bytes.equals(kv.getBuffer(), kv.getQualifierOffset(), kv.getQualifierLength(),
+                qualifier, 0, qualifier.length);
+    }
+
+    /**
+     * Returns the length of the encoded value of a field, which follows the field flags and is followed by the
+     * metadata, or -1 if the field is deleted.
+     */
+    private static int getFieldValueLength(byte[] value) {
+        byte flags = value[0];
+        if (!FieldFlags.exists(flags)) {
+            return -1;
+        }
+
+        int metadataSpace;
+        int metadataEncodingVersion = FieldFlags.getFieldMetadataVersion(flags);
+        if (metadataEncodingVersion == 0) {
+            metadataSpace = 0;
+        } else if (metadataEncodingVersion == 1) {
+            metadataSpace = Bytes.toInt(value, value.length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT) + Bytes.SIZEOF_INT;
+        } else {
+            throw new RuntimeException("Unsupported field metadata encoding version: " + metadataEncodingVersion);
+        }
+
+        return value.length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace;
+    }
+
+    public void merge(PartialAggregate other) {
+        count += other.count;
+        for (Map.Entry<byte[], Long> entry : other.countsByRecordType.entrySet()) {
+            Long recordTypeCount = countsByRecordType.get(entry.getKey());
+            countsByRecordType.put(entry.getKey(),
+                    recordTypeCount == null ? entry.getValue() : recordTypeCount + entry.getValue());
+        }
+        for (int i = 0; i < statistics.length; i++) {
+            statistics[i].merge(other.statistics[i]);
+        }
+        for (int i = 0; i < distinctCounts.length; i++) {
+            distinctCounts[i].merge(other.distinctCounts[i]);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The number of records per record type id, the records without a record type are not counted.
+     */
+    public Map<byte[], Long> getCountsByRecordType() {
+        return countsByRecordType;
+    }
+
+    public Statistics getStatistics(int index) {
+        return statistics[index];
+    }
+
+    public HyperLogLog getDistinctCount(int index) {
+        return distinctCounts[index];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeInt(countsByRecordType.size());
+        for (Map.Entry<byte[], Long> entry : countsByRecordType.entrySet()) {
+            Bytes.writeByteArray(out, entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        out.writeInt(statistics.length);
+        for (Statistics stats : statistics) {
+            stats.write(out);
+        }
+        out.writeInt(distinctCounts.length);
+        for (HyperLogLog distinctCount : distinctCounts) {
+            distinctCount.write(out);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        count = in.readLong();
+        countsByRecordType = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            countsByRecordType.put(Bytes.readByteArray(in), in.readLong());
+        }
+        statistics = new Statistics[in.readInt()];
+        for (int i = 0; i < statistics.length; i++) {
+            statistics[i] = new Statistics();
+            statistics[i].readFields(in);
+        }
+        distinctCounts = new HyperLogLog[in.readInt()];
+        for (int i = 0; i < distinctCounts.length; i++) {
+            distinctCounts[i] = new HyperLogLog();
+            distinctCounts[i].readFields(in);
+        }
+    }
+
+    /**
+     * The count, minimum, maximum and sum of the values of a numeric field.
+     */
+    public static class Statistics implements Writable {
+        private long count;
+        private BigDecimal min;
+        private BigDecimal max;
+        private BigDecimal sum = BigDecimal.ZERO;
+
+        void add(DataInputImpl input, ValueTypeComparator.Type type, int nestingLevel) {
+            if (nestingLevel == 0) {
+                add(toBigDecimal(ValueTypeComparator.read(type, input)));
+                return;
+            }
+
+            int size = input.readInt(); // Number of elements in the list or path
+            for (int i = 0; i < size; i++) {
+                add(input, type, nestingLevel - 1);
+            }
+        }
+
+        private static BigDecimal toBigDecimal(Comparable value) {
+            if (value instanceof Double) {
+                Double doubleValue = (Double)value;
+                return doubleValue.isNaN() || doubleValue.isInfinite() ? null : BigDecimal.valueOf(doubleValue);
+            } else if (value instanceof BigDecimal) {
+                return (BigDecimal)value;
+            } else {
+                return BigDecimal.valueOf(((Number)value).longValue());
+            }
+        }
+
+        private void add(BigDecimal value) {
+            if (value == null) {
+                return;
+            }
+            count++;
+            min = min == null || value.compareTo(min) < 0 ? value : min;
+            max = max == null || value.compareTo(max) > 0 ? value : max;
+            sum = sum.add(value);
+        }
+
+        void merge(Statistics other) {
+            count += other.count;
+            if (other.min != null) {
+                min = min == null || other.min.compareTo(min) < 0 ? other.min : min;
+                max = max == null || other.max.compareTo(max) > 0 ? other.max : max;
+            }
+            sum = sum.add(other.sum);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public BigDecimal getMin() {
+            return min;
+        }
+
+        public BigDecimal getMax() {
+            return max;
+        }
+
+        public BigDecimal getSum() {
+            return sum;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeLong(count);
+            out.writeUTF(sum.toString());
+            if (count > 0) {
+                out.writeUTF(min.toString());
+                out.writeUTF(max.toString());
+            }
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            count = in.readLong();
+            sum = new BigDecimal(in.readUTF());
+            if (count > 0) {
+                min = new BigDecimal(in.readUTF());
+                max = new BigDecimal(in.readUTF());
+            } else {
+                min = null;
+                max = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.bytes.impl.DataInputImpl;
+
+/**
+ * Compares a field value with one or more given values, after decoding them, so that the comparison follows the
+ * natural order of the value type rather than the order of the encoded bytes. This is what allows less/greater
+ * comparisons to be evaluated in the region servers.
+ *
+ * <p>For multi-value and hierarchical fields, the comparison succeeds if one of the values of the field satisfies
+ * it, in the same way as for the {@link ContainsValueComparator}. For {@link CompareFilter.CompareOp#EQUAL}, more
+ * than one value can be given, in which case the field value should be equal to one of them. For
+ * {@link CompareFilter.CompareOp#NOT_EQUAL}, none of the values of the field should be equal to any of them.</p>
+ *
+ * <p>This comparator returns 0 when the field value satisfies the comparison, so it should be used with the
+ * EQUAL operator in {@link LilyFieldSingleColumnValueFilter}.</p>
+ *
+ * <p>IMPORTANT: This implementation depends on the byte encodings of the value types and of DataOutputImpl.
+ * Any changes there have an impact on this implementation.</p>
+ */
+public class ValueTypeComparator extends WritableByteArrayComparable {
+    /**
+     * The value types which can be compared, these are the base names of the value types.
+     */
+    public enum Type {
+        INTEGER, LONG, DOUBLE, DECIMAL, DATE, DATETIME, STRING
+    }
+
+    private Type type;
+    private int nestingLevel;
+    private CompareFilter.CompareOp compareOp;
+    /**
+     * The values to compare with, each encoded by the value type.
+     */
+    private byte[][] encodedValues;
+    private Comparable[] values;
+
+    /**
+     * Nullary constructor, for Writable
+     */
+    public ValueTypeComparator() {
+        super();
+    }
+
+    /**
+     * @param nestingLevel the number of List or Path levels around the base value type
+     * @param encodedValues the values to compare with, as encoded by the base value type. Only for EQUAL and
+     *                      NOT_EQUAL, there can be more than one.
+     */
+    public ValueTypeComparator(Type type, int nestingLevel, CompareFilter.CompareOp compareOp,
+                               byte[]... encodedValues) {
+        if (encodedValues.length == 0) {
+            throw new IllegalArgumentException("At least one value is needed");
+        }
+        if (encodedValues.length > 1 && compareOp != CompareFilter.CompareOp.EQUAL
+                && compareOp != CompareFilter.CompareOp.NOT_EQUAL) {
+            throw new IllegalArgumentException("Multiple values are only supported for EQUAL and NOT_EQUAL, not for "
+                    + compareOp);
+        }
+        this.type = type;
+        this.nestingLevel = nestingLevel;
+        this.compareOp = compareOp;
+        this.encodedValues = encodedValues;
+    }
+
+    /**
+     * Returns whether a value type, identified by the base name of its deepest value type, can be compared by
+     * this comparator.
+     */
+    public static boolean supports(String baseName) {
+        for (Type type : Type.values()) {
+            if (type.name().equals(baseName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] getValue() {
+        return encodedValues[0];
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        type = Type.valueOf(in.readUTF());
+        nestingLevel = in.readInt();
+        compareOp = CompareFilter.CompareOp.valueOf(in.readUTF());
+        encodedValues = new byte[in.readInt()][];
+        for (int i = 0; i < encodedValues.length; i++) {
+            encodedValues[i] = Bytes.readByteArray(in);
+        }
+        values = null;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(type.name());
+        out.writeInt(nestingLevel);
+        out.writeUTF(compareOp.name());
+        out.writeInt(encodedValues.length);
+        for (byte[] encodedValue : encodedValues) {
+            Bytes.writeByteArray(out, encodedValue);
+        }
+    }
+
+    @Override
+    public int compareTo(byte[] theirValue, int offset, int length) {
+        if (values == null) {
+            values = new Comparable[encodedValues.length];
+            for (int i = 0; i < encodedValues.length; i++) {
+                values[i] = read(new DataInputImpl(encodedValues[i]));
+            }
+        }
+
+        DataInputImpl input = new DataInputImpl(theirValue, offset, length);
+        if (compareOp == CompareFilter.CompareOp.NOT_EQUAL) {
+            return containsMatch(input, nestingLevel, CompareFilter.CompareOp.EQUAL) ? 1 : 0;
+        }
+        return containsMatch(input, nestingLevel, compareOp) ? 0 : 1;
+    }
+
+    private boolean containsMatch(DataInputImpl input, int level, CompareFilter.CompareOp op) {
+        if (level == 0) {
+            return matches(read(input), op);
+        }
+
+        int count = input.readInt(); // Number of elements in the list or path
+        for (int i = 0; i < count; i++) {
+            if (containsMatch(input, level - 1, op)) {
+                // no need to read the rest
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean matches(Comparable fieldValue, CompareFilter.CompareOp op) {
+        for (Comparable value : values) {
+            int cmp = fieldValue.compareTo(value);
+            boolean match;
+            switch (op) {
+                case LESS:
+                    match = cmp < 0;
+                    break;
+                case LESS_OR_EQUAL:
+                    match = cmp <= 0;
+                    break;
+                case EQUAL:
+                    match = cmp == 0;
+                    break;
+                case GREATER_OR_EQUAL:
+                    match = cmp >= 0;
+                    break;
+                case GREATER:
+                    match = cmp > 0;
+                    break;
+                default:
+                    throw new RuntimeException("Unsupported compare op " + op);
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Comparable read(DataInputImpl input) {
+        return read(type, input);
+    }
+
+    /**
+     * Reads a value in the same way as the value type does. Dates and date-times are read as their
+     * milliseconds.
+     */
+    static Comparable read(Type type, DataInputImpl input) {
+        switch (type) {
+            case INTEGER:
+                return input.readInt();
+            case LONG:
+                return input.readLong();
+            case DOUBLE:
+                return input.readDouble();
+            case DECIMAL:
+                return new BigDecimal(input.readUTF());
+            case DATE:
+            case DATETIME:
+                input.readByte(); // Encoding version, currently there is only one
+                return input.readLong();
+            case STRING:
+                input.readByte(); // Encoding version, currently there is only one
+                return input.readUTF();
+            default:
+                throw new RuntimeException("Unsupported value type " + type);
+        }
+    }
+}
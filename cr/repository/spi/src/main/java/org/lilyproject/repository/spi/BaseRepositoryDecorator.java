@@ -30,6 +30,8 @@ import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.MutationCondition;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordAggregation;
+import org.lilyproject.repository.api.RecordAggregationResult;
 import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordFactory;
@@ -277,6 +279,12 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.getScannerWithIds(scan);
     }
 
+    @Override
+    public RecordAggregationResult aggregate(RecordScan scan, RecordAggregation aggregation)
+            throws RepositoryException, InterruptedException {
+        return delegate.aggregate(scan, aggregation);
+    }
+
     /**
      * Close should not delegate, the framework will take care of closing each decorator in the chain.
      */
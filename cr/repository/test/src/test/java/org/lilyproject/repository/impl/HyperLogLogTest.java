@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Writables;
+import org.junit.Test;
+import org.lilyproject.repository.impl.hbase.HyperLogLog;
+
+import static org.junit.Assert.assertEquals;
+
+public class HyperLogLogTest {
+    @Test
+    public void testEstimate() {
+        HyperLogLog hll = new HyperLogLog();
+        assertEquals(0, hll.estimate());
+
+        // Duplicates don't count
+        for (int i = 0; i < 3; i++) {
+            for (int value = 0; value < 100; value++) {
+                add(hll, value);
+            }
+        }
+        assertEquals(100, hll.estimate(), 2);
+
+        for (int value = 100; value < 100000; value++) {
+            add(hll, value);
+        }
+        assertEquals(100000, hll.estimate(), 3000);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        HyperLogLog hll1 = new HyperLogLog();
+        HyperLogLog hll2 = new HyperLogLog();
+        HyperLogLog all = new HyperLogLog();
+        for (int value = 0; value < 50000; value++) {
+            add(value % 2 == 0 ? hll1 : hll2, value);
+            add(all, value);
+        }
+        // Overlapping values
+        for (int value = 0; value < 1000; value++) {
+            add(hll2, value);
+        }
+
+        // Merge a serialized copy, as happens when the partial results of the regions are combined
+        HyperLogLog copy = new HyperLogLog();
+        Writables.getWritable(Writables.getBytes(hll2), copy);
+        hll1.merge(copy);
+        assertEquals(all.estimate(), hll1.estimate());
+    }
+
+    private void add(HyperLogLog hll, int value) {
+        byte[] bytes = Bytes.toBytes(value);
+        hll.add(bytes, 0, bytes.length);
+    }
+}
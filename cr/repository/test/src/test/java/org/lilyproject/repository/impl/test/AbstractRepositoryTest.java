@@ -24,6 +24,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -49,6 +50,7 @@ import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.CompareOp;
 import org.lilyproject.repository.api.ConcurrentRecordUpdateException;
 import org.lilyproject.repository.api.FieldNotFoundException;
+import org.lilyproject.repository.api.FieldStatistics;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.IdRecord;
@@ -60,6 +62,8 @@ import org.lilyproject.repository.api.MetadataBuilder;
 import org.lilyproject.repository.api.MutationCondition;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordAggregation;
+import org.lilyproject.repository.api.RecordAggregationResult;
 import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordExistsException;
@@ -2724,6 +2728,167 @@ public abstract class AbstractRepositoryTest {
         assertEquals(3, countResults(repository.getScanner(scan)));
     }
 
+    @Test
+    public void testFieldValueFilter_RangeAndValues() throws Exception {
+        FieldType longField =
+                typeManager.createFieldType("LONG", new QName("FieldValueFilterRange", "long"), Scope.NON_VERSIONED);
+        FieldType listField = typeManager.createFieldType("LIST<INTEGER>",
+                new QName("FieldValueFilterRange", "list"), Scope.NON_VERSIONED);
+        RecordType rt = typeManager.recordTypeBuilder()
+                .defaultNamespace("FieldValueFilterRange")
+                .name("rt1")
+                .fieldEntry().use(longField).add()
+                .fieldEntry().use(listField).add()
+                .create();
+
+        // Negative values encode to bytes which sort after the positive ones, so a byte comparison would not do
+        for (long value = -2; value <= 2; value++) {
+            repository.recordBuilder()
+                    .recordType(rt.getName())
+                    .field(longField.getName(), value)
+                    .field(listField.getName(), Lists.newArrayList((int)value, (int)value * 10))
+                    .create();
+        }
+
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.LESS, 0L));
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.GREATER_OR_EQUAL, -1L));
+        assertEquals(4, countResults(repository.getScanner(scan)));
+
+        // A range, as a combination of two filters
+        RecordFilterList range = new RecordFilterList();
+        range.addFilter(new FieldValueFilter(longField.getName(), CompareOp.GREATER, -2L));
+        range.addFilter(new FieldValueFilter(longField.getName(), CompareOp.LESS_OR_EQUAL, 1L));
+        scan = new RecordScan();
+        scan.setRecordFilter(range);
+        assertEquals(3, countResults(repository.getScanner(scan)));
+
+        FieldValueFilter in = new FieldValueFilter();
+        in.setField(longField.getName());
+        in.setFieldValues(Lists.<Object>newArrayList(-2L, 2L, 5L));
+        scan = new RecordScan();
+        scan.setRecordFilter(in);
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        FieldValueFilter notIn = new FieldValueFilter();
+        notIn.setField(longField.getName());
+        notIn.setCompareOp(CompareOp.NOT_EQUAL);
+        notIn.setFieldValues(Lists.<Object>newArrayList(-2L, 2L, 5L));
+        scan = new RecordScan();
+        scan.setRecordFilter(notIn);
+        assertEquals(3, countResults(repository.getScanner(scan)));
+
+        // For a list field, one of the values should match: the lists are (v, v*10)
+        scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(listField.getName(), CompareOp.GREATER, 5));
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        FieldValueFilter listIn = new FieldValueFilter();
+        listIn.setField(listField.getName());
+        listIn.setFieldValues(Lists.<Object>newArrayList(-10, 2));
+        scan = new RecordScan();
+        scan.setRecordFilter(listIn);
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        // Ranges are not supported for value types without a natural order
+        FieldType booleanField = typeManager.createFieldType("BOOLEAN",
+                new QName("FieldValueFilterRange", "boolean"), Scope.NON_VERSIONED);
+        scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(booleanField.getName(), CompareOp.LESS, Boolean.TRUE));
+        try {
+            countResults(repository.getScanner(scan));
+            fail("Expected exception for range comparison on unsupported value type");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        FieldType amount =
+                typeManager.createFieldType("DECIMAL", new QName("Aggregate", "amount"), Scope.NON_VERSIONED);
+        FieldType scores =
+                typeManager.createFieldType("LIST<LONG>", new QName("Aggregate", "scores"), Scope.NON_VERSIONED);
+        FieldType category =
+                typeManager.createFieldType("STRING", new QName("Aggregate", "category"), Scope.NON_VERSIONED);
+        RecordType rt1 = typeManager.recordTypeBuilder().defaultNamespace("Aggregate").name("rt1")
+                .fieldEntry().use(amount).add().fieldEntry().use(scores).add().fieldEntry().use(category).add()
+                .create();
+        RecordType rt2 = typeManager.recordTypeBuilder().defaultNamespace("Aggregate").name("rt2")
+                .fieldEntry().use(amount).add().fieldEntry().use(category).add()
+                .create();
+
+        for (int i = 1; i <= 4; i++) {
+            repository.recordBuilder()
+                    .id("aggregate-" + i)
+                    .recordType(rt1.getName())
+                    .field(amount.getName(), new BigDecimal(i + ".5"))
+                    .field(scores.getName(), Lists.newArrayList((long)i, (long)-i))
+                    .field(category.getName(), i % 2 == 0 ? "even" : "odd")
+                    .create();
+        }
+        repository.recordBuilder()
+                .id("aggregate-5")
+                .recordType(rt2.getName())
+                .field(category.getName(), "other")
+                .create();
+        // Deleted records don't count
+        Record deleted = repository.recordBuilder()
+                .id("aggregate-6")
+                .recordType(rt2.getName())
+                .field(amount.getName(), new BigDecimal("100"))
+                .create();
+        repository.delete(deleted.getId());
+
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new RecordIdPrefixFilter(idGenerator.newRecordId("aggregate-")));
+
+        RecordAggregation aggregation = new RecordAggregation();
+        aggregation.setCountByRecordType(true);
+        aggregation.addStatisticsField(amount.getName());
+        aggregation.addStatisticsField(scores.getName());
+        aggregation.addDistinctCountField(category.getName());
+
+        RecordAggregationResult result = repository.aggregate(scan, aggregation);
+        assertEquals(5, result.getCount());
+        assertEquals(Long.valueOf(4), result.getCountsByRecordType().get(rt1.getName()));
+        assertEquals(Long.valueOf(1), result.getCountsByRecordType().get(rt2.getName()));
+
+        FieldStatistics amountStats = result.getStatistics(amount.getName());
+        assertEquals(4, amountStats.getCount());
+        assertEquals(0, new BigDecimal("1.5").compareTo(amountStats.getMin()));
+        assertEquals(0, new BigDecimal("4.5").compareTo(amountStats.getMax()));
+        assertEquals(0, new BigDecimal("12").compareTo(amountStats.getSum()));
+
+        // Each value of a list counts
+        FieldStatistics scoresStats = result.getStatistics(scores.getName());
+        assertEquals(8, scoresStats.getCount());
+        assertEquals(0, BigDecimal.valueOf(-4).compareTo(scoresStats.getMin()));
+        assertEquals(0, BigDecimal.valueOf(4).compareTo(scoresStats.getMax()));
+        assertEquals(0, BigDecimal.ZERO.compareTo(scoresStats.getSum()));
+
+        assertEquals(Long.valueOf(3), result.getDistinctCount(category.getName()));
+
+        // The filters of the scan apply
+        scan.setRecordFilter(new FieldValueFilter(category.getName(), "odd"));
+        result = repository.aggregate(scan, new RecordAggregation());
+        assertEquals(2, result.getCount());
+        assertNull(result.getCountsByRecordType());
+
+        // Statistics need numeric fields
+        aggregation = new RecordAggregation();
+        aggregation.addStatisticsField(category.getName());
+        try {
+            repository.aggregate(scan, aggregation);
+            fail("Expected exception for statistics of a non-numeric field");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testFilterList() throws Exception {
         FieldType f1 = typeManager.createFieldType("STRING", new QName("FilterList", "field1"), Scope.NON_VERSIONED);
@@ -3227,6 +3392,55 @@ public abstract class AbstractRepositoryTest {
         }
     }
 
+    @Test
+    public void testVariantsOfMasterWithCommonPrefix() throws Exception {
+        // The id of the master is a prefix of the id of the other record, but the other record and its variant
+        // are not variants of the master
+        final RecordId master = idGenerator.newRecordId("VariantsPrefixTest");
+        final RecordId variant = idGenerator.newRecordId(master, ImmutableMap.of("key1", "value1"));
+        final RecordId other = idGenerator.newRecordId("VariantsPrefixTestOther");
+        final RecordId otherVariant = idGenerator.newRecordId(other, ImmutableMap.of("key1", "value1"));
+
+        for (RecordId id : new RecordId[] {master, variant, other, otherVariant}) {
+            repository.recordBuilder()
+                    .id(id)
+                    .recordType(recordType1.getName())
+                    .field(fieldType1.getName(), "foo")
+                    .create();
+        }
+
+        Set<RecordId> variants = repository.getVariants(variant);
+        assertEquals(2, variants.size());
+        assertTrue(variants.contains(master));
+        assertTrue(variants.contains(variant));
+
+        // variant scan, which is limited to the range of the variants of the master
+        final HashMap<String, String> variantProperties = new HashMap<String, String>();
+        variantProperties.put("key1", null);
+
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new RecordVariantFilter(master, variantProperties));
+        RecordScanner scanner = repository.getScanner(scan);
+        assertEquals(variant, scanner.next().getId());
+        assertNull(scanner.next());
+        scanner.close();
+
+        // the same within a filter list, combined with a projection and a start after the master
+        RecordFilterList filterList = new RecordFilterList();
+        filterList.addFilter(new RecordTypeFilter(recordType1.getName()));
+        filterList.addFilter(new RecordVariantFilter(master, variantProperties));
+        scan = new RecordScan();
+        scan.setRecordFilter(filterList);
+        scan.setStartRecordId(variant);
+        scan.setReturnFields(new ReturnFields(fieldType1.getName()));
+        scanner = repository.getScanner(scan);
+        Record record = scanner.next();
+        assertEquals(variant, record.getId());
+        assertEquals("foo", record.getField(fieldType1.getName()));
+        assertNull(scanner.next());
+        scanner.close();
+    }
+
     @Test
     public void testMetadataSimpleStoreLoad() throws Exception {
         Record record = repository.newRecord();
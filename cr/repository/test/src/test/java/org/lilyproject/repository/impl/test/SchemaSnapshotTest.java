@@ -0,0 +1,313 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypeNotFoundException;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.AbstractSchemaCache;
+import org.lilyproject.repository.impl.SchemaSnapshot;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repotestfw.RepositorySetup;
+import org.lilyproject.util.zookeeper.ZkUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SchemaSnapshotTest {
+    private static final RepositorySetup repoSetup = new RepositorySetup();
+    private static final String CACHE_INVALIDATION_PATH = "/lily/typemanager/cache/invalidate";
+    private static final String SNAPSHOT_LOCATION_PATH = "/lily/typemanager/cache/snapshot";
+    private static final String NAMESPACE = "SchemaSnapshotTest";
+
+    private List<TypeManager> typeManagersToClose = new ArrayList<TypeManager>();
+    private File snapshotDir;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging();
+        repoSetup.setupCore();
+        repoSetup.setupTypeManager();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        repoSetup.stop();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        snapshotDir = new File(System.getProperty("java.io.tmpdir"), "lily.schemasnapshottest." + UUID.randomUUID());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (TypeManager typeManager : typeManagersToClose) {
+            typeManager.close();
+        }
+        typeManagersToClose.clear();
+
+        File[] files = snapshotDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        snapshotDir.delete();
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        TypeManager typeManager = repoSetup.getTypeManager();
+
+        FieldType fieldType1 = typeManager.newFieldType(new SchemaIdImpl(UUID.randomUUID()),
+                typeManager.getValueType("STRING"), new QName(NAMESPACE, "field1"), Scope.NON_VERSIONED);
+        FieldType fieldType2 = typeManager.newFieldType(new SchemaIdImpl(UUID.randomUUID()),
+                typeManager.getValueType("LIST<LONG>"), new QName(NAMESPACE, "field2"), Scope.VERSIONED_MUTABLE);
+
+        RecordType supertype = typeManager.newRecordType(new SchemaIdImpl(UUID.randomUUID()),
+                new QName(NAMESPACE, "supertype"));
+        supertype.setVersion(1L);
+        supertype.addFieldTypeEntry(fieldType1.getId(), true);
+
+        RecordType recordType = typeManager.newRecordType(new SchemaIdImpl(UUID.randomUUID()),
+                new QName(NAMESPACE, "recordType"));
+        recordType.setVersion(3L);
+        recordType.addFieldTypeEntry(fieldType1.getId(), false);
+        recordType.addFieldTypeEntry(fieldType2.getId(), true);
+        recordType.addSupertype(supertype.getId(), 1L);
+        recordType.addSupertype(new SchemaIdImpl(UUID.randomUUID()), null);
+
+        Map<String, Integer> bucketVersions = new HashMap<String, Integer>();
+        bucketVersions.put("00", 5);
+        bucketVersions.put("ff", 0);
+
+        List<FieldType> fieldTypes = new ArrayList<FieldType>();
+        fieldTypes.add(fieldType1);
+        fieldTypes.add(fieldType2);
+        List<RecordType> recordTypes = new ArrayList<RecordType>();
+        recordTypes.add(supertype);
+        recordTypes.add(recordType);
+
+        File file = new File(snapshotDir, "test.snapshot");
+        new SchemaSnapshot(123L, 7, bucketVersions, fieldTypes, recordTypes).write(file);
+        // Writing again replaces the file
+        new SchemaSnapshot(123L, 7, bucketVersions, fieldTypes, recordTypes).write(file);
+        assertEquals(1, snapshotDir.listFiles().length);
+
+        SchemaSnapshot snapshot = SchemaSnapshot.read(file, typeManager);
+        assertNotNull(snapshot);
+        assertEquals(bucketVersions, snapshot.getBucketVersions());
+        assertEquals(fieldTypes, snapshot.getFieldTypes());
+        assertEquals(recordTypes, snapshot.getRecordTypes());
+
+        assertTrue(snapshot.isValid(123L, 7));
+        assertFalse(snapshot.isValid(124L, 7));
+        assertFalse(snapshot.isValid(123L, 8));
+    }
+
+    @Test
+    public void testStartFromSnapshot() throws Exception {
+        // Without a snapshot, all types are read, after which a snapshot is written
+        startTypeManager().close();
+        File file = getSnapshotFile();
+        SchemaSnapshot snapshot = SchemaSnapshot.read(file, repoSetup.getTypeManager());
+        Stat stat = getInvalidationStat();
+        assertTrue(snapshot.isValid(stat.getCzxid(), stat.getVersion()));
+
+        // A type created afterwards changes the version of its bucket
+        FieldType created = repoSetup.getTypeManager().createFieldType("STRING",
+                new QName(NAMESPACE, "startFromSnapshot"), Scope.NON_VERSIONED);
+
+        // Add a type to the snapshot which is not in the type table, in another bucket, to find out which
+        // buckets are read from the type table
+        FieldType notInTable = newFieldTypeInOtherBucket(created.getId(), "startFromSnapshotNotInTable");
+        writeWithFieldType(snapshot, stat.getCzxid(), stat.getVersion(), notInTable, file);
+
+        TypeManager typeManager = startTypeManager();
+        closeAfterTest(typeManager);
+
+        // Only the changed bucket was read, the other types come from the snapshot
+        assertEquals(created, typeManager.getFieldTypeById(created.getId()));
+        assertEquals(notInTable, typeManager.getFieldTypeById(notInTable.getId()));
+    }
+
+    @Test
+    public void testPublishedSnapshot() throws Exception {
+        startTypeManager().close();
+        File file = getSnapshotFile();
+        SchemaSnapshot snapshot = SchemaSnapshot.read(file, repoSetup.getTypeManager());
+        Stat stat = getInvalidationStat();
+        FieldType notInTable = newFieldTypeInOtherBucket(new SchemaIdImpl(UUID.randomUUID()),
+                "publishedNotInTable");
+        writeWithFieldType(snapshot, stat.getCzxid(), stat.getVersion(), notInTable, file);
+
+        // A cache on which no snapshot is set uses the one published in ZooKeeper
+        ZkUtil.createPath(repoSetup.getZk(), SNAPSHOT_LOCATION_PATH, Bytes.toBytes(file.toURI().toString()));
+        try {
+            TypeManager typeManager = repoSetup.getNewTypeManager();
+            closeAfterTest(typeManager);
+            assertEquals(notInTable, typeManager.getFieldTypeById(notInTable.getId()));
+        } finally {
+            ZkUtil.deleteNode(repoSetup.getZk(), SNAPSHOT_LOCATION_PATH);
+        }
+    }
+
+    @Test
+    public void testRejectOutdatedSnapshot() throws Exception {
+        FieldType created = repoSetup.getTypeManager().createFieldType("STRING",
+                new QName(NAMESPACE, "rejectOutdated"), Scope.NON_VERSIONED);
+        startTypeManager().close();
+        File file = getSnapshotFile();
+        SchemaSnapshot snapshot = SchemaSnapshot.read(file, repoSetup.getTypeManager());
+        Stat stat = getInvalidationStat();
+        FieldType notInTable = newFieldTypeInOtherBucket(created.getId(), "rejectOutdatedNotInTable");
+
+        // The cache invalidation node was recreated since the snapshot was taken
+        writeWithFieldType(snapshot, stat.getCzxid() - 1, stat.getVersion(), notInTable, file);
+        assertNotLoaded(notInTable, created);
+
+        // An explicit refresh of all types was triggered since the snapshot was taken
+        writeWithFieldType(snapshot, stat.getCzxid(), stat.getVersion() - 1, notInTable, file);
+        assertNotLoaded(notInTable, created);
+    }
+
+    @Test
+    public void testCorruptSnapshot() throws Exception {
+        FieldType created = repoSetup.getTypeManager().createFieldType("STRING",
+                new QName(NAMESPACE, "corrupt"), Scope.NON_VERSIONED);
+        startTypeManager().close();
+        File file = getSnapshotFile();
+
+        // Unknown format
+        DataOutputStream os = new DataOutputStream(new FileOutputStream(file));
+        os.writeBytes("This is not a schema snapshot");
+        os.close();
+        assertNull(SchemaSnapshot.read(file, repoSetup.getTypeManager()));
+        assertFallback(created, file);
+
+        // Truncated
+        os = new DataOutputStream(new FileOutputStream(file));
+        os.writeInt(1);
+        os.writeLong(getInvalidationStat().getCzxid());
+        os.close();
+        assertFallback(created, file);
+
+        // Missing
+        assertTrue(file.delete());
+        assertFallback(created, file);
+    }
+
+    /**
+     * Checks that a type manager started with a corrupt or missing snapshot reads all types, and writes a valid
+     * snapshot.
+     */
+    private void assertFallback(FieldType created, File file) throws Exception {
+        TypeManager typeManager = startTypeManager();
+        closeAfterTest(typeManager);
+        assertEquals(created, typeManager.getFieldTypeById(created.getId()));
+
+        SchemaSnapshot snapshot = SchemaSnapshot.read(file, repoSetup.getTypeManager());
+        assertNotNull(snapshot);
+        Stat stat = getInvalidationStat();
+        assertTrue(snapshot.isValid(stat.getCzxid(), stat.getVersion()));
+    }
+
+    /**
+     * Checks that a type manager started with an outdated snapshot reads all types.
+     */
+    private void assertNotLoaded(FieldType notInTable, FieldType created) throws Exception {
+        TypeManager typeManager = startTypeManager();
+        closeAfterTest(typeManager);
+        assertEquals(created, typeManager.getFieldTypeById(created.getId()));
+        try {
+            typeManager.getFieldTypeById(notInTable.getId());
+            fail("Did not expect the type manager to load the outdated snapshot");
+        } catch (FieldTypeNotFoundException expected) {
+        }
+    }
+
+    private TypeManager startTypeManager() throws Exception {
+        System.setProperty(AbstractSchemaCache.SNAPSHOT_DIR_PROPERTY, snapshotDir.getAbsolutePath());
+        try {
+            return repoSetup.getNewTypeManager();
+        } finally {
+            System.clearProperty(AbstractSchemaCache.SNAPSHOT_DIR_PROPERTY);
+        }
+    }
+
+    private void closeAfterTest(TypeManager typeManager) {
+        typeManagersToClose.add(typeManager);
+    }
+
+    private File getSnapshotFile() {
+        File[] files = snapshotDir.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private Stat getInvalidationStat() throws Exception {
+        return repoSetup.getZk().exists(CACHE_INVALIDATION_PATH, false);
+    }
+
+    /**
+     * Creates a field type, without storing it, whose id is in another bucket than the given id.
+     */
+    private FieldType newFieldTypeInOtherBucket(SchemaId id, String name) throws Exception {
+        byte[] bytes = new SchemaIdImpl(UUID.randomUUID()).getBytes();
+        bytes[0] = (byte)(id.getBytes()[0] + 1);
+        TypeManager typeManager = repoSetup.getTypeManager();
+        return typeManager.newFieldType(new SchemaIdImpl(bytes), typeManager.getValueType("STRING"),
+                new QName(NAMESPACE, name), Scope.NON_VERSIONED);
+    }
+
+    /**
+     * Writes the given snapshot with the given invalidation node state and an extra field type.
+     */
+    private void writeWithFieldType(SchemaSnapshot snapshot, long invalidationZxid, int invalidationVersion,
+            FieldType fieldType, File file) throws Exception {
+        List<FieldType> fieldTypes = new ArrayList<FieldType>(snapshot.getFieldTypes());
+        fieldTypes.add(fieldType);
+        new SchemaSnapshot(invalidationZxid, invalidationVersion, snapshot.getBucketVersions(), fieldTypes,
+                snapshot.getRecordTypes()).write(file);
+    }
+}
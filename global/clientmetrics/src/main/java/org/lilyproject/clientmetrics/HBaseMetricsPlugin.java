@@ -17,6 +17,7 @@ package org.lilyproject.clientmetrics;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.hbase.ClusterStatus;
 import org.apache.hadoop.hbase.MasterNotRunningException;
@@ -26,7 +27,7 @@ public class HBaseMetricsPlugin implements MetricsPlugin {
     private HBaseMetrics hbaseMetrics;
     private HBaseAdmin hbaseAdmin;
     private boolean useJmx;
-    private long lastRequestCountReport;
+    private AtomicLong lastRequestCountReport = new AtomicLong();
 
     public HBaseMetricsPlugin(HBaseMetrics hbaseMetrics, HBaseAdmin hbaseAdmin, boolean useJmx) throws MasterNotRunningException {
         this.hbaseAdmin = hbaseAdmin;
@@ -51,9 +52,10 @@ public class HBaseMetricsPlugin implements MetricsPlugin {
     public void afterIncrement(Metrics metrics) {
         try {
             long now = System.currentTimeMillis();
+            long last = lastRequestCountReport.get();
             // the 3000 is the default value of hbase.regionserver.msginterval
-            if (now - lastRequestCountReport > 3000) {
-                lastRequestCountReport = now;
+            // metrics are incremented concurrently, only the thread which updates the timestamp reports
+            if (now - last > 3000 && lastRequestCountReport.compareAndSet(last, now)) {
                 hbaseMetrics.reportRequestCountMetric(metrics);
             }
         } catch (Throwable t) {
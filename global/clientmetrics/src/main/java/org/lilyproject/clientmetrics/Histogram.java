@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of metric values from which percentiles can be computed, along the lines of
+ * HdrHistogram: the values are counted in buckets whose size grows with the magnitude of the
+ * value, so that the relative error on a percentile stays below 1% whatever the range of the values.
+ *
+ * <p>Values are recorded with a resolution of 0.001, negative values are counted as 0.
+ *
+ * <p>Not thread safe.
+ */
+public class Histogram {
+    /** Values are multiplied by this factor to count them as integers. */
+    private static final double SCALE = 1000d;
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+    /** Counts are allocated up to the highest value recorded so far. */
+    private long[] counts = new long[SUB_BUCKET_COUNT];
+    private long totalCount;
+
+    public void record(double value) {
+        int index = getIndex(value <= 0 ? 0 : (long)(value * SCALE));
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + SUB_BUCKET_HALF_COUNT));
+        }
+        counts[index]++;
+        totalCount++;
+    }
+
+    public void add(Histogram other) {
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall, or 0 if no values
+     * were recorded.
+     *
+     * @param percentile a number between 0 and 100, e.g. 99.9
+     */
+    public double getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long countAtPercentile = Math.max(1, (long)Math.ceil((percentile / 100d) * totalCount));
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if (count >= countAtPercentile) {
+                return getMedianEquivalentValue(i) / SCALE;
+            }
+        }
+
+        return getMedianEquivalentValue(counts.length - 1) / SCALE;
+    }
+
+    private static int getIndex(long value) {
+        // The first bucket counts the values below SUB_BUCKET_COUNT one by one, each next bucket covers
+        // twice the range of the previous one using the upper half of its sub buckets.
+        int bucket = (63 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK)) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int)(value >>> bucket);
+        return (bucket * SUB_BUCKET_HALF_COUNT) + subBucket;
+    }
+
+    private static double getMedianEquivalentValue(int index) {
+        int bucket = Math.max(0, (index / SUB_BUCKET_HALF_COUNT) - 1);
+        int subBucket = index - (bucket * SUB_BUCKET_HALF_COUNT);
+        long lowestValue = ((long)subBucket) << bucket;
+        long range = 1L << bucket;
+        return lowestValue + ((range - 1) / 2d);
+    }
+}
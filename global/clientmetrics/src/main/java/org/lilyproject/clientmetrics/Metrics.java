@@ -19,11 +19,12 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import org.joda.time.DateTime;
@@ -39,6 +40,13 @@ import org.joda.time.DateTime;
  * yourself, it is also possible to collect some system/HBase metrics at the end of each interval. These
  * are retrieved via HBaseAdmin & JMX. See {@link HBaseMetricsPlugin}.
  *
+ * <p>Besides the average, median, minimum and maximum, the 99th and 99.9th percentile of each metric are
+ * reported. These are computed using a {@link Histogram}, hence within 1% of their exact value.
+ *
+ * <p>Metrics can be incremented from many threads at once without these threads having to wait on each
+ * other: each thread records its values separately, the values of all threads are only put together when
+ * the report is made at the end of each interval.
+ *
  * <p>If afterwards you'd like some charts of the metrics, check out
  * {@link org.lilyproject.clientmetrics.postproc.MetricsReportTool}.
  *
@@ -46,13 +54,23 @@ import org.joda.time.DateTime;
  * be parsed using {@link org.lilyproject.clientmetrics.postproc.MetricsParser}.
  */
 public class Metrics {
+    /** The values collected from the recorders, only accessed while holding the reportLock. */
     private Map<String, Metric> metrics = new TreeMap<String, Metric>();
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+    private final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder>() {
+        @Override
+        protected Recorder initialValue() {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            return recorder;
+        }
+    };
+    private final ReentrantLock reportLock = new ReentrantLock();
     private int intervalDuration = 1000 * 30;
-    private DateTime intervalStartedAt;
-    private DateTime startedAt;
+    private volatile DateTime intervalStartedAt;
+    private volatile DateTime startedAt;
     private PrintStream reportStream;
     private MetricsPlugin plugin;
-    private boolean inReport;
     private int threadCount = 1;
     private Table table;
     private boolean inHeader;
@@ -79,6 +97,8 @@ public class Metrics {
         table.addColumn(-1, "Median", "f");
         table.addColumn(-1, "Minimum", "f");
         table.addColumn(-1, "Maximum", "f");
+        table.addColumn(-1, "99th pct", "f");
+        table.addColumn(-1, "99.9th pct", "f");
         table.addColumn(-1, "Alltime ops", "d");
         table.addColumn(-1, "Alltime avg", "f");
         table.finishDefinition();
@@ -93,25 +113,35 @@ public class Metrics {
     }
 
     public void finish() {
-        // print one last report
-        printReport();
-        printGlobalOpsPerSec();
+        reportLock.lock();
+        try {
+            // print one last report
+            printReport();
+            printGlobalOpsPerSec();
+        } finally {
+            reportLock.unlock();
+        }
     }
 
     /**
      * Does an in-between reset of the metrics. This is useful if your test consists of multiple phases
      * which each have different metrics.
      */
-    public synchronized void restart() {
-        printReport();
-        printGlobalOpsPerSec();
-        metrics.clear();
-        intervalStartedAt = null;
-        startedAt = null;
-
-        reportStream.println("");
-        reportStream.println("Metrics have been reset");
-        reportStream.println("");
+    public void restart() {
+        reportLock.lock();
+        try {
+            printReport();
+            printGlobalOpsPerSec();
+            metrics.clear();
+            intervalStartedAt = null;
+            startedAt = null;
+
+            reportStream.println("");
+            reportStream.println("Metrics have been reset");
+            reportStream.println("");
+        } finally {
+            reportLock.unlock();
+        }
     }
 
     public void startTest(String testName, String testDescription) {
@@ -150,11 +180,11 @@ public class Metrics {
         return intervalDuration;
     }
 
-    public synchronized void increment(String name, double value) {
+    public void increment(String name, double value) {
         increment(name, null, 1, value);
     }
 
-    public synchronized void increment(String name, String type, double value) {
+    public void increment(String name, String type, double value) {
         increment(name, type, 1, value);
     }
 
@@ -172,7 +202,7 @@ public class Metrics {
      * @param value the value for the metric, such as a duration (typically in ms), an operation count, or whatever
      *              quantity you want to keep track of such as free memory, cpu load, ...
      */
-    public synchronized void increment(String name, String type, int operations, double value) {
+    public void increment(String name, String type, int operations, double value) {
         if (type != null && !NAME_PATTERN.matcher(type).matches()) {
             // Being strict here, can be helpful for further reporting
             throw new IllegalArgumentException("Invalid type name, should be alphanumeric only: " + type);
@@ -183,41 +213,59 @@ public class Metrics {
             throw new IllegalArgumentException("Usage of the colon character is reserved in the metric name: " + name);
         }
 
+        DateTime intervalStartedAt = this.intervalStartedAt;
         if (intervalStartedAt == null) {
             // it's our very first value
-            intervalStartedAt = new DateTime();
-            startedAt = new DateTime();
-        }
-
-        if (!inReport && System.currentTimeMillis() - intervalStartedAt.getMillis() >= intervalDuration) {
-            printReport();
-            for (Metric metric : metrics.values()) {
-                metric.rollInterval();
+            reportLock.lock();
+            try {
+                if (this.intervalStartedAt == null) {
+                    this.intervalStartedAt = new DateTime();
+                    startedAt = new DateTime();
+                }
+            } finally {
+                reportLock.unlock();
+            }
+        } else if (System.currentTimeMillis() - intervalStartedAt.getMillis() >= intervalDuration) {
+            // The interval is rolled by one thread, the other threads do not wait for it but keep recording,
+            // the metrics incremented by the plugin while making the report do not roll the interval.
+            if (!reportLock.isHeldByCurrentThread() && reportLock.tryLock()) {
+                try {
+                    if (intervalStartedAt == this.intervalStartedAt) {
+                        printReport();
+                        for (Metric metric : metrics.values()) {
+                            metric.rollInterval();
+                        }
+                        this.intervalStartedAt = new DateTime();
+                    }
+                } finally {
+                    reportLock.unlock();
+                }
             }
-            intervalStartedAt = new DateTime();
-        }
-
-        Metric metric = metrics.get(name);
-        if (metric == null) {
-            metric = new Metric();
-            metric.type = type;
-            metrics.put(name, metric);
         }
 
-        metric.add(operations, value);
+        recorder.get().add(name, type, operations, value);
 
         plugin.afterIncrement(this);
     }
 
     public void printReport() {
+        reportLock.lock();
+        try {
+            printReportInt();
+        } finally {
+            reportLock.unlock();
+        }
+    }
+
+    private void printReportInt() {
         if (intervalStartedAt == null) {
             return;
         }
 
-        inReport = true;
-
         plugin.beforeReport(this);
 
+        collectRecordings();
+
         long now = System.currentTimeMillis();
         long actualIntervalDuration = now - intervalStartedAt.getMillis();
 
@@ -253,8 +301,9 @@ public class Metrics {
                 stat.value += metric.getIntervalValue();
             }
 
-            table.columns(name, metric.getIntervalCount(), metric.getIntervalAverage(), metric.getIntervalMedian(),
-                    metric.getIntervalMin(), metric.getIntervalMax(), metric.getAllTimeCount(),
+            table.columns(name, metric.getIntervalCount(), metric.getIntervalAverage(),
+                    metric.getIntervalPercentile(50), metric.getIntervalMin(), metric.getIntervalMax(),
+                    metric.getIntervalPercentile(99), metric.getIntervalPercentile(99.9), metric.getAllTimeCount(),
                     metric.getAllTimeAverage());
         }
         table.columnSepLine();
@@ -285,8 +334,23 @@ public class Metrics {
         }
 
         reportStream.flush();
+    }
 
-        inReport = false;
+    /**
+     * Adds the values recorded by all threads since the previous call to the metrics.
+     */
+    private void collectRecordings() {
+        for (Recorder recorder : recorders) {
+            for (Map.Entry<String, Recording> entry : recorder.swap().entrySet()) {
+                Metric metric = metrics.get(entry.getKey());
+                if (metric == null) {
+                    metric = new Metric();
+                    metric.type = entry.getValue().type;
+                    metrics.put(entry.getKey(), metric);
+                }
+                metric.add(entry.getValue());
+            }
+        }
     }
 
     private void printGlobalOpsPerSec() {
@@ -346,71 +410,37 @@ public class Metrics {
     }
 
     private static class Metric {
-        private List<Double> values = new ArrayList<Double>(1000);
-
         String type;
 
-        int intervalCount;
-        double intervalValue;
-        double intervalMin;
-        double intervalMax;
+        private Recording interval = new Recording(null);
 
-        int allTimeCount;
+        long allTimeCount;
         double allTimeValue;
 
-        Metric() {
-            rollInterval();
-        }
-
-        /**
-         *
-         * @param value will most often be a duration in ms, but could be other kinds of values as well.
-         */
-        public void add(int operations, double value) {
-            if (operations == 0) {
-                return;
-            }
-
-            intervalCount += operations;
-            intervalValue += value;
-            allTimeCount += operations;
-            allTimeValue += value;
-
-            double valuePerOp = value / (double)operations;
-
-            if (valuePerOp < intervalMin) {
-                intervalMin = valuePerOp;
-            }
-
-            if (valuePerOp > intervalMax) {
-                intervalMax = valuePerOp;
-            }
-
-            values.add(valuePerOp);
+        public void add(Recording recording) {
+            interval.add(recording);
+            allTimeCount += recording.count;
+            allTimeValue += recording.value;
         }
 
         public void rollInterval() {
-            intervalCount = 0;
-            intervalValue = 0;
-            intervalMin = Integer.MAX_VALUE;
-            intervalMax = 0;
-            values.clear();
+            interval = new Recording(null);
         }
 
-        public int getIntervalCount() {
-            return intervalCount;
+        public long getIntervalCount() {
+            return interval.count;
         }
 
         public double getIntervalValue() {
-            return intervalValue;
+            return interval.value;
         }
 
-        public int getAllTimeCount() {
+        public long getAllTimeCount() {
             return allTimeCount;
         }
 
         public double getIntervalAverage() {
-            return intervalCount == 0 ? 0 : intervalValue / (double)intervalCount;
+            return interval.count == 0 ? 0 : interval.value / (double)interval.count;
         }
 
         public double getAllTimeAverage() {
@@ -422,31 +452,120 @@ public class Metrics {
         }
 
         public double getIntervalMin() {
-            return intervalCount == 0 ? 0 : intervalMin;
+            return interval.count == 0 ? 0 : interval.min;
         }
 
         public double getIntervalMax() {
-            return intervalMax;
+            return interval.count == 0 ? 0 : interval.max;
         }
 
-        public double getIntervalMedian() {
-            if (values.size() == 0) {
+        public double getIntervalPercentile(double percentile) {
+            if (interval.count == 0) {
                 return 0;
             }
 
-            Collections.sort(values);
-            int middle = values.size() / 2;
+            // The minimum and maximum are exact, the histogram is not
+            double value = interval.histogram.getValueAtPercentile(percentile);
+            return Math.min(interval.max, Math.max(interval.min, value));
+        }
+    }
+
+    /**
+     * The values of a metric recorded by one thread during an interval.
+     */
+    static class Recording {
+        final String type;
+
+        long count;
+        double value;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        final Histogram histogram = new Histogram();
+
+        Recording(String type) {
+            this.type = type;
+        }
+
+        /**
+         *
+         * @param value will most often be a duration in ms, but could be other kinds of values as well.
+         */
+        public void add(int operations, double value) {
+            if (operations == 0) {
+                return;
+            }
+
+            count += operations;
+            this.value += value;
 
-            if (values.size() % 2 == 1) {
-                return values.get(middle);
-            } else {
-                return (values.get(middle - 1) + values.get(middle)) / 2d;
+            double valuePerOp = value / (double)operations;
+
+            if (valuePerOp < min) {
+                min = valuePerOp;
+            }
+
+            if (valuePerOp > max) {
+                max = valuePerOp;
             }
+
+            histogram.record(valuePerOp);
+        }
+
+        public void add(Recording recording) {
+            count += recording.count;
+            value += recording.value;
+            min = Math.min(min, recording.min);
+            max = Math.max(max, recording.max);
+            histogram.add(recording.histogram);
+        }
+    }
+
+    /**
+     * Records the values of one thread. The recordings are handed over to the thread making the report
+     * by swapping them for empty ones, which does not require the recording thread to synchronize.
+     */
+    static class Recorder {
+        private volatile Map<String, Recording> recordings = new HashMap<String, Recording>();
+        /** Only changed by the recording thread, odd while it is adding a value. */
+        private volatile long writes;
+
+        public void add(String name, String type, int operations, double value) {
+            writes++;
+            try {
+                Map<String, Recording> recordings = this.recordings;
+                Recording recording = recordings.get(name);
+                if (recording == null) {
+                    recording = new Recording(type);
+                    recordings.put(name, recording);
+                }
+                recording.add(operations, value);
+            } finally {
+                writes++;
+            }
+        }
+
+        /**
+         * Returns the recordings made since the previous swap, called by the thread making the report.
+         */
+        public Map<String, Recording> swap() {
+            Map<String, Recording> result = recordings;
+            recordings = new HashMap<String, Recording>();
+
+            // The recording thread might still be adding a value to the old recordings: wait for it to
+            // finish, any value it adds afterwards goes to the new recordings.
+            long writesAtSwap = writes;
+            if (writesAtSwap % 2 != 0) {
+                while (writes == writesAtSwap) {
+                    Thread.yield();
+                }
+            }
+
+            return result;
         }
     }
 
     private static class CountAndValue {
-        int count;
+        long count;
         double value;
     }
 }
@@ -25,6 +25,7 @@ public interface MetricsPlugin {
 
     /**
      * Called once after each metric increment, hence usually very often, thus should be very lightweight.
+     * Since metrics are incremented from multiple threads, this can be called concurrently.
      */
     void afterIncrement(Metrics metrics);
 
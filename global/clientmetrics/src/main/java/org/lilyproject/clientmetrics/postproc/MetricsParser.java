@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 
 import org.joda.time.DateTime;
@@ -86,20 +88,23 @@ public class MetricsParser {
                 //| Interval started at: 2011-01-15T19:57:23.918+01:00 (duration: 30s).                                                  |
                 //| Measurements started at: 2011-01-15T19:57:23.918+01:00 (duration: 00:00:30)                                          |
                 //| HBase cluster status: avg load: 20.00, dead servers: 0, live servers: 1, regions: 20                                 |
-                //+----------------------------------------+----------+---------+--------+---------+---------+-------------+-------------+
-                //| Name                                   | Op count | Average | Median | Minimum | Maximum | Alltime ops | Alltime avg |
-                //+----------------------------------------+----------+---------+--------+---------+---------+-------------+-------------+
-                //|-blockCacheHitRatio@lat                 |         1|    97.00|   97.00|    97.00|    97.00|            1|        97.00|
-                //|-sysLoadAvg@lat                         |         1|     1.16|    1.16|     1.16|     1.16|            1|         1.16|
-                //|-usedHeap@lat                           |         1|   162.90|  162.90|   162.90|   162.90|            1|       162.90|
-                //|B:Blob creation                         |      1231|     0.33|    0.06|     0.02|   101.84|         1231|         0.33|
-                //|Invalid messages                        |         6|     1.00|    1.00|     1.00|     1.00|            6|         1.00|
-                //|C:Message record                        |      1190|    10.16|    8.30|     6.52|   444.16|         1190|        10.16|
-                //|C:Part record                           |      1225|     9.29|    8.11|     6.45|    90.71|         1225|         9.29|
-                //+----------------------------------------+----------+---------+--------+---------+---------+-------------+-------------+
+                //+----------------------------------------+----------+---------+--------+---------+---------+----------+------------+-------------+-------------+
+                //| Name                                   | Op count | Average | Median | Minimum | Maximum | 99th pct | 99.9th pct | Alltime ops | Alltime avg |
+                //+----------------------------------------+----------+---------+--------+---------+---------+----------+------------+-------------+-------------+
+                //|-blockCacheHitRatio@lat                 |         1|    97.00|   97.00|    97.00|    97.00|     97.00|       97.00|            1|        97.00|
+                //|-sysLoadAvg@lat                         |         1|     1.16|    1.16|     1.16|     1.16|      1.16|        1.16|            1|         1.16|
+                //|-usedHeap@lat                           |         1|   162.90|  162.90|   162.90|   162.90|    162.90|      162.90|            1|       162.90|
+                //|B:Blob creation                         |      1231|     0.33|    0.06|     0.02|   101.84|      2.51|       98.48|         1231|         0.33|
+                //|Invalid messages                        |         6|     1.00|    1.00|     1.00|     1.00|      1.00|        1.00|            6|         1.00|
+                //|C:Message record                        |      1190|    10.16|    8.30|     6.52|   444.16|     37.29|      410.02|         1190|        10.16|
+                //|C:Part record                           |      1225|     9.29|    8.11|     6.45|    90.71|     30.81|       88.42|         1225|         9.29|
+                //+----------------------------------------+----------+---------+--------+---------+---------+----------+------------+-------------+-------------+
                 //| B ops/sec: 3063.80 real (=3063.80x1), 40.99 interval                                                                 |
                 //| C ops/sec: 102.93 real (=102.93x1), 80.41 interval                                                                   |
                 //+----------------------------------------------------------------------------------------------------------------------+
+                //
+                // The percentile columns are missing in files produced by older versions, hence the columns
+                // are looked up by their title.
 
                 if (test == null) {
                     test = new Test("default");
@@ -117,27 +122,36 @@ public class MetricsParser {
                 }
 
                 // read the title lines (we are already positioned at the first one)
+                List<String> titles = splitColumns(reader.readLine());
                 reader.readLine();
-                reader.readLine();
+
+                int countCol = titles.indexOf("Op count");
+                int averageCol = titles.indexOf("Average");
+                int medianCol = titles.indexOf("Median");
+                int minCol = titles.indexOf("Minimum");
+                int maxCol = titles.indexOf("Maximum");
+                int p99Col = titles.indexOf("99th pct");
+                int p999Col = titles.indexOf("99.9th pct");
 
                 // read the metrics
                 while ((line = reader.readLine()) != null && line.startsWith("|")) {
-                    int countColStart = line.indexOf("|", 1);
-                    int averageColStart = line.indexOf("|", countColStart + 1);
-                    int medianColStart = line.indexOf("|", averageColStart + 1);
-                    int minColStart = line.indexOf("|", medianColStart + 1);
-                    int maxColStart = line.indexOf("|", minColStart + 1);
-                    int allTimeOpsColStart = line.indexOf("|", maxColStart + 1);
+                    List<String> columns = splitColumns(line);
 
                     MetricData data = new MetricData();
 
-                    String metricName = line.substring(1, countColStart).trim();
+                    String metricName = columns.get(0);
 
-                    data.count = Integer.parseInt(line.substring(countColStart + 1, averageColStart).trim());
-                    data.average = Double.parseDouble(line.substring(averageColStart + 1, medianColStart).trim());
-                    data.median = Double.parseDouble(line.substring(medianColStart + 1, minColStart).trim());
-                    data.min = Double.parseDouble(line.substring(minColStart + 1, maxColStart).trim());
-                    data.max = Double.parseDouble(line.substring(maxColStart + 1, allTimeOpsColStart).trim());
+                    data.count = Long.parseLong(columns.get(countCol));
+                    data.average = Double.parseDouble(columns.get(averageCol));
+                    data.median = Double.parseDouble(columns.get(medianCol));
+                    data.min = Double.parseDouble(columns.get(minCol));
+                    data.max = Double.parseDouble(columns.get(maxCol));
+                    if (p99Col != -1) {
+                        data.p99 = Double.parseDouble(columns.get(p99Col));
+                    }
+                    if (p999Col != -1) {
+                        data.p999 = Double.parseDouble(columns.get(p999Col));
+                    }
 
                     interval.set(metricName, data);
                 }
@@ -169,6 +183,20 @@ public class MetricsParser {
         return tests;
     }
 
+    /**
+     * Splits a line of the metrics table in its (trimmed) column values.
+     */
+    private List<String> splitColumns(String line) {
+        List<String> columns = new ArrayList<String>();
+        int colStart = 0;
+        int colEnd;
+        while ((colEnd = line.indexOf("|", colStart + 1)) != -1) {
+            columns.add(line.substring(colStart + 1, colEnd).trim());
+            colStart = colEnd;
+        }
+        return columns;
+    }
+
     public int getCurrentLine() {
         return reader != null ? reader.currentLine : -1;
     }
@@ -29,7 +29,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -57,7 +56,7 @@ public class MetricsReportTool extends BaseCliTool {
 
     private static final String STRING_QUOTE = "\"";
 
-    private static final int COLS_PER_METRIC = 5;
+    private static final int COLS_PER_METRIC = 7;
 
     private static final int HEADER_COLUMNS = 2;
 
@@ -66,6 +65,16 @@ public class MetricsReportTool extends BaseCliTool {
     private static final int COL_MED = 3;
     private static final int COL_MIN = 4;
     private static final int COL_MAX = 5;
+    private static final int COL_P99 = 6;
+    private static final int COL_P999 = 7;
+
+    /** The label of each column, by column number. */
+    private static final String[] COL_LABELS = new String[] {null, "count", "avg", "med", "min", "max", "p99", "p99.9"};
+
+    // the max is not plotted by default, since its peaks would make the other lines unreadable
+    private static final int[] DEFAULT_PLOT_COLS = new int[] {COL_AVG, COL_MED, COL_MIN};
+    private static final int[] AVG_ONLY_PLOT_COLS = new int[] {COL_AVG};
+    private static final int[] PERCENTILE_PLOT_COLS = new int[] {COL_MED, COL_P99, COL_P999};
 
     // http://www.uni-hamburg.de/Wiss/FB/15/Sustainability/schneider/gnuplot/colors.htm
     private static final String[] COLORS = new String[] {
@@ -231,17 +240,22 @@ public class MetricsReportTool extends BaseCliTool {
         }
         System.out.println();
 
+        // This map contains as key a group name, and as value the names of the plots made for that group
+        Map<GroupName, List<String>> plots = new HashMap<GroupName, List<String>>();
+
         for (Map.Entry<GroupName, List<String>> entry : groups.entrySet()) {
-            writePlotScript(entry.getKey(), entry.getValue(), test, outputDir);
+            plots.put(entry.getKey(), writePlotScripts(entry.getKey(), entry.getValue(), test, outputDir));
         }
         System.out.println();
 
-        for (Map.Entry<GroupName, List<String>> entry : groups.entrySet()) {
-            executePlot(entry.getKey(), outputDir);
+        for (List<String> plotNames : plots.values()) {
+            for (String plotName : plotNames) {
+                executePlot(plotName, outputDir);
+            }
         }
         System.out.println();
 
-        writeHtmlReport(groups.keySet(), test, outputDir);
+        writeHtmlReport(plots, test, outputDir);
 
         System.out.println();
 
@@ -259,16 +273,11 @@ public class MetricsReportTool extends BaseCliTool {
         titleLine.append(STRING_QUOTE).append("seq").append(STRING_QUOTE);
 
         for (String metricName : metricNames) {
-            titleLine.append(SEP);
-            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" count").append(STRING_QUOTE);
-            titleLine.append(SEP);
-            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" avg").append(STRING_QUOTE);
-            titleLine.append(SEP);
-            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" med").append(STRING_QUOTE);
-            titleLine.append(SEP);
-            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" min").append(STRING_QUOTE);
-            titleLine.append(SEP);
-            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" max").append(STRING_QUOTE);
+            for (int c = COL_CNT; c <= COLS_PER_METRIC; c++) {
+                titleLine.append(SEP);
+                titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" ")
+                        .append(COL_LABELS[c]).append(STRING_QUOTE);
+            }
         }
 
         ps.println(titleLine.toString());
@@ -292,6 +301,10 @@ public class MetricsReportTool extends BaseCliTool {
                 ps.print(formatDouble(data.min));
                 ps.print(SEP);
                 ps.print(formatDouble(data.max));
+                ps.print(SEP);
+                ps.print(formatDouble(data.p99));
+                ps.print(SEP);
+                ps.print(formatDouble(data.p999));
             }
 
             ps.println();
@@ -330,44 +343,80 @@ public class MetricsReportTool extends BaseCliTool {
     }
 
     private MetricData safeGet(Interval interval, int index) {
-        if (index >= interval.datas.length) {
+        if (index >= interval.datas.length || interval.datas[index] == null) {
             return new MetricData();
         } else {
             return interval.datas[index];
         }
     }
 
-    private void writePlotScript(GroupName groupName, List<String> metricNames, Test test, File outputDir) throws IOException {
-        File file = new File(outputDir, groupName.fileName + ".plot.txt");
+    /**
+     * Writes the plot scripts for a group of metrics.
+     *
+     * @return the names of the plots
+     */
+    private List<String> writePlotScripts(GroupName groupName, List<String> metricNames, Test test, File outputDir)
+            throws IOException {
+        List<String> plotNames = new ArrayList<String>();
+
+        // if the name starts with a dash, it means the values for avg/med/min/max are (intended to be) the same
+        boolean isAvgOnly = groupName.name.startsWith("-");
+
+        // Trendlines are calculated on the median except for avg-only metrics
+        writePlotScript(groupName.fileName, groupName.title, groupName, metricNames, test, outputDir,
+                isAvgOnly ? AVG_ONLY_PLOT_COLS : DEFAULT_PLOT_COLS, isAvgOnly ? COL_AVG : COL_MED);
+        plotNames.add(groupName.fileName);
+
+        // Metrics files produced by older versions do not contain percentiles
+        if (!isAvgOnly && hasPercentiles(metricNames, test)) {
+            String plotName = groupName.fileName + "_percentiles";
+            writePlotScript(plotName, groupName.title + " percentiles", groupName, metricNames, test, outputDir,
+                    PERCENTILE_PLOT_COLS, -1);
+            plotNames.add(plotName);
+        }
+
+        return plotNames;
+    }
+
+    private boolean hasPercentiles(List<String> metricNames, Test test) {
+        for (Interval interval : test.intervals) {
+            for (String metricName : metricNames) {
+                if (safeGet(interval, test.getIndex(metricName)).p99 >= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param plotCols the data columns to plot for each metric
+     * @param trendCol the data column on which to calculate the trendline, -1 for none
+     */
+    private void writePlotScript(String plotName, String title, GroupName groupName, List<String> metricNames,
+            Test test, File outputDir, int[] plotCols, int trendCol) throws IOException {
+        File file = new File(outputDir, plotName + ".plot.txt");
         System.out.println("Writing plot script " + file);
         PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
 
         ps.println("set terminal pngcairo enhanced rounded linewidth 2 size 1300, 500");
-        ps.println("set output \"" + groupName.fileName + ".png\"");
+        ps.println("set output \"" + plotName + ".png\"");
         ps.println("set autoscale");
-        ps.println("set title '" + groupName.title + "'");
+        ps.println("set title '" + title + "'");
         ps.println("set key autotitle columnheader");
         ps.println("set datafile missing 'NaN'");
         ps.println("set ylabel \"unit depends on metric, times usually in ms\"");
         ps.println("set xlabel \"time\"");
         ps.println("set grid");
 
-        // if the name starts with a dash, it means the values for avg/med/min/max are (intended to be) the same
-        boolean isAvgOnly = groupName.name.startsWith("-");
-
-        final int firstPlotValue = COL_AVG;
-        int lastPlotValue = COL_MIN;
-        if (isAvgOnly) {
-            lastPlotValue = COL_AVG;
-        }
+        boolean trend = trendCol != -1 && test.intervals.size() > 1;
 
-        if (test.intervals.size() > 1) {
-            // Calculate trendlines: on median except for avg-only metrics
+        if (trend) {
             // The trendline is calculated against col 2, that is the column containing the seq numbers, since it
             // does not work with the date values (I think because they are too big integers?)
             for (int i = 0; i < metricNames.size(); i++) {
                 ps.println("f" + i + "(x)=m" + i + "*x+c" + i);
-                int dataCol = (COLS_PER_METRIC * i) + HEADER_COLUMNS + (isAvgOnly ? COL_AVG : COL_MED);
+                int dataCol = (COLS_PER_METRIC * i) + HEADER_COLUMNS + trendCol;
                 ps.println("fit f" + i + "(x) \"" + groupName.fileName + ".txt\" using 2:" + dataCol + " via m" + i + ",c" + i);
             }
         }
@@ -376,31 +425,35 @@ public class MetricsReportTool extends BaseCliTool {
         ps.println("set xdata time");
         ps.println("set timefmt \"%Y%m%d%H%M%S\"");
 
-        int numberOfValues = lastPlotValue - firstPlotValue + 1;
-
         StringBuilder plot = new StringBuilder();
         plot.append("plot ");
         for (int i = 0; i < metricNames.size(); i++) {
-            int colorStart = i * numberOfValues;
+            int colorStart = i * plotCols.length;
 
-            for (int c = firstPlotValue; c <= lastPlotValue; c++) {
-                if (i > 0 || c > firstPlotValue) {
+            for (int c = 0; c < plotCols.length; c++) {
+                if (i > 0 || c > 0) {
                     plot.append(", ");
                 }
 
-                int dataCol = (COLS_PER_METRIC * i) + HEADER_COLUMNS + c;
-                int color = colorStart + c - firstPlotValue;
+                int dataCol = (COLS_PER_METRIC * i) + HEADER_COLUMNS + plotCols[c];
+                int color = colorStart + c;
                 plot.append("'").append(groupName.fileName).append(".txt' using 1:").append(dataCol).
                         append(" with steps linecolor rgb '").append(COLORS[color % COLORS.length]).append("'");
             }
 
-            if (test.intervals.size() > 1) {
+            if (trend) {
                 // add trendline
                 // same color as data line
-                int color = colorStart + (isAvgOnly ? COL_AVG : COL_MED) - firstPlotValue;
+                int color = colorStart;
+                for (int c = 0; c < plotCols.length; c++) {
+                    if (plotCols[c] == trendCol) {
+                        color = colorStart + c;
+                    }
+                }
                 plot.append(", '").append(groupName.fileName).append(".txt' using 1:(f").append(i).append("($2))").
                         append(" with lines linewidth 1 linecolor rgb '").append(COLORS[color % COLORS.length]).append("' title '")
-                        .append(removeGroupingPrefix(metricNames.get(i))).append(isAvgOnly ? " avg" : " med").append(" trend'");
+                        .append(removeGroupingPrefix(metricNames.get(i))).append(" ").append(COL_LABELS[trendCol])
+                        .append(" trend'");
             }
         }
 
@@ -409,9 +462,9 @@ public class MetricsReportTool extends BaseCliTool {
         ps.close();
     }
 
-    private void executePlot(GroupName groupName, File outputDir) throws IOException, InterruptedException {
-        System.out.println("Calling gnuplot for " + groupName);
-        ProcessBuilder pb = new ProcessBuilder("gnuplot", groupName.fileName + ".plot.txt");
+    private void executePlot(String plotName, File outputDir) throws IOException, InterruptedException {
+        System.out.println("Calling gnuplot for " + plotName);
+        ProcessBuilder pb = new ProcessBuilder("gnuplot", plotName + ".plot.txt");
         pb.directory(outputDir);
         Process p = pb.start();
         int exitValue = p.waitFor();
@@ -420,7 +473,7 @@ public class MetricsReportTool extends BaseCliTool {
         }
     }
 
-    private void writeHtmlReport(Set<GroupName> groupNames, Test test, File outputDir) throws IOException {
+    private void writeHtmlReport(Map<GroupName, List<String>> plots, Test test, File outputDir) throws IOException {
         File file = new File(outputDir, "report.html");
         System.out.println("Writing HTML report " + file);
 
@@ -432,11 +485,13 @@ public class MetricsReportTool extends BaseCliTool {
 
         ps.println("<h1>" + test.name + ": " + (test.description != null ? test.description : "(no title)") + "</h1>");
 
-        List<GroupName> orderedGroupNames = new ArrayList<GroupName>(groupNames);
+        List<GroupName> orderedGroupNames = new ArrayList<GroupName>(plots.keySet());
         Collections.sort(orderedGroupNames);
 
         for (GroupName group : orderedGroupNames) {
-            ps.println("<img src='" + group.fileName  + ".png'/><br/>");
+            for (String plotName : plots.get(group)) {
+                ps.println("<img src='" + plotName  + ".png'/><br/>");
+            }
         }
 
         ps.println("</body></html>");
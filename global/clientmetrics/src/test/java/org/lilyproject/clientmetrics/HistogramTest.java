@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(10000, histogram.getTotalCount());
+        assertWithinOnePercent(100, histogram.getValueAtPercentile(1));
+        assertWithinOnePercent(5000, histogram.getValueAtPercentile(50));
+        assertWithinOnePercent(9900, histogram.getValueAtPercentile(99));
+        assertWithinOnePercent(9990, histogram.getValueAtPercentile(99.9));
+        assertWithinOnePercent(10000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSkewedPercentiles() {
+        // 990 fast values and 10 slow ones: the slow ones only show up above the 99th percentile
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(2);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(500);
+        }
+
+        assertWithinOnePercent(2, histogram.getValueAtPercentile(50));
+        assertWithinOnePercent(2, histogram.getValueAtPercentile(99));
+        assertWithinOnePercent(500, histogram.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    public void testBucketEdges() {
+        // The values below 128 thousandths are counted exactly
+        Histogram histogram;
+        for (int i = 0; i < 128; i++) {
+            histogram = new Histogram();
+            histogram.record(thousandths(i));
+            assertEquals(i / 1000d, histogram.getValueAtPercentile(100), 0d);
+        }
+
+        // From there on, each bucket covers twice the range of the previous one: the values at either side
+        // of the edge between two buckets are told apart
+        for (int bit = 7; bit < 50; bit++) {
+            long edge = 1L << bit;
+            histogram = new Histogram();
+            histogram.record(thousandths(edge - 1));
+            histogram.record(thousandths(edge));
+
+            double below = histogram.getValueAtPercentile(50);
+            double above = histogram.getValueAtPercentile(100);
+            assertTrue(below < above);
+            assertWithinOnePercent((edge - 1) / 1000d, below);
+            assertWithinOnePercent(edge / 1000d, above);
+        }
+    }
+
+    @Test
+    public void testMaximumValue() {
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE / 1000d);
+        histogram.record(Double.MAX_VALUE);
+        histogram.record(Double.POSITIVE_INFINITY);
+
+        // Values beyond the range of the histogram are counted as its maximum value
+        assertEquals(3, histogram.getTotalCount());
+        assertWithinOnePercent(Long.MAX_VALUE / 1000d, histogram.getValueAtPercentile(0));
+        assertWithinOnePercent(Long.MAX_VALUE / 1000d, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testZeroAndNegativeValues() {
+        Histogram histogram = new Histogram();
+        assertEquals(0d, histogram.getValueAtPercentile(50), 0d);
+
+        histogram.record(0);
+        histogram.record(-5);
+        assertEquals(2, histogram.getTotalCount());
+        assertEquals(0d, histogram.getValueAtPercentile(100), 0d);
+    }
+
+    @Test
+    public void testAdd() {
+        Histogram small = new Histogram();
+        Histogram large = new Histogram();
+        Histogram all = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            small.record(i / 100d);
+            large.record(i * 100d);
+            all.record(i / 100d);
+            all.record(i * 100d);
+        }
+
+        // Adding a histogram with a larger range grows the counts
+        small.add(large);
+        assertEquals(all.getTotalCount(), small.getTotalCount());
+        for (double percentile : new double[] {1, 25, 50, 75, 99, 99.9, 100}) {
+            assertEquals(all.getValueAtPercentile(percentile), small.getValueAtPercentile(percentile), 0d);
+        }
+    }
+
+    /**
+     * Returns a value which is recorded as the given number of thousandths, avoiding the rounding errors of
+     * dividing by 1000.
+     */
+    private static double thousandths(long count) {
+        return (count + 0.5d) / 1000d;
+    }
+
+    private static void assertWithinOnePercent(double expected, double actual) {
+        assertEquals(expected, actual, expected / 100d);
+    }
+}
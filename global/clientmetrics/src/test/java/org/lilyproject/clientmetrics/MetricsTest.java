@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MetricsTest {
+    private static final int THREAD_COUNT = 4;
+    private static final int VALUE_COUNT = 500000;
+
+    /**
+     * Swaps the recordings while they are being added to, none of the values may get lost or be counted twice.
+     */
+    @Test
+    public void testConcurrentRecordAndSwap() throws Exception {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final List<Metrics.Recorder> recorders = new ArrayList<Metrics.Recorder>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            // Like in Metrics, each recorder is only used by one thread
+            final Metrics.Recorder recorder = new Metrics.Recorder();
+            recorders.add(recorder);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                        for (int j = 0; j < VALUE_COUNT; j++) {
+                            recorder.add(j % 2 == 0 ? "even" : "odd", null, 1, (j % 100) + 1);
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        startSignal.countDown();
+
+        Metrics.Recording even = new Metrics.Recording(null);
+        Metrics.Recording odd = new Metrics.Recording(null);
+        boolean recording = true;
+        while (recording) {
+            recording = false;
+            for (Thread thread : threads) {
+                recording |= thread.isAlive();
+            }
+            // After the threads ended, this collects what they recorded since the previous swap
+            for (Metrics.Recorder recorder : recorders) {
+                collect(recorder.swap(), even, odd);
+            }
+        }
+
+        assertEquals(0, errors.size());
+
+        // The values of each thread are 1 to 100, repeated: the sum of even and odd values is known
+        long expectedCount = THREAD_COUNT * (VALUE_COUNT / 2);
+        long repeats = THREAD_COUNT * (VALUE_COUNT / 100);
+        assertEquals(expectedCount, even.count);
+        assertEquals(expectedCount, even.histogram.getTotalCount());
+        assertEquals(repeats * (50 * 50), even.value, 0d);
+        assertEquals(1d, even.min, 0d);
+        assertEquals(99d, even.max, 0d);
+        assertEquals(expectedCount, odd.count);
+        assertEquals(expectedCount, odd.histogram.getTotalCount());
+        assertEquals(repeats * (50 * 51), odd.value, 0d);
+        assertEquals(2d, odd.min, 0d);
+        assertEquals(100d, odd.max, 0d);
+
+        // Nothing is left behind
+        for (Metrics.Recorder recorder : recorders) {
+            Map<String, Metrics.Recording> recordings = recorder.swap();
+            assertNull(recordings.get("even"));
+            assertNull(recordings.get("odd"));
+        }
+    }
+
+    private void collect(Map<String, Metrics.Recording> recordings, Metrics.Recording even,
+            Metrics.Recording odd) {
+        Metrics.Recording recording = recordings.get("even");
+        if (recording != null) {
+            even.add(recording);
+        }
+        recording = recordings.get("odd");
+        if (recording != null) {
+            odd.add(recording);
+        }
+    }
+}
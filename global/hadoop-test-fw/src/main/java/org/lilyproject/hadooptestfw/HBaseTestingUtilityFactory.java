@@ -87,6 +87,9 @@ public class HBaseTestingUtilityFactory {
         // make replication react a little quicker
         conf.setLong("replication.source.sleepforretries", 200);
         
+        // Table snapshots are used as MapReduce input
+        conf.setBoolean("hbase.snapshot.enabled", true);
+
         // make retries in ZooKeeper a little quicker
         // This was added with CDH 4.2, where on shutdown HBase's snapshot manager closed a zookeeper
         // connection which later on was still used by another component, which then got into a retry loop,
@@ -125,6 +125,18 @@ public class HBaseTableFactoryImpl implements HBaseTableFactory {
             tableDescriptor.setMemStoreFlushSize(memStoreFlushSize);
         }
 
+        // coprocessors
+        for (String coprocessor : tableConfig.getCoprocessors()) {
+            if (!tableDescriptor.hasCoprocessor(coprocessor)) {
+                try {
+                    tableDescriptor.addCoprocessor(coprocessor);
+                } catch (IOException e) {
+                    // only thrown when the coprocessor would be added twice
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
         for (HColumnDescriptor column : tableDescriptor.getColumnFamilies()) {
             ColumnFamilyConfig cfConf = tableConfig.getColumnFamilyConfig(column.getNameAsString());
 
@@ -17,8 +17,10 @@ package org.lilyproject.util.hbase;
 
 import org.apache.hadoop.hbase.util.Bytes;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class TableConfig {
@@ -26,6 +28,7 @@ public class TableConfig {
     private Long maxFileSize;
     private Long memStoreFlushSize;
     private Map<String, ColumnFamilyConfig> columnFamilies = new HashMap<String, ColumnFamilyConfig>();
+    private List<String> coprocessors = new ArrayList<String>();
 
     public TableConfig() {
 
@@ -59,6 +62,13 @@ public class TableConfig {
         this.memStoreFlushSize = memStoreFlushSize;
     }
 
+    /**
+     * Class names of the coprocessors to load on the table.
+     */
+    public List<String> getCoprocessors() {
+        return coprocessors;
+    }
+
     public byte[][] getSplitKeys() {
         return splitKeys;
     }
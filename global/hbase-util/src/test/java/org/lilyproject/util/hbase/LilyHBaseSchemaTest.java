@@ -16,7 +16,10 @@
 package org.lilyproject.util.hbase;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.regex.Pattern;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -115,6 +118,25 @@ public class LilyHBaseSchemaTest  {
 
     }
 
+    @Test
+    public void testCreateRecordTableDescriptor_CoprocessorsFromTableConfig() {
+        String coprocessor = "org.lilyproject.repository.impl.hbase.AggregationEndpoint";
+        HTableDescriptor descriptor = LilyHBaseSchema.createRecordTableDescriptor("myrepo", "myrecordtable");
+        assertFalse(descriptor.hasCoprocessor(coprocessor));
+
+        TableConfig tableConfig = new TableConfig();
+        tableConfig.getCoprocessors().add(coprocessor);
+        HBaseTableFactoryImpl factory = new HBaseTableFactoryImpl(new Configuration(),
+                Collections.singletonList(new TableConfigEntry(Pattern.compile("record|.+__.+"), tableConfig)),
+                new ColumnFamilyConfig());
+        factory.configure(descriptor);
+        assertTrue(descriptor.hasCoprocessor(coprocessor));
+
+        // configuring twice does not add it twice
+        factory.configure(descriptor);
+        assertTrue(descriptor.hasCoprocessor(coprocessor));
+    }
+
     @Test(expected=IllegalArgumentException.class)
     public void testCreateRecordTableDescriptor_WithDotInName() {
         // A dot isn't allowed in a repository table name because it can get in the
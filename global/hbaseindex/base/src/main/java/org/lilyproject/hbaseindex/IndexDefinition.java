@@ -15,11 +15,14 @@
  */
 package org.lilyproject.hbaseindex;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -34,6 +37,7 @@ import com.gotometrics.orderly.StructRowKey;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.Writable;
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.JsonNodeFactory;
 import org.codehaus.jackson.node.ObjectNode;
 
@@ -45,6 +49,11 @@ import org.codehaus.jackson.node.ObjectNode;
  * {@link #addIntegerField}, etc. Finally the index is created by calling
  * {@link IndexManager#getIndex}. After creation, the definition of an index
  * cannot be modified.
+ *
+ * <p>By default, the rows of an index are ordered by the values of its fields,
+ * so that an often occurring value concentrates all writes for it on one region.
+ * To spread such values, the row keys can be prefixed with a salt, see
+ * {@link #setSalt}.
  */
 public class IndexDefinition implements Writable {
     public static final byte[] DATA_FAMILY = Bytes.toBytes("data");
@@ -53,6 +62,21 @@ public class IndexDefinition implements Writable {
     private List<IndexFieldDefinition> fields = new ArrayList<IndexFieldDefinition>();
     private final Map<String, IndexFieldDefinition> fieldsByName = new HashMap<String, IndexFieldDefinition>();
     private IndexFieldDefinition identifierIndexFieldDefinition;
+    private int saltBuckets;
+    private List<String> saltFields = Collections.emptyList();
+
+    /**
+     * Name by which the identifier can be used as salt field.
+     */
+    public static final String IDENTIFIER_SALT_FIELD = "identifier";
+
+    /**
+     * First byte of the versioned Writable format. The unversioned format, which has no salt, starts with the
+     * length of the name, of which the first byte only has this value for names of 65280 bytes or more.
+     */
+    private static final int VERSIONED_FORMAT_MARKER = 0xFF;
+
+    private static final int WRITABLE_VERSION = 1;
 
     public IndexDefinition() {
         // for hadoop serialization
@@ -89,6 +113,15 @@ public class IndexDefinition implements Writable {
         } catch (Exception e) {
             throw new RuntimeException("Error instantiating IndexDefinition.", e);
         }
+
+        if (jsonObject.get("saltBuckets") != null) {
+            List<String> saltFieldNames = new ArrayList<String>();
+            for (JsonNode saltField : jsonObject.get("saltFields")) {
+                saltFieldNames.add(saltField.getTextValue());
+            }
+            setSalt(jsonObject.get("saltBuckets").getIntValue(),
+                    saltFieldNames.toArray(new String[saltFieldNames.size()]));
+        }
     }
 
     public String getName() {
@@ -101,6 +134,74 @@ public class IndexDefinition implements Writable {
         this.identifierIndexFieldDefinition.setOrder(identifierOrder);
     }
 
+    /**
+     * Prefixes the row keys of this index with a salt of one byte, which is a hash of the given fields, modulo
+     * the number of buckets. This spreads the entries which have the same values for the other fields over
+     * the buckets, and hence over regions.
+     *
+     * <p>Queries which have an equals condition on all the salt fields are directed to one bucket, other
+     * queries are performed on all the buckets, whose results are merged in the usual order. To spread the
+     * entries of values which occur a lot, the salt should hence be based on fields which are typically not
+     * fixed by queries, such as the identifier, which can be used as {@link #IDENTIFIER_SALT_FIELD}.
+     *
+     * @param buckets the number of buckets, at most 256, 0 to disable salting
+     * @param fields  the names of the fields on which the salt is based, in addition {@link #IDENTIFIER_SALT_FIELD}
+     *                can be used. When no fields are specified, the salt is based on the identifier.
+     */
+    public void setSalt(int buckets, String... fields) {
+        Preconditions.checkArgument(buckets >= 0 && buckets <= 256, "Salt buckets should be between 0 and 256");
+        for (String field : fields) {
+            Preconditions.checkArgument(field.equals(IDENTIFIER_SALT_FIELD) || fieldsByName.containsKey(field),
+                    "Salt field is not part of the index definition: " + field);
+        }
+        this.saltBuckets = buckets;
+        if (buckets == 0) {
+            this.saltFields = Collections.emptyList();
+        } else if (fields.length == 0) {
+            this.saltFields = Collections.singletonList(IDENTIFIER_SALT_FIELD);
+        } else {
+            this.saltFields = Collections.unmodifiableList(Arrays.asList(fields));
+        }
+    }
+
+    /**
+     * The number of salt buckets, 0 if the index is not salted.
+     */
+    public int getSaltBuckets() {
+        return saltBuckets;
+    }
+
+    public List<String> getSaltFields() {
+        return saltFields;
+    }
+
+    /**
+     * The length of the salt prefix of the row keys: 1 if the index is salted, 0 otherwise.
+     */
+    public int getSaltLength() {
+        return saltBuckets > 0 ? 1 : 0;
+    }
+
+    /**
+     * Computes the salt for the given field values and identifier.
+     *
+     * @param fieldValues the values of (at least) the salt fields
+     * @param identifier  the identifier, only needed when it is a salt field
+     */
+    public byte computeSalt(Map<String, Object> fieldValues, byte[] identifier) throws IOException {
+        int hash = 1;
+        for (String saltField : saltFields) {
+            byte[] bytes;
+            if (saltField.equals(IDENTIFIER_SALT_FIELD)) {
+                bytes = identifier;
+            } else {
+                bytes = fieldsByName.get(saltField).asRowKey().serialize(fieldValues.get(saltField));
+            }
+            hash = 31 * hash + Arrays.hashCode(bytes);
+        }
+        return (byte)((hash & Integer.MAX_VALUE) % saltBuckets);
+    }
+
     public IndexFieldDefinition getField(String name) {
         return fieldsByName.get(name);
     }
@@ -250,6 +351,14 @@ public class IndexDefinition implements Writable {
 
         object.put("identifierOrder", this.identifierIndexFieldDefinition.getOrder().toString());
 
+        if (saltBuckets > 0) {
+            object.put("saltBuckets", saltBuckets);
+            ArrayNode saltFieldsJson = object.putArray("saltFields");
+            for (String saltField : saltFields) {
+                saltFieldsJson.add(saltField);
+            }
+        }
+
         return object;
     }
 
@@ -279,6 +388,10 @@ public class IndexDefinition implements Writable {
             return false;
         }
 
+        if (saltBuckets != other.saltBuckets || !saltFields.equals(other.saltFields)) {
+            return false;
+        }
+
         return true;
     }
 
@@ -287,6 +400,8 @@ public class IndexDefinition implements Writable {
         int result = name != null ? name.hashCode() : 0;
         result = 31 * result + (fields != null ? fields.hashCode() : 0);
         result = 31 * result + (identifierIndexFieldDefinition != null ? identifierIndexFieldDefinition.hashCode() : 0);
+        result = 31 * result + saltBuckets;
+        result = 31 * result + saltFields.hashCode();
         return result;
     }
 
@@ -299,6 +414,14 @@ public class IndexDefinition implements Writable {
     private IndexFieldDefinition identifierIndexFieldDefinition;
 
  */
+        // Unsalted definitions are written in the unversioned format, so that they can still be read by older
+        // versions, e.g. by region servers evaluating an IndexFilterHbaseImpl during a rolling upgrade.
+        boolean salted = saltBuckets > 0;
+        if (salted) {
+            out.writeByte(VERSIONED_FORMAT_MARKER);
+            out.writeByte(WRITABLE_VERSION);
+        }
+
         out.writeUTF(name);
         out.writeInt(fields.size());
         for (IndexFieldDefinition field : fields) {
@@ -308,11 +431,31 @@ public class IndexDefinition implements Writable {
         out.writeUTF(identifierIndexFieldDefinition.getClass().getName());
         identifierIndexFieldDefinition.write(out);
 
+        if (salted) {
+            out.writeInt(saltBuckets);
+            out.writeInt(saltFields.size());
+            for (String saltField : saltFields) {
+                out.writeUTF(saltField);
+            }
+        }
     }
 
     @Override
     public void readFields(DataInput in) throws IOException {
-        name = in.readUTF();
+        final int firstByte = in.readUnsignedByte();
+        final int version;
+        if (firstByte == VERSIONED_FORMAT_MARKER) {
+            version = in.readUnsignedByte();
+            if (version > WRITABLE_VERSION) {
+                throw new IOException("Unsupported IndexDefinition serialization version: " + version);
+            }
+            name = in.readUTF();
+        } else {
+            version = 0;
+            name = readUTF(firstByte, in);
+        }
+
+
         final int fieldsSize = in.readInt();
         fields = new ArrayList<IndexFieldDefinition>(fieldsSize);
         for (int i = 0; i < fieldsSize; i++) {
@@ -328,6 +471,31 @@ public class IndexDefinition implements Writable {
                 (IndexFieldDefinition) tryInstantiateClass(identifierIndexFieldDefinitionClassName);
         identifierIndexFieldDefinition.readFields(in);
         refreshFieldsByName();
+
+        if (version >= 1) {
+            saltBuckets = in.readInt();
+            final int saltFieldsSize = in.readInt();
+            final List<String> saltFieldNames = new ArrayList<String>(saltFieldsSize);
+            for (int i = 0; i < saltFieldsSize; i++) {
+                saltFieldNames.add(in.readUTF());
+            }
+            saltFields = Collections.unmodifiableList(saltFieldNames);
+        } else {
+            saltBuckets = 0;
+            saltFields = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Reads a string written by {@link DataOutput#writeUTF}, of which the first byte has already been read.
+     */
+    private static String readUTF(int firstByte, DataInput in) throws IOException {
+        final int length = (firstByte << 8) | in.readUnsignedByte();
+        final byte[] bytes = new byte[length + 2];
+        bytes[0] = (byte) (length >> 8);
+        bytes[1] = (byte) length;
+        in.readFully(bytes, 2, length);
+        return DataInputStream.readUTF(new DataInputStream(new ByteArrayInputStream(bytes)));
     }
 
     private Object tryInstantiateClass(String className) throws IOException {
@@ -16,7 +16,6 @@
 package org.lilyproject.hbaseindex;
 
 import com.gotometrics.orderly.RowKey;
-import com.gotometrics.orderly.StringRowKey;
 import com.gotometrics.orderly.Termination;
 import org.codehaus.jackson.node.ObjectNode;
 
@@ -36,7 +35,7 @@ public class StringIndexFieldDefinition extends IndexFieldDefinition {
 
     @Override
     RowKey asRowKey() {
-        final StringRowKey rowKey = new StringRowKey();
+        final RowKey rowKey = new Utf8StringRowKey();
         rowKey.setOrder(this.getOrder());
         return rowKey;
     }
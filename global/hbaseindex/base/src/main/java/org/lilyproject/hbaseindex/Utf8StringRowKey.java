@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import java.io.IOException;
+
+import com.gotometrics.orderly.StringRowKey;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A StringRowKey which converts each string to UTF-8 only once, and without going through a charset encoder
+ * when the string only contains ASCII characters. The serialized form is the same as for StringRowKey.
+ *
+ * <p>StringRowKey converts the string to UTF-8 both to compute the serialized length and to serialize it,
+ * and a StructRowKey always does both. This key remembers the conversion of the last string it has seen,
+ * so the second conversion is avoided. The UTF-8 bytes are passed on to StringRowKey, which serializes a
+ * byte array as already encoded UTF-8. Like all row keys, instances are not thread safe.</p>
+ *
+ * <p>Strings are not ASCII folded while they are encoded: string index fields are not folded, and doing so
+ * would change the row keys of existing indexes.</p>
+ */
+class Utf8StringRowKey extends StringRowKey {
+    private String lastString;
+    private byte[] lastUtf8;
+
+    @Override
+    public int getSerializedLength(Object o) throws IOException {
+        return super.getSerializedLength(toUtf8(o));
+    }
+
+    @Override
+    public void serialize(Object o, ImmutableBytesWritable w) throws IOException {
+        super.serialize(toUtf8(o), w);
+    }
+
+    private Object toUtf8(Object o) {
+        if (!(o instanceof String)) {
+            return o;
+        }
+
+        // Identity is enough here: the same instance is passed for the length and for the serialization
+        if (o != lastString) {
+            lastUtf8 = toUtf8((String)o);
+            lastString = (String)o;
+        }
+        return lastUtf8;
+    }
+
+    static byte[] toUtf8(String string) {
+        int length = string.length();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c >= '\u0080') {
+                return Bytes.toBytes(string);
+            }
+            bytes[i] = (byte)c;
+        }
+        return bytes;
+    }
+}
@@ -67,7 +67,8 @@ public class IndexFilterHbaseImpl extends FilterBase {
     @Override
     public boolean filterRowKey(byte[] buffer, int offset, int length) {
         final StructRowKey structRowKey = indexDefinition.asStructRowKey();
-        structRowKey.iterateOver(buffer, offset);
+        // skip the salt, if any
+        structRowKey.iterateOver(buffer, offset + indexDefinition.getSaltLength());
 
         final StructIterator fieldsIterator = structRowKey.iterator();
 
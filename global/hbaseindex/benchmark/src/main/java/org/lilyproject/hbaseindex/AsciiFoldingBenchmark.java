@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.gotometrics.orderly.StructRowKey;
+import org.lilyproject.hbaseindex.benchmark.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the ASCII folding of string index values, by itself and together with the encoding of the folded
+ * value in a row key. Most of the generated strings contain non-ASCII characters.
+ *
+ * <p>Lives in the package of ASCIIFoldingUtil, which is not public.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AsciiFoldingBenchmark {
+    private static final int VALUE_COUNT = 1024;
+
+    private StructRowKey rowKey;
+    private String[] values;
+    private byte[][] identifiers;
+    private int position;
+
+    @Setup
+    public void setUp() {
+        IndexDefinition definition = new IndexDefinition("benchmark");
+        definition.addStringField("field");
+        rowKey = definition.asStructRowKey();
+
+        Random random = BenchmarkData.newRandom();
+        identifiers = BenchmarkData.sortedIdentifiers(random, VALUE_COUNT, 20);
+        values = new String[VALUE_COUNT];
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values[i] = BenchmarkData.string(random);
+        }
+    }
+
+    private int nextPosition() {
+        position = (position + 1) % VALUE_COUNT;
+        return position;
+    }
+
+    @Benchmark
+    public String fold() {
+        return ASCIIFoldingUtil.foldToASCII(values[nextPosition()]);
+    }
+
+    @Benchmark
+    public byte[] foldAndSerialize() throws IOException {
+        int i = nextPosition();
+        return rowKey.serialize(new Object[] {ASCIIFoldingUtil.foldToASCII(values[i]), identifiers[i]});
+    }
+}
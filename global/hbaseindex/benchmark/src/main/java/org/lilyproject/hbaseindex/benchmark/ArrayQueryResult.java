@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex.benchmark;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.hbaseindex.QueryResult;
+
+/**
+ * A QueryResult over sorted identifiers in memory. Seeking does a binary search, which stands in for the
+ * repositioning of a scanner. Index field values can be given per field, in the order of the identifiers.
+ */
+class ArrayQueryResult implements QueryResult {
+    private final byte[][] identifiers;
+    private final Map<String, Object[]> fieldValues;
+    private int position = -1;
+
+    ArrayQueryResult(byte[][] identifiers) {
+        this(identifiers, Collections.<String, Object[]>emptyMap());
+    }
+
+    ArrayQueryResult(byte[][] identifiers, Map<String, Object[]> fieldValues) {
+        this.identifiers = identifiers;
+        this.fieldValues = fieldValues;
+    }
+
+    @Override
+    public byte[] next() {
+        position++;
+        return current();
+    }
+
+    @Override
+    public byte[] seek(byte[] identifier) {
+        int from = position + 1;
+        if (from >= identifiers.length) {
+            position = identifiers.length;
+            return null;
+        }
+        int found = Arrays.binarySearch(identifiers, from, identifiers.length, identifier, Bytes.BYTES_COMPARATOR);
+        position = found >= 0 ? found : -(found + 1);
+        return current();
+    }
+
+    private byte[] current() {
+        return position < identifiers.length ? identifiers[position] : null;
+    }
+
+    @Override
+    public byte[] getData(byte[] qualifier) {
+        return null;
+    }
+
+    @Override
+    public byte[] getData(String qualifier) {
+        return null;
+    }
+
+    @Override
+    public String getDataAsString(String qualifier) {
+        return null;
+    }
+
+    @Override
+    public Object getIndexField(String fieldName) {
+        if (position < 0 || position >= identifiers.length) {
+            throw new RuntimeException("QueryResult.getIndexField() is being called but there is no current result.");
+        }
+        Object[] values = fieldValues.get(fieldName);
+        return values != null ? values[position] : null;
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+}
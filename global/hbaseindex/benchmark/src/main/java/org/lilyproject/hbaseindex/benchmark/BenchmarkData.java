@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex.benchmark;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Generates the values used by the benchmarks. A fixed seed is used, so that every run works on the same data.
+ */
+public final class BenchmarkData {
+    static final long SEED = 42;
+
+    private static final String[] WORDS = {"lily", "index", "café", "naïve", "Ærøskøbing", "straße", "record",
+            "Zürich", "façade", "señor", "hbase", "résumé", "Ångström", "smörgåsbord", "crème brûlée"};
+
+    private BenchmarkData() {
+    }
+
+    public static Random newRandom() {
+        return new Random(SEED);
+    }
+
+    /**
+     * Random identifiers, sorted and without duplicates, in the same way as a QueryResult returns them.
+     */
+    public static byte[][] sortedIdentifiers(Random random, int count, int length) {
+        byte[][] identifiers = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            identifiers[i] = new byte[length];
+            random.nextBytes(identifiers[i]);
+        }
+        Arrays.sort(identifiers, Bytes.BYTES_COMPARATOR);
+        return identifiers;
+    }
+
+    /**
+     * Strings of a few words, a part of which contain non-ASCII characters.
+     */
+    public static String string(Random random) {
+        StringBuilder builder = new StringBuilder();
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Generates a value of the given type, as it would be added to an index entry.
+     */
+    public static Object value(Random random, FieldType type) {
+        switch (type) {
+            case STRING:
+                return string(random);
+            case INTEGER:
+                return random.nextInt();
+            case LONG:
+                return random.nextLong();
+            case FLOAT:
+                return random.nextFloat() * 1000f;
+            case DECIMAL:
+                return new BigDecimal(random.nextLong()).movePointLeft(random.nextInt(10));
+            case BYTES:
+                byte[] fixed = new byte[FieldType.FIXED_BYTES_LENGTH];
+                random.nextBytes(fixed);
+                return fixed;
+            case VARIABLE_LENGTH_BYTES:
+                byte[] variable = new byte[1 + random.nextInt(40)];
+                random.nextBytes(variable);
+                return variable;
+            default:
+                throw new IllegalArgumentException("Unsupported field type: " + type);
+        }
+    }
+}
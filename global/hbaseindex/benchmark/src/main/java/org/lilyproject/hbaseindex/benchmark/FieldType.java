@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex.benchmark;
+
+import org.lilyproject.hbaseindex.IndexDefinition;
+
+/**
+ * The kinds of index fields which the benchmarks can be run for.
+ */
+public enum FieldType {
+    STRING,
+    INTEGER,
+    LONG,
+    FLOAT,
+    DECIMAL,
+    BYTES,
+    VARIABLE_LENGTH_BYTES;
+
+    static final int FIXED_BYTES_LENGTH = 16;
+
+    void addTo(IndexDefinition definition, String name) {
+        switch (this) {
+            case STRING:
+                definition.addStringField(name);
+                break;
+            case INTEGER:
+                definition.addIntegerField(name);
+                break;
+            case LONG:
+                definition.addLongField(name);
+                break;
+            case FLOAT:
+                definition.addFloatField(name);
+                break;
+            case DECIMAL:
+                definition.addDecimalField(name);
+                break;
+            case BYTES:
+                definition.addByteField(name, FIXED_BYTES_LENGTH);
+                break;
+            case VARIABLE_LENGTH_BYTES:
+                definition.addVariableLengthByteField(name);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported field type: " + this);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.hbaseindex.IndexDefinition;
+import org.lilyproject.hbaseindex.filter.IndexFilter;
+import org.lilyproject.hbaseindex.filter.IndexFilterHbaseImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the evaluation of an {@link IndexFilter} by {@link IndexFilterHbaseImpl}, as the region server does it
+ * for every row of a scan, on row keys and key values that are prepared in memory.
+ *
+ * <p>The index has the fields 'name' (string), 'count' (long) and 'tag' (fixed length bytes). The filter looks
+ * at one of these fields, the fields in front of it need to be skipped. The filter drops every other row.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexFilterBenchmark {
+    private static final int VALUE_COUNT = 1024;
+    private static final byte[] DATA_QUALIFIER = Bytes.toBytes("d");
+
+    @Param({"name", "count", "tag"})
+    public String filteredField;
+
+    private Filter filter;
+    private byte[][] rowKeys;
+    private KeyValue[] keyValues;
+    private int position;
+
+    @Setup
+    public void setUp() throws IOException {
+        IndexDefinition definition = new IndexDefinition("benchmark");
+        FieldType.STRING.addTo(definition, "name");
+        FieldType.LONG.addTo(definition, "count");
+        FieldType.BYTES.addTo(definition, "tag");
+
+        Random random = BenchmarkData.newRandom();
+        byte[][] identifiers = BenchmarkData.sortedIdentifiers(random, VALUE_COUNT, 20);
+        rowKeys = new byte[VALUE_COUNT][];
+        keyValues = new KeyValue[VALUE_COUNT];
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            rowKeys[i] = definition.asStructRowKey().serialize(new Object[] {
+                    BenchmarkData.value(random, FieldType.STRING), BenchmarkData.value(random, FieldType.LONG),
+                    BenchmarkData.value(random, FieldType.BYTES), identifiers[i]});
+            keyValues[i] = new KeyValue(rowKeys[i], IndexDefinition.DATA_FAMILY, DATA_QUALIFIER,
+                    Bytes.toBytes(random.nextLong()));
+        }
+
+        filter = new IndexFilterHbaseImpl(new HalfFilter(filteredField), definition);
+    }
+
+    private int nextPosition() {
+        position = (position + 1) % VALUE_COUNT;
+        return position;
+    }
+
+    @Benchmark
+    public boolean filterRowKey() {
+        byte[] rowKey = rowKeys[nextPosition()];
+        return filter.filterRowKey(rowKey, 0, rowKey.length);
+    }
+
+    @Benchmark
+    public Filter.ReturnCode filterKeyValue() {
+        return filter.filterKeyValue(keyValues[nextPosition()]);
+    }
+
+    /**
+     * Filters out about half of the rows, based on the hash code of a field value or on the data.
+     */
+    public static class HalfFilter extends IndexFilter {
+        public HalfFilter() {
+            // hadoop serialization
+        }
+
+        HalfFilter(String field) {
+            super(Collections.singleton(DATA_QUALIFIER), Collections.singleton(field));
+        }
+
+        @Override
+        public boolean filterData(byte[] dataQualifier, byte[] data, int offset, int length) {
+            return (data[offset + length - 1] & 1) == 0;
+        }
+
+        @Override
+        public boolean filterField(String name, Object value) {
+            int hash = value instanceof byte[] ? Bytes.hashCode((byte[])value) : value.hashCode();
+            return (hash & 1) == 0;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex.benchmark;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.hbaseindex.Conjunction;
+import org.lilyproject.hbaseindex.Disjunction;
+import org.lilyproject.hbaseindex.QueryResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the merging of query results by {@link Conjunction} and {@link Disjunction}, on results in memory.
+ * Each invocation reads a complete merged result.
+ *
+ * <p>The large result has {@code size} identifiers. The small result has {@code size / ratio} identifiers,
+ * half of which also occur in the large result.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MergeJoinBenchmark {
+    @Param({"10000"})
+    public int size;
+
+    @Param({"1", "10", "1000"})
+    public int ratio;
+
+    private byte[][] large;
+    private byte[][] small;
+
+    @Setup
+    public void setUp() {
+        Random random = BenchmarkData.newRandom();
+        large = BenchmarkData.sortedIdentifiers(random, size, 20);
+
+        int smallSize = Math.max(1, size / ratio);
+        byte[][] others = BenchmarkData.sortedIdentifiers(random, smallSize, 20);
+        small = new byte[smallSize][];
+        for (int i = 0; i < smallSize; i++) {
+            small[i] = i % 2 == 0 ? large[random.nextInt(size)] : others[i];
+        }
+        Arrays.sort(small, Bytes.BYTES_COMPARATOR);
+        small = distinct(small);
+    }
+
+    private static byte[][] distinct(byte[][] sorted) {
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || Bytes.compareTo(sorted[i], sorted[count - 1]) != 0) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    private static int count(QueryResult result) throws IOException {
+        int count = 0;
+        while (result.next() != null) {
+            count++;
+        }
+        result.close();
+        return count;
+    }
+
+    /**
+     * Conjunction with the most selective result first, as recommended.
+     */
+    @Benchmark
+    public int conjunctionSmallFirst() throws IOException {
+        return count(new Conjunction(new ArrayQueryResult(small), new ArrayQueryResult(large)));
+    }
+
+    @Benchmark
+    public int conjunctionLargeFirst() throws IOException {
+        return count(new Conjunction(new ArrayQueryResult(large), new ArrayQueryResult(small)));
+    }
+
+    @Benchmark
+    public int disjunction() throws IOException {
+        return count(new Disjunction(new ArrayQueryResult(large), new ArrayQueryResult(small)));
+    }
+
+    /**
+     * The two results and their union, a nesting as used for queries like 'a AND (b OR c)'.
+     */
+    @Benchmark
+    public int nested() throws IOException {
+        return count(new Conjunction(new ArrayQueryResult(small), new Disjunction(new ArrayQueryResult(large),
+                new ArrayQueryResult(small))));
+    }
+}
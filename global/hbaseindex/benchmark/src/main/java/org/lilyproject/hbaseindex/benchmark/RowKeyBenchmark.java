@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.gotometrics.orderly.StructRowKey;
+import org.lilyproject.hbaseindex.IndexDefinition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the encoding of index entries to row keys, and the decoding of row keys, for each type of index field.
+ *
+ * <p>The index has one field of the benchmarked type, followed by the identifier, which is what
+ * {@link org.lilyproject.hbaseindex.Index} stores for each entry.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RowKeyBenchmark {
+    private static final int VALUE_COUNT = 1024;
+
+    @Param({"STRING", "INTEGER", "LONG", "FLOAT", "DECIMAL", "BYTES", "VARIABLE_LENGTH_BYTES"})
+    public FieldType fieldType;
+
+    private StructRowKey rowKey;
+    private Object[][] entries;
+    private byte[][] rowKeys;
+    private int position;
+
+    @Setup
+    public void setUp() throws IOException {
+        IndexDefinition definition = new IndexDefinition("benchmark");
+        fieldType.addTo(definition, "field");
+        rowKey = definition.asStructRowKey();
+
+        Random random = BenchmarkData.newRandom();
+        byte[][] identifiers = BenchmarkData.sortedIdentifiers(random, VALUE_COUNT, 20);
+        entries = new Object[VALUE_COUNT][];
+        rowKeys = new byte[VALUE_COUNT][];
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            entries[i] = new Object[] {BenchmarkData.value(random, fieldType), identifiers[i]};
+            rowKeys[i] = rowKey.serialize(entries[i]);
+        }
+    }
+
+    private int nextPosition() {
+        position = (position + 1) % VALUE_COUNT;
+        return position;
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return rowKey.serialize(entries[nextPosition()]);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException {
+        return rowKey.deserialize(rowKeys[nextPosition()]);
+    }
+}
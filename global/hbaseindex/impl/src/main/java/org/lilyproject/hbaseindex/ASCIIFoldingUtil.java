@@ -66,20 +66,31 @@ final class ASCIIFoldingUtil {
     /**
      * Converts characters above ASCII to their ASCII equivalents.  For example,
      * accents are removed from accented characters.
+     *
+     * <p>Strings which only contain ASCII characters are returned as is.
      */
     public static String foldToASCII(String string) {
-        char[] input = string.toCharArray();
         int length = string.length();
-        int outputPos;
+
+        // Most strings are plain ASCII, for those there is nothing to copy
+        int firstNonAscii = 0;
+        while (firstNonAscii < length && string.charAt(firstNonAscii) < '\u0080') {
+            firstNonAscii++;
+        }
+        if (firstNonAscii == length) {
+            return string;
+        }
 
         // Worst-case length required:
-        final int maxSizeNeeded = 4 * length;
+        final int maxSizeNeeded = firstNonAscii + 4 * (length - firstNonAscii);
         char[] output = new char[maxSizeNeeded];
 
-        outputPos = 0;
+        // The ASCII prefix is copied as is, folding starts from the first non-ASCII character
+        string.getChars(0, firstNonAscii, output, 0);
+        int outputPos = firstNonAscii;
 
-        for (int pos = 0; pos < length; ++pos) {
-            final char c = input[pos];
+        for (int pos = firstNonAscii; pos < length; ++pos) {
+            final char c = string.charAt(pos);
 
             // Quick test: if it's not in range then just keep current character
             if (c < '\u0080') {
@@ -31,6 +31,18 @@ abstract class BaseQueryResult implements QueryResult {
         this.definition = definition;
     }
 
+    /**
+     * Default implementation which simply iterates over the results until the identifier is reached.
+     */
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        byte[] key;
+        do {
+            key = next();
+        } while (key != null && Bytes.compareTo(key, identifier) < 0);
+        return key;
+    }
+
     @Override
     public byte[] getData(byte[] qualifier) {
         if (currentResult != null) {
@@ -63,9 +75,25 @@ abstract class BaseQueryResult implements QueryResult {
         }
     }
 
+    protected byte[] decodeIdentifierFrom(byte[] rowKey) throws IOException {
+        final StructRowKey structRowKey = definition.asStructRowKey();
+        structRowKey.iterateOver(rowKey, definition.getSaltLength());
+
+        final StructIterator iterator = structRowKey.iterator();
+
+        int nbrFields = structRowKey.getFields().length;
+        // ignore all but last field (i.e. the identifier)
+        for (int i = 0; i < nbrFields - 1; i++) {
+            iterator.skip();
+        }
+
+        // read the last field (i.e. the identifier)
+        return (byte[]) iterator.next();
+    }
+
     private Object decodeIndexFieldFrom(String fieldName, byte[] rowKey) throws IOException {
         final StructRowKey structRowKey = definition.asStructRowKey();
-        structRowKey.iterateOver(rowKey);
+        structRowKey.iterateOver(rowKey, definition.getSaltLength());
 
         final StructIterator iterator = structRowKey.iterator();
 
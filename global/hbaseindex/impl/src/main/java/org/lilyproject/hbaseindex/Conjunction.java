@@ -16,12 +16,13 @@
 package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
- * Merge-joins two QueryResults into one, in other words: an AND
- * operation on two indices.
+ * Merge-joins two or more QueryResults into one, in other words: an AND
+ * operation on indices.
  *
  * <p>This only works if the individual QueryResults return their rows
  * sorted in increasing identifier order, and return each identifier at most
@@ -32,63 +33,79 @@ import org.apache.hadoop.hbase.util.Bytes;
  * <p>A Conjunction itself also returns its results in increasing identifier
  * order, and can hence serve as input to other Conjunctions.
  *
- * <p>TODO the implementation is currently not optimal if lots of rows need
- * to be skipped to move to the next common result, since this is done by
- * iterating one result at a time using next() calls. It would be better to
- * directly skip to the next appropriate result. HBase scanners don't support
- * this natively, so to skip we would rather need to open a new scanner. But
- * we can't exactly know on beforehand if this will be beneficial or not. Maybe
- * we could have some heuristic for this, e.g. after 10 next() calls open a new
- * scanner to jump directly to the next relevant result.
+ * <p>The results are leapfrogged: whenever a QueryResult is behind on the
+ * current candidate identifier, it is asked to {@link QueryResult#seek} to
+ * that identifier, rather than being iterated one result at a time. For
+ * QueryResults on top of an HBase scanner this allows to skip large parts
+ * of the index, so that the cost of the intersection mainly depends on the
+ * most selective QueryResult. The most selective one is best passed first.
  */
 public class Conjunction extends BaseQueryResult {
-    private QueryResult result1;
-    private QueryResult result2;
+    private final QueryResult[] results;
 
     public Conjunction(QueryResult result1, QueryResult result2) {
+        this(new QueryResult[] {result1, result2});
+    }
+
+    public Conjunction(QueryResult... results) {
         super(null);
-        this.result1 = result1;
-        this.result2 = result2;
+        if (results.length < 2) {
+            throw new IllegalArgumentException("A conjunction needs at least two query results, got: "
+                    + results.length);
+        }
+        this.results = results;
+    }
+
+    public Conjunction(List<QueryResult> results) {
+        this(results.toArray(new QueryResult[results.size()]));
     }
 
     @Override
     public byte[] next() throws IOException {
-        byte[] key1 = result1.next();
-        byte[] key2 = result2.next();
+        return intersect(results[0].next());
+    }
 
-        if (key1 == null || key2 == null) {
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        return intersect(results[0].seek(identifier));
+    }
+
+    /**
+     * Moves the other results to the given candidate identifier of the first result, until all of them agree
+     * on the same identifier.
+     */
+    private byte[] intersect(byte[] candidate) throws IOException {
+        if (candidate == null) {
             return null;
         }
 
-        int cmp = Bytes.compareTo(key1, key2);
+        // The number of results which are positioned on the candidate
+        int matched = 1;
+        int i = 1;
+        while (matched < results.length) {
+            byte[] key = results[i].seek(candidate);
+            if (key == null) {
+                return null;
+            }
 
-        while (cmp != 0) {
-            if (cmp < 0) {
-                while (cmp < 0) {
-                    key1 = result1.next();
-                    if (key1 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
-                }
-            } else if (cmp > 0) {
-                while (cmp > 0) {
-                    key2 = result2.next();
-                    if (key2 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
-                }
+            if (Bytes.compareTo(key, candidate) == 0) {
+                matched++;
+            } else {
+                // overshot the candidate: this result provides the new candidate, the others need to catch up
+                candidate = key;
+                matched = 1;
             }
+            i = (i + 1) % results.length;
         }
 
-        currentQResult = result1;
-        return key1;
+        currentQResult = results[0];
+        return candidate;
     }
 
     @Override
     public void close() {
-        result1.close();
-        result2.close();
+        for (QueryResult result : results) {
+            result.close();
+        }
     }
 }
@@ -16,74 +16,100 @@
 package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
- * A QueryResult which is the disjunction (= OR operation) of two other QueryResults.
+ * A QueryResult which is the disjunction (= OR operation) of two or more other QueryResults.
  *
  * <p>The supplied QueryResults should adhere to the same requirements as for
- * {@link Conjunction}s.
+ * {@link Conjunction}s. A Disjunction returns its results in increasing identifier
+ * order too, so it can be nested in Conjunctions.
  */
 public class Disjunction extends BaseQueryResult {
-    private QueryResult result1;
-    private QueryResult result2;
-    private byte[] key1;
-    private byte[] key2;
-    private boolean init = false;
+    private final QueryResult[] results;
+    /**
+     * The identifier each result is positioned on, null when it is exhausted.
+     */
+    private final byte[][] keys;
+    /**
+     * Whether the result still needs to be moved past its current identifier. This is done lazily, at the
+     * next call to next() or seek(), so that the data of the current result can still be read.
+     */
+    private final boolean[] advance;
 
     public Disjunction(QueryResult result1, QueryResult result2) {
+        this(new QueryResult[] {result1, result2});
+    }
+
+    public Disjunction(QueryResult... results) {
         super(null);
-        this.result1 = result1;
-        this.result2 = result2;
+        if (results.length < 2) {
+            throw new IllegalArgumentException("A disjunction needs at least two query results, got: "
+                    + results.length);
+        }
+        this.results = results;
+        this.keys = new byte[results.length][];
+        this.advance = new boolean[results.length];
+        Arrays.fill(advance, true);
+    }
+
+    public Disjunction(List<QueryResult> results) {
+        this(results.toArray(new QueryResult[results.size()]));
     }
 
     @Override
     public byte[] next() throws IOException {
-        if (!init) {
-            key1 = result1.next();
-            key2 = result2.next();
-            init = true;
+        for (int i = 0; i < results.length; i++) {
+            if (advance[i]) {
+                keys[i] = results[i].next();
+                advance[i] = false;
+            }
         }
+        return nextSmallest();
+    }
 
-        if (key1 == null && key2 == null) {
-            return null;
-        } else if (key1 == null) {
-            byte[] result = key2;
-            currentQResult = result2;
-            key2 = result2.next();
-            return result;
-        } else if (key2 == null) {
-            byte[] result = key1;
-            currentQResult = result1;
-            key1 = result1.next();
-            return result;
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        for (int i = 0; i < results.length; i++) {
+            if (advance[i] || (keys[i] != null && Bytes.compareTo(keys[i], identifier) < 0)) {
+                keys[i] = results[i].seek(identifier);
+                advance[i] = false;
+            }
         }
+        return nextSmallest();
+    }
 
-        int cmp = Bytes.compareTo(key1, key2);
+    private byte[] nextSmallest() {
+        byte[] smallest = null;
+        for (int i = 0; i < results.length; i++) {
+            if (keys[i] != null) {
+                int cmp = smallest == null ? -1 : Bytes.compareTo(keys[i], smallest);
+                if (cmp < 0) {
+                    smallest = keys[i];
+                    currentQResult = results[i];
+                }
+            }
+        }
 
-        if (cmp == 0) {
-            byte[] result = key1;
-            currentQResult = result1;
-            key1 = result1.next();
-            key2 = result2.next();
-            return result;
-        } else if (cmp < 0) {
-            byte[] result = key1;
-            currentQResult = result1;
-            key1 = result1.next();
-            return result;
-        } else { // cmp > 0
-            byte[] result = key2;
-            currentQResult = result2;
-            key2 = result2.next();
-            return result;
+        if (smallest != null) {
+            // all results positioned on this identifier need to move on
+            for (int i = 0; i < results.length; i++) {
+                if (keys[i] != null && Bytes.compareTo(keys[i], smallest) == 0) {
+                    advance[i] = true;
+                }
+            }
         }
+
+        return smallest;
     }
 
     @Override
     public void close() {
-        result1.close();
-        result2.close();
+        for (QueryResult result : results) {
+            result.close();
+        }
     }
 }
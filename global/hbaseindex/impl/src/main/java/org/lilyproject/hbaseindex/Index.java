@@ -17,23 +17,30 @@ package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.gotometrics.orderly.Order;
 import com.gotometrics.orderly.RowKey;
 import com.gotometrics.orderly.StructBuilder;
 import com.gotometrics.orderly.StructRowKey;
 import com.gotometrics.orderly.Termination;
 import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
-import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
 import org.apache.hadoop.hbase.filter.RowFilter;
-import org.apache.hadoop.hbase.filter.WhileMatchFilter;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.hbaseindex.filter.IndexFilterHbaseImpl;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.ByteArrayKey;
@@ -47,8 +54,8 @@ public class Index {
     private HTableInterface htable;
     private IndexDefinition definition;
 
-    private static final byte[] DUMMY_QUALIFIER = new byte[]{0};
-    private static final byte[] DUMMY_VALUE = new byte[]{0};
+    static final byte[] DUMMY_QUALIFIER = new byte[]{0};
+    static final byte[] DUMMY_VALUE = new byte[]{0};
 
     protected Index(HTableInterface htable, IndexDefinition definition) {
         this.htable = htable;
@@ -89,7 +96,15 @@ public class Index {
         htable.put(puts);
     }
 
-    private Put createAddEntryPut(IndexEntry entry) throws IOException {
+    /**
+     * Creates the Put that would be used to add the given entry to this index, without actually
+     * writing it. This is useful for bulk loading index entries through other channels, e.g. by
+     * writing them to HFiles.
+     */
+    public Put createAddEntryPut(IndexEntry entry) throws IOException {
+        ArgumentValidator.notNull(entry, "entry");
+        entry.validate();
+
         byte[] indexKey = buildRowKey(entry);
         Put put = new Put(indexKey);
 
@@ -105,6 +120,63 @@ public class Index {
         return put;
     }
 
+    /**
+     * Checks which of the given entries are present in the index. Each entry is looked up directly by its
+     * row key, so the contents and identifier of the entries should exactly match those supplied when
+     * creating them.
+     *
+     * @return for each entry, in the same order, whether it exists
+     */
+    public boolean[] entriesExist(List<IndexEntry> entries) throws IOException {
+        ArgumentValidator.notNull(entries, "entries");
+
+        List<Get> gets = new ArrayList<Get>(entries.size());
+        for (IndexEntry entry : entries) {
+            entry.validate();
+
+            Get get = new Get(buildRowKey(entry));
+            // we only need to know whether the row exists, not its data
+            get.setFilter(new FirstKeyOnlyFilter());
+            gets.add(get);
+        }
+
+        Result[] results = htable.get(gets);
+        boolean[] exist = new boolean[entries.size()];
+        for (int i = 0; i < results.length; i++) {
+            exist[i] = results[i] != null && !results[i].isEmpty();
+        }
+        return exist;
+    }
+
+    /**
+     * Reads some of the data of an entry, looking it up directly by its row key. Only the requested data columns
+     * are read. The contents and identifier of the entry should exactly match those supplied when creating it.
+     *
+     * @param qualifiers keys of the data to read
+     * @return the data for each of the keys, in the same order, null for keys without data. Null if the entry
+     *         does not exist or has none of the requested data.
+     */
+    public byte[][] getEntryData(IndexEntry entry, byte[]... qualifiers) throws IOException {
+        ArgumentValidator.notNull(entry, "entry");
+        entry.validate();
+
+        Get get = new Get(buildRowKey(entry));
+        for (byte[] qualifier : qualifiers) {
+            get.addColumn(IndexDefinition.DATA_FAMILY, qualifier);
+        }
+
+        Result result = htable.get(get);
+        if (result == null || result.isEmpty()) {
+            return null;
+        }
+
+        byte[][] data = new byte[qualifiers.length][];
+        for (int i = 0; i < qualifiers.length; i++) {
+            data[i] = result.getValue(IndexDefinition.DATA_FAMILY, qualifiers[i]);
+        }
+        return data;
+    }
+
     /**
      * Removes an entry from the index. The contents of the supplied
      * entry and the identifier should exactly match those supplied
@@ -140,16 +212,120 @@ public class Index {
      * <p>The format is as follows:
      *
      * <pre>
-     * ([encoded value][terminator for variable length fields])*[identifier]
+     * [salt]([encoded value][terminator for variable length fields])*[identifier]
      * </pre>
+     *
+     * <p>The salt byte is only present if the index definition is salted.
      */
     private byte[] buildRowKey(IndexEntry entry) throws IOException {
         final StructRowKey indexEntryRowKeySerializer = definition.asStructRowKey();
 
-        return indexEntryRowKeySerializer.serialize(entry.getFieldValuesInSerializationOrder());
+        byte[] rowKey = indexEntryRowKeySerializer.serialize(entry.getFieldValuesInSerializationOrder());
+        if (definition.getSaltBuckets() > 0) {
+            rowKey = Bytes.add(new byte[]{definition.computeSalt(entry.getFields(), entry.getIdentifier())}, rowKey);
+        }
+        return rowKey;
     }
 
     public QueryResult performQuery(Query query) throws IOException {
+        List<QueryScan> queryScans = buildScans(query);
+        if (queryScans.size() == 1) {
+            return createScannerQueryResult(queryScans.get(0));
+        }
+
+        List<ScannerQueryResult> bucketResults = new ArrayList<ScannerQueryResult>(queryScans.size());
+        try {
+            for (QueryScan queryScan : queryScans) {
+                bucketResults.add(createScannerQueryResult(queryScan));
+            }
+        } catch (IOException e) {
+            for (ScannerQueryResult bucketResult : bucketResults) {
+                bucketResult.close();
+            }
+            throw e;
+        }
+        return new SaltedQueryResult(bucketResults, definition, query.getLimit());
+    }
+
+    private ScannerQueryResult createScannerQueryResult(QueryScan queryScan) throws IOException {
+        return new ScannerQueryResult(htable, queryScan.scan, definition, queryScan.rowKeyPrefix,
+                queryScan.seekKeyComponents, queryScan.limit);
+    }
+
+    /**
+     * Performs multiple queries at once, which is more efficient than performing them one by one when there
+     * are many of them, e.g. to look up the entries for a list of keys.
+     *
+     * <p>The key ranges of the queries are sorted, and ranges which overlap or touch are read with one scan.
+     * The scans are executed in parallel. The results of all the queries are read into memory before this
+     * method returns, so this is meant for queries with a limited number of results each.
+     *
+     * @return the results, in the same order as the queries. The results don't need to be closed, but it
+     *         doesn't hurt to do so either.
+     */
+    public List<QueryResult> performQueries(List<Query> queries) throws IOException {
+        // For salted indexes, a query can consist of a scan per bucket
+        List<QueryScan> queryScans = new ArrayList<QueryScan>(queries.size());
+        int[] firstScans = new int[queries.size() + 1];
+        for (int i = 0; i < queries.size(); i++) {
+            firstScans[i] = queryScans.size();
+            queryScans.addAll(buildScans(queries.get(i)));
+        }
+        firstScans[queries.size()] = queryScans.size();
+
+        List<List<Result>> scanRows = new MultiQueryExecutor(htable).scan(queryScans);
+
+        List<QueryResult> queryResults = new ArrayList<QueryResult>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            List<Result> queryRows;
+            if (firstScans[i + 1] - firstScans[i] == 1) {
+                queryRows = scanRows.get(firstScans[i]);
+            } else {
+                queryRows = new ArrayList<Result>();
+                for (int j = firstScans[i]; j < firstScans[i + 1]; j++) {
+                    queryRows.addAll(scanRows.get(j));
+                }
+                Collections.sort(queryRows, new Comparator<Result>() {
+                    @Override
+                    public int compare(Result o1, Result o2) {
+                        return SaltedQueryResult.compareUnsalted(o1.getRow(), o2.getRow(), definition);
+                    }
+                });
+                int limit = queries.get(i).getLimit();
+                if (limit > 0 && queryRows.size() > limit) {
+                    queryRows = queryRows.subList(0, limit);
+                }
+            }
+            queryResults.add(new ListQueryResult(queryRows, definition));
+        }
+        return queryResults;
+    }
+
+    /**
+     * The scan to perform for a query, or for one salt bucket of a query.
+     */
+    static class QueryScan {
+        final Scan scan;
+        /**
+         * The salt with which all the row keys read by the scan start, empty if the index is not salted.
+         */
+        final byte[] rowKeyPrefix;
+        final Object[] seekKeyComponents;
+        final int limit;
+
+        QueryScan(Scan scan, byte[] rowKeyPrefix, Object[] seekKeyComponents, int limit) {
+            this.scan = scan;
+            this.rowKeyPrefix = rowKeyPrefix;
+            this.seekKeyComponents = seekKeyComponents;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * Builds the scans for a query: one scan, unless the index is salted and the query does not fix the
+     * values of all the salt fields, in which case there is a scan for each salt bucket.
+     */
+    private List<QueryScan> buildScans(Query query) throws IOException {
         validateQuery(query);
 
         final StructBuilder fromKeyStructBuilder = new StructBuilder();
@@ -256,37 +432,165 @@ public class Index {
             toKey = fromKey;
         }
 
-        Scan scan = new Scan(fromKey);
+        // Let the scan stop at the region server by giving it an explicit start and stop row, rather than
+        // evaluating row filters on each row.
+        byte[] startRow = fromKey;
+        byte[] stopRow;
+        // rows should be strictly larger than this prefix, for when this can't be expressed by the start row
+        byte[] rowFilterPrefix = null;
 
         // Query.MAX_VALUE is a value which should be larger than anything, so cannot be an inclusive upper bound
-        // The importance of this is because for Query.MAX_VALUE, we do a prefix scan so the operator should be
-        // CompareOp.LESS_OR_EQUAL
+        // The importance of this is because for Query.MAX_VALUE, we do a prefix scan, i.e. all rows starting
+        // with the toKey are part of the result
         boolean upperBoundInclusive =
                 rangeCond != null && (rangeCond.isUpperBoundInclusive() || rangeCond.getToValue() == Query.MAX_VALUE);
-        CompareOp op = rangeCondSet && !upperBoundInclusive ? CompareOp.LESS : CompareOp.LESS_OR_EQUAL;
-        Filter toFilter = new RowFilter(op, new BinaryPrefixComparator(toKey));
-
-        FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
-        if (query.getIndexFilter() != null) {
-            filters.addFilter(new IndexFilterHbaseImpl(query.getIndexFilter(), definition));
+        if (rangeCondSet && !upperBoundInclusive) {
+            // rows starting with the toKey are excluded
+            stopRow = toKey;
+        } else {
+            stopRow = nextPrefix(toKey);
+            // if there's no row key following the rows starting with toKey, we simply scan to the end of the table
         }
 
         if (rangeCondSet && !rangeCond.isLowerBoundInclusive()) {
-            // TODO: optimize the performance hit caused by the extra filter
-            //  Once the greater filter on the fromKey returns true, it will remain true because
-            //  row keys are sorted. The RowFilter will however keep doing the check again and again
-            //  on each new row key. We need a new filter in HBase, something like the opposite of the
-            //  WhileMatchFilter.
-            filters.addFilter(new RowFilter(CompareOp.GREATER, new BinaryPrefixComparator(fromKey)));
-            filters.addFilter(new WhileMatchFilter(toFilter));
-        } else {
-            filters.addFilter(new WhileMatchFilter(toFilter));
+            // rows starting with the fromKey are excluded
+            byte[] afterFromKey = nextPrefix(fromKey);
+            if (afterFromKey != null) {
+                startRow = afterFromKey;
+            } else {
+                rowFilterPrefix = fromKey;
+            }
         }
 
-        scan.setFilter(filters);
-        scan.setCaching(30);
+        if (query.getResumeAfterIdentifier() != null) {
+            byte[] resumeRow = nextRow(buildResumeRowKey(query));
+            if (Bytes.compareTo(resumeRow, startRow) > 0) {
+                startRow = resumeRow;
+            }
+        }
 
-        return new ScannerQueryResult(htable.getScanner(scan), definition);
+        // No use fetching more rows at once than the number of results we'll return
+        int caching = query.getCaching();
+        if (query.getLimit() > 0 && query.getLimit() < caching) {
+            caching = query.getLimit();
+        }
+
+        // When all fields have an equals condition, the results are ordered on identifier and we can seek on it
+        Object[] seekKeyComponents = null;
+        if (!rangeCondSet && usedConditionsCount == definition.getFields().size()
+                && definition.getIdentifierIndexFieldDefinition().getOrder() == Order.ASCENDING) {
+            seekKeyComponents = fromKeyComponents.toArray();
+        }
+
+        List<byte[]> saltPrefixes = getSaltPrefixes(query);
+        List<QueryScan> queryScans = new ArrayList<QueryScan>(saltPrefixes.size());
+        for (byte[] saltPrefix : saltPrefixes) {
+            Scan scan = new Scan(Bytes.add(saltPrefix, startRow));
+            if (stopRow != null && stopRow.length > 0) {
+                scan.setStopRow(Bytes.add(saltPrefix, stopRow));
+            } else if (saltPrefix.length > 0) {
+                // scan up to the next bucket
+                byte[] nextBucket = nextPrefix(saltPrefix);
+                if (nextBucket != null) {
+                    scan.setStopRow(nextBucket);
+                }
+            }
+
+            FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+            if (query.getIndexFilter() != null) {
+                filters.addFilter(new IndexFilterHbaseImpl(query.getIndexFilter(), definition));
+            }
+            if (rowFilterPrefix != null) {
+                filters.addFilter(new RowFilter(CompareOp.GREATER,
+                        new BinaryPrefixComparator(Bytes.add(saltPrefix, rowFilterPrefix))));
+            }
+            if (!filters.getFilters().isEmpty()) {
+                scan.setFilter(filters);
+            }
+
+            scan.setCaching(caching);
+
+            queryScans.add(new QueryScan(scan, saltPrefix, seekKeyComponents, query.getLimit()));
+        }
+
+        return queryScans;
+    }
+
+    /**
+     * Returns the salt prefixes of the buckets which need to be scanned for the query: none (a single empty
+     * prefix) if the index is not salted, the one bucket if the query has equals conditions on all the salt
+     * fields, or else all the buckets.
+     */
+    private List<byte[]> getSaltPrefixes(Query query) throws IOException {
+        if (definition.getSaltBuckets() == 0) {
+            return Collections.singletonList(new byte[0]);
+        }
+
+        Map<String, Object> saltFieldValues = new HashMap<String, Object>();
+        for (String saltField : definition.getSaltFields()) {
+            Query.EqualsCondition eqCond = query.getCondition(saltField);
+            if (saltField.equals(IndexDefinition.IDENTIFIER_SALT_FIELD) || eqCond == null) {
+                saltFieldValues = null;
+                break;
+            }
+            saltFieldValues.put(saltField, eqCond.getValue());
+        }
+
+        if (saltFieldValues != null) {
+            return Collections.singletonList(new byte[]{definition.computeSalt(saltFieldValues, null)});
+        }
+
+        List<byte[]> saltPrefixes = new ArrayList<byte[]>(definition.getSaltBuckets());
+        for (int i = 0; i < definition.getSaltBuckets(); i++) {
+            saltPrefixes.add(new byte[]{(byte)i});
+        }
+        return saltPrefixes;
+    }
+
+    /**
+     * Builds the row key of the index entry after which the query should resume: the field values are taken
+     * from the equals conditions of the query, or else from the resume field values.
+     */
+    private byte[] buildResumeRowKey(Query query) throws IOException {
+        List<IndexFieldDefinition> fields = definition.getFields();
+        Object[] values = new Object[fields.size() + 1];
+        for (int i = 0; i < fields.size(); i++) {
+            String name = fields.get(i).getName();
+            Query.EqualsCondition eqCond = query.getCondition(name);
+            if (eqCond != null) {
+                values[i] = eqCond.getValue();
+            } else if (query.getResumeAfterFields().containsKey(name)) {
+                values[i] = query.getResumeAfterFields().get(name);
+                checkQueryValueType(fields.get(i), values[i]);
+            } else {
+                throw new MalformedQueryException("The query resumes after an entry, but does not specify the " +
+                        "value of field " + name + " for it, which is not fixed by an equals condition.");
+            }
+        }
+        values[fields.size()] = query.getResumeAfterIdentifier();
+        return definition.asStructRowKey().serialize(values);
+    }
+
+    /**
+     * Returns the smallest row key which is larger than all row keys starting with the given prefix, or null
+     * if there is no such row key (the prefix is empty or consists of 0xFF bytes only).
+     */
+    static byte[] nextPrefix(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte)0xFF) {
+                byte[] result = Arrays.copyOf(prefix, i + 1);
+                result[i]++;
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the smallest row key which is larger than the given row key.
+     */
+    static byte[] nextRow(byte[] rowKey) {
+        return Arrays.copyOf(rowKey, rowKey.length + 1);
     }
 
     /**
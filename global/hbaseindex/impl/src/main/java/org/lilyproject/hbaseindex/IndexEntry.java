@@ -86,6 +86,14 @@ public class IndexEntry {
         return values.toArray();
     }
 
+    Map<String, Object> getFields() {
+        return fields;
+    }
+
+    byte[] getIdentifier() {
+        return identifier;
+    }
+
     public void setIdentifier(byte[] identifier) {
         this.identifier = identifier;
     }
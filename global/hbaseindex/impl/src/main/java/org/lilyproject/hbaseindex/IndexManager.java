@@ -26,6 +26,7 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableNotFoundException;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.node.ObjectNode;
@@ -47,6 +48,13 @@ public class IndexManager {
     private HBaseTableFactory tableFactory;
     private static final byte[] INDEX_META_KEY = Bytes.toBytes("LILY_INDEX");
 
+    /**
+     * The block encoding of the index tables. Consecutive index rows mostly share a long prefix (the field
+     * values, and within one value the table name and the start of the identifier), which prefix encoding
+     * stores only once per block.
+     */
+    public static final DataBlockEncoding DATA_BLOCK_ENCODING = DataBlockEncoding.FAST_DIFF;
+
     /**
      * Constructor.
      */
@@ -99,6 +107,7 @@ public class IndexManager {
                         HColumnDescriptor.DEFAULT_IN_MEMORY, HColumnDescriptor.DEFAULT_BLOCKCACHE,
                         HColumnDescriptor.DEFAULT_BLOCKSIZE, HColumnDescriptor.DEFAULT_TTL,
                         HColumnDescriptor.DEFAULT_BLOOMFILTER, HColumnDescriptor.DEFAULT_REPLICATION_SCOPE);
+        family.setDataBlockEncoding(DATA_BLOCK_ENCODING);
         tableDescr.addFamily(family);
 
         // Store definition of index in a custom attribute on the table
@@ -106,7 +115,17 @@ public class IndexManager {
         
         RepoAndTableUtil.setRepositoryOwnership(tableDescr, repositoryName);
 
-        HTableInterface table = tableFactory.getTable(tableDescr);
+        HTableInterface table;
+        if (indexDef.getSaltBuckets() > 1) {
+            // Start with a region per salt bucket, so that the writes are spread from the beginning
+            byte[][] splitKeys = new byte[indexDef.getSaltBuckets() - 1][];
+            for (int i = 0; i < splitKeys.length; i++) {
+                splitKeys[i] = new byte[]{(byte)(i + 1)};
+            }
+            table = tableFactory.getTable(tableDescr, splitKeys);
+        } else {
+            table = tableFactory.getTable(tableDescr);
+        }
 
         byte[] actualMeta = table.getTableDescriptor().getValue(INDEX_META_KEY);
         if (!ObjectUtils.safeEquals(jsonData, actualMeta)) {
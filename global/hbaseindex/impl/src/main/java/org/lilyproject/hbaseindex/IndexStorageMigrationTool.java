@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.util.hbase.LocalHTable;
+
+/**
+ * Migration tool to bring existing index tables to the compact storage of newly created index tables:
+ *
+ * <ul>
+ *     <li>the data family is switched to {@link IndexManager#DATA_BLOCK_ENCODING}</li>
+ *     <li>optionally, data columns which duplicate information from the row key are removed. For the link
+ *     index, these are the columns 'sf' and 'vt', but these are still read by older versions and written by
+ *     the current one, so they should only be removed once no version reading them is running anymore.</li>
+ * </ul>
+ *
+ * <p>Parameters are passed as system properties: 'zookeeper', 'tables' (comma-separated names of the index
+ * tables) and optionally 'dropColumns' (comma-separated data qualifiers). The table is only unavailable
+ * while its schema is changed, the columns are removed while it is online. The indexer does not need to be
+ * stopped: only the column versions seen by the scan are removed, and rows removed by the indexer in the
+ * meantime are not brought back.</p>
+ */
+public class IndexStorageMigrationTool {
+    private static final int BATCH_SIZE = 1000;
+
+    private IndexStorageMigrationTool() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String zkConnect = System.getProperty("zookeeper");
+        String tables = System.getProperty("tables");
+        String dropColumns = System.getProperty("dropColumns");
+
+        if (zkConnect == null || tables == null) {
+            System.out.println("Specify at least the system properties 'zookeeper' and 'tables'.");
+            System.exit(1);
+        }
+
+        System.out.println("Using zookeeper connect string " + zkConnect);
+
+        List<byte[]> qualifiers = new ArrayList<byte[]>();
+        if (dropColumns != null) {
+            for (String qualifier : dropColumns.split(",")) {
+                qualifiers.add(Bytes.toBytes(qualifier.trim()));
+            }
+        }
+
+        Configuration conf = HBaseConfiguration.create();
+        conf.set("hbase.zookeeper.quorum", zkConnect);
+
+        List<String> tableNames = new ArrayList<String>();
+        for (String tableName : tables.split(",")) {
+            tableNames.add(tableName.trim());
+        }
+
+        migrate(conf, tableNames, qualifiers);
+    }
+
+    /**
+     * Migrates the given index tables.
+     *
+     * @param dropQualifiers the data columns to remove, can be empty
+     */
+    static void migrate(Configuration conf, List<String> tableNames, List<byte[]> dropQualifiers) throws Exception {
+        HBaseAdmin admin = new HBaseAdmin(conf);
+        try {
+            for (String tableNameString : tableNames) {
+                migrateTable(conf, admin, tableNameString, dropQualifiers);
+            }
+        } finally {
+            admin.close();
+        }
+    }
+
+    private static void migrateTable(Configuration conf, HBaseAdmin admin, String tableNameString,
+                                     List<byte[]> qualifiers) throws Exception {
+        byte[] tableName = Bytes.toBytes(tableNameString);
+
+        HTableDescriptor tableDescr;
+        try {
+            tableDescr = admin.getTableDescriptor(tableName);
+        } catch (TableNotFoundException e) {
+            System.out.println("Skipping non-existing index table: " + tableNameString);
+            return;
+        }
+
+        HColumnDescriptor family = tableDescr.getFamily(IndexDefinition.DATA_FAMILY);
+        if (family == null) {
+            System.out.println("Skipping table without index data family: " + tableNameString);
+            return;
+        }
+
+        if (family.getDataBlockEncoding() != IndexManager.DATA_BLOCK_ENCODING) {
+            family.setDataBlockEncoding(IndexManager.DATA_BLOCK_ENCODING);
+            System.out.println("Disabling index table " + tableNameString);
+            admin.disableTable(tableName);
+            System.out.println("Setting data block encoding on index table " + tableNameString);
+            admin.modifyTable(tableName, tableDescr);
+            System.out.println("Enabling index table " + tableNameString);
+            admin.enableTable(tableName);
+        } else {
+            System.out.println("Data block encoding already set on index table " + tableNameString);
+        }
+
+        if (!qualifiers.isEmpty()) {
+            HTableInterface table = new LocalHTable(conf, tableName);
+            try {
+                System.out.println("Removing data columns from index table " + tableNameString);
+                long count = dropColumns(table, qualifiers);
+                System.out.println("Removed data columns from " + count + " rows");
+            } finally {
+                table.close();
+            }
+        }
+
+        // The existing store files only get the new encoding, and lose the removed columns, once rewritten
+        System.out.println("Requesting major compaction of index table " + tableNameString);
+        admin.majorCompact(tableName);
+        System.out.println("--");
+    }
+
+    private static long dropColumns(HTableInterface table, List<byte[]> qualifiers) throws Exception {
+        Scan scan = new Scan();
+        scan.addFamily(IndexDefinition.DATA_FAMILY);
+        scan.setCaching(BATCH_SIZE);
+        scan.setCacheBlocks(false);
+
+        long count = 0;
+        List<Row> mutations = new ArrayList<Row>();
+        ResultScanner scanner = table.getScanner(scan);
+        try {
+            Result result;
+            while ((result = scanner.next()) != null) {
+                Delete delete = createDelete(table, result, qualifiers);
+                if (delete == null) {
+                    continue;
+                }
+
+                mutations.add(delete);
+                count++;
+
+                if (mutations.size() >= BATCH_SIZE) {
+                    table.batch(mutations);
+                    mutations.clear();
+                }
+            }
+
+            if (!mutations.isEmpty()) {
+                table.batch(mutations);
+            }
+        } finally {
+            scanner.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Creates the delete which removes the given columns from a scanned row, or returns null if there is
+     * nothing to remove.
+     */
+    static Delete createDelete(HTableInterface table, Result result, List<byte[]> qualifiers) throws Exception {
+        Delete delete = null;
+        KeyValue removed = null;
+        for (byte[] qualifier : qualifiers) {
+            KeyValue kv = result.getColumnLatest(IndexDefinition.DATA_FAMILY, qualifier);
+            if (kv != null) {
+                if (delete == null) {
+                    delete = new Delete(result.getRow());
+                    removed = kv;
+                }
+                // Leave the column alone if the indexer writes it again after the scan
+                delete.deleteColumns(IndexDefinition.DATA_FAMILY, qualifier, kv.getTimestamp());
+            }
+        }
+
+        if (delete == null) {
+            return null;
+        }
+
+        if (delete.getFamilyMap().get(IndexDefinition.DATA_FAMILY).size() == result.size()) {
+            // The row would disappear, keep it alive with the dummy column, as Index does for new rows.
+            // The check avoids resurrecting an entry which the indexer removed after the scan.
+            Put put = new Put(result.getRow());
+            put.add(IndexDefinition.DATA_FAMILY, Index.DUMMY_QUALIFIER, Index.DUMMY_VALUE);
+            if (!table.checkAndPut(result.getRow(), IndexDefinition.DATA_FAMILY, removed.getQualifier(),
+                    removed.getValue(), put)) {
+                return null;
+            }
+        }
+
+        return delete;
+    }
+}
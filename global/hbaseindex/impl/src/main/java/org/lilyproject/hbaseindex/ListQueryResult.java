@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * A QueryResult on top of index rows which have already been read.
+ */
+class ListQueryResult extends BaseQueryResult {
+    private final List<Result> results;
+    private int position = -1;
+
+    ListQueryResult(List<Result> results, IndexDefinition definition) {
+        super(definition);
+        this.results = results;
+    }
+
+    @Override
+    public byte[] next() throws IOException {
+        position++;
+        if (position >= results.size()) {
+            currentResult = null;
+            return null;
+        }
+
+        currentResult = results.get(position);
+        return decodeIdentifierFrom(currentResult.getRow());
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+
+/**
+ * Executes the scans of multiple queries, see {@link Index#performQueries}.
+ *
+ * <p>The key ranges of the queries are sorted on their start row. Consecutive ranges which overlap or touch
+ * are coalesced into one scan, whose rows are then distributed over the queries they belong to. The filters of
+ * the queries, such as index filters, are then evaluated on the client for each row of a coalesced scan, so that
+ * e.g. queries on the same key with a different index filter are still read with one scan. Queries with a limit
+ * are always scanned on their own. The resulting scans are executed in parallel.
+ *
+ * <p>The scans are executed by a pool shared by all indexes. Its threads are daemon threads which end when they
+ * have been idle for a minute, so the pool does not need to be shut down, nor keeps the JVM from exiting.
+ */
+class MultiQueryExecutor {
+    private static final int MAX_THREADS = 10;
+    private static final int THREAD_KEEP_ALIVE_SECONDS = 60;
+    private static ExecutorService EXECUTOR_SERVICE;
+
+    private final HTableInterface htable;
+
+    MultiQueryExecutor(HTableInterface htable) {
+        this.htable = htable;
+    }
+
+    private static synchronized ExecutorService getExecutorService() {
+        if (EXECUTOR_SERVICE == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, THREAD_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new CustomThreadFactory("hbaseindex-multiquery", null, true /* daemon */));
+            // let the threads end when idle, there is no point at which the pool could be shut down
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR_SERVICE = executor;
+        }
+        return EXECUTOR_SERVICE;
+    }
+
+    /**
+     * Performs the scans, and returns the rows read for each of them, in the same order as the scans.
+     */
+    List<List<Result>> scan(final List<Index.QueryScan> queryScans) throws IOException {
+        List<Integer> order = new ArrayList<Integer>(queryScans.size());
+        for (int i = 0; i < queryScans.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Bytes.compareTo(queryScans.get(o1).scan.getStartRow(), queryScans.get(o2).scan.getStartRow());
+            }
+        });
+
+        List<ScanGroup> groups = new ArrayList<ScanGroup>();
+        ScanGroup group = null;
+        for (int i : order) {
+            Index.QueryScan queryScan = queryScans.get(i);
+            if (group == null || !group.absorb(i, queryScan)) {
+                group = new ScanGroup(i, queryScan);
+                groups.add(group);
+            }
+        }
+
+        List<List<Result>> results = new ArrayList<List<Result>>(queryScans.size());
+        for (int i = 0; i < queryScans.size(); i++) {
+            results.add(new ArrayList<Result>());
+        }
+
+        if (groups.size() == 1) {
+            groups.get(0).scan(results);
+        } else {
+            runInParallel(groups, results);
+        }
+
+        return results;
+    }
+
+    private void runInParallel(List<ScanGroup> groups, final List<List<Result>> results) throws IOException {
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(groups.size());
+        for (final ScanGroup group : groups) {
+            futures.add(getExecutorService().submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    // Each group only adds to the result lists of its own queries
+                    group.scan(results);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while performing index queries");
+        } catch (ExecutionException e) {
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException("Error performing index queries", e.getCause());
+        }
+    }
+
+    /**
+     * A set of queries which are read with one scan.
+     */
+    private class ScanGroup {
+        private final List<Integer> queryIndexes = new ArrayList<Integer>();
+        private final List<Index.QueryScan> queryScans = new ArrayList<Index.QueryScan>();
+        private final byte[] startRow;
+        /**
+         * The stop row of the scan, empty means up to the end of the table.
+         */
+        private byte[] stopRow;
+
+        ScanGroup(int queryIndex, Index.QueryScan queryScan) {
+            queryIndexes.add(queryIndex);
+            queryScans.add(queryScan);
+            startRow = queryScan.scan.getStartRow();
+            stopRow = queryScan.scan.getStopRow();
+        }
+
+        private boolean isCoalescable(Index.QueryScan queryScan) {
+            return queryScan.limit == 0;
+        }
+
+        /**
+         * Adds the query to this group if its key range overlaps with or touches the range of this group.
+         * The queries are added in order of their start row.
+         */
+        boolean absorb(int queryIndex, Index.QueryScan queryScan) {
+            if (!isCoalescable(queryScans.get(0)) || !isCoalescable(queryScan) || stopRow.length == 0
+                    || Bytes.compareTo(queryScan.scan.getStartRow(), stopRow) > 0) {
+                return false;
+            }
+
+            queryIndexes.add(queryIndex);
+            queryScans.add(queryScan);
+            byte[] queryStopRow = queryScan.scan.getStopRow();
+            if (queryStopRow.length == 0 || Bytes.compareTo(queryStopRow, stopRow) > 0) {
+                stopRow = queryStopRow;
+            }
+            return true;
+        }
+
+        void scan(List<List<Result>> results) throws IOException {
+            Scan scan;
+            if (queryScans.size() == 1) {
+                scan = queryScans.get(0).scan;
+            } else {
+                scan = new Scan(startRow, stopRow);
+                int caching = 0;
+                for (Index.QueryScan queryScan : queryScans) {
+                    caching = Math.max(caching, queryScan.scan.getCaching());
+                }
+                scan.setCaching(caching);
+            }
+
+            ResultScanner scanner = htable.getScanner(scan);
+            try {
+                if (queryScans.size() == 1) {
+                    List<Result> queryRows = results.get(queryIndexes.get(0));
+                    int limit = queryScans.get(0).limit;
+                    Result result;
+                    while ((limit == 0 || queryRows.size() < limit) && (result = scanner.next()) != null) {
+                        queryRows.add(result);
+                    }
+                } else {
+                    Result result;
+                    while ((result = scanner.next()) != null) {
+                        byte[] row = result.getRow();
+                        for (int i = 0; i < queryScans.size(); i++) {
+                            Scan queryScan = queryScans.get(i).scan;
+                            if (isInRange(row, queryScan)) {
+                                Result queryResult = queryScan.getFilter() != null
+                                        ? applyFilter(queryScan.getFilter(), result) : result;
+                                if (queryResult != null) {
+                                    results.get(queryIndexes.get(i)).add(queryResult);
+                                }
+                            }
+                        }
+                    }
+                }
+            } finally {
+                scanner.close();
+            }
+        }
+
+        private boolean isInRange(byte[] row, Scan scan) {
+            return Bytes.compareTo(row, scan.getStartRow()) >= 0
+                    && (scan.getStopRow().length == 0 || Bytes.compareTo(row, scan.getStopRow()) < 0);
+        }
+    }
+
+    /**
+     * Evaluates the filter of a query on a row read by a coalesced scan, in the same way as the region server
+     * would have done it when the filter was set on the scan.
+     *
+     * @return the row with the key values accepted by the filter, or null if the filter excludes the row
+     */
+    static Result applyFilter(Filter filter, Result result) {
+        filter.reset();
+        byte[] row = result.getRow();
+        if (filter.filterAllRemaining() || filter.filterRowKey(row, 0, row.length)) {
+            return null;
+        }
+
+        List<KeyValue> keyValues = new ArrayList<KeyValue>(result.size());
+        boolean allIncluded = true;
+        for (KeyValue keyValue : result.raw()) {
+            Filter.ReturnCode code = filter.filterKeyValue(keyValue);
+            if (code == Filter.ReturnCode.INCLUDE) {
+                KeyValue transformed = filter.transform(keyValue);
+                keyValues.add(transformed);
+                allIncluded = allIncluded && transformed == keyValue;
+            } else if (code == Filter.ReturnCode.NEXT_ROW) {
+                allIncluded = false;
+                break;
+            } else {
+                // SKIP, NEXT_COL, SEEK_NEXT_USING_HINT: the rows read by the index scans have one version
+                // of each column, so all of these come down to leaving out this key value
+                allIncluded = false;
+            }
+        }
+
+        if (filter.hasFilterRow()) {
+            filter.filterRow(keyValues);
+            allIncluded = allIncluded && keyValues.size() == result.size();
+        }
+        if (keyValues.isEmpty() || filter.filterRow()) {
+            return null;
+        }
+        return allIncluded ? result : new Result(keyValues);
+    }
+}
@@ -16,7 +16,9 @@
 package org.lilyproject.hbaseindex;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.lilyproject.hbaseindex.filter.IndexFilter;
 
@@ -35,14 +37,28 @@ import org.lilyproject.hbaseindex.filter.IndexFilter;
  * to do some additional filtering on the results, based on the fields and data
  * stored in the index.
  *
+ * <p>The number of rows fetched from HBase per round trip can be tuned with
+ * {@link #setCaching}, and the number of results can be limited with
+ * {@link #setLimit}. To page through the results, a query can be resumed
+ * after the last result of the previous page with {@link #setResumeAfter}.
+ *
  * <p>The structural validity of the query will be checked once the
  * query is supplied to {@link Index#performQuery}, not while adding
  * the individual conditions.
  */
 public class Query {
+    /**
+     * The default number of rows fetched per round trip to HBase.
+     */
+    public static final int DEFAULT_CACHING = 30;
+
     private List<EqualsCondition> eqConditions = new ArrayList<EqualsCondition>();
     private RangeCondition rangeCondition;
     private IndexFilter indexFilter;
+    private int caching = DEFAULT_CACHING;
+    private int limit;
+    private byte[] resumeAfterIdentifier;
+    private Map<String, Object> resumeAfterFields = Collections.emptyMap();
 
     public static final Object MIN_VALUE = new Object() {
         @Override
@@ -103,6 +119,65 @@ public class Query {
         rangeCondition = new RangeCondition(fieldName, fromValue, toValue, lowerBoundInclusive, upperBoundInclusive);
     }
 
+    /**
+     * Sets the number of rows fetched from HBase per round trip. Large range queries benefit from a larger
+     * value, queries that only need a few results from a smaller one. Defaults to {@link #DEFAULT_CACHING}.
+     */
+    public void setCaching(int caching) {
+        if (caching < 1) {
+            throw new IllegalArgumentException("caching should be at least 1, got: " + caching);
+        }
+        this.caching = caching;
+    }
+
+    public int getCaching() {
+        return caching;
+    }
+
+    /**
+     * Sets the maximum number of results the query returns, 0 (the default) means no limit.
+     */
+    public void setLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit should not be negative, got: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Resumes the query after the given result, which is typically the last result of the previous page.
+     * This shortcut is for queries which have equals conditions on all the fields of the index.
+     *
+     * @param identifier the identifier of the result
+     */
+    public void setResumeAfter(byte[] identifier) {
+        setResumeAfter(identifier, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Resumes the query after the given result, which is typically the last result of the previous page.
+     *
+     * @param identifier  the identifier of the result
+     * @param fieldValues the values of the index fields of the result which are not fixed by an equals
+     *                    condition, as can be obtained with {@link QueryResult#getIndexField}
+     */
+    public void setResumeAfter(byte[] identifier, Map<String, Object> fieldValues) {
+        this.resumeAfterIdentifier = identifier;
+        this.resumeAfterFields = fieldValues;
+    }
+
+    public byte[] getResumeAfterIdentifier() {
+        return resumeAfterIdentifier;
+    }
+
+    public Map<String, Object> getResumeAfterFields() {
+        return resumeAfterFields;
+    }
+
     public List<EqualsCondition> getEqConditions() {
         return eqConditions;
     }
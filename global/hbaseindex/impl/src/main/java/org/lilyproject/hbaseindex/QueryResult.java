@@ -30,6 +30,18 @@ public interface QueryResult extends Closeable {
      */
     byte[] next() throws IOException;
 
+    /**
+     * Move to and return the next result whose identifier is equal to or larger than the given identifier,
+     * skipping the results in between.
+     *
+     * <p>This is what {@link Conjunction}s use to leapfrog over the results which can't be part of the
+     * intersection. Implementations which can do this more efficiently than by calling {@link #next} until
+     * the identifier is reached (e.g. by repositioning the underlying scanner) should do so.
+     *
+     * @return the identifier of the next matching query result, or null if the end is reached.
+     */
+    byte[] seek(byte[] identifier) throws IOException;
+
     /**
      * Retrieves data that was stored as part of the {@link IndexEntry} from the current index
      * entry (corresponding to the last {@link #next} call).
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A QueryResult which merges the results of the scans over the salt buckets of a salted index, so that the
+ * results are returned in the same order as for an unsalted index: the order of the row keys without the salt.
+ */
+class SaltedQueryResult extends BaseQueryResult {
+    private final List<ScannerQueryResult> bucketResults;
+    private final PriorityQueue<Bucket> queue;
+    private final int limit;
+    private int count;
+    private boolean started;
+    /**
+     * The bucket of the current result, which still needs to move to its next row.
+     */
+    private Bucket current;
+
+    /**
+     * @param limit the maximum number of results to return, 0 for no limit
+     */
+    SaltedQueryResult(List<ScannerQueryResult> bucketResults, final IndexDefinition definition, int limit) {
+        super(definition);
+        this.bucketResults = bucketResults;
+        this.limit = limit;
+        this.queue = new PriorityQueue<Bucket>(bucketResults.size(), new Comparator<Bucket>() {
+            @Override
+            public int compare(Bucket o1, Bucket o2) {
+                return compareUnsalted(o1.row, o2.row, definition);
+            }
+        });
+    }
+
+    /**
+     * Compares two row keys of a salted index, ignoring the salt.
+     */
+    static int compareUnsalted(byte[] row1, byte[] row2, IndexDefinition definition) {
+        int saltLength = definition.getSaltLength();
+        return Bytes.compareTo(row1, saltLength, row1.length - saltLength, row2, saltLength, row2.length - saltLength);
+    }
+
+    @Override
+    public byte[] next() throws IOException {
+        return moveTo(null);
+    }
+
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        return moveTo(identifier);
+    }
+
+    /**
+     * Moves to the next result, or if an identifier is given, to the first result whose identifier is not
+     * smaller than it.
+     */
+    private byte[] moveTo(byte[] identifier) throws IOException {
+        if (limit > 0 && count >= limit) {
+            currentResult = null;
+            return null;
+        }
+
+        if (!started) {
+            for (ScannerQueryResult bucketResult : bucketResults) {
+                advance(new Bucket(bucketResult), identifier);
+            }
+            started = true;
+        } else if (current != null) {
+            advance(current, identifier);
+        }
+
+        if (identifier != null) {
+            // Buckets which are behind the identifier seek to it, the others are already past it
+            while (!queue.isEmpty() && Bytes.compareTo(queue.peek().identifier, identifier) < 0) {
+                advance(queue.poll(), identifier);
+            }
+        }
+
+        current = queue.poll();
+        if (current == null) {
+            currentResult = null;
+            return null;
+        }
+
+        count++;
+        currentResult = current.result.currentResult;
+        return current.identifier;
+    }
+
+    private void advance(Bucket bucket, byte[] identifier) throws IOException {
+        bucket.identifier = identifier != null ? bucket.result.seek(identifier) : bucket.result.next();
+        if (bucket.identifier != null) {
+            bucket.row = bucket.result.currentResult.getRow();
+            queue.add(bucket);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ScannerQueryResult bucketResult : bucketResults) {
+            bucketResult.close();
+        }
+    }
+
+    private static class Bucket {
+        private final ScannerQueryResult result;
+        private byte[] identifier;
+        private byte[] row;
+
+        Bucket(ScannerQueryResult result) {
+            this.result = result;
+        }
+    }
+}
@@ -17,47 +17,93 @@ package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
 
-import com.gotometrics.orderly.StructIterator;
-import com.gotometrics.orderly.StructRowKey;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * A QueryResult on top of a HBase scanner.
+ *
+ * <p>If the query fixes the values of all the index fields, the rows are ordered on identifier, and
+ * {@link #seek} can jump to an identifier by reopening the scanner at the row key for that identifier.</p>
  */
 class ScannerQueryResult extends BaseQueryResult {
+    /**
+     * Number of rows to try with next() calls before reopening the scanner to seek. Since the scanner fetches
+     * rows in batches, a near identifier is reached faster by iterating than by starting a new scan.
+     */
+    private static final int NEXT_CALLS_BEFORE_RESEEK = 10;
+
+    private final HTableInterface htable;
+    private final Scan scan;
+    private final byte[] rowKeyPrefix;
+    private final Object[] seekKeyComponents;
+    private final int limit;
+    private int count;
     private ResultScanner scanner;
 
-    ScannerQueryResult(ResultScanner scanner, IndexDefinition definition) {
+    /**
+     * @param rowKeyPrefix the salt with which all rows of the scan start, empty if the index is not salted
+     * @param seekKeyComponents the values of all the index fields, used to build the row key to which to
+     *                          seek, or null if the rows are not ordered on identifier
+     * @param limit the maximum number of results to return, 0 for no limit
+     */
+    ScannerQueryResult(HTableInterface htable, Scan scan, IndexDefinition definition, byte[] rowKeyPrefix,
+                       Object[] seekKeyComponents, int limit) throws IOException {
         super(definition);
-        this.scanner = scanner;
+        this.htable = htable;
+        this.scan = scan;
+        this.rowKeyPrefix = rowKeyPrefix;
+        this.seekKeyComponents = seekKeyComponents;
+        this.limit = limit;
+        this.scanner = htable.getScanner(scan);
     }
 
     @Override
     public byte[] next() throws IOException {
+        if (limit > 0 && count >= limit) {
+            currentResult = null;
+            return null;
+        }
+
         currentResult = scanner.next();
         if (currentResult == null) {
             return null;
         }
+        count++;
 
         byte[] rowKey = currentResult.getRow();
 
         return decodeIdentifierFrom(rowKey);
     }
 
-    private byte[] decodeIdentifierFrom(byte[] rowKey) throws IOException {
-        final StructRowKey structRowKey = definition.asStructRowKey();
-        structRowKey.iterateOver(rowKey);
-
-        final StructIterator iterator = structRowKey.iterator();
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        if (seekKeyComponents == null) {
+            return super.seek(identifier);
+        }
 
-        int nbrFields = structRowKey.getFields().length;
-        // ignore all but last field (i.e. the identifier)
-        for (int i = 0; i < nbrFields - 1; i++) {
-            iterator.skip();
+        for (int i = 0; i < NEXT_CALLS_BEFORE_RESEEK; i++) {
+            byte[] key = next();
+            if (key == null || Bytes.compareTo(key, identifier) >= 0) {
+                return key;
+            }
         }
 
-        // read the last field (i.e. the identifier)
-        return (byte[]) iterator.next();
+        scanner.close();
+        Scan seekScan = new Scan(scan);
+        seekScan.setStartRow(buildSeekRowKey(identifier));
+        scanner = htable.getScanner(seekScan);
+
+        return next();
+    }
+
+    private byte[] buildSeekRowKey(byte[] identifier) throws IOException {
+        Object[] values = new Object[seekKeyComponents.length + 1];
+        System.arraycopy(seekKeyComponents, 0, values, 0, seekKeyComponents.length);
+        values[seekKeyComponents.length] = identifier;
+        return Bytes.add(rowKeyPrefix, definition.asStructRowKey().serialize(values));
     }
 
     @Override
@@ -15,6 +15,14 @@
  */
 package org.lilyproject.hbaseindex;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.codehaus.jackson.node.ObjectNode;
 import org.junit.Test;
 
@@ -70,4 +78,72 @@ public class IndexDefinitionSerializationTest {
         assertEquals(field.getLength(), newField.getLength());
     }
 
+    @Test
+    public void testSalt() throws Exception {
+        IndexDefinition indexDef = new IndexDefinition("index");
+        indexDef.addStringField("stringfield");
+        indexDef.setSalt(16, "stringfield", IndexDefinition.IDENTIFIER_SALT_FIELD);
+        ObjectNode json = indexDef.toJson();
+
+        IndexDefinition newIndexDef = new IndexDefinition("index", json);
+
+        assertEquals(16, newIndexDef.getSaltBuckets());
+        assertEquals(Arrays.asList("stringfield", IndexDefinition.IDENTIFIER_SALT_FIELD), newIndexDef.getSaltFields());
+        assertEquals(indexDef, newIndexDef);
+    }
+
+    @Test
+    public void testWritableUnsalted() throws Exception {
+        IndexDefinition indexDef = new IndexDefinition("index");
+        indexDef.addStringField("stringfield");
+        byte[] data = toBytes(indexDef);
+
+        // unsalted definitions keep the unversioned format, which starts with the name
+        assertEquals("index", new DataInputStream(new ByteArrayInputStream(data)).readUTF());
+
+        IndexDefinition newIndexDef = fromBytes(data);
+        assertEquals(indexDef, newIndexDef);
+        assertEquals(0, newIndexDef.getSaltBuckets());
+        assertEquals(Collections.<String>emptyList(), newIndexDef.getSaltFields());
+    }
+
+    @Test
+    public void testWritableLongName() throws Exception {
+        // a name of which the length does not fit in the first byte
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            name.append("index");
+        }
+        IndexDefinition indexDef = new IndexDefinition(name.toString());
+        indexDef.addStringField("stringfield");
+
+        assertEquals(indexDef, fromBytes(toBytes(indexDef)));
+    }
+
+    @Test
+    public void testWritableSalted() throws Exception {
+        IndexDefinition indexDef = new IndexDefinition("index");
+        indexDef.addStringField("stringfield");
+        indexDef.setSalt(16, "stringfield", IndexDefinition.IDENTIFIER_SALT_FIELD);
+
+        IndexDefinition newIndexDef = fromBytes(toBytes(indexDef));
+        assertEquals(16, newIndexDef.getSaltBuckets());
+        assertEquals(Arrays.asList("stringfield", IndexDefinition.IDENTIFIER_SALT_FIELD), newIndexDef.getSaltFields());
+        assertEquals(indexDef, newIndexDef);
+    }
+
+    private byte[] toBytes(IndexDefinition indexDef) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        indexDef.write(out);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    private IndexDefinition fromBytes(byte[] data) throws IOException {
+        IndexDefinition indexDef = new IndexDefinition();
+        indexDef.readFields(new DataInputStream(new ByteArrayInputStream(data)));
+        return indexDef;
+    }
+
 }
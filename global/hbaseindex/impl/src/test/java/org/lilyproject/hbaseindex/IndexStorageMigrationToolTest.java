@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.HBaseProxy;
+import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.util.hbase.LocalHTable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IndexStorageMigrationToolTest {
+    private static HBaseProxy HBASE_PROXY;
+
+    private static final byte[] SOURCE_FIELD = Bytes.toBytes("sf");
+    private static final byte[] VTAG = Bytes.toBytes("vt");
+    private static final byte[] KEPT = Bytes.toBytes("kept");
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging();
+        HBASE_PROXY = new HBaseProxy();
+        HBASE_PROXY.start();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        HBASE_PROXY.stop();
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        final String INDEX_NAME = "storageMigration";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        // Index tables created before the compact storage have no block encoding
+        setDataBlockEncoding(INDEX_NAME, DataBlockEncoding.NONE);
+
+        // an entry which keeps one data column
+        IndexEntry entry = new IndexEntry(indexDef);
+        entry.addField("field1", "a");
+        entry.addData(SOURCE_FIELD, Bytes.toBytes("sf1"));
+        entry.addData(VTAG, Bytes.toBytes("vt1"));
+        entry.addData(KEPT, Bytes.toBytes("kept1"));
+        entry.setIdentifier(Bytes.toBytes("key1"));
+        index.addEntry(entry);
+
+        // an entry of which all data columns are removed
+        entry = new IndexEntry(indexDef);
+        entry.addField("field1", "b");
+        entry.addData(SOURCE_FIELD, Bytes.toBytes("sf2"));
+        entry.setIdentifier(Bytes.toBytes("key2"));
+        index.addEntry(entry);
+
+        // an entry without data, which only has the dummy column
+        entry = new IndexEntry(indexDef);
+        entry.addField("field1", "c");
+        entry.setIdentifier(Bytes.toBytes("key3"));
+        index.addEntry(entry);
+
+        List<String> before = readAll(index);
+        assertEquals(Arrays.asList("key1=kept1", "key2=null", "key3=null"), before);
+
+        IndexStorageMigrationTool.migrate(HBASE_PROXY.getConf(), Arrays.asList(INDEX_NAME, "nonExistingIndex"),
+                Arrays.asList(SOURCE_FIELD, VTAG));
+
+        HBaseAdmin admin = new HBaseAdmin(HBASE_PROXY.getConf());
+        try {
+            HColumnDescriptor family =
+                    admin.getTableDescriptor(Bytes.toBytes(INDEX_NAME)).getFamily(IndexDefinition.DATA_FAMILY);
+            assertEquals(IndexManager.DATA_BLOCK_ENCODING, family.getDataBlockEncoding());
+        } finally {
+            admin.close();
+        }
+
+        // The queries give the same results, and no rows got lost
+        assertEquals(before, readAll(indexManager.getIndex(INDEX_NAME)));
+
+        List<Result> rows = scanTable(INDEX_NAME);
+        assertEquals(3, rows.size());
+        for (Result row : rows) {
+            assertFalse(row.containsColumn(IndexDefinition.DATA_FAMILY, SOURCE_FIELD));
+            assertFalse(row.containsColumn(IndexDefinition.DATA_FAMILY, VTAG));
+        }
+        assertTrue(rows.get(0).containsColumn(IndexDefinition.DATA_FAMILY, KEPT));
+        assertEquals(1, rows.get(0).size());
+        // The rows which lost all their data columns, and the rows which never had any, have the dummy column
+        assertTrue(rows.get(1).containsColumn(IndexDefinition.DATA_FAMILY, Index.DUMMY_QUALIFIER));
+        assertEquals(1, rows.get(1).size());
+        assertTrue(rows.get(2).containsColumn(IndexDefinition.DATA_FAMILY, Index.DUMMY_QUALIFIER));
+        assertEquals(1, rows.get(2).size());
+    }
+
+    @Test
+    public void testConcurrentIndexUpdates() throws Exception {
+        final String INDEX_NAME = "storageMigrationConcurrent";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        IndexEntry removedEntry = new IndexEntry(indexDef);
+        removedEntry.addField("field1", "a");
+        removedEntry.addData(SOURCE_FIELD, Bytes.toBytes("sf1"));
+        removedEntry.setIdentifier(Bytes.toBytes("key1"));
+        index.addEntry(removedEntry);
+
+        IndexEntry rewrittenEntry = new IndexEntry(indexDef);
+        rewrittenEntry.addField("field1", "b");
+        rewrittenEntry.addData(SOURCE_FIELD, Bytes.toBytes("sf2"));
+        rewrittenEntry.setIdentifier(Bytes.toBytes("key2"));
+        index.addEntry(rewrittenEntry);
+
+        List<Result> scanned = scanTable(INDEX_NAME);
+        assertEquals(2, scanned.size());
+
+        // The indexer removes the first entry and writes the second one again after the rows were scanned
+        index.removeEntry(removedEntry);
+        Thread.sleep(10);
+        index.addEntry(rewrittenEntry);
+
+        HTableInterface table = new LocalHTable(HBASE_PROXY.getConf(), INDEX_NAME);
+        try {
+            List<byte[]> qualifiers = Arrays.asList(SOURCE_FIELD);
+            assertNull(IndexStorageMigrationTool.createDelete(table, scanned.get(0), qualifiers));
+            table.delete(IndexStorageMigrationTool.createDelete(table, scanned.get(1), qualifiers));
+        } finally {
+            table.close();
+        }
+
+        // The removed entry did not come back, the data column written again is kept
+        List<Result> rows = scanTable(INDEX_NAME);
+        assertEquals(1, rows.size());
+        assertTrue(rows.get(0).containsColumn(IndexDefinition.DATA_FAMILY, SOURCE_FIELD));
+    }
+
+    private void setDataBlockEncoding(String tableName, DataBlockEncoding encoding) throws Exception {
+        HBaseAdmin admin = new HBaseAdmin(HBASE_PROXY.getConf());
+        try {
+            HTableDescriptor tableDescr = admin.getTableDescriptor(Bytes.toBytes(tableName));
+            tableDescr.getFamily(IndexDefinition.DATA_FAMILY).setDataBlockEncoding(encoding);
+            admin.disableTable(tableName);
+            admin.modifyTable(Bytes.toBytes(tableName), tableDescr);
+            admin.enableTable(tableName);
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * Returns the identifier and the value of the kept data column of all entries of the index.
+     */
+    private List<String> readAll(Index index) throws Exception {
+        Query query = new Query();
+        query.setRangeCondition("field1", Query.MIN_VALUE, Query.MAX_VALUE);
+        QueryResult result = index.performQuery(query);
+        List<String> entries = new ArrayList<String>();
+        byte[] identifier;
+        while ((identifier = result.next()) != null) {
+            entries.add(Bytes.toString(identifier) + "=" + result.getDataAsString("kept"));
+        }
+        result.close();
+        return entries;
+    }
+
+    private List<Result> scanTable(String tableName) throws Exception {
+        HTableInterface table = new LocalHTable(HBASE_PROXY.getConf(), tableName);
+        List<Result> rows = new ArrayList<Result>();
+        ResultScanner scanner = table.getScanner(new Scan());
+        try {
+            Result row;
+            while ((row = scanner.next()) != null) {
+                rows.add(row);
+            }
+        } finally {
+            scanner.close();
+            table.close();
+        }
+        return rows;
+    }
+}
@@ -15,21 +15,36 @@
  */
 package org.lilyproject.hbaseindex;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.gotometrics.orderly.Order;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.lilyproject.hadooptestfw.HBaseProxy;
 import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.hbaseindex.filter.IndexFilter;
+import org.lilyproject.util.hbase.LocalHTable;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 // Important: while not done in these testcases, it is recommended to call QueryResult.close()
@@ -971,6 +986,385 @@ public class IndexTest {
         assertEquals("foo", result.getDataAsString("originalValue"));
     }
 
+    @Test
+    public void testConjunctionSeek() throws Exception {
+        final String INDEX_NAME = "conjunctionSeek";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+
+        Index index = indexManager.getIndex(indexDef);
+
+        // "all" contains every identifier, "some" only every 50th one: the conjunction has to seek in "all"
+        for (int i = 0; i < 200; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", "all");
+            entry.setIdentifier(Bytes.toBytes(String.format("key%03d", i)));
+            index.addEntry(entry);
+
+            if (i % 50 == 0) {
+                entry = new IndexEntry(indexDef);
+                entry.addField("field1", "some");
+                entry.setIdentifier(Bytes.toBytes(String.format("key%03d", i)));
+                index.addEntry(entry);
+            }
+        }
+
+        Query someQuery = new Query();
+        someQuery.addEqualsCondition("field1", "some");
+        Query allQuery = new Query();
+        allQuery.addEqualsCondition("field1", "all");
+
+        QueryResult result = new Conjunction(index.performQuery(someQuery), index.performQuery(allQuery));
+        assertResultIds(result, "key000", "key050", "key100", "key150");
+
+        // seek directly on a scanner based result
+        result = index.performQuery(allQuery);
+        assertEquals("key123", Bytes.toString(result.seek(Bytes.toBytes("key123"))));
+        assertEquals("key124", Bytes.toString(result.next()));
+        assertEquals("all", result.getIndexField("field1"));
+        assertNull(result.seek(Bytes.toBytes("key999")));
+    }
+
+    @Test
+    public void testLimitAndPaging() throws Exception {
+        final String INDEX_NAME = "limitAndPaging";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        indexDef.addIntegerField("field2");
+        Index index = indexManager.getIndex(indexDef);
+
+        for (int i = 1; i <= 5; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", "a");
+            entry.addField("field2", i);
+            entry.setIdentifier(Bytes.toBytes("key" + i));
+            index.addEntry(entry);
+        }
+
+        // Range query, paged by 2
+        Query query = new Query();
+        query.addEqualsCondition("field1", "a");
+        query.setRangeCondition("field2", Query.MIN_VALUE, Query.MAX_VALUE);
+        query.setLimit(2);
+        assertResultIds(index.performQuery(query), "key1", "key2");
+
+        query.setResumeAfter(Bytes.toBytes("key2"), Collections.<String, Object>singletonMap("field2", 2));
+        assertResultIds(index.performQuery(query), "key3", "key4");
+
+        query.setResumeAfter(Bytes.toBytes("key4"), Collections.<String, Object>singletonMap("field2", 4));
+        assertResultIds(index.performQuery(query), "key5");
+
+        // Equals query, resumed after an identifier
+        query = new Query();
+        query.addEqualsCondition("field1", "a");
+        query.addEqualsCondition("field2", 3);
+        query.setCaching(1);
+        assertResultIds(index.performQuery(query), "key3");
+        query.setResumeAfter(Bytes.toBytes("key3"));
+        assertResultIds(index.performQuery(query));
+    }
+
+    @Test
+    public void testPerformQueries() throws Exception {
+        final String INDEX_NAME = "performQueries";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        String[] values = {"a", "a", "b", "c", "d", "f"};
+        for (int i = 0; i < values.length; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", values[i]);
+            entry.setIdentifier(Bytes.toBytes("key" + i));
+            index.addEntry(entry);
+        }
+
+        List<Query> queries = new ArrayList<Query>();
+        for (String value : new String[] {"d", "a", "e", "a"}) {
+            Query query = new Query();
+            query.addEqualsCondition("field1", value);
+            queries.add(query);
+        }
+        // overlaps with the equals queries on "a" and "d"
+        Query rangeQuery = new Query();
+        rangeQuery.setRangeCondition("field1", "a", "c");
+        queries.add(rangeQuery);
+        // not coalesced with the others because of the limit
+        Query limitQuery = new Query();
+        limitQuery.setRangeCondition("field1", "c", Query.MAX_VALUE);
+        limitQuery.setLimit(2);
+        queries.add(limitQuery);
+
+        List<QueryResult> results = index.performQueries(queries);
+        assertEquals(6, results.size());
+        assertResultIds(results.get(0), "key4");
+        assertResultIds(results.get(1), "key0", "key1");
+        assertResultIds(results.get(2));
+        assertResultIds(results.get(3), "key0", "key1");
+        assertResultIds(results.get(4), "key0", "key1", "key2", "key3");
+        assertResultIds(results.get(5), "key3", "key4");
+    }
+
+    @Test
+    public void testPerformQueriesWithIndexFilter() throws Exception {
+        final String INDEX_NAME = "performQueriesIndexFilter";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("master");
+        indexDef.addStringField("variant");
+        Index index = indexManager.getIndex(indexDef);
+
+        String[][] values = {{"m1", "v1"}, {"m1", "v2"}, {"m1", "v3"}, {"m2", "v1"}};
+        for (int i = 0; i < values.length; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("master", values[i][0]);
+            entry.addField("variant", values[i][1]);
+            entry.setIdentifier(Bytes.toBytes("key" + i));
+            index.addEntry(entry);
+        }
+
+        AtomicInteger scannerCount = new AtomicInteger();
+        Index countingIndex = new Index(countScanners(new LocalHTable(HBASE_PROXY.getConf(), INDEX_NAME),
+                scannerCount), indexDef);
+
+        // Queries on the same key which only differ in their index filter, like the queries for the dependants
+        // of the variants of a record in the deref map, are read with one scan
+        List<Query> queries = new ArrayList<Query>();
+        queries.add(variantQuery("m1", "v2"));
+        queries.add(variantQuery("m1", "v1"));
+        queries.add(variantQuery("m1", "v3"));
+        queries.add(variantQuery("m1", null));
+        List<QueryResult> results = countingIndex.performQueries(queries);
+        assertEquals(1, scannerCount.get());
+        assertResultIds(results.get(0), "key1");
+        assertResultIds(results.get(1), "key0");
+        assertResultIds(results.get(2), "key2");
+        assertResultIds(results.get(3), "key0", "key1", "key2");
+
+        // A query which is not coalesced with the others gets its filter evaluated by the region server
+        scannerCount.set(0);
+        queries.add(variantQuery("m2", "v1"));
+        queries.add(variantQuery("m2", "v2"));
+        results = countingIndex.performQueries(queries);
+        assertEquals(2, scannerCount.get());
+        assertResultIds(results.get(0), "key1");
+        assertResultIds(results.get(3), "key0", "key1", "key2");
+        assertResultIds(results.get(4), "key3");
+        assertResultIds(results.get(5));
+    }
+
+    private Query variantQuery(String master, String variant) {
+        Query query = new Query();
+        query.addEqualsCondition("master", master);
+        if (variant != null) {
+            query.setIndexFilter(new VariantIndexFilter(variant));
+        }
+        return query;
+    }
+
+    private static HTableInterface countScanners(final HTableInterface table, final AtomicInteger scannerCount) {
+        return (HTableInterface)Proxy.newProxyInstance(HTableInterface.class.getClassLoader(),
+                new Class[] {HTableInterface.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getScanner")) {
+                            scannerCount.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(table, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Only accepts the entries with the given value for the "variant" field.
+     */
+    public static class VariantIndexFilter extends IndexFilter {
+        private String variant;
+
+        public VariantIndexFilter() {
+            // hadoop serialization
+        }
+
+        VariantIndexFilter(String variant) {
+            super(Collections.<byte[]>emptySet(), Collections.singleton("variant"));
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean filterData(byte[] dataQualifier, byte[] data, int offset, int length) {
+            return false;
+        }
+
+        @Override
+        public boolean filterField(String name, Object value) {
+            return !variant.equals(value.toString());
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            super.write(out);
+            out.writeUTF(variant);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            super.readFields(in);
+            variant = in.readUTF();
+        }
+    }
+
+    @Test
+    public void testEntriesExist() throws Exception {
+        final String INDEX_NAME = "entriesExist";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        IndexEntry entry = new IndexEntry(indexDef);
+        entry.addField("field1", "a");
+        entry.setIdentifier(Bytes.toBytes("key1"));
+        index.addEntry(entry);
+
+        IndexEntry otherIdentifier = new IndexEntry(indexDef);
+        otherIdentifier.addField("field1", "a");
+        otherIdentifier.setIdentifier(Bytes.toBytes("key2"));
+
+        IndexEntry otherValue = new IndexEntry(indexDef);
+        otherValue.addField("field1", "b");
+        otherValue.setIdentifier(Bytes.toBytes("key1"));
+
+        boolean[] exist = index.entriesExist(Arrays.asList(otherIdentifier, entry, otherValue));
+        assertEquals(3, exist.length);
+        assertFalse(exist[0]);
+        assertTrue(exist[1]);
+        assertFalse(exist[2]);
+    }
+
+    @Test
+    public void testGetEntryData() throws Exception {
+        final String INDEX_NAME = "getEntryData";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        IndexEntry entry = new IndexEntry(indexDef);
+        entry.addField("field1", "a");
+        entry.addData(Bytes.toBytes("data1"), Bytes.toBytes("value1"));
+        entry.addData(Bytes.toBytes("data2"), Bytes.toBytes("value2"));
+        entry.setIdentifier(Bytes.toBytes("key1"));
+        index.addEntry(entry);
+
+        byte[][] data = index.getEntryData(entry, Bytes.toBytes("data2"), Bytes.toBytes("data3"));
+        assertEquals(2, data.length);
+        assertEquals("value2", Bytes.toString(data[0]));
+        assertNull(data[1]);
+
+        // none of the requested data
+        assertNull(index.getEntryData(entry, Bytes.toBytes("data3")));
+
+        IndexEntry otherIdentifier = new IndexEntry(indexDef);
+        otherIdentifier.addField("field1", "a");
+        otherIdentifier.setIdentifier(Bytes.toBytes("key2"));
+        assertNull(index.getEntryData(otherIdentifier, Bytes.toBytes("data1")));
+    }
+
+    @Test
+    public void testSaltedIndex() throws Exception {
+        final String INDEX_NAME = "salted";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        indexDef.addIntegerField("field2");
+        indexDef.setSalt(4);
+        Index index = indexManager.getIndex(indexDef);
+
+        for (int i = 0; i < 10; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", "a");
+            entry.addField("field2", i % 3);
+            entry.setIdentifier(Bytes.toBytes("key" + i));
+            index.addEntry(entry);
+        }
+
+        // The results of the buckets are merged in key order
+        Query query = new Query();
+        query.addEqualsCondition("field1", "a");
+        query.addEqualsCondition("field2", 1);
+        QueryResult result = index.performQuery(query);
+        assertResultIds(result, "key1", "key4", "key7");
+
+        query = new Query();
+        query.setRangeCondition("field2", 1, 2);
+        query.addEqualsCondition("field1", "a");
+        result = index.performQuery(query);
+        assertResultIds(result, "key1", "key4", "key7", "key2", "key5", "key8");
+
+        query.setLimit(4);
+        assertResultIds(index.performQuery(query), "key1", "key4", "key7", "key2");
+
+        // Seek over the buckets
+        query = new Query();
+        query.addEqualsCondition("field1", "a");
+        query.addEqualsCondition("field2", 0);
+        result = index.performQuery(query);
+        assertEquals("key3", Bytes.toString(result.seek(Bytes.toBytes("key1"))));
+        assertEquals(0, result.getIndexField("field2"));
+        assertEquals("key9", Bytes.toString(result.seek(Bytes.toBytes("key7"))));
+        assertNull(result.next());
+
+        // Multiple queries, with the rows of the buckets merged per query
+        Query rangeQuery = new Query();
+        rangeQuery.addEqualsCondition("field1", "a");
+        rangeQuery.setRangeCondition("field2", 2, Query.MAX_VALUE);
+        List<QueryResult> results = index.performQueries(Arrays.asList(rangeQuery, query));
+        assertResultIds(results.get(0), "key2", "key5", "key8");
+        assertResultIds(results.get(1), "key0", "key3", "key6", "key9");
+    }
+
+    @Test
+    public void testSaltOnField() throws Exception {
+        final String INDEX_NAME = "saltedOnField";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        indexDef.setSalt(8, "field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        String[] values = {"a", "b", "a", "c", "b"};
+        for (int i = 0; i < values.length; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", values[i]);
+            entry.setIdentifier(Bytes.toBytes("key" + i));
+            index.addEntry(entry);
+        }
+
+        // Equals query on the salt field, only reads one bucket
+        Query query = new Query();
+        query.addEqualsCondition("field1", "b");
+        assertResultIds(index.performQuery(query), "key1", "key4");
+
+        query = new Query();
+        query.setRangeCondition("field1", Query.MIN_VALUE, Query.MAX_VALUE);
+        assertResultIds(index.performQuery(query), "key0", "key2", "key1", "key4", "key3");
+    }
+
     private void assertResultIds(QueryResult result, String... expectedIdentifiers) throws IOException {
         int resultIdx = 0;
         byte[] identifier;
@@ -55,6 +55,73 @@ public class MergeJoinTest {
         assertNull(result.next());
     }
 
+    @Test
+    public void testConjunction_NWay() throws Exception {
+        String[] values1 = {"a", "b", "c", "f", "g", "h"};
+        String[] values2 = {"b", "c", "d", "e", "f", "h"};
+        String[] values3 = {"c", "f", "h", "i"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values1), buildQueryResult(values2),
+                buildQueryResult(values3));
+
+        assertEquals("c", Bytes.toString(result.next()));
+        assertEquals("f", Bytes.toString(result.next()));
+        assertEquals("h", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
+    @Test
+    public void testConjunction_Seeks() throws Exception {
+        List<byte[]> large = new ArrayList<byte[]>();
+        for (int i = 0; i < 1000; i++) {
+            large.add(Bytes.toBytes(String.format("%04d", i)));
+        }
+        StaticQueryResult largeResult = new StaticQueryResult(large);
+
+        QueryResult result = new Conjunction(buildQueryResult(new String[] {"0100", "0500", "0999"}), largeResult);
+
+        assertEquals("0100", Bytes.toString(result.next()));
+        assertEquals("0500", Bytes.toString(result.next()));
+        assertEquals("0999", Bytes.toString(result.next()));
+        assertNull(result.next());
+
+        // The large result should have been leapfrogged rather than iterated
+        assertEquals(3, largeResult.getVisited());
+    }
+
+    @Test
+    public void testDisjunction_NWay() throws Exception {
+        String[] values1 = {"a", "d"};
+        String[] values2 = {"b", "d", "e"};
+        String[] values3 = {"c", "e", "f"};
+
+        QueryResult result = new Disjunction(buildQueryResult(values1), buildQueryResult(values2),
+                buildQueryResult(values3));
+
+        assertEquals("a", Bytes.toString(result.next()));
+        assertEquals("b", Bytes.toString(result.next()));
+        assertEquals("c", Bytes.toString(result.next()));
+        assertEquals("d", Bytes.toString(result.next()));
+        assertEquals("e", Bytes.toString(result.next()));
+        assertEquals("f", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
+    @Test
+    public void testConjunctionOfDisjunction() throws Exception {
+        String[] values1 = {"a", "c", "e", "g"};
+        String[] values2 = {"b", "e"};
+        String[] values3 = {"c", "f", "g"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values1),
+                new Disjunction(buildQueryResult(values2), buildQueryResult(values3)));
+
+        assertEquals("c", Bytes.toString(result.next()));
+        assertEquals("e", Bytes.toString(result.next()));
+        assertEquals("g", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
     private QueryResult buildQueryResult(String[] values) {
         List<byte[]> byteValues = new ArrayList<byte[]>(values.length);
 
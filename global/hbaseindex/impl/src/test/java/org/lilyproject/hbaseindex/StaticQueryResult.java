@@ -16,19 +16,49 @@
 package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.List;
 
+import org.apache.hadoop.hbase.util.Bytes;
+
 public class StaticQueryResult implements QueryResult {
-    private Iterator<byte[]> iterator;
+    private List<byte[]> values;
+    private int position = -1;
+    private int visited;
 
     public StaticQueryResult(List<byte[]> values) {
-        this.iterator = values.iterator();
+        this.values = values;
     }
 
     @Override
     public byte[] next() throws IOException {
-        return iterator.hasNext() ? iterator.next() : null;
+        position++;
+        return current();
+    }
+
+    /**
+     * Jumps directly to the identifier, like a repositioned scanner would.
+     */
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        do {
+            position++;
+        } while (position < values.size() && Bytes.compareTo(values.get(position), identifier) < 0);
+        return current();
+    }
+
+    private byte[] current() {
+        if (position < values.size()) {
+            visited++;
+            return values.get(position);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of results that were returned by next() and seek().
+     */
+    public int getVisited() {
+        return visited;
     }
 
     @Override
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import com.gotometrics.orderly.Order;
+import com.gotometrics.orderly.RowKey;
+import com.gotometrics.orderly.StringRowKey;
+import com.gotometrics.orderly.StructBuilder;
+import com.gotometrics.orderly.StructRowKey;
+import com.gotometrics.orderly.Termination;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the string encoding of index row keys gives the same bytes as Orderly's StringRowKey, which was
+ * used before, so that existing indexes stay valid.
+ */
+public class StringEncodingTest {
+    private static final String[] STRINGS = {"", "a", "lily", "hello world", "café", "Ærøskøbing", "straße",
+            "\u0000\u0001\u007F\u0080", "𝄞", "mixed ascii and ünïcödé"};
+
+    @Test
+    public void testSameBytesAsStringRowKey() throws Exception {
+        for (Order order : Order.values()) {
+            for (Termination termination : Termination.values()) {
+                for (String string : STRINGS) {
+                    RowKey expected = configure(new StringRowKey(), order, termination);
+                    RowKey actual = configure(new Utf8StringRowKey(), order, termination);
+                    assertArrayEquals(string + ", " + order + ", " + termination, expected.serialize(string),
+                            actual.serialize(string));
+                    assertEquals(string, actual.deserialize(actual.serialize(string)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStringRowKeyAcceptsUtf8() throws Exception {
+        // Utf8StringRowKey relies on StringRowKey treating a byte array as the UTF-8 encoding of the string
+        for (Order order : Order.values()) {
+            for (Termination termination : Termination.values()) {
+                for (String string : STRINGS) {
+                    RowKey rowKey = configure(new StringRowKey(), order, termination);
+                    byte[] serialized = rowKey.serialize(Bytes.toBytes(string));
+                    assertArrayEquals(string + ", " + order + ", " + termination, rowKey.serialize(string),
+                            serialized);
+                    assertEquals(string, rowKey.deserialize(serialized));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSortOrder() throws Exception {
+        for (Order order : Order.values()) {
+            RowKey rowKey = configure(new Utf8StringRowKey(), order, Termination.MUST);
+            RowKey expectedRowKey = configure(new StringRowKey(), order, Termination.MUST);
+            for (String string1 : STRINGS) {
+                for (String string2 : STRINGS) {
+                    // Strings sort on their UTF-8 bytes, i.e. on their code points
+                    int expected = Integer.signum(Bytes.compareTo(Bytes.toBytes(string1), Bytes.toBytes(string2)));
+                    if (order == Order.DESCENDING) {
+                        expected = -expected;
+                    }
+                    String message = string1 + " <> " + string2 + ", " + order;
+                    assertEquals(message, expected,
+                            Integer.signum(Bytes.compareTo(rowKey.serialize(string1), rowKey.serialize(string2))));
+                    assertEquals(message, expected, Integer.signum(
+                            Bytes.compareTo(expectedRowKey.serialize(string1), expectedRowKey.serialize(string2))));
+                }
+            }
+        }
+    }
+
+    private RowKey configure(RowKey rowKey, Order order, Termination termination) {
+        rowKey.setOrder(order);
+        rowKey.setTermination(termination);
+        return rowKey;
+    }
+
+    @Test
+    public void testSameBytesInStruct() throws Exception {
+        byte[] identifier = Bytes.toBytes("id");
+        for (String string1 : STRINGS) {
+            for (String string2 : STRINGS) {
+                Object[] values = {string1, null, string2, identifier};
+                assertArrayEquals(struct(new StringRowKey(), new StringRowKey()).serialize(values),
+                        struct(new Utf8StringRowKey(), new Utf8StringRowKey()).serialize(values));
+            }
+        }
+    }
+
+    private StructRowKey struct(RowKey stringKey1, RowKey stringKey2) {
+        StructBuilder builder = new StructBuilder();
+        builder.add(stringKey1);
+        builder.add(new StringRowKey());
+        builder.add(stringKey2);
+        builder.add(new IndexDefinition("test").getIdentifierIndexFieldDefinition().asRowKey());
+        return builder.toRowKey();
+    }
+
+    @Test
+    public void testToUtf8() throws Exception {
+        for (String string : STRINGS) {
+            assertArrayEquals(Bytes.toBytes(string), Utf8StringRowKey.toUtf8(string));
+        }
+    }
+
+    @Test
+    public void testFoldToASCII() throws Exception {
+        String ascii = "plain ascii";
+        assertSame(ascii, ASCIIFoldingUtil.foldToASCII(ascii));
+        assertEquals("", ASCIIFoldingUtil.foldToASCII(""));
+        assertEquals("cafe", ASCIIFoldingUtil.foldToASCII("café"));
+        assertEquals("AEroskobing", ASCIIFoldingUtil.foldToASCII("Ærøskøbing"));
+        assertEquals("strasse", ASCIIFoldingUtil.foldToASCII("straße"));
+        assertEquals("eee", ASCIIFoldingUtil.foldToASCII("éèê"));
+    }
+}
@@ -47,6 +47,7 @@ import org.apache.commons.logging.LogFactory;
 import org.lilyproject.runtime.LilyRTException;
 import org.lilyproject.runtime.LilyRuntime;
 import org.lilyproject.runtime.LilyRuntimeSettings;
+import org.lilyproject.runtime.classloading.ClassLoaderBuilder;
 import org.lilyproject.runtime.configuration.ConfManagerImpl;
 import org.lilyproject.runtime.model.SourceLocations;
 import org.lilyproject.runtime.rapi.Mode;
@@ -142,6 +143,21 @@ public class LilyRuntimeCli {
                 .create("z");
         cliOptions.addOption(classLoadingLoggingOption);
 
+        Option startupReportOption = OptionBuilder
+                .withDescription("Print the time spent starting each module and its slowest beans.")
+                .withLongOpt("startup-report")
+                .create("u");
+        cliOptions.addOption(startupReportOption);
+
+        Option startupThreadsOption = OptionBuilder
+                .withArgName("count")
+                .hasArg()
+                .withDescription("Number of threads to start the modules with, default 1. Modules which import " +
+                        "services from each other are still started one after the other.")
+                .withLongOpt("startup-threads")
+                .create("t");
+        cliOptions.addOption(startupThreadsOption);
+
         Option verboseOption = OptionBuilder
                 .withDescription("Prints lots of information.")
                 .withLongOpt("verbose")
@@ -194,7 +210,8 @@ public class LilyRuntimeCli {
         }
 
         Logging.setupLogging(cmd.hasOption(verboseOption.getOpt()), cmd.hasOption(quietOption.getOpt()),
-                cmd.hasOption(classLoadingLoggingOption.getOpt()), cmd.getOptionValue(logConfigurationOption.getOpt()),
+                cmd.hasOption(classLoadingLoggingOption.getOpt()), cmd.hasOption(startupReportOption.getOpt()),
+                cmd.getOptionValue(logConfigurationOption.getOpt()),
                 cmd.getOptionValue(consoleLoggingOption.getOpt()), cmd.getOptionValue(consoleLogCatOption.getOpt()));
 
         try {
@@ -234,13 +251,23 @@ public class LilyRuntimeCli {
         }
 
         ArtifactRepository artifactRepository;
+        File repositoryDir;
 
         if (cmd.hasOption(repositoryLocationOption.getOpt())) {
-            artifactRepository = new ChainedMaven2StyleArtifactRepository(cmd.getOptionValue(repositoryLocationOption.getOpt()));
+            String repositoryLocations = cmd.getOptionValue(repositoryLocationOption.getOpt());
+            artifactRepository = new ChainedMaven2StyleArtifactRepository(repositoryLocations);
+            repositoryDir = new File(repositoryLocations.split(",")[0].trim());
         } else {
             File maven2Repository = findLocalMavenRepository();
             infolog.info("Using local Maven repository at " + maven2Repository.getAbsolutePath());
             artifactRepository = new Maven2StyleArtifactRepository(maven2Repository);
+            repositoryDir = maven2Repository;
+        }
+
+        // Store the class loader indexes next to the (first) artifact repository, unless specified otherwise
+        if (System.getProperty(ClassLoaderBuilder.INDEX_DIR_PROPERTY) == null) {
+            File indexDir = new File(repositoryDir.getAbsoluteFile().getParentFile(), "lily-runtime-classloader-index");
+            System.setProperty(ClassLoaderBuilder.INDEX_DIR_PROPERTY, indexDir.getAbsolutePath());
         }
 
 
@@ -275,6 +302,9 @@ public class LilyRuntimeCli {
         settings.setRepository(artifactRepository);
         settings.setSourceLocations(sourceLocations);
         settings.setEnableArtifactSharing(!cmd.hasOption(disableClassSharingOption.getOpt()));
+        if (cmd.hasOption(startupThreadsOption.getOpt())) {
+            settings.setModuleStartupThreads(Integer.parseInt(cmd.getOptionValue(startupThreadsOption.getOpt())));
+        }
 
         LilyRuntime runtime = new LilyRuntime(settings);
 
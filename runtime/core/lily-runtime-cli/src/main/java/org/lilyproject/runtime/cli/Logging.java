@@ -40,8 +40,8 @@ public class Logging {
     private Logging() {
     }
 
-    public static void setupLogging(boolean verbose, boolean quiet, boolean classLoadingLog, String logConfLocation,
-            String consoleLoggingLevel, String consoleLogCategory) {
+    public static void setupLogging(boolean verbose, boolean quiet, boolean classLoadingLog, boolean startupReport,
+            String logConfLocation, String consoleLoggingLevel, String consoleLogCategory) {
 
         ConsoleAppender consoleAppender = new ConsoleAppender();
         consoleAppender.setName("console appender");
@@ -141,6 +141,14 @@ public class Logging {
             logger.addAppender(consoleAppender);
         }
 
+        if (startupReport) {
+            logger = Logger.getLogger(LilyRuntime.STARTUP_REPORT_CATEGORY);
+            logger.setLevel(Level.INFO);
+            if (!hasConsoleAppender) {
+                logger.addAppender(consoleAppender);
+            }
+        }
+
         if (classLoadingLog) {
             logger = Logger.getLogger(LilyRuntime.CLASSLOADING_LOG_CATEGORY);
             logger.setLevel(Level.INFO);
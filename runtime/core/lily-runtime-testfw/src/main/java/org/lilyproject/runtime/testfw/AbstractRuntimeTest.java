@@ -201,6 +201,10 @@ public abstract class AbstractRuntimeTest extends TestCase {
         return Mode.getDefault();
     }
 
+    protected int getModuleStartupThreads() {
+        return 1;
+    }
+
     protected boolean startRuntime() {
         return true;
     }
@@ -272,6 +276,7 @@ public abstract class AbstractRuntimeTest extends TestCase {
             settings.setModel(model);
             settings.setRepository(localRepository);
             settings.setConfManager(getConfManager());
+            settings.setModuleStartupThreads(getModuleStartupThreads());
 
             runtime = new LilyRuntime(settings);
             runtime.setMode(getMode());
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime.test;
+
+import org.junit.Assert;
+
+/**
+ * Tests the wiring of Java services when starting the modules in parallel.
+ */
+public class ParallelStartupTest extends JavaServiceWiringTest {
+    @Override
+    protected int getModuleStartupThreads() {
+        return 4;
+    }
+
+    public void testModuleOrder() {
+        // The modules are listed in the order of their definition, regardless of the order in which they started
+        Assert.assertEquals(4, runtime.getModules().size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("jwiringmod" + (i + 1), runtime.getModules().get(i).getDefinition().getId());
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.lilyproject.runtime.classloading.ClassLoaderBuilder;
 import org.lilyproject.runtime.classloading.ClasspathEntry;
+import org.lilyproject.runtime.classloading.IndexedClassLoader;
 import org.lilyproject.runtime.conf.Conf;
 import org.lilyproject.runtime.configuration.ConfManager;
 import org.lilyproject.runtime.model.ConfigError;
@@ -41,6 +42,8 @@ import org.lilyproject.runtime.module.Module;
 import org.lilyproject.runtime.module.ModuleConfig;
 import org.lilyproject.runtime.module.build.ModuleBuilder;
 import org.lilyproject.runtime.module.build.ModuleConfigBuilder;
+import org.lilyproject.runtime.module.build.ParallelModuleBuilder;
+import org.lilyproject.runtime.module.build.StartupReport;
 import org.lilyproject.runtime.module.javaservice.JavaServiceManager;
 import org.lilyproject.runtime.rapi.ConfRegistry;
 import org.lilyproject.runtime.rapi.Mode;
@@ -80,6 +83,7 @@ public class LilyRuntime {
     public static final String INFO_LOG_CATEGORY = "org.lilyproject.runtime.info";
     public static final String CLASSLOADING_LOG_CATEGORY = "org.lilyproject.runtime.classloading-info";
     public static final String CLASSLOADING_REPORT_CATEGORY = "org.lilyproject.runtime.classloading-report";
+    public static final String STARTUP_REPORT_CATEGORY = "org.lilyproject.runtime.startup-report";
 
     public LilyRuntime(LilyRuntimeSettings settings) {
         ArgumentValidator.notNull(settings, "settings");
@@ -217,13 +221,28 @@ public class LilyRuntime {
         // Create the modules
         infolog.info("Starting the modules.");
 
+        long modulesStart = System.nanoTime();
+        StartupReport startupReport = new StartupReport();
+        int threads = settings.getModuleStartupThreads();
         modules = new ArrayList<Module>(model.getModules().size());
-        for (int i = 0; i < moduleConfigs.size(); i++) {
-            ModuleConfig moduleConfig = moduleConfigs.get(i);
-            Module module = ModuleBuilder.build(moduleConfig, moduleClassLoaders.get(i), this);
-            modules.add(module);
-            modulesById.put(module.getDefinition().getId(), module);
+        if (threads > 1 && moduleConfigs.size() > 1) {
+            try {
+                ParallelModuleBuilder.build(moduleConfigs, moduleClassLoaders, this, threads, startupReport, modules);
+            } finally {
+                for (Module module : modules) {
+                    modulesById.put(module.getDefinition().getId(), module);
+                }
+            }
+        } else {
+            threads = 1;
+            for (int i = 0; i < moduleConfigs.size(); i++) {
+                ModuleConfig moduleConfig = moduleConfigs.get(i);
+                Module module = ModuleBuilder.build(moduleConfig, moduleClassLoaders.get(i), this, null, startupReport);
+                modules.add(module);
+                modulesById.put(module.getDefinition().getId(), module);
+            }
         }
+        startupReport.log(moduleConfigs, threads, modulesStart);
 
         // Start the FAM, conf manager refreshing
         fam.start();
@@ -311,12 +330,24 @@ public class LilyRuntime {
                     infolog.error("Error shutting down module " + module.getDefinition().getId(), t);
                 }
             }
+
+            // Close the jars kept open by the class loaders
+            for (Module module : reversedModules) {
+                closeClassLoader(module.getClassLoader());
+            }
         }
+        closeClassLoader(rootClassLoader);
 
         settings.getConfManager().shutdown();
 
     }
 
+    private void closeClassLoader(ClassLoader classLoader) {
+        if (classLoader instanceof IndexedClassLoader) {
+            ((IndexedClassLoader)classLoader).close();
+        }
+    }
+
     public static String getVersion() {
         return Version.readVersion("org.lilyproject", "lily-runtime");
     }
@@ -35,6 +35,7 @@ public class LilyRuntimeSettings {
     private LilyRuntimeModel model;
     private SourceLocations sourceLocations;
     private boolean disableServerConnectors;
+    private int moduleStartupThreads = 1;
 
     public ArtifactRepository getRepository() {
         return repository;
@@ -100,4 +101,23 @@ public class LilyRuntimeSettings {
     public void setDisableServerConnectors(boolean disableServerConnectors) {
         this.disableServerConnectors = disableServerConnectors;
     }
+
+    public int getModuleStartupThreads() {
+        return moduleStartupThreads;
+    }
+
+    /**
+     * Number of threads used to start the modules. By default this is 1, which starts the modules
+     * one after the other, in the order in which they are defined.
+     *
+     * <p>With more threads, a module is started as soon as the modules exporting the Java services
+     * it imports have been started. Modules should then not rely on other modules being started
+     * before them, except through the services they import.
+     */
+    public void setModuleStartupThreads(int moduleStartupThreads) {
+        if (moduleStartupThreads < 1) {
+            throw new IllegalArgumentException("moduleStartupThreads should be at least 1, got: " + moduleStartupThreads);
+        }
+        this.moduleStartupThreads = moduleStartupThreads;
+    }
 }
@@ -31,6 +31,18 @@ import org.lilyproject.runtime.repository.ArtifactNotFoundException;
 import org.lilyproject.runtime.repository.ArtifactRepository;
 
 public class ClassLoaderBuilder {
+    /**
+     * System property pointing to the directory in which the indexes of the class loaders are stored.
+     * If not set, they are stored in the Lily directory in the home directory of the user, see
+     * {@link #getDefaultIndexDir()}.
+     */
+    public static final String INDEX_DIR_PROPERTY = "lilyruntime.classloaderindex.dir";
+
+    /**
+     * System property to disable the use of indexes, falling back to plain URLClassLoaders.
+     */
+    public static final String DISABLE_INDEX_PROPERTY = "lilyruntime.classloaderindex.disable";
+
     private static Map<String, ClassLoader> classLoaderCache;
     private static final boolean classLoaderCacheEnabled;
     static {
@@ -91,15 +103,38 @@ public class ClassLoaderBuilder {
         }
     }
 
+    /**
+     * The directory in which the indexes are stored when {@link #INDEX_DIR_PROPERTY} is not set. The runtime has
+     * no data directory of its own, so this is a directory in the home directory of the user, which avoids that
+     * every jar would be indexed again on each start.
+     */
+    public static File getDefaultIndexDir() {
+        return new File(System.getProperty("user.home"), ".lily" + File.separator + "runtime-classloader-index");
+    }
+
     private static ClassLoader create(List<ClasspathEntry> classpathEntries, ClassLoader parentClassLoader,
             ArtifactRepository repository) throws ArtifactNotFoundException, MalformedURLException {
         List<URL> classpath = new ArrayList<URL>();
+        List<File> files = new ArrayList<File>();
+        Map<File, URL> fileUrls = new HashMap<File, URL>();
 
         for (ClasspathEntry cpEntry : classpathEntries) {
             File resolvedFile = cpEntry.getArtifactRef().resolve(repository);
-            classpath.add(resolvedFile.toURL());
+            URL url = resolvedFile.toURL();
+            classpath.add(url);
+            files.add(resolvedFile);
+            fileUrls.put(resolvedFile, url);
         }
 
-        return new URLClassLoader(classpath.toArray(new URL[classpath.size()]), parentClassLoader);
+        URL[] urls = classpath.toArray(new URL[classpath.size()]);
+        if (System.getProperty(DISABLE_INDEX_PROPERTY) == null) {
+            String indexDir = System.getProperty(INDEX_DIR_PROPERTY);
+            ClassLoaderIndex index = ClassLoaderIndex.build(files,
+                    indexDir != null ? new File(indexDir) : getDefaultIndexDir());
+            if (index.isComplete()) {
+                return new IndexedClassLoader(urls, fileUrls, index, parentClassLoader);
+            }
+        }
+        return new URLClassLoader(urls, parentClassLoader);
     }
 }
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime.classloading;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.util.io.IOUtils;
+
+/**
+ * Index of the packages (or more generally, the resource directories) contained in the jars of a
+ * class path, used by {@link IndexedClassLoader} to go straight to the jars containing a class or resource.
+ *
+ * <p>The index can be stored in a directory, in a file per class path, so that the jars don't need to
+ * be read again the next time. The index of a jar is rebuilt when its size or timestamp changed.</p>
+ */
+public class ClassLoaderIndex {
+    private static final int FORMAT_VERSION = 1;
+    private static final File[] NO_JARS = new File[0];
+
+    private final Map<String, File[]> packageJars = new HashMap<String, File[]>();
+    private final boolean complete;
+
+    private ClassLoaderIndex(List<JarIndex> jarIndexes, boolean incomplete) {
+        boolean complete = !incomplete;
+        Map<String, List<File>> jarsByPackage = new HashMap<String, List<File>>();
+        for (JarIndex jarIndex : jarIndexes) {
+            complete &= !jarIndex.hasClassPath;
+            for (String packageName : jarIndex.packages) {
+                List<File> jars = jarsByPackage.get(packageName);
+                if (jars == null) {
+                    jars = new ArrayList<File>(1);
+                    jarsByPackage.put(packageName, jars);
+                }
+                jars.add(jarIndex.file);
+            }
+        }
+        for (Map.Entry<String, List<File>> entry : jarsByPackage.entrySet()) {
+            packageJars.put(entry.getKey(), entry.getValue().toArray(new File[entry.getValue().size()]));
+        }
+        this.complete = complete;
+    }
+
+    /**
+     * Returns the jars which contain entries in the same directory as the given resource, in class path order.
+     */
+    public File[] getJars(String resourceName) {
+        File[] jars = packageJars.get(getPackage(resourceName));
+        return jars != null ? jars : NO_JARS;
+    }
+
+    /**
+     * True if the index covers the complete class path, in which case a resource which is not in the index
+     * does not exist. This is not the case if the class path contains directories, or jars which refer to
+     * other jars through the Class-Path attribute of their manifest.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    static String getPackage(String resourceName) {
+        int end = resourceName.endsWith("/") ? resourceName.length() - 1 : resourceName.length();
+        int slashPos = resourceName.lastIndexOf('/', end - 1);
+        return slashPos == -1 ? "" : resourceName.substring(0, slashPos);
+    }
+
+    /**
+     * Builds the index for the given class path.
+     *
+     * @param indexDir directory in which the index is stored, can be null
+     */
+    public static ClassLoaderIndex build(List<File> classpath, File indexDir) {
+        Log log = LogFactory.getLog(ClassLoaderIndex.class);
+
+        List<File> jars = new ArrayList<File>();
+        // Directories are not indexed, since their contents can change at any time
+        boolean incomplete = false;
+        StringBuilder classpathKey = new StringBuilder();
+        for (File file : classpath) {
+            if (file.isFile()) {
+                jars.add(file);
+                classpathKey.append(file.getAbsolutePath()).append(File.pathSeparatorChar);
+            } else {
+                incomplete = true;
+            }
+        }
+
+        File indexFile = null;
+        Map<String, JarIndex> storedIndexes = new HashMap<String, JarIndex>();
+        if (indexDir != null) {
+            indexFile = new File(indexDir, Hashing.sha1().hashString(classpathKey, Charsets.UTF_8) + ".idx");
+            if (indexFile.exists()) {
+                try {
+                    for (JarIndex jarIndex : read(indexFile)) {
+                        storedIndexes.put(jarIndex.file.getAbsolutePath(), jarIndex);
+                    }
+                } catch (IOException e) {
+                    log.warn("Error reading class loader index " + indexFile + ", will rebuild it.", e);
+                }
+            }
+        }
+
+        List<JarIndex> jarIndexes = new ArrayList<JarIndex>(jars.size());
+        boolean changed = false;
+        for (File jar : jars) {
+            JarIndex jarIndex = storedIndexes.get(jar.getAbsolutePath());
+            if (jarIndex == null || jarIndex.length != jar.length() || jarIndex.lastModified != jar.lastModified()) {
+                try {
+                    jarIndex = JarIndex.build(jar);
+                } catch (IOException e) {
+                    // Leave it to the class loader to deal with the jar
+                    log.warn("Error indexing " + jar + ", classes will be searched in all jars.", e);
+                    incomplete = true;
+                    continue;
+                }
+                changed = true;
+            }
+            jarIndexes.add(jarIndex);
+        }
+
+        if (indexFile != null && (changed || storedIndexes.size() != jarIndexes.size())) {
+            try {
+                write(indexFile, jarIndexes);
+            } catch (IOException e) {
+                log.warn("Error storing class loader index " + indexFile, e);
+            }
+        }
+
+        return new ClassLoaderIndex(jarIndexes, incomplete);
+    }
+
+    private static List<JarIndex> read(File indexFile) throws IOException {
+        DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (is.readInt() != FORMAT_VERSION) {
+                return new ArrayList<JarIndex>();
+            }
+            int jarCount = is.readInt();
+            List<JarIndex> jarIndexes = new ArrayList<JarIndex>(jarCount);
+            for (int i = 0; i < jarCount; i++) {
+                JarIndex jarIndex = new JarIndex(new File(is.readUTF()), is.readLong(), is.readLong());
+                jarIndex.hasClassPath = is.readBoolean();
+                int packageCount = is.readInt();
+                for (int j = 0; j < packageCount; j++) {
+                    jarIndex.packages.add(is.readUTF());
+                }
+                jarIndexes.add(jarIndex);
+            }
+            return jarIndexes;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    private static void write(File indexFile, List<JarIndex> jarIndexes) throws IOException {
+        indexFile.getParentFile().mkdirs();
+        // Write to a temporary file first, so that runtimes starting concurrently never read a partial index
+        File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            os.writeInt(FORMAT_VERSION);
+            os.writeInt(jarIndexes.size());
+            for (JarIndex jarIndex : jarIndexes) {
+                os.writeUTF(jarIndex.file.getAbsolutePath());
+                os.writeLong(jarIndex.length);
+                os.writeLong(jarIndex.lastModified);
+                os.writeBoolean(jarIndex.hasClassPath);
+                os.writeInt(jarIndex.packages.size());
+                for (String packageName : jarIndex.packages) {
+                    os.writeUTF(packageName);
+                }
+            }
+        } finally {
+            os.close();
+        }
+
+        if (!tmpFile.renameTo(indexFile)) {
+            // On some platforms, rename does not overwrite existing files
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile)) {
+                tmpFile.delete();
+                throw new IOException("Could not rename " + tmpFile + " to " + indexFile);
+            }
+        }
+    }
+
+    private static class JarIndex {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private boolean hasClassPath;
+        private final Set<String> packages = new LinkedHashSet<String>();
+
+        private JarIndex(File file, long length, long lastModified) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        static JarIndex build(File file) throws IOException {
+            JarIndex jarIndex = new JarIndex(file, file.length(), file.lastModified());
+            JarFile jarFile = new JarFile(file);
+            try {
+                Manifest manifest = jarFile.getManifest();
+                jarIndex.hasClassPath = manifest != null
+                        && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null;
+
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    jarIndex.packages.add(getPackage(entries.nextElement().getName()));
+                }
+            } finally {
+                jarFile.close();
+            }
+            return jarIndex;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime.classloading;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.google.common.io.ByteStreams;
+import org.lilyproject.util.io.IOUtils;
+
+/**
+ * A URLClassLoader which uses a {@link ClassLoaderIndex} to look up classes and resources only in the
+ * jars which contain the package concerned, rather than searching through all jars. The index should
+ * be complete, see {@link ClassLoaderIndex#isComplete()}.
+ *
+ * <p>This especially speeds up looking for classes which are not there, which is common since
+ * the shared class loader is asked for each class loaded by the module class loaders.</p>
+ *
+ * <p>The jars are kept open, until the class loader is {@link #close() closed}.</p>
+ */
+public class IndexedClassLoader extends URLClassLoader implements Closeable {
+    private final ClassLoaderIndex index;
+    private final Map<File, URL> jarUrls;
+    private final Map<File, JarFile> jarFiles = new ConcurrentHashMap<File, JarFile>();
+
+    public IndexedClassLoader(URL[] urls, Map<File, URL> jarUrls, ClassLoaderIndex index, ClassLoader parent) {
+        super(urls, parent);
+        this.jarUrls = jarUrls;
+        this.index = index;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String resourceName = name.replace('.', '/').concat(".class");
+        for (File jar : index.getJars(resourceName)) {
+            try {
+                JarFile jarFile = getJarFile(jar);
+                JarEntry entry = jarFile.getJarEntry(resourceName);
+                if (entry != null) {
+                    return defineClass(name, jar, jarFile, entry);
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+
+        throw new ClassNotFoundException(name);
+    }
+
+    private Class<?> defineClass(String name, File jar, JarFile jarFile, JarEntry entry) throws IOException {
+        URL jarUrl = jarUrls.get(jar);
+
+        int lastDot = name.lastIndexOf('.');
+        if (lastDot != -1) {
+            String packageName = name.substring(0, lastDot);
+            if (getPackage(packageName) == null) {
+                try {
+                    definePackage(packageName, jarFile.getManifest(), jarUrl);
+                } catch (IllegalArgumentException e) {
+                    // Defined concurrently by another thread
+                }
+            }
+        }
+
+        byte[] bytes;
+        InputStream is = jarFile.getInputStream(entry);
+        try {
+            bytes = ByteStreams.toByteArray(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        // The code signers are only known after reading the entry
+        CodeSource codeSource = new CodeSource(jarUrl, entry.getCodeSigners());
+        return defineClass(name, bytes, 0, bytes.length, codeSource);
+    }
+
+    @Override
+    public URL findResource(String name) {
+        for (File jar : index.getJars(name)) {
+            URL url = getJarResource(jar, name);
+            if (url != null) {
+                return url;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> urls = new ArrayList<URL>();
+        for (File jar : index.getJars(name)) {
+            URL url = getJarResource(jar, name);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    private URL getJarResource(File jar, String name) {
+        try {
+            if (getJarFile(jar).getEntry(name) != null) {
+                return new URL("jar:" + jarUrls.get(jar) + "!/" + name);
+            }
+        } catch (MalformedURLException e) {
+            // same behavior as URLClassLoader: ignore resources for which no URL can be created
+        } catch (IOException e) {
+            // same behavior as URLClassLoader: ignore jars which can't be opened
+        }
+        return null;
+    }
+
+    /**
+     * Closes the jars opened by this class loader. The class loader remains usable: jars are opened again
+     * when needed, which can be the case when class loaders are cached over restarts of the runtime.
+     */
+    @Override
+    public void close() {
+        synchronized (jarFiles) {
+            for (JarFile jarFile : jarFiles.values()) {
+                try {
+                    jarFile.close();
+                } catch (IOException e) {
+                    // ignore, as when closing a URLClassLoader
+                }
+            }
+            jarFiles.clear();
+        }
+    }
+
+    private JarFile getJarFile(File jar) throws IOException {
+        JarFile jarFile = jarFiles.get(jar);
+        if (jarFile == null) {
+            synchronized (jarFiles) {
+                jarFile = jarFiles.get(jar);
+                if (jarFile == null) {
+                    jarFile = new JarFile(jar);
+                    jarFiles.put(jar, jarFile);
+                }
+            }
+        }
+        return jarFile;
+    }
+}
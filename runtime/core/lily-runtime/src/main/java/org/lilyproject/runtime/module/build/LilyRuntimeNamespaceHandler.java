@@ -131,6 +131,10 @@ public class LilyRuntimeNamespaceHandler implements NamespaceHandler {
                 dependencyName = id;
             }
 
+            // When starting modules in parallel, the module exporting the service might not have been started yet
+            ParallelModuleBuilder parallelBuilder = springBuildContext.getParallelBuilder();
+            String currentModuleId = springBuildContext.getModule().getDefinition().getId();
+
             Object component;
             try {
                 JavaServiceInjectDefinition injectDef = springBuildContext.getModule().getDefinition().getJavaServiceInject(dependencyName);
@@ -141,17 +145,25 @@ public class LilyRuntimeNamespaceHandler implements NamespaceHandler {
                 if (injectDef != null) {
                     String moduleId = injectDef.getSourceModuleId();
                     String name = injectDef.getSourceJavaServiceName();
+                    if (parallelBuilder != null) {
+                        parallelBuilder.awaitModule(currentModuleId, serviceClass, moduleId);
+                    }
                     if (moduleId != null && name != null) {
                         component = javaServiceManager.getService(serviceClass, moduleId, name);
                     } else {
                         component = javaServiceManager.getService(serviceClass, moduleId);
                     }
+                } else if (parallelBuilder != null) {
+                    // Services of modules which are started later on might already be available, so look up the
+                    // service by the module which would export it when starting the modules one by one
+                    String moduleId = parallelBuilder.awaitServiceExporter(currentModuleId, serviceClass);
+                    component = javaServiceManager.getService(serviceClass, moduleId);
                 } else {
                     component = javaServiceManager.getService(serviceClass);
                 }
             } catch (Throwable t) {
                 throw new LilyRTException("Error assigning Java service dependency " + dependencyName + " of module "
-                        + springBuildContext.getModule().getDefinition().getId(), t);
+                        + currentModuleId, t);
             }
 
             RootBeanDefinition def = new RootBeanDefinition(ObjectFactoryBean.class);
@@ -47,12 +47,18 @@ public class ModuleBuilder {
         // private constructor to avoid instantiation
     }
 
-    public static Module build(ModuleConfig cfg, ClassLoader classLoader, LilyRuntime runtime) throws ArtifactNotFoundException, MalformedURLException {
-        return new ModuleBuilder().buildInt(cfg, classLoader, runtime);
+    /**
+     * @param parallelBuilder null if the modules are started one by one
+     */
+    public static Module build(ModuleConfig cfg, ClassLoader classLoader, LilyRuntime runtime,
+            ParallelModuleBuilder parallelBuilder, StartupReport startupReport) throws ArtifactNotFoundException, MalformedURLException {
+        return new ModuleBuilder().buildInt(cfg, classLoader, runtime, parallelBuilder, startupReport);
     }
 
-    private Module buildInt(ModuleConfig cfg, ClassLoader classLoader, LilyRuntime runtime) throws ArtifactNotFoundException, MalformedURLException {
+    private Module buildInt(ModuleConfig cfg, ClassLoader classLoader, LilyRuntime runtime,
+            ParallelModuleBuilder parallelBuilder, StartupReport startupReport) throws ArtifactNotFoundException, MalformedURLException {
         infolog.info("Starting module " + cfg.getId() + " - " + cfg.getLocation());
+        long buildStart = System.nanoTime();
         ClassLoader previousContextClassLoader = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(classLoader);
@@ -61,12 +67,18 @@ public class ModuleBuilder {
             applicationContext.setDisplayName(cfg.getId());
             applicationContext.setClassLoader(classLoader);
 
+            StartupReport.BeanTimer beanTimer = null;
+            if (startupReport.isEnabled()) {
+                beanTimer = startupReport.createBeanTimer();
+                applicationContext.getBeanFactory().addBeanPostProcessor(beanTimer);
+            }
+
             // Note: before loading any beans in the spring container:
             //   * the spring build context needs access to the module, for possible injection & module-protocol resolving during bean initialization
             //   * the module also needs to have the reference to the applicationcontext, as there might be beans trying to get while initializing
             ModuleImpl module = new ModuleImpl(classLoader, applicationContext, cfg.getDefinition(), cfg.getModuleSource());
 
-            SpringBuildContext springBuildContext = new SpringBuildContext(runtime, module, classLoader);
+            SpringBuildContext springBuildContext = new SpringBuildContext(runtime, module, classLoader, parallelBuilder);
             SPRING_BUILD_CONTEXT.set(springBuildContext);
 
             XmlBeanDefinitionReader xmlReader = new XmlBeanDefinitionReader(applicationContext);
@@ -108,6 +120,7 @@ public class ModuleBuilder {
             }
 
             module.start();
+            startupReport.moduleStarted(cfg.getId(), buildStart, beanTimer);
             return module;
         } catch (Throwable e) {
             // TODO module source and classloader handle might need disposing!
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime.module.build;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.runtime.LilyRTException;
+import org.lilyproject.runtime.LilyRuntime;
+import org.lilyproject.runtime.module.Module;
+import org.lilyproject.runtime.module.ModuleConfig;
+import org.lilyproject.runtime.module.javaservice.AmbiguousServiceIdentificationException;
+import org.lilyproject.runtime.module.javaservice.NoSuchServiceException;
+import org.lilyproject.runtime.rapi.ModuleSource;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.io.IOUtils;
+import org.lilyproject.util.xml.DocumentHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Starts the modules using multiple threads, as an alternative to starting them one by one with
+ * {@link ModuleBuilder}.
+ *
+ * <p>The services a module imports are only known while its Spring configuration is being read, so
+ * the dependencies between the modules can not be determined upfront. Instead, the exported services are
+ * collected from the Spring configurations of all modules before starting them, and a module which imports
+ * a service waits for the module exporting it (see {@link LilyRuntimeNamespaceHandler}).</p>
+ *
+ * <p>The outcome is the same as when starting the modules one by one: a module can only import services
+ * from modules defined before it. Hence modules never wait on each other in a cycle. Since the modules are
+ * taken up in the order of their definition, a module is also never waiting on a module for which no
+ * thread is available.</p>
+ */
+public class ParallelModuleBuilder {
+    private static final String SPRINGEXT_NAMESPACE = "http://lilyproject.org/runtime/1.0#springext";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final List<ModuleConfig> moduleConfigs;
+    private final StartupReport startupReport;
+    private final Map<String, Integer> moduleIndexes = new HashMap<String, Integer>();
+    private final List<ModuleState> moduleStates = new ArrayList<ModuleState>();
+    /** Ids of the modules exporting each service type, in the order of the modules. */
+    private final Map<String, List<String>> serviceExporters = new HashMap<String, List<String>>();
+    private volatile boolean aborted;
+
+    private ParallelModuleBuilder(List<ModuleConfig> moduleConfigs, StartupReport startupReport) {
+        this.moduleConfigs = moduleConfigs;
+        this.startupReport = startupReport;
+    }
+
+    /**
+     * Starts the modules, and adds the started ones to the given list, in the order in which they are defined.
+     * In case a module fails to start, the modules which did not start yet are skipped and the first failure
+     * is thrown, after adding the modules which did start to the list.
+     */
+    public static void build(List<ModuleConfig> moduleConfigs, List<ClassLoader> classLoaders, LilyRuntime runtime,
+            int threads, StartupReport startupReport, List<Module> modules) {
+        new ParallelModuleBuilder(moduleConfigs, startupReport).buildInt(classLoaders, runtime, threads, modules);
+    }
+
+    private void buildInt(final List<ClassLoader> classLoaders, final LilyRuntime runtime, int threads,
+            List<Module> modules) {
+        for (int i = 0; i < moduleConfigs.size(); i++) {
+            ModuleConfig cfg = moduleConfigs.get(i);
+            moduleIndexes.put(cfg.getId(), i);
+            moduleStates.add(new ModuleState());
+            collectExports(cfg, runtime);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, moduleConfigs.size()),
+                new CustomThreadFactory("lily-module-startup", null, true));
+        try {
+            for (int i = 0; i < moduleConfigs.size(); i++) {
+                final int index = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        buildModule(index, classLoaders.get(index), runtime);
+                    }
+                });
+            }
+
+            for (ModuleState state : moduleStates) {
+                state.done.await();
+            }
+        } catch (InterruptedException e) {
+            aborted = true;
+            Thread.currentThread().interrupt();
+            throw new LilyRTException("Interrupted while starting the modules.", e);
+        } finally {
+            executor.shutdown();
+        }
+
+        Throwable failure = null;
+        for (ModuleState state : moduleStates) {
+            if (state.module != null) {
+                modules.add(state.module);
+            } else if (failure == null) {
+                failure = state.failure;
+            }
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure instanceof Error) {
+            throw (Error)failure;
+        } else if (failure != null) {
+            throw new LilyRTException("Error starting the modules.", failure);
+        }
+    }
+
+    private void buildModule(int index, ClassLoader classLoader, LilyRuntime runtime) {
+        ModuleConfig cfg = moduleConfigs.get(index);
+        ModuleState state = moduleStates.get(index);
+        try {
+            if (aborted) {
+                state.failure = new LilyRTException("Module " + cfg.getId() + " not started because another module failed to start.");
+            } else {
+                state.module = ModuleBuilder.build(cfg, classLoader, runtime, this, startupReport);
+            }
+        } catch (Throwable t) {
+            aborted = true;
+            state.failure = t;
+        } finally {
+            state.done.countDown();
+        }
+    }
+
+    /**
+     * Collects the services exported by the module by looking for the export-service elements in its Spring
+     * configuration.
+     */
+    private void collectExports(ModuleConfig cfg, LilyRuntime runtime) {
+        for (ModuleSource.SpringConfigEntry entry : cfg.getModuleSource().getSpringConfigs(runtime.getMode())) {
+            InputStream is = null;
+            try {
+                is = entry.getStream();
+                Document document = DocumentHelper.parse(is);
+                NodeList exports = document.getElementsByTagNameNS(SPRINGEXT_NAMESPACE, "export-service");
+                for (int i = 0; i < exports.getLength(); i++) {
+                    String serviceType = ((Element)exports.item(i)).getAttribute("service");
+                    List<String> exporters = serviceExporters.get(serviceType);
+                    if (exporters == null) {
+                        exporters = new ArrayList<String>();
+                        serviceExporters.put(serviceType, exporters);
+                    }
+                    if (!exporters.contains(cfg.getId())) {
+                        exporters.add(cfg.getId());
+                    }
+                }
+            } catch (Exception e) {
+                throw new LilyRTException("Error reading the exported services from " + entry.getLocation() + " in "
+                        + cfg.getDefinition().getFile().getAbsolutePath(), e);
+            } finally {
+                IOUtils.closeQuietly(is, entry.getLocation());
+            }
+        }
+    }
+
+    /**
+     * Waits until the module exporting the service imported by the given module has been started.
+     *
+     * @return the id of the module exporting the service
+     */
+    String awaitServiceExporter(String moduleId, Class serviceType) throws InterruptedException {
+        int index = moduleIndexes.get(moduleId);
+        String exporterId = null;
+        List<String> exporters = serviceExporters.get(serviceType.getName());
+        if (exporters != null) {
+            for (String candidateId : exporters) {
+                if (moduleIndexes.get(candidateId) < index) {
+                    if (exporterId != null) {
+                        throw new AmbiguousServiceIdentificationException(serviceType.getName());
+                    }
+                    exporterId = candidateId;
+                }
+            }
+        }
+
+        if (exporterId == null) {
+            throw new NoSuchServiceException(serviceType.getName());
+        }
+
+        awaitModule(moduleId, serviceType, exporterId);
+        return exporterId;
+    }
+
+    /**
+     * Waits until the given module, from which a service is imported, has been started.
+     */
+    void awaitModule(String moduleId, Class serviceType, String exporterId) throws InterruptedException {
+        Integer exporterIndex = moduleIndexes.get(exporterId);
+        if (exporterIndex == null || exporterIndex >= moduleIndexes.get(moduleId)) {
+            // Only services of the modules defined before this one are available
+            throw new NoSuchServiceException(serviceType.getName(), exporterId);
+        }
+
+        ModuleState exporter = moduleStates.get(exporterIndex);
+        if (exporter.done.getCount() > 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Module " + moduleId + " waits for module " + exporterId + " to import "
+                        + serviceType.getName());
+            }
+            long before = System.nanoTime();
+            exporter.done.await();
+            startupReport.addImportWait(moduleId, System.nanoTime() - before);
+        }
+
+        if (exporter.module == null) {
+            throw new LilyRTException("Module " + exporterId + ", from which module " + moduleId
+                    + " imports " + serviceType.getName() + ", failed to start.");
+        }
+    }
+
+    private static class ModuleState {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Module module;
+        private volatile Throwable failure;
+    }
+}
@@ -32,11 +32,14 @@ public class SpringBuildContext {
     private LilyRuntime runtime;
     private ClassLoader moduleClassLoader;
     private Module module;
+    private ParallelModuleBuilder parallelBuilder;
 
-    public SpringBuildContext(LilyRuntime runtime, Module module, ClassLoader moduleClassLoader) {
+    public SpringBuildContext(LilyRuntime runtime, Module module, ClassLoader moduleClassLoader,
+            ParallelModuleBuilder parallelBuilder) {
         this.runtime = runtime;
         this.module = module;
         this.moduleClassLoader = moduleClassLoader;
+        this.parallelBuilder = parallelBuilder;
     }
 
     public LilyRuntime getRuntime() {
@@ -70,4 +73,11 @@ public class SpringBuildContext {
     public ClassLoader getModuleClassLoader() {
         return moduleClassLoader;
     }
+
+    /**
+     * Returns the builder starting the modules in parallel, or null if the modules are started one by one.
+     */
+    public ParallelModuleBuilder getParallelBuilder() {
+        return parallelBuilder;
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime.module.build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.runtime.LilyRuntime;
+import org.lilyproject.runtime.module.ModuleConfig;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+
+/**
+ * Collects the time spent starting each module and the beans in it, and logs it to the
+ * {@link LilyRuntime#STARTUP_REPORT_CATEGORY} log category. Nothing is collected if that
+ * category is not enabled for info.
+ */
+public class StartupReport {
+    /**
+     * Number of beans listed per module, the slowest ones first.
+     */
+    private static final int MAX_BEANS_PER_MODULE = 10;
+
+    private final Log reportLog = LogFactory.getLog(LilyRuntime.STARTUP_REPORT_CATEGORY);
+    private final boolean enabled = reportLog.isInfoEnabled();
+    private final Map<String, ModuleTiming> moduleTimings = new HashMap<String, ModuleTiming>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns a post processor which measures the time spent creating each bean, from its instantiation until
+     * it is fully initialized. This includes the time spent creating the beans it depends on.
+     */
+    BeanTimer createBeanTimer() {
+        return new BeanTimer();
+    }
+
+    synchronized void moduleStarted(String moduleId, long buildStartNanos, BeanTimer beanTimer) {
+        ModuleTiming timing = getModuleTiming(moduleId);
+        timing.buildNanos = System.nanoTime() - buildStartNanos;
+        if (beanTimer != null) {
+            timing.beanNanos = beanTimer.beanNanos;
+        }
+    }
+
+    synchronized void addImportWait(String moduleId, long waitNanos) {
+        getModuleTiming(moduleId).waitNanos += waitNanos;
+    }
+
+    private ModuleTiming getModuleTiming(String moduleId) {
+        ModuleTiming timing = moduleTimings.get(moduleId);
+        if (timing == null) {
+            timing = new ModuleTiming();
+            moduleTimings.put(moduleId, timing);
+        }
+        return timing;
+    }
+
+    public synchronized void log(List<ModuleConfig> moduleConfigs, int threads, long startNanos) {
+        if (!enabled) {
+            return;
+        }
+
+        reportLog.info("Started " + moduleConfigs.size() + " modules in " + toMillis(System.nanoTime() - startNanos)
+                + " ms using " + threads + " thread(s)");
+
+        for (ModuleConfig moduleConfig : moduleConfigs) {
+            ModuleTiming timing = moduleTimings.get(moduleConfig.getId());
+            if (timing == null) {
+                continue;
+            }
+
+            reportLog.info("Module " + moduleConfig.getId() + ": " + toMillis(timing.buildNanos) + " ms, of which "
+                    + toMillis(timing.waitNanos) + " ms waiting for imported services");
+
+            List<Map.Entry<String, Long>> beans = new ArrayList<Map.Entry<String, Long>>(timing.beanNanos.entrySet());
+            Collections.sort(beans, new Comparator<Map.Entry<String, Long>>() {
+                @Override
+                public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                    return o2.getValue().compareTo(o1.getValue());
+                }
+            });
+            for (Map.Entry<String, Long> bean : beans.subList(0, Math.min(beans.size(), MAX_BEANS_PER_MODULE))) {
+                reportLog.info("  -> " + bean.getKey() + ": " + toMillis(bean.getValue()) + " ms");
+            }
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static class ModuleTiming {
+        long buildNanos;
+        long waitNanos;
+        Map<String, Long> beanNanos = Collections.emptyMap();
+    }
+
+    static class BeanTimer extends InstantiationAwareBeanPostProcessorAdapter {
+        // Beans are normally created by the thread starting the module, but beans might get looked up
+        // from other threads while the module is being started
+        private final Map<String, Long> beanStarts = new ConcurrentHashMap<String, Long>();
+        private final Map<String, Long> beanNanos = new ConcurrentHashMap<String, Long>();
+
+        @Override
+        public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) throws BeansException {
+            beanStarts.put(beanName, System.nanoTime());
+            return null;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            // Also called for the objects created by factory beans, for which there is no start time
+            Long start = beanStarts.remove(beanName);
+            if (start != null) {
+                beanNanos.put(beanName, System.nanoTime() - start);
+            }
+            return bean;
+        }
+    }
+}
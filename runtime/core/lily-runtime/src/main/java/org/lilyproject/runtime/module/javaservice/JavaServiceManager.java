@@ -25,11 +25,13 @@ import org.lilyproject.util.ArgumentValidator;
 
 /**
  * Manages the registry of Java services.
+ *
+ * <p>This class is thread-safe, since modules can be started in parallel.</p>
  */
 public class JavaServiceManager {
     private Map<Class, List<ServiceData>> serviceRegistry = new HashMap<Class, List<ServiceData>>();
 
-    public void addService(Class type, String moduleId, String name, Object service) {
+    public synchronized void addService(Class type, String moduleId, String name, Object service) {
         ArgumentValidator.notNull(type, "type");
         ArgumentValidator.notNull(moduleId, "moduleId");
         ArgumentValidator.notNull(name, "name");
@@ -42,7 +44,6 @@ public class JavaServiceManager {
             throw new ServiceConfigurationException("The provided service object does not implement the interface " + type.getName());
         }
 
-        // By current design/usage, updates and reads will never be concurrent
         List<ServiceData> serviceDatas = serviceRegistry.get(type);
         if (serviceDatas == null) {
             serviceDatas = new ArrayList<ServiceData>();
@@ -56,7 +57,7 @@ public class JavaServiceManager {
         serviceDatas.add(new ServiceData(moduleId, name, service));
     }
 
-    public Object getService(Class type) {
+    public synchronized Object getService(Class type) {
         List<ServiceData> serviceDatas = getServiceDatas(type);
 
         if (serviceDatas.size() != 1) {
@@ -66,7 +67,7 @@ public class JavaServiceManager {
         return serviceDatas.get(0).service;
     }
 
-    public Object getService(Class type, String moduleId) {
+    public synchronized Object getService(Class type, String moduleId) {
         List<ServiceData> serviceDatas = getServiceDatas(type);
 
         serviceDatas = findServiceDatas(serviceDatas, moduleId);
@@ -80,7 +81,7 @@ public class JavaServiceManager {
         return serviceDatas.get(0).service;
     }
 
-    public Object getService(Class type, String moduleId, String name) {
+    public synchronized Object getService(Class type, String moduleId, String name) {
         List<ServiceData> serviceDatas = getServiceDatas(type);
 
         ServiceData serviceData = findServiceData(serviceDatas, moduleId, name);
@@ -130,7 +131,7 @@ public class JavaServiceManager {
         }
     }
 
-    public void stop() {
+    public synchronized void stop() {
         serviceRegistry.clear();
     }
 }
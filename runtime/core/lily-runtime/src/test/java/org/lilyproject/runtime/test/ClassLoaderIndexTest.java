@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+import org.lilyproject.runtime.classloading.ClassLoaderIndex;
+import org.lilyproject.runtime.classloading.IndexedClassLoader;
+
+public class ClassLoaderIndexTest extends TestCase {
+    private File tmpDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        tmpDir = File.createTempFile("classloaderindex", "test");
+        tmpDir.delete();
+        tmpDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDir(tmpDir);
+    }
+
+    public void testIndex() throws Exception {
+        File jar1 = createJar("jar1.jar", "org/foo/a.txt", "org/foo/bar/b.txt", "root.txt");
+        File jar2 = createJar("jar2.jar", "org/foo/c.txt");
+        File indexDir = new File(tmpDir, "index");
+
+        ClassLoaderIndex index = ClassLoaderIndex.build(Arrays.asList(jar1, jar2), indexDir);
+        assertTrue(index.isComplete());
+        assertEquals(Arrays.asList(jar1, jar2), Arrays.asList(index.getJars("org/foo/x.txt")));
+        assertEquals(Collections.singletonList(jar1), Arrays.asList(index.getJars("org/foo/bar/b.txt")));
+        assertEquals(Collections.singletonList(jar1), Arrays.asList(index.getJars("root.txt")));
+        assertEquals(0, index.getJars("org/other/x.txt").length);
+
+        // The index is stored, and rebuilt for jars which changed
+        assertEquals(1, indexDir.listFiles().length);
+        createJar("jar2.jar", "org/other/d.txt");
+        jar2.setLastModified(jar2.lastModified() + 2000);
+        index = ClassLoaderIndex.build(Arrays.asList(jar1, jar2), indexDir);
+        assertEquals(Collections.singletonList(jar1), Arrays.asList(index.getJars("org/foo/x.txt")));
+        assertEquals(Collections.singletonList(jar2), Arrays.asList(index.getJars("org/other/x.txt")));
+
+        // Directories are not indexed
+        assertFalse(ClassLoaderIndex.build(Arrays.asList(jar1, tmpDir), indexDir).isComplete());
+    }
+
+    public void testIndexedClassLoader() throws Exception {
+        File jar1 = createJar("jar1.jar", "org/foo/a.txt", "org/foo/c.txt");
+        File jar2 = createJar("jar2.jar", "org/foo/c.txt");
+        List<File> files = Arrays.asList(jar1, jar2);
+
+        Map<File, URL> jarUrls = new HashMap<File, URL>();
+        for (File file : files) {
+            jarUrls.put(file, file.toURI().toURL());
+        }
+        URL[] urls = new URL[] {jarUrls.get(jar1), jarUrls.get(jar2)};
+        IndexedClassLoader classLoader = new IndexedClassLoader(urls, jarUrls,
+                ClassLoaderIndex.build(files, null), null);
+
+        assertNotNull(classLoader.getResource("org/foo/a.txt"));
+        assertNull(classLoader.getResource("org/foo/b.txt"));
+        assertEquals(2, Collections.list(classLoader.getResources("org/foo/c.txt")).size());
+        assertTrue(classLoader.getResource("org/foo/c.txt").toString().contains("jar1.jar"));
+
+        try {
+            classLoader.loadClass("org.foo.Missing");
+            fail("Expected ClassNotFoundException");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+    }
+
+    public void testCloseIndexedClassLoader() throws Exception {
+        File jar = createJar("jar1.jar", "org/foo/a.txt");
+        Map<File, URL> jarUrls = Collections.singletonMap(jar, jar.toURI().toURL());
+        IndexedClassLoader classLoader = new IndexedClassLoader(new URL[] {jarUrls.get(jar)}, jarUrls,
+                ClassLoaderIndex.build(Collections.singletonList(jar), null), null);
+        assertNotNull(classLoader.getResource("org/foo/a.txt"));
+
+        // The jar is opened again when needed after closing
+        classLoader.close();
+        assertNotNull(classLoader.getResource("org/foo/a.txt"));
+        classLoader.close();
+    }
+
+    private File createJar(String name, String... entries) throws IOException {
+        File jar = new File(tmpDir, name);
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (String entry : entries) {
+                os.putNextEntry(new JarEntry(entry));
+                os.write(entry.getBytes("UTF-8"));
+                os.closeEntry();
+            }
+        } finally {
+            os.close();
+        }
+        return jar;
+    }
+
+    private void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}